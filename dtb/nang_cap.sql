@@ -0,0 +1,682 @@
+SET client_encoding TO 'UTF8';
+
+-- Nâng cấp database đã tạo từ phiên bản them_bang.sql cũ.
+-- Các lệnh đều idempotent, có thể chạy lại nhiều lần.
+
+-- ==================================================================================================
+-- Sinh phiếu thu theo phân vùng
+
+-- Kiểm tra phiếu thu trùng (maHo, maDot) trước khi tạo unique index; cần xử lý tay nếu có kết quả:
+-- SELECT maHo, maDot, COUNT(*) FROM PhieuThu GROUP BY maHo, maDot HAVING COUNT(*) > 1;
+CREATE UNIQUE INDEX IF NOT EXISTS uk_phieuthu_maho_madot ON PhieuThu (maHo, maDot);
+
+CREATE TABLE IF NOT EXISTS PhieuThuCheckpoint (
+    maDot INT NOT NULL REFERENCES DotThu(id) ON DELETE CASCADE,
+    phongTu INT NOT NULL,
+    phongDen INT NOT NULL,
+    soPhieu INT NOT NULL DEFAULT 0,
+    hoanThanhLuc TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (maDot, phongTu)
+);
+
+-- ==================================================================================================
+-- Phân trang danh sách phiếu thu theo khóa (ORDER BY id DESC) kèm bộ lọc
+
+DROP INDEX IF EXISTS idx_phieuthu_maho;
+CREATE INDEX IF NOT EXISTS idx_phieuthu_maho ON PhieuThu(maHo, id);
+CREATE INDEX IF NOT EXISTS idx_phieuthu_madot_id ON PhieuThu(maDot, id);
+CREATE INDEX IF NOT EXISTS idx_phieuthu_trangthai_id ON PhieuThu(trangThai, id);
+
+-- ==================================================================================================
+-- Số liệu tổng hợp cho dashboard, cập nhật tăng dần bằng trigger cấp câu lệnh (transition table)
+
+-- Bộ đếm tổng: mỗi chỉ số chia thành nhiều mảnh (manh = pg_backend_pid() % 16) để các transaction
+-- ghi song song (sinh phiếu thu theo phân vùng...) không tranh nhau khóa một dòng. Giá trị = SUM theo chiSo.
+CREATE TABLE IF NOT EXISTS ThongKeTongHop (
+    chiSo VARCHAR(50) NOT NULL,
+    manh SMALLINT NOT NULL DEFAULT 0,
+    giaTri DECIMAL(16,2) NOT NULL DEFAULT 0,
+    PRIMARY KEY (chiSo, manh)
+);
+
+-- Doanh thu (phiếu đã thu) theo tháng lập phiếu; thang = ngày đầu tháng
+CREATE TABLE IF NOT EXISTS DoanhThuThang (
+    thang DATE PRIMARY KEY,
+    tongTien DECIMAL(16,2) NOT NULL DEFAULT 0
+);
+
+CREATE OR REPLACE FUNCTION fn_ThongKe_Cong(p_chi_so VARCHAR, p_delta DECIMAL)
+RETURNS VOID AS $$
+BEGIN
+    IF p_delta IS NULL OR p_delta = 0 THEN
+        RETURN;
+    END IF;
+    INSERT INTO ThongKeTongHop (chiSo, manh, giaTri)
+    VALUES (p_chi_so, pg_backend_pid() % 16, p_delta)
+    ON CONFLICT (chiSo, manh) DO UPDATE SET giaTri = ThongKeTongHop.giaTri + EXCLUDED.giaTri;
+END;
+$$ LANGUAGE plpgsql;
+
+-- HoGiaDinh: số hộ đang ở
+CREATE OR REPLACE FUNCTION fn_ThongKe_HoGiaDinh()
+RETURNS TRIGGER AS $$
+DECLARE
+    v_delta BIGINT := 0;
+BEGIN
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        SELECT v_delta + COUNT(*) INTO v_delta FROM new_rows WHERE trangThai = 'DangO';
+    END IF;
+    IF TG_OP IN ('UPDATE', 'DELETE') THEN
+        SELECT v_delta - COUNT(*) INTO v_delta FROM old_rows WHERE trangThai = 'DangO';
+    END IF;
+    PERFORM fn_ThongKe_Cong('soHoDangO', v_delta);
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- NhanKhau: số nhân khẩu cư trú + tạm trú
+CREATE OR REPLACE FUNCTION fn_ThongKe_NhanKhau()
+RETURNS TRIGGER AS $$
+DECLARE
+    v_delta BIGINT := 0;
+BEGIN
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        SELECT v_delta + COUNT(*) INTO v_delta FROM new_rows WHERE tinhTrang IN ('CuTru', 'TamTru');
+    END IF;
+    IF TG_OP IN ('UPDATE', 'DELETE') THEN
+        SELECT v_delta - COUNT(*) INTO v_delta FROM old_rows WHERE tinhTrang IN ('CuTru', 'TamTru');
+    END IF;
+    PERFORM fn_ThongKe_Cong('soNhanKhau', v_delta);
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- PhieuThu: số phiếu, doanh thu (DaThu), công nợ (khác DaThu) và doanh thu theo tháng
+CREATE OR REPLACE FUNCTION fn_ThongKe_PhieuThu()
+RETURNS TRIGGER AS $$
+DECLARE
+    v_so_phieu BIGINT := 0;
+    v_doanh_thu DECIMAL(16,2) := 0;
+    v_cong_no DECIMAL(16,2) := 0;
+BEGIN
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        SELECT v_so_phieu + COUNT(*),
+               v_doanh_thu + COALESCE(SUM(tongTien) FILTER (WHERE trangThai = 'DaThu'), 0),
+               v_cong_no + COALESCE(SUM(tongTien) FILTER (WHERE trangThai <> 'DaThu'), 0)
+        INTO v_so_phieu, v_doanh_thu, v_cong_no
+        FROM new_rows;
+
+        INSERT INTO DoanhThuThang (thang, tongTien)
+        SELECT CAST(date_trunc('month', ngayLap) AS DATE), SUM(tongTien)
+        FROM new_rows
+        WHERE trangThai = 'DaThu' AND ngayLap IS NOT NULL AND tongTien IS NOT NULL
+        GROUP BY 1
+        ON CONFLICT (thang) DO UPDATE SET tongTien = DoanhThuThang.tongTien + EXCLUDED.tongTien;
+    END IF;
+    IF TG_OP IN ('UPDATE', 'DELETE') THEN
+        SELECT v_so_phieu - COUNT(*),
+               v_doanh_thu - COALESCE(SUM(tongTien) FILTER (WHERE trangThai = 'DaThu'), 0),
+               v_cong_no - COALESCE(SUM(tongTien) FILTER (WHERE trangThai <> 'DaThu'), 0)
+        INTO v_so_phieu, v_doanh_thu, v_cong_no
+        FROM old_rows;
+
+        INSERT INTO DoanhThuThang (thang, tongTien)
+        SELECT CAST(date_trunc('month', ngayLap) AS DATE), -SUM(tongTien)
+        FROM old_rows
+        WHERE trangThai = 'DaThu' AND ngayLap IS NOT NULL AND tongTien IS NOT NULL
+        GROUP BY 1
+        ON CONFLICT (thang) DO UPDATE SET tongTien = DoanhThuThang.tongTien + EXCLUDED.tongTien;
+    END IF;
+    PERFORM fn_ThongKe_Cong('soPhieuThu', v_so_phieu);
+    PERFORM fn_ThongKe_Cong('doanhThu', v_doanh_thu);
+    PERFORM fn_ThongKe_Cong('congNo', v_cong_no);
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Transition table chỉ khai báo được cho trigger một sự kiện: mỗi bảng 3 trigger dùng chung một hàm
+DROP TRIGGER IF EXISTS trg_ThongKe_HoGiaDinh_Insert ON HoGiaDinh;
+CREATE TRIGGER trg_ThongKe_HoGiaDinh_Insert AFTER INSERT ON HoGiaDinh
+REFERENCING NEW TABLE AS new_rows
+FOR EACH STATEMENT EXECUTE FUNCTION fn_ThongKe_HoGiaDinh();
+DROP TRIGGER IF EXISTS trg_ThongKe_HoGiaDinh_Update ON HoGiaDinh;
+CREATE TRIGGER trg_ThongKe_HoGiaDinh_Update AFTER UPDATE ON HoGiaDinh
+REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+FOR EACH STATEMENT EXECUTE FUNCTION fn_ThongKe_HoGiaDinh();
+DROP TRIGGER IF EXISTS trg_ThongKe_HoGiaDinh_Delete ON HoGiaDinh;
+CREATE TRIGGER trg_ThongKe_HoGiaDinh_Delete AFTER DELETE ON HoGiaDinh
+REFERENCING OLD TABLE AS old_rows
+FOR EACH STATEMENT EXECUTE FUNCTION fn_ThongKe_HoGiaDinh();
+
+DROP TRIGGER IF EXISTS trg_ThongKe_NhanKhau_Insert ON NhanKhau;
+CREATE TRIGGER trg_ThongKe_NhanKhau_Insert AFTER INSERT ON NhanKhau
+REFERENCING NEW TABLE AS new_rows
+FOR EACH STATEMENT EXECUTE FUNCTION fn_ThongKe_NhanKhau();
+DROP TRIGGER IF EXISTS trg_ThongKe_NhanKhau_Update ON NhanKhau;
+CREATE TRIGGER trg_ThongKe_NhanKhau_Update AFTER UPDATE ON NhanKhau
+REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+FOR EACH STATEMENT EXECUTE FUNCTION fn_ThongKe_NhanKhau();
+DROP TRIGGER IF EXISTS trg_ThongKe_NhanKhau_Delete ON NhanKhau;
+CREATE TRIGGER trg_ThongKe_NhanKhau_Delete AFTER DELETE ON NhanKhau
+REFERENCING OLD TABLE AS old_rows
+FOR EACH STATEMENT EXECUTE FUNCTION fn_ThongKe_NhanKhau();
+
+DROP TRIGGER IF EXISTS trg_ThongKe_PhieuThu_Insert ON PhieuThu;
+CREATE TRIGGER trg_ThongKe_PhieuThu_Insert AFTER INSERT ON PhieuThu
+REFERENCING NEW TABLE AS new_rows
+FOR EACH STATEMENT EXECUTE FUNCTION fn_ThongKe_PhieuThu();
+DROP TRIGGER IF EXISTS trg_ThongKe_PhieuThu_Update ON PhieuThu;
+CREATE TRIGGER trg_ThongKe_PhieuThu_Update AFTER UPDATE ON PhieuThu
+REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+FOR EACH STATEMENT EXECUTE FUNCTION fn_ThongKe_PhieuThu();
+DROP TRIGGER IF EXISTS trg_ThongKe_PhieuThu_Delete ON PhieuThu;
+CREATE TRIGGER trg_ThongKe_PhieuThu_Delete AFTER DELETE ON PhieuThu
+REFERENCING OLD TABLE AS old_rows
+FOR EACH STATEMENT EXECUTE FUNCTION fn_ThongKe_PhieuThu();
+
+-- Đối soát: tính lại từ bảng gốc, ghi đè bộ đếm (gộp các mảnh về mảnh 0) và trả về các chỉ số bị lệch.
+-- Khóa SHARE ROW EXCLUSIVE chờ các transaction đang ghi bộ đếm commit xong và chặn transaction mới
+-- ghi bộ đếm cho tới khi đối soát xong, nên giá trị tính lại khớp đúng với các delta trước/sau nó.
+CREATE OR REPLACE FUNCTION fn_ThongKe_DoiSoat()
+RETURNS TABLE (r_chi_so VARCHAR, r_gia_tri_cu DECIMAL, r_gia_tri_dung DECIMAL) AS $$
+DECLARE
+    v_dung RECORD;
+    v_cu DECIMAL(16,2);
+    v_thang RECORD;
+BEGIN
+    LOCK TABLE ThongKeTongHop, DoanhThuThang IN SHARE ROW EXCLUSIVE MODE;
+
+    FOR v_dung IN
+        SELECT CAST('soHoDangO' AS VARCHAR) AS k, CAST(COUNT(*) AS DECIMAL(16,2)) AS v
+            FROM HoGiaDinh WHERE trangThai = 'DangO'
+        UNION ALL
+        SELECT 'soNhanKhau', COUNT(*) FROM NhanKhau WHERE tinhTrang IN ('CuTru', 'TamTru')
+        UNION ALL
+        SELECT 'soPhieuThu', COUNT(*) FROM PhieuThu
+        UNION ALL
+        SELECT 'doanhThu', COALESCE(SUM(tongTien), 0) FROM PhieuThu WHERE trangThai = 'DaThu'
+        UNION ALL
+        SELECT 'congNo', COALESCE(SUM(tongTien), 0) FROM PhieuThu WHERE trangThai <> 'DaThu'
+    LOOP
+        SELECT COALESCE(SUM(t.giaTri), 0) INTO v_cu FROM ThongKeTongHop t WHERE t.chiSo = v_dung.k;
+        DELETE FROM ThongKeTongHop t WHERE t.chiSo = v_dung.k;
+        INSERT INTO ThongKeTongHop (chiSo, manh, giaTri) VALUES (v_dung.k, 0, v_dung.v);
+        IF v_cu <> v_dung.v THEN
+            r_chi_so := v_dung.k;
+            r_gia_tri_cu := v_cu;
+            r_gia_tri_dung := v_dung.v;
+            RETURN NEXT;
+        END IF;
+    END LOOP;
+
+    FOR v_thang IN
+        SELECT COALESCE(d.thang, h.thang) AS thang, COALESCE(h.tongTien, 0) AS cu, COALESCE(d.tongTien, 0) AS dung
+        FROM (
+            SELECT CAST(date_trunc('month', p.ngayLap) AS DATE) AS thang, SUM(p.tongTien) AS tongTien
+            FROM PhieuThu p
+            WHERE p.trangThai = 'DaThu' AND p.ngayLap IS NOT NULL AND p.tongTien IS NOT NULL
+            GROUP BY 1
+        ) d
+        FULL JOIN DoanhThuThang h ON h.thang = d.thang
+        WHERE COALESCE(h.tongTien, 0) <> COALESCE(d.tongTien, 0)
+    LOOP
+        INSERT INTO DoanhThuThang (thang, tongTien) VALUES (v_thang.thang, v_thang.dung)
+        ON CONFLICT (thang) DO UPDATE SET tongTien = EXCLUDED.tongTien;
+        r_chi_so := 'doanhThuThang:' || to_char(v_thang.thang, 'YYYY-MM');
+        r_gia_tri_cu := v_thang.cu;
+        r_gia_tri_dung := v_thang.dung;
+        RETURN NEXT;
+    END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Khởi tạo số liệu từ dữ liệu hiện có
+SELECT * FROM fn_ThongKe_DoiSoat();
+
+-- ==================================================================================================
+-- Sổ công nợ: một dòng cho mỗi (hộ, đợt thu) cần theo dõi, thay cho HoGiaDinh CROSS JOIN DotThu khi báo cáo
+
+-- Gồm: mọi phiếu thu, và các cặp (hộ đang ở, đợt thu) chưa có phiếu (maPhieu NULL).
+-- soPhong/dangO sao chép từ HoGiaDinh, ngayLap/tongTien/daThu sao chép từ PhieuThu; trigger bên dưới giữ đồng bộ.
+CREATE TABLE IF NOT EXISTS SoCongNo (
+    maHo INT NOT NULL REFERENCES HoGiaDinh(id) ON DELETE CASCADE,
+    maDot INT NOT NULL REFERENCES DotThu(id) ON DELETE CASCADE,
+    soPhong INT,
+    dangO BOOLEAN NOT NULL DEFAULT TRUE,
+    maPhieu INT,
+    ngayLap TIMESTAMP,
+    tongTien DECIMAL(14,2) NOT NULL DEFAULT 0,
+    daThu BOOLEAN NOT NULL DEFAULT FALSE,
+    PRIMARY KEY (maHo, maDot)
+);
+
+-- Báo cáo công nợ (hộ đang ở chưa nộp), lọc theo đợt và sắp theo (maDot DESC, soPhong) ngay trên index
+CREATE INDEX IF NOT EXISTS idx_socongno_no_theo_dot ON SoCongNo (maDot DESC, soPhong)
+WHERE dangO AND NOT daThu;
+
+-- Danh sách phiếu chưa thu, mới nhất trước
+CREATE INDEX IF NOT EXISTS idx_socongno_phieu_chua_thu ON SoCongNo (ngayLap DESC)
+WHERE maPhieu IS NOT NULL AND NOT daThu;
+
+-- Phiếu chưa thu thiếu hộ hoặc đợt (không có dòng trong sổ công nợ), đọc kèm danh sách trên
+CREATE INDEX IF NOT EXISTS idx_phieuthu_chua_thu_mo_coi ON PhieuThu (ngayLap DESC)
+WHERE (maHo IS NULL OR maDot IS NULL) AND trangThai <> 'DaThu';
+
+-- Đồng bộ các hộ trong p_ma_ho theo trạng thái hiện tại trong HoGiaDinh
+CREATE OR REPLACE FUNCTION fn_SoCongNo_CapNhatHo(p_ma_ho INT[])
+RETURNS VOID AS $$
+BEGIN
+    IF p_ma_ho IS NULL OR cardinality(p_ma_ho) = 0 THEN
+        RETURN;
+    END IF;
+
+    -- Hộ đang ở: có một dòng cho mỗi đợt thu
+    INSERT INTO SoCongNo (maHo, maDot, soPhong, dangO)
+    SELECT h.id, d.id, h.soPhong, TRUE
+    FROM HoGiaDinh h CROSS JOIN DotThu d
+    WHERE h.id = ANY(p_ma_ho) AND h.trangThai = 'DangO'
+    ON CONFLICT (maHo, maDot) DO UPDATE SET dangO = TRUE, soPhong = EXCLUDED.soPhong;
+
+    -- Hộ chuyển đi / đổi phòng
+    UPDATE SoCongNo l
+    SET dangO = COALESCE(h.trangThai = 'DangO', FALSE), soPhong = h.soPhong
+    FROM HoGiaDinh h
+    WHERE l.maHo = h.id AND h.id = ANY(p_ma_ho)
+      AND (l.dangO IS DISTINCT FROM COALESCE(h.trangThai = 'DangO', FALSE) OR l.soPhong IS DISTINCT FROM h.soPhong);
+
+    -- Hộ không còn ở: bỏ các đợt chưa có phiếu
+    DELETE FROM SoCongNo WHERE maHo = ANY(p_ma_ho) AND maPhieu IS NULL AND NOT dangO;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION fn_SoCongNo_HoGiaDinh()
+RETURNS TRIGGER AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        PERFORM fn_SoCongNo_CapNhatHo(ARRAY(SELECT id FROM new_rows));
+    ELSE
+        PERFORM fn_SoCongNo_CapNhatHo(ARRAY(
+            SELECT n.id FROM new_rows n JOIN old_rows o ON o.id = n.id
+            WHERE o.trangThai IS DISTINCT FROM n.trangThai OR o.soPhong IS DISTINCT FROM n.soPhong));
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Đợt thu mới: mỗi hộ đang ở một dòng (xóa đợt thu thì ON DELETE CASCADE)
+CREATE OR REPLACE FUNCTION fn_SoCongNo_DotThu()
+RETURNS TRIGGER AS $$
+BEGIN
+    INSERT INTO SoCongNo (maHo, maDot, soPhong, dangO)
+    SELECT h.id, d.id, h.soPhong, TRUE
+    FROM new_rows d CROSS JOIN HoGiaDinh h
+    WHERE h.trangThai = 'DangO'
+    ON CONFLICT (maHo, maDot) DO NOTHING;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Phiếu thu tạo / sửa (tiền, trạng thái, hộ, đợt) / xóa
+CREATE OR REPLACE FUNCTION fn_SoCongNo_PhieuThu()
+RETURNS TRIGGER AS $$
+BEGIN
+    IF TG_OP IN ('UPDATE', 'DELETE') THEN
+        -- Gỡ phiếu cũ khỏi dòng của nó; hộ không còn ở thì bỏ luôn dòng
+        WITH cu AS (
+            SELECT o.id, o.maHo, o.maDot FROM old_rows o
+            WHERE TG_OP = 'DELETE' OR NOT EXISTS (
+                SELECT 1 FROM new_rows n
+                WHERE n.id = o.id AND n.maHo IS NOT DISTINCT FROM o.maHo AND n.maDot IS NOT DISTINCT FROM o.maDot)
+        )
+        UPDATE SoCongNo l
+        SET maPhieu = NULL, ngayLap = NULL, tongTien = 0, daThu = FALSE
+        FROM cu
+        WHERE l.maHo = cu.maHo AND l.maDot = cu.maDot AND l.maPhieu = cu.id;
+
+        DELETE FROM SoCongNo l
+        USING old_rows o
+        WHERE l.maHo = o.maHo AND l.maDot = o.maDot AND l.maPhieu IS NULL AND NOT l.dangO;
+    END IF;
+
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        INSERT INTO SoCongNo (maHo, maDot, soPhong, dangO, maPhieu, ngayLap, tongTien, daThu)
+        SELECT n.maHo, n.maDot, h.soPhong, COALESCE(h.trangThai = 'DangO', FALSE),
+               n.id, n.ngayLap, COALESCE(n.tongTien, 0), COALESCE(n.trangThai = 'DaThu', FALSE)
+        FROM new_rows n
+        JOIN HoGiaDinh h ON h.id = n.maHo
+        WHERE n.maDot IS NOT NULL
+          AND (TG_OP = 'INSERT' OR NOT EXISTS (
+              SELECT 1 FROM old_rows o
+              WHERE o.id = n.id AND o.maHo IS NOT DISTINCT FROM n.maHo AND o.maDot IS NOT DISTINCT FROM n.maDot
+                AND o.ngayLap IS NOT DISTINCT FROM n.ngayLap AND o.tongTien IS NOT DISTINCT FROM n.tongTien
+                AND o.trangThai IS NOT DISTINCT FROM n.trangThai))
+        ON CONFLICT (maHo, maDot) DO UPDATE
+        SET maPhieu = EXCLUDED.maPhieu, ngayLap = EXCLUDED.ngayLap,
+            tongTien = EXCLUDED.tongTien, daThu = EXCLUDED.daThu;
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS trg_SoCongNo_HoGiaDinh_Insert ON HoGiaDinh;
+CREATE TRIGGER trg_SoCongNo_HoGiaDinh_Insert AFTER INSERT ON HoGiaDinh
+REFERENCING NEW TABLE AS new_rows
+FOR EACH STATEMENT EXECUTE FUNCTION fn_SoCongNo_HoGiaDinh();
+DROP TRIGGER IF EXISTS trg_SoCongNo_HoGiaDinh_Update ON HoGiaDinh;
+CREATE TRIGGER trg_SoCongNo_HoGiaDinh_Update AFTER UPDATE ON HoGiaDinh
+REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+FOR EACH STATEMENT EXECUTE FUNCTION fn_SoCongNo_HoGiaDinh();
+
+DROP TRIGGER IF EXISTS trg_SoCongNo_DotThu_Insert ON DotThu;
+CREATE TRIGGER trg_SoCongNo_DotThu_Insert AFTER INSERT ON DotThu
+REFERENCING NEW TABLE AS new_rows
+FOR EACH STATEMENT EXECUTE FUNCTION fn_SoCongNo_DotThu();
+
+DROP TRIGGER IF EXISTS trg_SoCongNo_PhieuThu_Insert ON PhieuThu;
+CREATE TRIGGER trg_SoCongNo_PhieuThu_Insert AFTER INSERT ON PhieuThu
+REFERENCING NEW TABLE AS new_rows
+FOR EACH STATEMENT EXECUTE FUNCTION fn_SoCongNo_PhieuThu();
+DROP TRIGGER IF EXISTS trg_SoCongNo_PhieuThu_Update ON PhieuThu;
+CREATE TRIGGER trg_SoCongNo_PhieuThu_Update AFTER UPDATE ON PhieuThu
+REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+FOR EACH STATEMENT EXECUTE FUNCTION fn_SoCongNo_PhieuThu();
+DROP TRIGGER IF EXISTS trg_SoCongNo_PhieuThu_Delete ON PhieuThu;
+CREATE TRIGGER trg_SoCongNo_PhieuThu_Delete AFTER DELETE ON PhieuThu
+REFERENCING OLD TABLE AS old_rows
+FOR EACH STATEMENT EXECUTE FUNCTION fn_SoCongNo_PhieuThu();
+
+-- Đối soát sổ công nợ với bảng gốc; trả về số dòng đã thêm/sửa/xóa
+CREATE OR REPLACE FUNCTION fn_SoCongNo_DoiSoat()
+RETURNS INT AS $$
+DECLARE
+    v_so_dong INT;
+BEGIN
+    LOCK TABLE SoCongNo IN SHARE ROW EXCLUSIVE MODE;
+
+    WITH dung AS (
+        SELECT p.maHo, p.maDot, h.soPhong, COALESCE(h.trangThai = 'DangO', FALSE) AS dangO,
+               p.id AS maPhieu, p.ngayLap, COALESCE(p.tongTien, 0) AS tongTien,
+               COALESCE(p.trangThai = 'DaThu', FALSE) AS daThu
+        FROM PhieuThu p JOIN HoGiaDinh h ON h.id = p.maHo
+        WHERE p.maDot IS NOT NULL
+        UNION ALL
+        SELECT h.id, d.id, h.soPhong, TRUE, NULL, NULL, 0, FALSE
+        FROM HoGiaDinh h CROSS JOIN DotThu d
+        WHERE h.trangThai = 'DangO'
+          AND NOT EXISTS (SELECT 1 FROM PhieuThu p WHERE p.maHo = h.id AND p.maDot = d.id)
+    ),
+    xoa AS (
+        DELETE FROM SoCongNo l
+        WHERE NOT EXISTS (SELECT 1 FROM dung WHERE dung.maHo = l.maHo AND dung.maDot = l.maDot)
+        RETURNING 1
+    ),
+    ghi AS (
+        INSERT INTO SoCongNo (maHo, maDot, soPhong, dangO, maPhieu, ngayLap, tongTien, daThu)
+        SELECT dung.maHo, dung.maDot, dung.soPhong, dung.dangO, dung.maPhieu, dung.ngayLap, dung.tongTien, dung.daThu
+        FROM dung
+        WHERE NOT EXISTS (
+            SELECT 1 FROM SoCongNo l
+            WHERE l.maHo = dung.maHo AND l.maDot = dung.maDot
+              AND l.soPhong IS NOT DISTINCT FROM dung.soPhong AND l.dangO = dung.dangO
+              AND l.maPhieu IS NOT DISTINCT FROM dung.maPhieu AND l.ngayLap IS NOT DISTINCT FROM dung.ngayLap
+              AND l.tongTien = dung.tongTien AND l.daThu = dung.daThu)
+        ON CONFLICT (maHo, maDot) DO UPDATE
+        SET soPhong = EXCLUDED.soPhong, dangO = EXCLUDED.dangO, maPhieu = EXCLUDED.maPhieu,
+            ngayLap = EXCLUDED.ngayLap, tongTien = EXCLUDED.tongTien, daThu = EXCLUDED.daThu
+        RETURNING 1
+    )
+    SELECT (SELECT COUNT(*) FROM xoa) + (SELECT COUNT(*) FROM ghi) INTO v_so_dong;
+
+    RETURN v_so_dong;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Khởi tạo sổ từ dữ liệu hiện có
+SELECT fn_SoCongNo_DoiSoat();
+
+-- ==================================================================================================
+-- Tính lại tongTien PhieuThu một lần mỗi câu lệnh (thay trigger FOR EACH ROW trên ChiTietThu)
+
+DROP TRIGGER IF EXISTS trg_UpdateTongTienAfterChiTietInsert ON ChiTietThu;
+DROP TRIGGER IF EXISTS trg_UpdateTongTienAfterChiTietUpdate ON ChiTietThu;
+DROP TRIGGER IF EXISTS trg_UpdateTongTienAfterChiTietDelete ON ChiTietThu;
+
+-- Nhóm Trigger tự động tính tiền (Bảng ChiTietThu)
+-- Trigger cấp câu lệnh cập nhật tongTien trong PhieuThu khi ChiTietThu thay đổi: mỗi phiếu bị ảnh hưởng
+-- (lấy từ transition table) chỉ tính lại một lần cho cả câu lệnh, kể cả INSERT nhiều dòng / COPY.
+-- Chỉ tính các khoản thu bắt buộc (batBuoc = TRUE), bỏ qua khoản thu tự nguyện.
+-- Các luồng sinh phiếu hàng loạt đã tự tính tongTien thì bỏ qua bằng
+-- SELECT set_config('bluemoon.skip_tong_tien', 'on', TRUE) (chỉ có hiệu lực trong transaction hiện tại).
+CREATE OR REPLACE FUNCTION fn_TinhLaiTongTienPhieuThu(p_ma_phieu INT[])
+RETURNS VOID AS $$
+BEGIN
+    UPDATE PhieuThu p
+    SET tongTien = t.tongTien
+    FROM (
+        SELECT a.maPhieu, COALESCE(SUM(ct.thanhTien) FILTER (WHERE kt.batBuoc = TRUE), 0) AS tongTien
+        FROM unnest(p_ma_phieu) AS a(maPhieu)
+        LEFT JOIN ChiTietThu ct ON ct.maPhieu = a.maPhieu
+        LEFT JOIN KhoanThu kt ON ct.maKhoan = kt.id
+        GROUP BY a.maPhieu
+    ) t
+    WHERE p.id = t.maPhieu
+      AND p.tongTien IS DISTINCT FROM t.tongTien;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION fn_UpdateTongTienPhieuThu()
+RETURNS TRIGGER AS $$
+DECLARE
+    v_ma_phieu INT[];
+BEGIN
+    IF current_setting('bluemoon.skip_tong_tien', TRUE) = 'on' THEN
+        RETURN NULL;
+    END IF;
+
+    IF TG_OP = 'INSERT' THEN
+        v_ma_phieu := ARRAY(SELECT DISTINCT maPhieu FROM new_rows WHERE maPhieu IS NOT NULL);
+    ELSIF TG_OP = 'DELETE' THEN
+        v_ma_phieu := ARRAY(SELECT DISTINCT maPhieu FROM old_rows WHERE maPhieu IS NOT NULL);
+    ELSE
+        v_ma_phieu := ARRAY(
+            SELECT maPhieu FROM new_rows WHERE maPhieu IS NOT NULL
+            UNION
+            SELECT maPhieu FROM old_rows WHERE maPhieu IS NOT NULL);
+    END IF;
+
+    IF cardinality(v_ma_phieu) > 0 THEN
+        PERFORM fn_TinhLaiTongTienPhieuThu(v_ma_phieu);
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Tạo trigger cho INSERT, UPDATE, DELETE trên ChiTietThu
+CREATE TRIGGER trg_UpdateTongTienAfterChiTietInsert
+AFTER INSERT ON ChiTietThu
+REFERENCING NEW TABLE AS new_rows
+FOR EACH STATEMENT
+EXECUTE FUNCTION fn_UpdateTongTienPhieuThu();
+
+CREATE TRIGGER trg_UpdateTongTienAfterChiTietUpdate
+AFTER UPDATE ON ChiTietThu
+REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+FOR EACH STATEMENT
+EXECUTE FUNCTION fn_UpdateTongTienPhieuThu();
+
+CREATE TRIGGER trg_UpdateTongTienAfterChiTietDelete
+AFTER DELETE ON ChiTietThu
+REFERENCING OLD TABLE AS old_rows
+FOR EACH STATEMENT
+EXECUTE FUNCTION fn_UpdateTongTienPhieuThu();
+
+-- Tạo hoá đơn hàng loạt
+CREATE OR REPLACE PROCEDURE pr_TaoHoaDonHangLoat(
+    p_id_dot_thu INT,
+    p_nguoi_tao_id INT
+)
+LANGUAGE plpgsql
+AS $$
+DECLARE
+    v_ho_rec RECORD;
+    v_khoan_rec RECORD;
+    v_id_phieu INT;
+    v_tong_tien DECIMAL(15, 2);
+    v_so_luong DECIMAL(10, 2);
+    v_thanh_tien DECIMAL(15, 2);
+    v_so_xe_may INT;
+    v_so_o_to INT;
+    v_dien_tich DECIMAL(10, 2);
+    -- Đã xóa biến v_so_nhan_khau
+BEGIN
+    -- Tổng tiền được tính ngay trong vòng lặp (bước D): bỏ qua trigger tính lại tongTien
+    PERFORM set_config('bluemoon.skip_tong_tien', 'on', TRUE);
+
+    -- Duyệt qua tất cả các hộ gia đình ĐANG Ở
+    FOR v_ho_rec IN 
+        SELECT h.id, h.soPhong, p.dienTich 
+        FROM HoGiaDinh h
+        JOIN Phong p ON h.soPhong = p.soPhong
+        WHERE h.trangThai = 'DangO'
+    LOOP
+        -- A. TÍNH TOÁN CHỈ SỐ
+        
+        -- (Đã xóa phần đếm Nhân khẩu ở đây)
+        
+        -- 1-2. Đếm Xe Máy / Ô tô theo nhóm đã phân loại sẵn (PhuongTien.nhomXe, index theo (maHo, nhomXe))
+        SELECT COUNT(*) FILTER (WHERE nhomXe = 'XeMay'),
+               COUNT(*) FILTER (WHERE nhomXe = 'Oto')
+        INTO v_so_xe_may, v_so_o_to
+        FROM PhuongTien
+        WHERE maHo = v_ho_rec.id;
+
+        -- 3. Lấy diện tích
+        v_dien_tich := COALESCE(v_ho_rec.dienTich, 0);
+
+        -- B. TẠO PHIẾU THU (Header)
+        INSERT INTO PhieuThu (maHo, maDot, ngayLap, tongTien, trangThai, maTaiKhoan)
+        VALUES (v_ho_rec.id, p_id_dot_thu, CURRENT_DATE, 0, 'ChuaThu', p_nguoi_tao_id)
+        RETURNING id INTO v_id_phieu;
+
+        v_tong_tien := 0;
+
+        -- C. TẠO CHI TIẾT THU (Detail)
+        FOR v_khoan_rec IN SELECT * FROM KhoanThu WHERE batBuoc = TRUE LOOP
+            
+            v_so_luong := 0;
+
+            -- Logic mapping:
+            IF (v_khoan_rec.tinhTheo ILIKE '%diện tích%') THEN
+                v_so_luong := v_dien_tich;
+            
+            -- (Đã xóa nhánh ELSIF tính theo nhân khẩu)
+            
+            ELSIF (v_khoan_rec.tinhTheo ILIKE '%xe máy%' OR v_khoan_rec.tinhTheo ILIKE '%xemay%') THEN
+                v_so_luong := v_so_xe_may;
+            ELSIF (v_khoan_rec.tinhTheo ILIKE '%ô tô%' OR v_khoan_rec.tinhTheo ILIKE '%oto%') THEN
+                v_so_luong := v_so_o_to;
+            ELSE
+                -- Mặc định là 1 (Tính theo Hộ)
+                -- Các khoản phí "Theo người" giờ sẽ chạy vào đây và tính là 1 suất/hộ
+                v_so_luong := 1; 
+            END IF;
+
+            -- Chỉ insert nếu có số lượng > 0
+            IF v_so_luong > 0 THEN
+                v_thanh_tien := v_so_luong * v_khoan_rec.donGia;
+                v_tong_tien := v_tong_tien + v_thanh_tien;
+
+                INSERT INTO ChiTietThu (maPhieu, maKhoan, soLuong, donGia, thanhTien)
+                VALUES (v_id_phieu, v_khoan_rec.id, v_so_luong, v_khoan_rec.donGia, v_thanh_tien);
+            END IF;
+
+        END LOOP;
+
+        -- D. CẬP NHẬT TỔNG TIỀN
+        UPDATE PhieuThu SET tongTien = v_tong_tien WHERE id = v_id_phieu;
+
+    END LOOP;
+
+    PERFORM set_config('bluemoon.skip_tong_tien', 'off', TRUE);
+END;
+$$;
+
+-- ==================================================================================================
+-- Nhóm phương tiện (PhuongTien.nhomXe) phân loại một lần khi ghi thay cho ILIKE '%...%' khi đếm xe
+
+ALTER TABLE PhuongTien ADD COLUMN IF NOT EXISTS nhomXe VARCHAR(10);
+
+-- Phân loại phương tiện theo chuỗi loaiXe tự do (cùng quy tắc với NhomXe.fromLoaiXe trong ứng dụng)
+CREATE OR REPLACE FUNCTION fn_PhanLoaiXe(p_loai_xe VARCHAR)
+RETURNS VARCHAR AS $$
+DECLARE
+    v_loai_xe VARCHAR := lower(trim(p_loai_xe));
+BEGIN
+    IF v_loai_xe LIKE '%xe máy%' OR v_loai_xe LIKE '%xemay%'
+       OR v_loai_xe LIKE '%moto%' OR v_loai_xe LIKE '%xe may%' THEN
+        RETURN 'XeMay';
+    ELSIF v_loai_xe LIKE '%ô tô%' OR v_loai_xe LIKE '%oto%'
+       OR v_loai_xe LIKE '%car%' OR v_loai_xe LIKE '%o to%' THEN
+        RETURN 'Oto';
+    END IF;
+    RETURN 'Khac';
+END;
+$$ LANGUAGE plpgsql IMMUTABLE;
+
+-- Điền nhomXe khi câu lệnh ghi không tự phân loại (script dữ liệu, sửa tay loaiXe bằng SQL)
+CREATE OR REPLACE FUNCTION fn_PhuongTien_NhomXe()
+RETURNS TRIGGER AS $$
+BEGIN
+    IF NEW.nhomXe IS NULL
+       OR (TG_OP = 'UPDATE' AND NEW.loaiXe IS DISTINCT FROM OLD.loaiXe AND NEW.nhomXe IS NOT DISTINCT FROM OLD.nhomXe) THEN
+        NEW.nhomXe := fn_PhanLoaiXe(NEW.loaiXe);
+    END IF;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS trg_PhuongTien_NhomXe ON PhuongTien;
+CREATE TRIGGER trg_PhuongTien_NhomXe
+BEFORE INSERT OR UPDATE OF loaiXe, nhomXe ON PhuongTien
+FOR EACH ROW
+EXECUTE FUNCTION fn_PhuongTien_NhomXe();
+
+-- Phân loại dữ liệu cũ
+UPDATE PhuongTien SET nhomXe = fn_PhanLoaiXe(loaiXe)
+WHERE nhomXe IS DISTINCT FROM fn_PhanLoaiXe(loaiXe);
+
+ALTER TABLE PhuongTien ALTER COLUMN nhomXe SET NOT NULL;
+ALTER TABLE PhuongTien DROP CONSTRAINT IF EXISTS ck_phuongtien_nhomxe;
+ALTER TABLE PhuongTien ADD CONSTRAINT ck_phuongtien_nhomxe CHECK (nhomXe IN ('XeMay', 'Oto', 'Khac'));
+
+CREATE INDEX IF NOT EXISTS idx_phuongtien_maho_nhomxe ON PhuongTien(maHo, nhomXe);
+
+-- ==================================================================================================
+-- Tìm kiếm không dấu: pg_trgm (GIN) trên chuỗi đã bỏ dấu và chữ thường
+
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+CREATE EXTENSION IF NOT EXISTS unaccent;
+
+-- Bỏ dấu tiếng Việt (kể cả đ -> d) và chuyển chữ thường. unaccent() chỉ là STABLE nên bọc lại với từ điển
+-- chỉ định rõ để dùng được trong index; câu truy vấn phải dùng đúng biểu thức như index.
+CREATE OR REPLACE FUNCTION fn_KhongDau(p_chuoi TEXT)
+RETURNS TEXT AS $$
+    SELECT lower(public.unaccent('public.unaccent'::regdictionary, p_chuoi))
+$$ LANGUAGE sql IMMUTABLE PARALLEL SAFE;
+
+-- Mỗi bảng một "chuỗi tìm kiếm" ghép các cột, một index GIN cho cả LIKE '%...%' và so khớp gần đúng (<%)
+CREATE INDEX IF NOT EXISTS idx_phuongtien_tim_kiem ON PhuongTien USING GIN
+    (fn_KhongDau(COALESCE(bienSo, '') || ' ' || COALESCE(tenChuXe, '') || ' ' || COALESCE(loaiXe, '')) gin_trgm_ops);
+
+CREATE INDEX IF NOT EXISTS idx_nhankhau_tim_kiem ON NhanKhau USING GIN
+    (fn_KhongDau(COALESCE(hoTen, '') || ' ' || COALESCE(soCCCD, '')) gin_trgm_ops);
+
+CREATE INDEX IF NOT EXISTS idx_hogiadinh_tim_kiem ON HoGiaDinh USING GIN
+    (fn_KhongDau(COALESCE(CAST(soPhong AS TEXT), '') || ' ' || COALESCE(maChuHo, '') || ' ' || COALESCE(ghiChu, '')) gin_trgm_ops);
+
+-- Tìm hộ gia đình theo ghi chú (HoGiaDinhService.searchHoGiaDinh chỉ tìm trên ghiChu)
+CREATE INDEX IF NOT EXISTS idx_hogiadinh_ghichu_tim_kiem ON HoGiaDinh USING GIN
+    (fn_KhongDau(ghiChu) gin_trgm_ops);
+
+CREATE INDEX IF NOT EXISTS idx_dotthu_tim_kiem ON DotThu USING GIN
+    (fn_KhongDau(COALESCE(tenDot, '') || ' ' || COALESCE(ghiChu, '')) gin_trgm_ops);
@@ -79,4 +79,10 @@ public class ChiTietThu {
     public void setTenKhoan(String tenKhoan) {
         this.tenKhoan = tenKhoan;
     }
+
+    /** Helper field để lưu đơn vị tính của khoản thu cho hiển thị. */
+    private String donViTinh;
+
+    public String getDonViTinh() { return donViTinh; }
+    public void setDonViTinh(String donViTinh) { this.donViTinh = donViTinh; }
 }
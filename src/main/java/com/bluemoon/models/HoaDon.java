@@ -0,0 +1,77 @@
+package com.bluemoon.models;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HoaDon: dữ liệu hiển thị/in của một phiếu thu (read model), gồm thông tin phiếu,
+ * hộ gia đình, đợt thu, người lập và danh sách chi tiết kèm tên khoản thu.
+ */
+public class HoaDon {
+
+    /** id: mã phiếu thu. */
+    private int id;
+    /** maHo: mã hộ. */
+    private int maHo;
+    /** soPhong: số phòng của hộ. */
+    private int soPhong;
+    /** maDot: mã đợt thu. */
+    private int maDot;
+    /** tenDot: tên đợt thu. */
+    private String tenDot;
+    /** tenChuHo: họ tên chủ hộ. */
+    private String tenChuHo;
+    /** tongTien: tổng tiền. */
+    private BigDecimal tongTien;
+    /** trangThai: trạng thái phiếu thu. */
+    private String trangThai;
+    /** hinhThucThu: hình thức thu. */
+    private String hinhThucThu;
+    /** ngayLap: thời điểm lập phiếu. */
+    private LocalDateTime ngayLap;
+    /** tenNguoiLap: họ tên người lập phiếu. */
+    private String tenNguoiLap;
+    /** chiTietList: các dòng chi tiết (có tenKhoan, donViTinh). */
+    private List<ChiTietThu> chiTietList = new ArrayList<>();
+
+    /** Constructor mặc định. */
+    public HoaDon() {}
+
+    public int getId() { return id; }
+    public void setId(int id) { this.id = id; }
+
+    public int getMaHo() { return maHo; }
+    public void setMaHo(int maHo) { this.maHo = maHo; }
+
+    public int getSoPhong() { return soPhong; }
+    public void setSoPhong(int soPhong) { this.soPhong = soPhong; }
+
+    public int getMaDot() { return maDot; }
+    public void setMaDot(int maDot) { this.maDot = maDot; }
+
+    public String getTenDot() { return tenDot; }
+    public void setTenDot(String tenDot) { this.tenDot = tenDot; }
+
+    public String getTenChuHo() { return tenChuHo; }
+    public void setTenChuHo(String tenChuHo) { this.tenChuHo = tenChuHo; }
+
+    public BigDecimal getTongTien() { return tongTien; }
+    public void setTongTien(BigDecimal tongTien) { this.tongTien = tongTien; }
+
+    public String getTrangThai() { return trangThai; }
+    public void setTrangThai(String trangThai) { this.trangThai = trangThai; }
+
+    public String getHinhThucThu() { return hinhThucThu; }
+    public void setHinhThucThu(String hinhThucThu) { this.hinhThucThu = hinhThucThu; }
+
+    public LocalDateTime getNgayLap() { return ngayLap; }
+    public void setNgayLap(LocalDateTime ngayLap) { this.ngayLap = ngayLap; }
+
+    public String getTenNguoiLap() { return tenNguoiLap; }
+    public void setTenNguoiLap(String tenNguoiLap) { this.tenNguoiLap = tenNguoiLap; }
+
+    public List<ChiTietThu> getChiTietList() { return chiTietList; }
+    public void setChiTietList(List<ChiTietThu> chiTietList) { this.chiTietList = chiTietList; }
+}
@@ -0,0 +1,43 @@
+package com.bluemoon.models;
+
+import java.util.List;
+
+/**
+ * DTO cho một trang kết quả phân trang theo khóa (keyset pagination).
+ * Trang sau được lấy bằng cách truyền {@code nextCursor} vào tham số {@code after}.
+ *
+ * @param <T> kiểu phần tử
+ */
+public class KeysetPage<T> {
+
+    /** Các phần tử của trang. */
+    private List<T> items;
+
+    /** Số phần tử tối đa của một trang. */
+    private int limit;
+
+    /** Con trỏ cho trang tiếp theo (id của phần tử cuối), null nếu đã hết. */
+    private Integer nextCursor;
+
+    /** Constructor mặc định. */
+    public KeysetPage() {}
+
+    /** Constructor đầy đủ. */
+    public KeysetPage(List<T> items, int limit, Integer nextCursor) {
+        this.items = items;
+        this.limit = limit;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getItems() { return items; }
+    public void setItems(List<T> items) { this.items = items; }
+
+    public int getLimit() { return limit; }
+    public void setLimit(int limit) { this.limit = limit; }
+
+    public Integer getNextCursor() { return nextCursor; }
+    public void setNextCursor(Integer nextCursor) { this.nextCursor = nextCursor; }
+
+    /** @return true nếu còn trang tiếp theo */
+    public boolean isHasMore() { return nextCursor != null; }
+}
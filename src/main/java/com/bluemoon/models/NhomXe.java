@@ -0,0 +1,47 @@
+package com.bluemoon.models;
+
+/**
+ * NhomXe: nhóm phương tiện dùng để tính phí theo xe, lưu ở cột PhuongTien.nhomXe.
+ * loaiXe là chuỗi tự do do người dùng nhập; nhóm được phân loại một lần khi ghi
+ * (cùng quy tắc với hàm fn_PhanLoaiXe trong database).
+ */
+public enum NhomXe {
+    XE_MAY("XeMay"),
+    O_TO("Oto"),
+    KHAC("Khac");
+
+    private final String code;
+
+    NhomXe(String code) {
+        this.code = code;
+    }
+
+    /**
+     * @return giá trị lưu trong cột nhomXe
+     */
+    public String getCode() {
+        return code;
+    }
+
+    /**
+     * Phân loại phương tiện theo chuỗi loaiXe (không phân biệt hoa thường).
+     *
+     * @param loaiXe loại xe
+     * @return nhóm phương tiện (KHAC nếu không nhận diện được)
+     */
+    public static NhomXe fromLoaiXe(String loaiXe) {
+        if (loaiXe == null) {
+            return KHAC;
+        }
+        String loaiXeLower = loaiXe.toLowerCase().trim();
+        if (loaiXeLower.contains("xe máy") || loaiXeLower.contains("xemay") ||
+            loaiXeLower.contains("moto") || loaiXeLower.contains("xe may")) {
+            return XE_MAY;
+        }
+        if (loaiXeLower.contains("ô tô") || loaiXeLower.contains("oto") ||
+            loaiXeLower.contains("car") || loaiXeLower.contains("o to")) {
+            return O_TO;
+        }
+        return KHAC;
+    }
+}
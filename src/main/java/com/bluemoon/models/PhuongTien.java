@@ -13,6 +13,8 @@ public class PhuongTien {
     private int maHo;
     /** loaiXe: loại xe (varchar(20)). */
     private String loaiXe;
+    /** nhomXe: nhóm phương tiện phân loại từ loaiXe ({@link NhomXe#getCode()}). */
+    private String nhomXe;
     /** bienSo: biển số (varchar(50)). */
     private String bienSo;
     /** tenChuXe: tên chủ xe (varchar(100)). */
@@ -44,6 +46,9 @@ public class PhuongTien {
     public String getLoaiXe() { return loaiXe; }
     public void setLoaiXe(String loaiXe) { this.loaiXe = loaiXe; }
 
+    public String getNhomXe() { return nhomXe; }
+    public void setNhomXe(String nhomXe) { this.nhomXe = nhomXe; }
+
     public String getBienSo() { return bienSo; }
     public void setBienSo(String bienSo) { this.bienSo = bienSo; }
 
@@ -1,8 +1,12 @@
 package com.bluemoon.services;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.SQLException;
 import java.time.LocalDate;
 import java.util.List;
+import java.util.function.Supplier;
 
 import com.bluemoon.models.BaoCaoCongNo;
 import com.bluemoon.models.BaoCaoThu;
@@ -62,5 +66,28 @@ public interface BaoCaoService {
      * @return InputStream của file Excel
      */
     InputStream exportDebtToExcel(List<BaoCaoCongNo> data);
-}
 
+    /**
+     * Xuất báo cáo thu ra file Excel, ghi thẳng vào luồng ra.
+     * Dữ liệu được đọc qua cursor và ghi bằng workbook dạng streaming nên bộ nhớ không tăng theo số dòng.
+     *
+     * @param fromDate ngày bắt đầu
+     * @param toDate ngày kết thúc
+     * @param out mở luồng ghi file Excel (không bị đóng); chỉ được gọi khi đã đọc xong dữ liệu,
+     *            nên caller đặt header của file tại đây
+     * @throws SQLException nếu lỗi truy vấn (khi đó {@code out} chưa được gọi)
+     * @throws IOException nếu lỗi ghi
+     */
+    void writeRevenueExcel(LocalDate fromDate, LocalDate toDate, Supplier<OutputStream> out)
+            throws SQLException, IOException;
+
+    /**
+     * Xuất báo cáo công nợ ra file Excel, ghi thẳng vào luồng ra.
+     *
+     * @param maDot mã đợt thu (0 = tất cả)
+     * @param out mở luồng ghi file Excel (không bị đóng); chỉ được gọi khi đã đọc xong dữ liệu
+     * @throws SQLException nếu lỗi truy vấn (khi đó {@code out} chưa được gọi)
+     * @throws IOException nếu lỗi ghi
+     */
+    void writeDebtExcel(int maDot, Supplier<OutputStream> out) throws SQLException, IOException;
+}
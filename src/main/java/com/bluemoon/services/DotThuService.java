@@ -59,6 +59,8 @@ public interface DotThuService {
 
     /**
      * Tạo đợt thu mới và tự động sinh phiếu thu cho cư dân.
+     * Đợt thu được lưu ngay; việc sinh phiếu thu chạy nền bằng một job của
+     * {@link com.bluemoon.utils.JobManager} (key {@code JobManager.driveGenerationKey(id)}).
      * * @param dotThu Thông tin đợt thu
      * @param nguoiTaoId ID của tài khoản đang đăng nhập (để gán vào phiếu thu)
      * @return ID của đợt thu vừa tạo (trả về -1 nếu lỗi)
@@ -1,5 +1,7 @@
 package com.bluemoon.services;
 
+import java.io.IOException;
+import java.sql.SQLException;
 import java.util.List;
 
 import com.bluemoon.models.HoGiaDinh;
@@ -16,6 +18,15 @@ public interface HoGiaDinhService {
      */
     List<HoGiaDinh> getAllHoGiaDinh();
 
+    /**
+     * Đọc toàn bộ hộ gia đình (cùng thứ tự với {@link #getAllHoGiaDinh()}) qua cursor và chuyển từng dòng cho handler (không giữ toàn bộ danh sách trong bộ nhớ).
+     *
+     * @param handler nhận từng dòng
+     * @throws SQLException nếu lỗi database
+     * @throws IOException nếu handler lỗi ghi
+     */
+    void streamAllHoGiaDinh(RowHandler<HoGiaDinh> handler) throws SQLException, IOException;
+
     /**
      * Tìm hộ gia đình theo ID.
      *
@@ -1,5 +1,7 @@
 package com.bluemoon.services;
 
+import java.io.IOException;
+import java.sql.SQLException;
 import java.util.List;
 
 import com.bluemoon.models.LichSuNhanKhau;
@@ -17,6 +19,15 @@ public interface NhanKhauService {
      */
     List<NhanKhau> getAll();
 
+    /**
+     * Đọc toàn bộ nhân khẩu (cùng thứ tự với {@link #getAll()}) qua cursor và chuyển từng dòng cho handler (không giữ toàn bộ danh sách trong bộ nhớ).
+     *
+     * @param handler nhận từng dòng
+     * @throws SQLException nếu lỗi database
+     * @throws IOException nếu handler lỗi ghi
+     */
+    void streamAll(RowHandler<NhanKhau> handler) throws SQLException, IOException;
+
     /**
      * Tìm nhân khẩu theo ID.
      *
@@ -101,6 +112,15 @@ public interface NhanKhauService {
     boolean updateStatusWithHistory(int nhanKhauId, String newStatus, LichSuNhanKhau historyRecord);
 
     List<NhanKhau> getAllHistory();
+
+    /**
+     * Đọc lịch sử cư trú tổng hợp (cùng thứ tự với {@link #getAllHistory()}) qua cursor và chuyển từng dòng cho handler (không giữ toàn bộ danh sách trong bộ nhớ).
+     *
+     * @param handler nhận từng dòng
+     * @throws SQLException nếu lỗi database
+     * @throws IOException nếu handler lỗi ghi
+     */
+    void streamAllHistory(RowHandler<NhanKhau> handler) throws SQLException, IOException;
 }
 
 
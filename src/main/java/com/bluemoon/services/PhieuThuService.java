@@ -3,7 +3,9 @@ package com.bluemoon.services;
 import java.util.List;
 
 import com.bluemoon.models.ChiTietThu;
+import com.bluemoon.models.KeysetPage;
 import com.bluemoon.models.PhieuThu;
+import com.bluemoon.utils.ProgressListener;
 
 /**
  * Định nghĩa các nghiệp vụ quản lý Phiếu Thu và chi tiết thu.
@@ -67,6 +69,19 @@ public interface PhieuThuService {
      */
     List<PhieuThu> findPhieuThuByDotThu(int maDotThu);
 
+    /**
+     * Lấy một trang phiếu thu (mới nhất trước) theo khóa id, không đọc toàn bộ bảng.
+     * Tập phiếu thu giống {@link #getAllPhieuThu()}; các bộ lọc null được bỏ qua.
+     *
+     * @param after     chỉ lấy phiếu có id nhỏ hơn giá trị này (nextCursor của trang trước), null cho trang đầu
+     * @param limit     số phiếu tối đa (giới hạn trong 1..500)
+     * @param maDot     lọc theo đợt thu
+     * @param maHo      lọc theo hộ gia đình
+     * @param trangThai lọc theo trạng thái
+     * @return trang kết quả kèm nextCursor
+     */
+    KeysetPage<PhieuThu> findPhieuThuPage(Integer after, int limit, Integer maDot, Integer maHo, String trangThai);
+
     /**
      * Lấy toàn bộ danh sách phiếu thu.
      *
@@ -91,6 +106,48 @@ public interface PhieuThuService {
      */
     int generateReceiptsForDrive(int maDot);
 
+    /**
+     * Tạo hóa đơn hàng loạt cho một đợt thu, báo tiến độ theo số hộ và hỗ trợ hủy giữa chừng.
+     * Dùng cho job chạy nền (xem {@link com.bluemoon.utils.JobManager}).
+     *
+     * @param maDot    mã đợt thu
+     * @param progress nhận tiến độ và yêu cầu hủy
+     * @return số lượng phiếu thu đã tạo
+     * @throws IllegalArgumentException nếu đợt thu không tồn tại hoặc đã đóng
+     * @throws java.util.concurrent.CancellationException nếu bị hủy (toàn bộ thay đổi đã được rollback)
+     * @throws java.sql.SQLException nếu lỗi database
+     */
+    int generateReceiptsForDrive(int maDot, ProgressListener progress) throws java.sql.SQLException;
+
+    /**
+     * Tạo hóa đơn hàng loạt theo phân vùng số phòng, các phân vùng chạy song song, mỗi phân vùng một transaction.
+     * Phân vùng đã commit được ghi checkpoint và hộ đã có phiếu thu trong đợt được bỏ qua,
+     * nên gọi lại sau khi lỗi hoặc bị hủy sẽ sinh tiếp phần còn thiếu mà không tạo phiếu trùng.
+     *
+     * @param maDot    mã đợt thu
+     * @param progress nhận tiến độ và yêu cầu hủy
+     * @return số lượng phiếu thu tạo mới trong lần chạy này
+     * @throws IllegalArgumentException nếu đợt thu không tồn tại hoặc đã đóng
+     * @throws java.util.concurrent.CancellationException nếu bị hủy (các phân vùng đã commit được giữ lại)
+     * @throws java.sql.SQLException nếu lỗi database hoặc có phân vùng lỗi (các phân vùng khác đã commit)
+     */
+    int generateReceiptsForDrivePartitioned(int maDot, ProgressListener progress) throws java.sql.SQLException;
+
+    /**
+     * Xem trước kết quả sinh phiếu thu của một đợt thu (không ghi database): tổng tiền và chi tiết
+     * từng hộ, cùng phần tổng hợp (tổng tiền, tổng theo khoản thu, số hộ không phát sinh phí).
+     * Kết quả được ghi dần dưới dạng JSON, bộ nhớ không tăng theo số hộ.
+     *
+     * @param maDot             mã đợt thu
+     * @param includeHouseholds false để chỉ trả về phần tổng hợp
+     * @param out               luồng ghi JSON (không bị đóng)
+     * @throws IllegalArgumentException nếu đợt thu không tồn tại
+     * @throws java.sql.SQLException nếu lỗi database
+     * @throws java.io.IOException nếu lỗi ghi
+     */
+    void previewDrive(int maDot, boolean includeHouseholds, java.io.OutputStream out)
+            throws java.sql.SQLException, java.io.IOException;
+
     /**
      * Kiểm tra xem hộ gia đình có còn nợ phí chưa thanh toán không.
      *
@@ -157,13 +214,13 @@ public interface PhieuThuService {
 
     /**
      * Lấy chi tiết đầy đủ của một phiếu thu, bao gồm thông tin hộ gia đình, đợt thu, và danh sách chi tiết thu với tên khoản thu.
-     * Thực hiện JOIN giữa PhieuThu, ChiTietThu, và KhoanThu để lấy đầy đủ thông tin.
+     * Thực hiện một truy vấn JOIN giữa PhieuThu, ChiTietThu, và KhoanThu để lấy đầy đủ thông tin.
      *
      * @param id mã phiếu thu
-     * @return Map chứa thông tin đầy đủ của phiếu thu, hoặc null nếu không tìm thấy
+     * @return hóa đơn (phiếu thu kèm chi tiết)
      * @throws java.util.NoSuchElementException nếu phiếu thu không tồn tại
      */
-    java.util.Map<String, Object> getInvoiceDetail(int id);
+    com.bluemoon.models.HoaDon getInvoiceDetail(int id);
 
     /**
      * Xuất phiếu thu ra file PDF.
@@ -174,6 +231,21 @@ public interface PhieuThuService {
      * @throws java.util.NoSuchElementException nếu phiếu thu không tồn tại
      */
     java.io.InputStream exportInvoiceToPdf(int id);
-}
-
 
+    /**
+     * Xuất PDF tất cả phiếu thu của một đợt thu, ghi thẳng vào luồng ra.
+     * Dữ liệu được đọc bằng một truy vấn và trả connection trước khi ghi; PDF được dựng song song
+     * và ghi theo thứ tự số phòng.
+     *
+     * @param maDot mã đợt thu
+     * @param asZip true: file ZIP (mỗi phiếu một file PDF); false: một file PDF nhiều trang
+     * @param out   mở luồng ghi kết quả (không bị đóng); chỉ được gọi nếu đợt thu có phiếu thu,
+     *              nên caller đặt header của file tại đây
+     * @return số phiếu thu đã xuất (0 nếu đợt thu không có phiếu thu, khi đó {@code out} không được gọi)
+     * @throws IllegalArgumentException nếu đợt thu không tồn tại
+     * @throws java.sql.SQLException nếu lỗi database
+     * @throws java.io.IOException nếu lỗi dựng hoặc ghi PDF
+     */
+    int exportDriveInvoices(int maDot, boolean asZip, java.util.function.Supplier<java.io.OutputStream> out)
+            throws java.sql.SQLException, java.io.IOException;
+}
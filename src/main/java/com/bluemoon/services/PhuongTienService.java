@@ -1,5 +1,7 @@
 package com.bluemoon.services;
 
+import java.io.IOException;
+import java.sql.SQLException;
 import java.util.List;
 
 import com.bluemoon.models.PhuongTien;
@@ -16,6 +18,15 @@ public interface PhuongTienService {
      */
     List<PhuongTien> getAllPhuongTien();
 
+    /**
+     * Đọc toàn bộ phương tiện (cùng thứ tự với {@link #getAllPhuongTien()}) qua cursor và chuyển từng dòng cho handler (không giữ toàn bộ danh sách trong bộ nhớ).
+     *
+     * @param handler nhận từng dòng
+     * @throws SQLException nếu lỗi database
+     * @throws IOException nếu handler lỗi ghi
+     */
+    void streamAllPhuongTien(RowHandler<PhuongTien> handler) throws SQLException, IOException;
+
     /**
      * Tìm phương tiện theo ID.
      *
@@ -0,0 +1,18 @@
+package com.bluemoon.services;
+
+import java.io.IOException;
+
+/**
+ * Nhận từng dòng của một danh sách được đọc tuần tự (cursor), để ghi ra ngay mà không giữ toàn bộ kết quả.
+ *
+ * @param <T> kiểu dòng
+ */
+@FunctionalInterface
+public interface RowHandler<T> {
+
+    /**
+     * @param row dòng vừa đọc
+     * @throws IOException nếu lỗi ghi
+     */
+    void accept(T row) throws IOException;
+}
@@ -89,6 +89,14 @@ public interface ThongKeService {
      */
     Map<String, Object> getResidentDemographics();
 
+    /**
+     * Đối soát số liệu tổng hợp của dashboard và sổ công nợ với bảng gốc: tính lại, ghi đè và trả về các chỉ số bị lệch.
+     *
+     * @return danh sách chỉ số lệch (chiSo, giaTriCu, giaTriDung; riêng sổ công nợ: chiSo = soCongNo, soDongSua);
+     *         rỗng nếu khớp
+     */
+    List<Map<String, Object>> reconcileSummary();
+
 }
 
 
@@ -0,0 +1,31 @@
+package com.bluemoon.services;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tìm kiếm nhanh trên phương tiện, nhân khẩu và hộ gia đình.
+ * So khớp không phân biệt dấu và hoa thường (gõ "nguyen van a" vẫn tìm được "Nguyễn Văn A"),
+ * cho phép sai khác nhỏ, kết quả được xếp hạng theo độ khớp.
+ */
+public interface TimKiemService {
+
+    /** Loại kết quả: phương tiện. */
+    String LOAI_PHUONG_TIEN = "PhuongTien";
+    /** Loại kết quả: nhân khẩu (đang hiệu lực). */
+    String LOAI_NHAN_KHAU = "NhanKhau";
+    /** Loại kết quả: hộ gia đình. */
+    String LOAI_HO_GIA_DINH = "HoGiaDinh";
+
+    /**
+     * Tìm theo biển số, tên chủ xe, họ tên, số CCCD, số phòng, mã chủ hộ và ghi chú hộ.
+     *
+     * @param tuKhoa từ khóa (ít nhất 2 ký tự, có dấu hoặc không dấu)
+     * @param loai   các loại cần tìm, phân tách bằng dấu phẩy ({@value #LOAI_PHUONG_TIEN},
+     *               {@value #LOAI_NHAN_KHAU}, {@value #LOAI_HO_GIA_DINH}); null hoặc rỗng để tìm tất cả
+     * @param limit  số kết quả tối đa
+     * @return danh sách kết quả (loai, id, maHo, soPhong, tieuDe, moTa, diem), điểm cao trước
+     * @throws IllegalArgumentException nếu từ khóa quá ngắn hoặc loại không hợp lệ
+     */
+    List<Map<String, Object>> search(String tuKhoa, String loai, int limit);
+}
@@ -2,7 +2,9 @@ package com.bluemoon.services.impl;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -14,11 +16,13 @@ import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 
 import com.bluemoon.models.BaoCaoCongNo;
 import com.bluemoon.models.BaoCaoThu;
@@ -29,6 +33,61 @@ public class BaoCaoServiceImpl implements BaoCaoService {
 
     private static final Logger logger = Logger.getLogger(BaoCaoServiceImpl.class.getName());
 
+    /**
+     * Điều kiện chủ hộ đang hiệu lực của hộ (alias nk), khớp dữ liệu mẫu và unique index một chủ hộ mỗi hộ;
+     * dùng chung cho mọi báo cáo để các đường đọc trả cùng tên chủ hộ.
+     */
+    private static final String HEAD_OF_HOUSEHOLD = "nk.quanHeVoiChuHo = 'Chủ hộ' AND nk.hieuLuc = TRUE";
+
+    // SQL: JOIN các bảng để lấy đầy đủ thông tin hiển thị
+    private static final String SELECT_REVENUE =
+            "SELECT " +
+            "pt.id as maPhieu, pt.maHo, pt.maDot, pt.ngayLap, pt.tongTien, " +
+            "pt.trangThai, pt.hinhThucThu, " +
+            "hg.soPhong, " +
+            "dt.tenDot, " +
+            "COALESCE(nk.hoTen, 'Chưa xác định') as tenChuHo, " +
+            "tk.hoTen as nguoiThu " +
+            "FROM PhieuThu pt " +
+            "JOIN HoGiaDinh hg ON pt.maHo = hg.id " +
+            "LEFT JOIN DotThu dt ON pt.maDot = dt.id " +
+            "LEFT JOIN TaiKhoan tk ON pt.maTaiKhoan = tk.id " +
+            "LEFT JOIN NhanKhau nk ON hg.id = nk.maHo AND " + HEAD_OF_HOUSEHOLD + " " +
+            "WHERE pt.trangThai = 'DaThu' " +
+            "AND DATE(pt.ngayLap) >= ? AND DATE(pt.ngayLap) <= ? " +
+            "ORDER BY pt.ngayLap DESC, pt.id";
+
+    /**
+     * Báo cáo công nợ đọc từ sổ công nợ (SoCongNo): chỉ các dòng hộ đang ở chưa nộp, lọc theo đợt và
+     * sắp xếp ngay trên index idx_socongno_no_theo_dot thay vì CROSS JOIN HoGiaDinh x DotThu.
+     * Chủ hộ lấy theo unique index một chủ hộ đang hiệu lực mỗi hộ.
+     */
+    private static final String SELECT_DEBT_LEDGER =
+            "SELECT " +
+            "l.maHo, l.soPhong, " +
+            "l.maDot, dt.tenDot, " +
+            "COALESCE(nk.hoTen, 'Chưa xác định') as tenChuHo, " +
+            "l.tongTien, " +
+            "0 as daThu, " +
+            "l.tongTien as conNo, " +
+            "CASE WHEN l.maPhieu IS NULL THEN 'Chưa tạo phiếu' ELSE 'Chưa nộp' END as trangThai " +
+            "FROM SoCongNo l " +
+            "JOIN DotThu dt ON dt.id = l.maDot " +
+            "LEFT JOIN NhanKhau nk ON nk.maHo = l.maHo AND " + HEAD_OF_HOUSEHOLD + " " +
+            "WHERE l.dangO AND NOT l.daThu ";
+
+    /** SQLState của PostgreSQL khi bảng chưa tồn tại (database chưa chạy nang_cap.sql). */
+    private static final String UNDEFINED_TABLE = "42P01";
+
+    /** Database chưa có sổ công nợ: dùng truy vấn trực tiếp (đã log cảnh báo một lần). */
+    private static volatile boolean ledgerMissing;
+
+    /** Số dòng lấy mỗi lần khi đọc báo cáo bằng cursor. */
+    private static final int REPORT_FETCH_SIZE = 1000;
+
+    /** Số dòng Excel giữ trong bộ nhớ; các dòng cũ hơn được ghi ra file tạm (SXSSF). */
+    private static final int EXCEL_ROW_WINDOW = 200;
+
     @Override
     public List<BaoCaoThu> getRevenueReport(int month, int year) {
         LocalDate fromDate = LocalDate.of(year, month, 1);
@@ -40,63 +99,8 @@ public class BaoCaoServiceImpl implements BaoCaoService {
     public List<BaoCaoThu> getRevenueReport(LocalDate fromDate, LocalDate toDate) {
         List<BaoCaoThu> result = new ArrayList<>();
 
-        // SQL: JOIN các bảng để lấy đầy đủ thông tin hiển thị
-        String sql = "SELECT " +
-                     "pt.id as maPhieu, pt.maHo, pt.maDot, pt.ngayLap, pt.tongTien, " +
-                     "pt.trangThai, pt.hinhThucThu, " +
-                     "hg.soPhong, " +
-                     "dt.tenDot, " +
-                     "COALESCE(nk.hoTen, 'Chưa xác định') as tenChuHo, " +
-                     "tk.hoTen as nguoiThu " +
-                     "FROM PhieuThu pt " +
-                     "JOIN HoGiaDinh hg ON pt.maHo = hg.id " +
-                     "LEFT JOIN DotThu dt ON pt.maDot = dt.id " +
-                     "LEFT JOIN TaiKhoan tk ON pt.maTaiKhoan = tk.id " +
-                     "LEFT JOIN NhanKhau nk ON hg.id = nk.maHo AND nk.quanHeVoiChuHo = 'ChuHo' " +
-                     "WHERE pt.trangThai = 'DaThu' " +
-                     "AND DATE(pt.ngayLap) >= ? AND DATE(pt.ngayLap) <= ? " +
-                     "ORDER BY pt.ngayLap DESC, pt.id";
-
-        try (Connection conn = DatabaseConnector.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-            stmt.setDate(1, java.sql.Date.valueOf(fromDate));
-            stmt.setDate(2, java.sql.Date.valueOf(toDate));
-
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    // Lấy dữ liệu từ ResultSet
-                    int maHo = rs.getInt("maHo");
-                    String soPhong = String.valueOf(rs.getInt("soPhong"));
-                    String chuHo = rs.getString("tenChuHo");
-                    
-                    Timestamp ngayLap = rs.getTimestamp("ngayLap");
-                    LocalDateTime ngayThu = ngayLap != null ? ngayLap.toLocalDateTime() : null;
-                    BigDecimal soTien = rs.getBigDecimal("tongTien");
-                    
-                    String tenDot = rs.getString("tenDot");
-                    String trangThai = rs.getString("trangThai");
-                    String hinhThucThu = rs.getString("hinhThucThu");
-                    String nguoiThu = rs.getString("nguoiThu");
-
-                    // Tạo đối tượng DTO và gán giá trị
-                    BaoCaoThu dto = new BaoCaoThu();
-                    dto.setMaPhieu(rs.getInt("maPhieu"));
-                    dto.setMaHo(maHo);
-                    dto.setSoPhong(soPhong);
-                    dto.setChuHo(chuHo);
-                    // Chuyển đổi LocalDateTime sang LocalDate nếu cần thiết
-                    dto.setNgayThu(ngayThu != null ? ngayThu.toLocalDate() : null);
-                    dto.setSoTien(soTien != null ? soTien : BigDecimal.ZERO);
-                    dto.setTenDot(tenDot != null ? tenDot : "-");
-                    dto.setTrangThai(trangThai);
-                    dto.setHinhThuc(hinhThucThu != null ? hinhThucThu : "-");
-                    dto.setNguoiThu(nguoiThu);
-
-                    result.add(dto);
-                }
-            }
-
+        try {
+            streamRevenueReport(fromDate, toDate, result::add);
         } catch (SQLException e) {
             logger.log(Level.SEVERE, "Error getting revenue report", e);
             e.printStackTrace();
@@ -105,6 +109,62 @@ public class BaoCaoServiceImpl implements BaoCaoService {
         return result;
     }
 
+    /**
+     * Đọc báo cáo thu qua cursor và chuyển từng dòng cho handler, không giữ toàn bộ kết quả.
+     */
+    private void streamRevenueReport(LocalDate fromDate, LocalDate toDate, Consumer<BaoCaoThu> handler)
+            throws SQLException {
+        try (Connection conn = DatabaseConnector.getConnection()) {
+            // Driver chỉ dùng cursor (fetch size) khi autoCommit = false
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(SELECT_REVENUE)) {
+                stmt.setFetchSize(REPORT_FETCH_SIZE);
+                stmt.setDate(1, java.sql.Date.valueOf(fromDate));
+                stmt.setDate(2, java.sql.Date.valueOf(toDate));
+
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        handler.accept(buildBaoCaoThu(rs));
+                    }
+                }
+            } finally {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    private BaoCaoThu buildBaoCaoThu(ResultSet rs) throws SQLException {
+        // Lấy dữ liệu từ ResultSet
+        int maHo = rs.getInt("maHo");
+        String soPhong = String.valueOf(rs.getInt("soPhong"));
+        String chuHo = rs.getString("tenChuHo");
+
+        Timestamp ngayLap = rs.getTimestamp("ngayLap");
+        LocalDateTime ngayThu = ngayLap != null ? ngayLap.toLocalDateTime() : null;
+        BigDecimal soTien = rs.getBigDecimal("tongTien");
+
+        String tenDot = rs.getString("tenDot");
+        String trangThai = rs.getString("trangThai");
+        String hinhThucThu = rs.getString("hinhThucThu");
+        String nguoiThu = rs.getString("nguoiThu");
+
+        // Tạo đối tượng DTO và gán giá trị
+        BaoCaoThu dto = new BaoCaoThu();
+        dto.setMaPhieu(rs.getInt("maPhieu"));
+        dto.setMaHo(maHo);
+        dto.setSoPhong(soPhong);
+        dto.setChuHo(chuHo);
+        // Chuyển đổi LocalDateTime sang LocalDate nếu cần thiết
+        dto.setNgayThu(ngayThu != null ? ngayThu.toLocalDate() : null);
+        dto.setSoTien(soTien != null ? soTien : BigDecimal.ZERO);
+        dto.setTenDot(tenDot != null ? tenDot : "-");
+        dto.setTrangThai(trangThai);
+        dto.setHinhThuc(hinhThucThu != null ? hinhThucThu : "-");
+        dto.setNguoiThu(nguoiThu);
+        return dto;
+    }
+
     @Override
     public List<BaoCaoCongNo> getDebtReport() {
         return getDebtReport(0);
@@ -114,6 +174,26 @@ public class BaoCaoServiceImpl implements BaoCaoService {
     public List<BaoCaoCongNo> getDebtReport(int maDot) {
         List<BaoCaoCongNo> result = new ArrayList<>();
 
+        try {
+            streamDebtReport(maDot, result::add);
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error getting debt report", e);
+            e.printStackTrace();
+        }
+
+        return result;
+    }
+
+    private static String buildDebtLedgerSql(int maDot) {
+        return SELECT_DEBT_LEDGER
+                + (maDot > 0 ? "AND l.maDot = ? " : "")
+                + "ORDER BY l.maDot DESC, l.soPhong ASC";
+    }
+
+    /**
+     * Báo cáo công nợ tính trực tiếp từ bảng gốc, dùng khi database chưa có sổ công nợ.
+     */
+    private static String buildDebtReportSql(int maDot) {
         StringBuilder sql = new StringBuilder();
         sql.append("SELECT ");
         sql.append("hg.id as maHo, hg.soPhong, ");
@@ -126,7 +206,7 @@ public class BaoCaoServiceImpl implements BaoCaoService {
         sql.append("FROM HoGiaDinh hg ");
         sql.append("CROSS JOIN DotThu dt ");
         sql.append("LEFT JOIN PhieuThu pt ON pt.maHo = hg.id AND pt.maDot = dt.id ");
-        sql.append("LEFT JOIN NhanKhau nk ON hg.id = nk.maHo AND nk.quanHeVoiChuHo = 'ChuHo' ");
+        sql.append("LEFT JOIN NhanKhau nk ON hg.id = nk.maHo AND ").append(HEAD_OF_HOUSEHOLD).append(" ");
         sql.append("WHERE hg.trangThai = 'DangO' ");
         
         if (maDot > 0) {
@@ -135,176 +215,283 @@ public class BaoCaoServiceImpl implements BaoCaoService {
         
         sql.append("AND (pt.id IS NULL OR pt.trangThai != 'DaThu') ");
         sql.append("ORDER BY dt.id DESC, hg.soPhong ASC");
+        return sql.toString();
+    }
 
-        try (Connection conn = DatabaseConnector.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
-
-            if (maDot > 0) {
-                stmt.setInt(1, maDot);
+    /**
+     * Đọc báo cáo công nợ qua cursor và chuyển từng dòng cho handler, không giữ toàn bộ kết quả.
+     */
+    private void streamDebtReport(int maDot, Consumer<BaoCaoCongNo> handler) throws SQLException {
+        if (!ledgerMissing) {
+            try {
+                streamDebtReport(buildDebtLedgerSql(maDot), maDot, handler);
+                return;
+            } catch (SQLException e) {
+                // Chưa có dòng nào được đọc khi lỗi thiếu bảng (lỗi xảy ra lúc lập kế hoạch truy vấn)
+                if (!UNDEFINED_TABLE.equals(e.getSQLState())) {
+                    throw e;
+                }
+                ledgerMissing = true;
+                logger.warning("SoCongNo not found (run dtb/nang_cap.sql); falling back to live debt report");
             }
+        }
+        streamDebtReport(buildDebtReportSql(maDot), maDot, handler);
+    }
 
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    BaoCaoCongNo dto = new BaoCaoCongNo();
-                    dto.setMaHo(rs.getInt("maHo"));
-                    dto.setSoPhong(String.valueOf(rs.getInt("soPhong")));
-                    dto.setChuHo(rs.getString("tenChuHo"));
-                    dto.setMaDot(rs.getInt("maDot"));
-                    dto.setTenDot(rs.getString("tenDot"));
-                    dto.setTongTien(rs.getBigDecimal("tongTien"));
-                    dto.setDaThu(rs.getBigDecimal("daThu"));
-                    dto.setConNo(rs.getBigDecimal("conNo"));
-                    dto.setTrangThai(rs.getString("trangThai"));
-
-                    result.add(dto);
+    private void streamDebtReport(String sql, int maDot, Consumer<BaoCaoCongNo> handler) throws SQLException {
+        try (Connection conn = DatabaseConnector.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setFetchSize(REPORT_FETCH_SIZE);
+                if (maDot > 0) {
+                    stmt.setInt(1, maDot);
                 }
-            }
 
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Error getting debt report", e);
-            e.printStackTrace();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        BaoCaoCongNo dto = new BaoCaoCongNo();
+                        dto.setMaHo(rs.getInt("maHo"));
+                        dto.setSoPhong(String.valueOf(rs.getInt("soPhong")));
+                        dto.setChuHo(rs.getString("tenChuHo"));
+                        dto.setMaDot(rs.getInt("maDot"));
+                        dto.setTenDot(rs.getString("tenDot"));
+                        dto.setTongTien(rs.getBigDecimal("tongTien"));
+                        dto.setDaThu(rs.getBigDecimal("daThu"));
+                        dto.setConNo(rs.getBigDecimal("conNo"));
+                        dto.setTrangThai(rs.getString("trangThai"));
+
+                        handler.accept(dto);
+                    }
+                }
+            } finally {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
         }
-
-        return result;
     }
 
     // --- XUẤT EXCEL ---
+    // Workbook dạng streaming (SXSSF): chỉ EXCEL_ROW_WINDOW dòng nằm trong bộ nhớ, phần còn lại
+    // được ghi ra file tạm (nén) và chép thẳng vào luồng ra khi write().
 
     @Override
     public InputStream exportRevenueToExcel(List<BaoCaoThu> data, LocalDate fromDate, LocalDate toDate) {
-        try (Workbook workbook = new XSSFWorkbook()) {
-            Sheet sheet = workbook.createSheet("Báo cáo Thu");
-
-            // Header Style
-            CellStyle headerStyle = workbook.createCellStyle();
-            Font headerFont = workbook.createFont();
-            headerFont.setBold(true);
-            headerStyle.setFont(headerFont);
-            headerStyle.setFillForegroundColor(IndexedColors.LIGHT_CORNFLOWER_BLUE.getIndex());
-            headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-            headerStyle.setAlignment(HorizontalAlignment.CENTER);
-
-            // Number Style
-            CellStyle numberStyle = workbook.createCellStyle();
-            numberStyle.setDataFormat(workbook.createDataFormat().getFormat("#,##0"));
-            numberStyle.setAlignment(HorizontalAlignment.RIGHT);
-
-            // Headers
-            Row headerRow = sheet.createRow(0);
-            String[] headers = {"STT", "Mã Hộ", "Số Phòng", "Chủ Hộ", "Ngày Thu", "Số Tiền", "Đợt Thu", "Trạng Thái", "Hình Thức"};
-            for (int i = 0; i < headers.length; i++) {
-                Cell cell = headerRow.createCell(i);
-                cell.setCellValue(headers[i]);
-                cell.setCellStyle(headerStyle);
-            }
+        SXSSFWorkbook workbook = newStreamingWorkbook();
+        try {
+            RevenueSheet sheet = new RevenueSheet(workbook);
+            data.forEach(sheet::append);
+            sheet.finish();
 
-            // Data
-            int rowNum = 1;
-            int stt = 1;
-            BigDecimal total = BigDecimal.ZERO;
-
-            for (BaoCaoThu dto : data) {
-                Row row = sheet.createRow(rowNum++);
-                row.createCell(0).setCellValue(stt++);
-                row.createCell(1).setCellValue(dto.getMaHo());
-                row.createCell(2).setCellValue(dto.getSoPhong());
-                row.createCell(3).setCellValue(dto.getChuHo());
-                
-                String ngayStr = (dto.getNgayThu() != null) ? dto.getNgayThu().format(DateTimeFormatter.ofPattern("dd/MM/yyyy")) : "";
-                row.createCell(4).setCellValue(ngayStr);
-
-                Cell tienCell = row.createCell(5);
-                tienCell.setCellValue(dto.getSoTien().doubleValue());
-                tienCell.setCellStyle(numberStyle);
-                total = total.add(dto.getSoTien());
-
-                row.createCell(6).setCellValue(dto.getTenDot());
-                row.createCell(7).setCellValue(dto.getTrangThai());
-                row.createCell(8).setCellValue(dto.getHinhThuc());
-            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            workbook.write(out);
+            return new ByteArrayInputStream(out.toByteArray());
 
-            // Total Row
-            Row totalRow = sheet.createRow(rowNum);
-            Cell lblCell = totalRow.createCell(4);
-            lblCell.setCellValue("TỔNG CỘNG:");
-            lblCell.setCellStyle(headerStyle);
-            
-            Cell valCell = totalRow.createCell(5);
-            valCell.setCellValue(total.doubleValue());
-            valCell.setCellStyle(numberStyle);
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Error export revenue excel", e);
+            return null;
+        } finally {
+            closeWorkbook(workbook);
+        }
+    }
+
+    @Override
+    public void writeRevenueExcel(LocalDate fromDate, LocalDate toDate, Supplier<OutputStream> out)
+            throws SQLException, IOException {
+        SXSSFWorkbook workbook = newStreamingWorkbook();
+        try {
+            RevenueSheet sheet = new RevenueSheet(workbook);
+            streamRevenueReport(fromDate, toDate, sheet::append);
+            sheet.finish();
+            // Dữ liệu đã đọc xong (dòng cũ nằm trong file tạm của SXSSF): lúc này mới mở luồng ra
+            workbook.write(out.get());
+            logger.log(Level.INFO, "Exported " + sheet.count + " revenue rows from " + fromDate + " to " + toDate);
+        } finally {
+            closeWorkbook(workbook);
+        }
+    }
 
-            // Auto size
-            for(int i=0; i<headers.length; i++) sheet.autoSizeColumn(i);
+    @Override
+    public InputStream exportDebtToExcel(List<BaoCaoCongNo> data) {
+        SXSSFWorkbook workbook = newStreamingWorkbook();
+        try {
+            DebtSheet sheet = new DebtSheet(workbook);
+            data.forEach(sheet::append);
+            sheet.finish();
 
             ByteArrayOutputStream out = new ByteArrayOutputStream();
             workbook.write(out);
             return new ByteArrayInputStream(out.toByteArray());
 
         } catch (Exception e) {
-            logger.log(Level.SEVERE, "Error export revenue excel", e);
+            logger.log(Level.SEVERE, "Error export debt excel", e);
             return null;
+        } finally {
+            closeWorkbook(workbook);
         }
     }
 
     @Override
-    public InputStream exportDebtToExcel(List<BaoCaoCongNo> data) {
-        try (Workbook workbook = new XSSFWorkbook()) {
-            Sheet sheet = workbook.createSheet("Báo cáo Công nợ");
-
-            // Header Style
-            CellStyle headerStyle = workbook.createCellStyle();
-            Font headerFont = workbook.createFont();
-            headerFont.setBold(true);
-            headerStyle.setFont(headerFont);
-            headerStyle.setFillForegroundColor(IndexedColors.LIGHT_ORANGE.getIndex());
-            headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-            headerStyle.setAlignment(HorizontalAlignment.CENTER);
-
-            // Number Style
-            CellStyle numberStyle = workbook.createCellStyle();
-            numberStyle.setDataFormat(workbook.createDataFormat().getFormat("#,##0"));
-            numberStyle.setAlignment(HorizontalAlignment.RIGHT);
-
-            // Headers
-            Row headerRow = sheet.createRow(0);
-            String[] headers = {"STT", "Mã Hộ", "Số Phòng", "Chủ Hộ", "Đợt Thu", "Tổng Tiền", "Đã Thu", "Còn Nợ", "Trạng Thái"};
-            for (int i = 0; i < headers.length; i++) {
-                Cell cell = headerRow.createCell(i);
-                cell.setCellValue(headers[i]);
-                cell.setCellStyle(headerStyle);
-            }
+    public void writeDebtExcel(int maDot, Supplier<OutputStream> out) throws SQLException, IOException {
+        SXSSFWorkbook workbook = newStreamingWorkbook();
+        try {
+            DebtSheet sheet = new DebtSheet(workbook);
+            streamDebtReport(maDot, sheet::append);
+            sheet.finish();
+            workbook.write(out.get());
+            logger.log(Level.INFO, "Exported " + sheet.count + " debt rows for drive " + maDot);
+        } finally {
+            closeWorkbook(workbook);
+        }
+    }
 
-            // Data
-            int rowNum = 1;
-            int stt = 1;
-            BigDecimal totalDebt = BigDecimal.ZERO;
-
-            for (BaoCaoCongNo dto : data) {
-                Row row = sheet.createRow(rowNum++);
-                row.createCell(0).setCellValue(stt++);
-                row.createCell(1).setCellValue(dto.getMaHo());
-                row.createCell(2).setCellValue(dto.getSoPhong());
-                row.createCell(3).setCellValue(dto.getChuHo());
-                row.createCell(4).setCellValue(dto.getTenDot());
-
-                Cell cTong = row.createCell(5);
-                cTong.setCellValue(dto.getTongTien().doubleValue());
-                cTong.setCellStyle(numberStyle);
-
-                Cell cDaThu = row.createCell(6);
-                cDaThu.setCellValue(dto.getDaThu().doubleValue());
-                cDaThu.setCellStyle(numberStyle);
-
-                Cell cConNo = row.createCell(7);
-                cConNo.setCellValue(dto.getConNo().doubleValue());
-                cConNo.setCellStyle(numberStyle);
-                totalDebt = totalDebt.add(dto.getConNo());
-
-                row.createCell(8).setCellValue(dto.getTrangThai());
-            }
+    private static SXSSFWorkbook newStreamingWorkbook() {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(EXCEL_ROW_WINDOW);
+        workbook.setCompressTempFiles(true);
+        return workbook;
+    }
+
+    private static void closeWorkbook(SXSSFWorkbook workbook) {
+        // Xóa các file tạm của SXSSF
+        workbook.dispose();
+        try {
+            workbook.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error closing workbook", e);
+        }
+    }
+
+    private static CellStyle headerStyle(Workbook workbook, IndexedColors color) {
+        CellStyle headerStyle = workbook.createCellStyle();
+        Font headerFont = workbook.createFont();
+        headerFont.setBold(true);
+        headerStyle.setFont(headerFont);
+        headerStyle.setFillForegroundColor(color.getIndex());
+        headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+        headerStyle.setAlignment(HorizontalAlignment.CENTER);
+        return headerStyle;
+    }
+
+    private static CellStyle numberStyle(Workbook workbook) {
+        CellStyle numberStyle = workbook.createCellStyle();
+        numberStyle.setDataFormat(workbook.createDataFormat().getFormat("#,##0"));
+        numberStyle.setAlignment(HorizontalAlignment.RIGHT);
+        return numberStyle;
+    }
+
+    /**
+     * Ghi tiêu đề và đặt độ rộng cột cố định (autoSizeColumn cần đọc lại mọi dòng, không dùng được với SXSSF).
+     */
+    private static void writeHeader(Sheet sheet, String[] headers, int[] widths, CellStyle style) {
+        Row headerRow = sheet.createRow(0);
+        for (int i = 0; i < headers.length; i++) {
+            Cell cell = headerRow.createCell(i);
+            cell.setCellValue(headers[i]);
+            cell.setCellStyle(style);
+            sheet.setColumnWidth(i, widths[i] * 256);
+        }
+    }
+
+    /**
+     * Sheet báo cáo thu: nhận từng dòng và cộng dồn tổng tiền.
+     */
+    private static class RevenueSheet {
+        private static final String[] HEADERS = {"STT", "Mã Hộ", "Số Phòng", "Chủ Hộ", "Ngày Thu", "Số Tiền", "Đợt Thu", "Trạng Thái", "Hình Thức"};
+        private static final int[] WIDTHS = {6, 8, 10, 28, 12, 16, 28, 12, 14};
+        private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+        private final Sheet sheet;
+        private final CellStyle headerStyle;
+        private final CellStyle numberStyle;
+        private int count;
+        private BigDecimal total = BigDecimal.ZERO;
+
+        RevenueSheet(Workbook workbook) {
+            this.sheet = workbook.createSheet("Báo cáo Thu");
+            this.headerStyle = headerStyle(workbook, IndexedColors.LIGHT_CORNFLOWER_BLUE);
+            this.numberStyle = numberStyle(workbook);
+            writeHeader(sheet, HEADERS, WIDTHS, headerStyle);
+        }
+
+        void append(BaoCaoThu dto) {
+            Row row = sheet.createRow(++count);
+            row.createCell(0).setCellValue(count);
+            row.createCell(1).setCellValue(dto.getMaHo());
+            row.createCell(2).setCellValue(dto.getSoPhong());
+            row.createCell(3).setCellValue(dto.getChuHo());
+
+            String ngayStr = (dto.getNgayThu() != null) ? dto.getNgayThu().format(DATE_FORMAT) : "";
+            row.createCell(4).setCellValue(ngayStr);
+
+            Cell tienCell = row.createCell(5);
+            tienCell.setCellValue(dto.getSoTien().doubleValue());
+            tienCell.setCellStyle(numberStyle);
+            total = total.add(dto.getSoTien());
 
+            row.createCell(6).setCellValue(dto.getTenDot());
+            row.createCell(7).setCellValue(dto.getTrangThai());
+            row.createCell(8).setCellValue(dto.getHinhThuc());
+        }
+
+        void finish() {
             // Total Row
-            Row totalRow = sheet.createRow(rowNum);
+            Row totalRow = sheet.createRow(count + 1);
+            Cell lblCell = totalRow.createCell(4);
+            lblCell.setCellValue("TỔNG CỘNG:");
+            lblCell.setCellStyle(headerStyle);
+
+            Cell valCell = totalRow.createCell(5);
+            valCell.setCellValue(total.doubleValue());
+            valCell.setCellStyle(numberStyle);
+        }
+    }
+
+    /**
+     * Sheet báo cáo công nợ: nhận từng dòng và cộng dồn tổng nợ.
+     */
+    private static class DebtSheet {
+        private static final String[] HEADERS = {"STT", "Mã Hộ", "Số Phòng", "Chủ Hộ", "Đợt Thu", "Tổng Tiền", "Đã Thu", "Còn Nợ", "Trạng Thái"};
+        private static final int[] WIDTHS = {6, 8, 10, 28, 28, 16, 16, 16, 16};
+
+        private final Sheet sheet;
+        private final CellStyle headerStyle;
+        private final CellStyle numberStyle;
+        private int count;
+        private BigDecimal totalDebt = BigDecimal.ZERO;
+
+        DebtSheet(Workbook workbook) {
+            this.sheet = workbook.createSheet("Báo cáo Công nợ");
+            this.headerStyle = headerStyle(workbook, IndexedColors.LIGHT_ORANGE);
+            this.numberStyle = numberStyle(workbook);
+            writeHeader(sheet, HEADERS, WIDTHS, headerStyle);
+        }
+
+        void append(BaoCaoCongNo dto) {
+            Row row = sheet.createRow(++count);
+            row.createCell(0).setCellValue(count);
+            row.createCell(1).setCellValue(dto.getMaHo());
+            row.createCell(2).setCellValue(dto.getSoPhong());
+            row.createCell(3).setCellValue(dto.getChuHo());
+            row.createCell(4).setCellValue(dto.getTenDot());
+
+            Cell cTong = row.createCell(5);
+            cTong.setCellValue(dto.getTongTien().doubleValue());
+            cTong.setCellStyle(numberStyle);
+
+            Cell cDaThu = row.createCell(6);
+            cDaThu.setCellValue(dto.getDaThu().doubleValue());
+            cDaThu.setCellStyle(numberStyle);
+
+            Cell cConNo = row.createCell(7);
+            cConNo.setCellValue(dto.getConNo().doubleValue());
+            cConNo.setCellStyle(numberStyle);
+            totalDebt = totalDebt.add(dto.getConNo());
+
+            row.createCell(8).setCellValue(dto.getTrangThai());
+        }
+
+        void finish() {
+            // Total Row
+            Row totalRow = sheet.createRow(count + 1);
             Cell lblCell = totalRow.createCell(6);
             lblCell.setCellValue("TỔNG NỢ:");
             lblCell.setCellStyle(headerStyle);
@@ -312,17 +499,6 @@ public class BaoCaoServiceImpl implements BaoCaoService {
             Cell valCell = totalRow.createCell(7);
             valCell.setCellValue(totalDebt.doubleValue());
             valCell.setCellStyle(numberStyle);
-
-            // Auto size
-            for(int i=0; i<headers.length; i++) sheet.autoSizeColumn(i);
-
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            workbook.write(out);
-            return new ByteArrayInputStream(out.toByteArray());
-
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "Error export debt excel", e);
-            return null;
         }
     }
-}
\ No newline at end of file
+}
@@ -224,81 +224,6 @@ public class ChiTietThuServiceImpl implements ChiTietThuService {
         }
     }
 
-    /**
-     * Save all ChiTietThu using an existing connection (for transaction support).
-     * 
-     * @param listChiTiet List of ChiTietThu to save
-     * @param conn Existing database connection
-     * @return true if successful
-     */
-    public boolean saveAll(List<ChiTietThu> listChiTiet, Connection conn) {
-        if (listChiTiet == null || listChiTiet.isEmpty()) {
-            return true; // Empty list is considered success
-        }
-
-        try (PreparedStatement pstmt = conn.prepareStatement(INSERT)) {
-            int batchCount = 0;
-            for (ChiTietThu chiTiet : listChiTiet) {
-                if (chiTiet == null) {
-                    continue;
-                }
-
-                // Validate required fields
-                if (chiTiet.getMaPhieu() <= 0 || chiTiet.getMaKhoan() <= 0) {
-                    logger.log(Level.WARNING, "Skipping invalid ChiTietThu: maPhieu=" + chiTiet.getMaPhieu() + 
-                        ", maKhoan=" + chiTiet.getMaKhoan());
-                    continue;
-                }
-
-                // Validate donGia and soLuong (thanhTien sẽ được tính = soLuong * donGia)
-                if (chiTiet.getDonGia() == null || chiTiet.getSoLuong() == null) {
-                    logger.log(Level.WARNING, "Skipping ChiTietThu with invalid donGia or soLuong");
-                    continue;
-                }
-
-                // Tính thanhTien = soLuong * donGia
-                BigDecimal thanhTien = chiTiet.getSoLuong().multiply(chiTiet.getDonGia());
-
-                pstmt.setInt(1, chiTiet.getMaPhieu());
-                pstmt.setInt(2, chiTiet.getMaKhoan());
-                pstmt.setBigDecimal(3, chiTiet.getSoLuong());
-                pstmt.setBigDecimal(4, chiTiet.getDonGia());
-                pstmt.setBigDecimal(5, thanhTien);
-                pstmt.setString(6, null); // ghiChu
-
-                pstmt.addBatch();
-                batchCount++;
-            }
-
-            if (batchCount == 0) {
-                logger.log(Level.WARNING, "No valid ChiTietThu records to save");
-                return false;
-            }
-
-            int[] results = pstmt.executeBatch();
-            int successCount = 0;
-            for (int result : results) {
-                if (result >= 0) {
-                    successCount++;
-                }
-            }
-
-            boolean success = successCount == batchCount;
-            if (success) {
-                logger.log(Level.FINE, "Successfully saved " + successCount + " ChiTietThu records in batch (transaction)");
-            } else {
-                logger.log(Level.WARNING, "Partially saved ChiTietThu in transaction: " + successCount + "/" + batchCount);
-            }
-
-            return success;
-
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Error saving ChiTietThu list in batch (transaction)", e);
-            e.printStackTrace();
-            return false;
-        }
-    }
-
     @Override
     public boolean deleteByMaPhieu(int maPhieu) {
         if (maPhieu <= 0) {
@@ -329,38 +254,6 @@ public class ChiTietThuServiceImpl implements ChiTietThuService {
         }
     }
 
-    /**
-     * Delete all ChiTietThu by maPhieu using an existing connection (for transaction support).
-     * 
-     * @param maPhieu Receipt ID
-     * @param conn Existing database connection
-     * @return true if successful
-     */
-    public boolean deleteByMaPhieu(int maPhieu, Connection conn) {
-        if (maPhieu <= 0) {
-            logger.log(Level.WARNING, "Cannot delete ChiTietThu: maPhieu is invalid");
-            return false;
-        }
-
-        try (PreparedStatement pstmt = conn.prepareStatement(DELETE_BY_MAPHIEU)) {
-            pstmt.setInt(1, maPhieu);
-
-            int rowsAffected = pstmt.executeUpdate();
-            boolean success = rowsAffected >= 0;
-
-            if (success) {
-                logger.log(Level.FINE, "Successfully deleted " + rowsAffected + " ChiTietThu records for maPhieu: " + maPhieu + " (transaction)");
-            }
-
-            return success;
-
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Error deleting ChiTietThu for maPhieu: " + maPhieu + " (transaction)", e);
-            e.printStackTrace();
-            return false;
-        }
-    }
-
     /**
      * Xây dựng đối tượng ChiTietThu từ ResultSet.
      * 
@@ -0,0 +1,58 @@
+package com.bluemoon.services.impl;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import com.bluemoon.services.RowHandler;
+import com.bluemoon.utils.DatabaseConnector;
+
+/**
+ * CursorReader: đọc kết quả truy vấn qua cursor phía server (forward-only, fetch size) và chuyển từng dòng
+ * cho handler, nên bộ nhớ và thời gian tới dòng đầu tiên không phụ thuộc số dòng.
+ */
+final class CursorReader {
+
+    /** Số dòng mỗi lần lấy từ cursor. */
+    static final int FETCH_SIZE = 500;
+
+    /** Dựng đối tượng từ dòng hiện tại. */
+    @FunctionalInterface
+    interface RowMapper<T> {
+        T map(ResultSet rs) throws SQLException;
+    }
+
+    private CursorReader() {}
+
+    /**
+     * @param sql     câu truy vấn không tham số
+     * @param mapper  dựng đối tượng từ từng dòng
+     * @param handler nhận từng đối tượng
+     * @return số dòng đã đọc
+     * @throws SQLException nếu lỗi truy vấn
+     * @throws IOException  nếu handler lỗi
+     */
+    static <T> int stream(String sql, RowMapper<T> mapper, RowHandler<? super T> handler)
+            throws SQLException, IOException {
+        int count = 0;
+        try (Connection conn = DatabaseConnector.getConnection()) {
+            // Driver chỉ dùng cursor (fetch size) khi autoCommit = false; chỉ đọc nên kết thúc bằng rollback
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setFetchSize(FETCH_SIZE);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        handler.accept(mapper.map(rs));
+                        count++;
+                    }
+                }
+            } finally {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        }
+        return count;
+    }
+}
@@ -14,10 +14,15 @@ import java.util.logging.Logger;
 import com.bluemoon.models.DotThu;
 import com.bluemoon.services.DotThuService;
 import com.bluemoon.utils.DatabaseConnector;
+import com.bluemoon.utils.Job;
+import com.bluemoon.utils.JobManager;
+import com.bluemoon.utils.ReferenceDataCache;
+import com.bluemoon.utils.ResourceVersions;
 
 /**
  * Triển khai {@link DotThuService} với database integration.
  * Sử dụng PreparedStatement để tránh SQL injection và kiểm tra ràng buộc trước khi xóa.
+ * Đợt thu được cache qua {@link ReferenceDataCache}; mọi thao tác ghi thành công đều xóa mục tương ứng.
  */
 public class DotThuServiceImpl implements DotThuService {
 
@@ -42,12 +47,27 @@ public class DotThuServiceImpl implements DotThuService {
     private static final String CHECK_DEPENDENCIES = 
             "SELECT COUNT(*) FROM PhieuThu WHERE maDot = ?";
 
+    // Không phân biệt dấu/hoa thường trên tên đợt, ghi chú (index trigram idx_dotthu_tim_kiem)
     private static final String SEARCH = 
             "SELECT id, tenDot, ngayBatDau, ngayKetThuc, trangThai, ghiChu FROM DotThu " +
-            "WHERE tenDot LIKE ? OR ghiChu LIKE ? ORDER BY id";
+            "WHERE " + TimKiemServiceImpl.DOC_DOT_THU + " LIKE fn_KhongDau(?) ORDER BY id";
+
+    private final ReferenceDataCache cache = ReferenceDataCache.getInstance();
+
+    private final PhieuThuGenerationEngine generationEngine = new PhieuThuGenerationEngine(new KhoanThuServiceImpl());
 
     @Override
     public List<DotThu> getAllDotThu() {
+        List<DotThu> cached = cache.getDotThuList();
+        if (cached != null) {
+            List<DotThu> copies = new ArrayList<>(cached.size());
+            for (DotThu dotThu : cached) {
+                copies.add(copyOf(dotThu));
+            }
+            return copies;
+        }
+
+        long version = cache.dotThuVersion();
         Connection conn = null;
         PreparedStatement pstmt = null;
         ResultSet rs = null;
@@ -63,7 +83,12 @@ public class DotThuServiceImpl implements DotThuService {
             }
 
             logger.log(Level.INFO, "Retrieved " + result.size() + " collection drives");
-            return result;
+            cache.putDotThuList(result, version);
+            List<DotThu> copies = new ArrayList<>(result.size());
+            for (DotThu dotThu : result) {
+                copies.add(copyOf(dotThu));
+            }
+            return copies;
 
         } catch (SQLException e) {
             logger.log(Level.SEVERE, "Error retrieving all collection drives", e);
@@ -75,6 +100,12 @@ public class DotThuServiceImpl implements DotThuService {
 
     @Override
     public DotThu getDotThuById(int id) {
+        DotThu cached = cache.getDotThu(id);
+        if (cached != null) {
+            return copyOf(cached);
+        }
+
+        long version = cache.dotThuVersion();
         Connection conn = null;
         PreparedStatement pstmt = null;
         ResultSet rs = null;
@@ -86,7 +117,9 @@ public class DotThuServiceImpl implements DotThuService {
             rs = pstmt.executeQuery();
 
             if (rs.next()) {
-                return buildDotThuFromResultSet(rs);
+                DotThu dotThu = buildDotThuFromResultSet(rs);
+                cache.putDotThu(dotThu, version);
+                return copyOf(dotThu);
             }
 
             return null;
@@ -137,6 +170,8 @@ public class DotThuServiceImpl implements DotThuService {
             boolean success = rowsAffected > 0;
 
             if (success) {
+                cache.invalidateDotThuList();
+                ResourceVersions.bump(ResourceVersions.Resource.DOT_THU);
                 logger.log(Level.INFO, "Successfully added collection drive: " + dotThu.getTenDot());
             } else {
                 logger.log(Level.WARNING, "Failed to add collection drive: " + dotThu.getTenDot());
@@ -184,6 +219,8 @@ public class DotThuServiceImpl implements DotThuService {
             boolean success = rowsAffected > 0;
 
             if (success) {
+                cache.invalidateDotThu(dotThu.getId());
+                ResourceVersions.bump(ResourceVersions.Resource.DOT_THU);
                 logger.log(Level.INFO, "Successfully updated collection drive with id: " + dotThu.getId());
             } else {
                 logger.log(Level.WARNING, "Failed to update collection drive with id: " + dotThu.getId());
@@ -235,6 +272,8 @@ public class DotThuServiceImpl implements DotThuService {
             boolean success = rowsAffected > 0;
 
             if (success) {
+                cache.invalidateDotThu(id);
+                ResourceVersions.bump(ResourceVersions.Resource.DOT_THU);
                 logger.log(Level.INFO, "Successfully deleted collection drive with id: " + id);
             } else {
                 logger.log(Level.WARNING, "Failed to delete collection drive with id: " + id);
@@ -265,9 +304,7 @@ public class DotThuServiceImpl implements DotThuService {
             conn = DatabaseConnector.getConnection();
             pstmt = conn.prepareStatement(SEARCH);
 
-            String searchPattern = "%" + keyword.trim() + "%";
-            pstmt.setString(1, searchPattern);
-            pstmt.setString(2, searchPattern);
+            pstmt.setString(1, TimKiemServiceImpl.containsPattern(keyword.trim()));
 
             rs = pstmt.executeQuery();
 
@@ -315,6 +352,14 @@ public class DotThuServiceImpl implements DotThuService {
         return dotThu;
     }
 
+    /**
+     * Sao chép đợt thu để caller có thể sửa mà không ảnh hưởng bản trong cache.
+     */
+    private static DotThu copyOf(DotThu source) {
+        return new DotThu(source.getId(), source.getTenDot(), source.getNgayBatDau(),
+                source.getNgayKetThuc(), source.getTrangThai(), source.getGhiChu());
+    }
+
     /**
      * Chuyển đổi LocalDate sang java.sql.Date.
      *
@@ -356,7 +401,6 @@ public class DotThuServiceImpl implements DotThuService {
         Connection conn = null;
         PreparedStatement pstmt = null;
         ResultSet rs = null;
-        java.sql.CallableStatement cstmt = null;
         int newDotThuId = -1;
 
         try {
@@ -364,8 +408,7 @@ public class DotThuServiceImpl implements DotThuService {
             
             // 1. INSERT ĐỢT THU VÀ LẤY ID TỰ SINH
             // Thêm Statement.RETURN_GENERATED_KEYS
-            String sqlInsert = "INSERT INTO DotThu (tenDot, ngayBatDau, ngayKetThuc, trangThai, ghiChu) VALUES (?, ?, ?, ?, ?)";
-            pstmt = conn.prepareStatement(sqlInsert, java.sql.Statement.RETURN_GENERATED_KEYS);
+            pstmt = conn.prepareStatement(INSERT, java.sql.Statement.RETURN_GENERATED_KEYS);
 
             pstmt.setString(1, dotThu.getTenDot().trim());
             pstmt.setDate(2, convertToSqlDate(dotThu.getNgayBatDau()));
@@ -377,38 +420,60 @@ public class DotThuServiceImpl implements DotThuService {
 
             // 2. LẤY ID VỪA TẠO
             if (rowsAffected > 0) {
+                cache.invalidateDotThuList();
+                ResourceVersions.bump(ResourceVersions.Resource.DOT_THU);
                 rs = pstmt.getGeneratedKeys();
                 if (rs.next()) {
                     newDotThuId = rs.getInt(1);
                 }
             }
-
-            // 3. GỌI PROCEDURE ĐỂ SINH PHIẾU THU TỰ ĐỘNG
-            if (newDotThuId != -1) {
-                // Gọi Procedure SQL: pr_TaoHoaDonHangLoat(id_dot, id_nguoi_tao)
-                String sqlProc = "call pr_TaoHoaDonHangLoat(?, ?)";
-                cstmt = conn.prepareCall(sqlProc);
-                
-                cstmt.setInt(1, newDotThuId);
-                cstmt.setInt(2, nguoiTaoId); // ID người dùng lấy từ session/frontend
-                
-                cstmt.execute(); 
-                
-                logger.log(Level.INFO, "Đã tạo đợt thu ID " + newDotThuId + " và sinh phiếu thu xong.");
-            }
-
-            return newDotThuId;
-
         } catch (SQLException e) {
             logger.log(Level.SEVERE, "Lỗi tạo đợt thu kèm phiếu", e);
             return -1;
         } finally {
-            // Đóng kết nối thủ công (giữ nguyên phong cách code cũ của bạn)
+            closeResources(conn, pstmt, rs);
+        }
+
+        // 3. SINH PHIẾU THU BẰNG JOB CHẠY NỀN (không giữ luồng HTTP trong lúc sinh phiếu)
+        if (newDotThuId != -1) {
+            final int maDot = newDotThuId;
+            Job job = JobManager.getInstance().submit("create-drive-receipts", JobManager.driveGenerationKey(maDot),
+                    "Sinh phiếu thu cho đợt thu \"" + dotThu.getTenDot().trim() + "\" (ID " + maDot + ")",
+                    j -> runBatchInvoiceGeneration(maDot, nguoiTaoId, j));
+            logger.log(Level.INFO, "Đã tạo đợt thu ID " + maDot + ", job sinh phiếu thu: " + job.getId());
+        }
+
+        return newDotThuId;
+    }
+
+    /**
+     * Sinh phiếu thu cho đợt thu vừa tạo bằng {@link PhieuThuGenerationEngine} trong một transaction, cùng đường
+     * với /api/dot-thu/{id}/generate nhưng theo quy tắc của pr_TaoHoaDonHangLoat
+     * ({@link PhieuThuGenerationEngine.BillingRules#NEW_DRIVE}): job nhận tổng số hộ và tiến độ sau từng lát ghi
+     * (tốc độ, ETA), hủy job dừng giữa các lát và rollback nên không để lại phiếu thu dở dang.
+     *
+     * @param maDot      mã đợt thu
+     * @param nguoiTaoId tài khoản lập phiếu
+     * @param job        job đang chạy (nhận tiến độ)
+     * @return số phiếu thu đã tạo
+     * @throws SQLException nếu lỗi database (transaction đã được rollback)
+     */
+    private int runBatchInvoiceGeneration(int maDot, int nguoiTaoId, Job job) throws SQLException {
+        try (Connection conn = DatabaseConnector.getConnection()) {
+            conn.setAutoCommit(false);
             try {
-                if (cstmt != null) cstmt.close();
-                closeResources(conn, pstmt, rs);
-            } catch (SQLException ex) {
-                ex.printStackTrace();
+                PhieuThuGenerationEngine.GenerationPlan plan = generationEngine.plan(conn, maDot,
+                        PhieuThuGenerationEngine.BillingRules.NEW_DRIVE);
+                // ngayLap = ngày hiện tại (CURRENT_DATE như procedure), không kèm giờ
+                int count = generationEngine.write(conn, plan, nguoiTaoId, LocalDate.now().atStartOfDay(), job);
+                conn.commit();
+                logger.log(Level.INFO, "Đã sinh " + count + " phiếu thu cho đợt thu ID " + maDot);
+                return count;
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
             }
         }
     }
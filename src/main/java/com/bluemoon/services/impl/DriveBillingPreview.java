@@ -0,0 +1,224 @@
+package com.bluemoon.services.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import com.bluemoon.models.ChiTietThu;
+import com.bluemoon.models.DotThu;
+import com.bluemoon.utils.DatabaseConnector;
+
+/**
+ * DriveBillingPreview: xem trước kết quả sinh phiếu thu của một đợt thu mà không ghi xuống database.
+ * Dùng cùng {@link FeeRule} và dữ liệu hộ như {@link PhieuThuGenerationEngine}; hộ được đọc qua cursor
+ * và ghi JSON ngay khi tính xong, nên bộ nhớ chỉ phụ thuộc số khoản thu, không phụ thuộc số hộ.
+ *
+ * Định dạng:
+ * <pre>
+ * { "maDot", "tenDot", "fees": [...],
+ *   "households": [ { "maHo", "soPhong", "tongTien", "chiTiet": [ { "maKhoan", "soLuong", "donGia", "thanhTien" } ] } ],
+ *   "summary": { "householdCount", "receiptCount", "alreadyBilledCount", "zeroAmountCount", "tongTien",
+ *                "fees": [ { "maKhoan", "tenKhoan", "soHo", "tongSoLuong", "tongTien" } ] } }
+ * </pre>
+ * Nếu lỗi database khi đang đọc hộ (phần đầu đã gửi với status 200), đối tượng được đóng với trường
+ * {@code "error"} thay cho {@code "summary"}.
+ */
+public class DriveBillingPreview {
+
+    private static final Logger logger = Logger.getLogger(DriveBillingPreview.class.getName());
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private final PhieuThuGenerationEngine engine;
+
+    public DriveBillingPreview(PhieuThuGenerationEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Tính và ghi bản xem trước dưới dạng JSON.
+     *
+     * @param dotThu            đợt thu
+     * @param out               luồng ghi kết quả (không bị đóng)
+     * @param includeHouseholds false để chỉ trả về phần tổng hợp
+     * @throws SQLException nếu lỗi truy vấn trước khi bắt đầu ghi
+     * @throws IOException  nếu lỗi ghi
+     */
+    public void write(DotThu dotThu, OutputStream out, boolean includeHouseholds) throws SQLException, IOException {
+        List<FeeRule> rules = FeeRule.compileAll(engine.loadMandatoryFees());
+        FeeTotals[] feeTotals = new FeeTotals[rules.size()];
+        for (int i = 0; i < feeTotals.length; i++) {
+            feeTotals[i] = new FeeTotals();
+        }
+        Totals totals = new Totals();
+
+        try (JsonGenerator gen = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8);
+             Connection conn = DatabaseConnector.getConnection()) {
+            gen.writeStartObject();
+            gen.writeNumberField("maDot", dotThu.getId());
+            gen.writeStringField("tenDot", dotThu.getTenDot());
+
+            gen.writeArrayFieldStart("fees");
+            for (FeeRule rule : rules) {
+                gen.writeStartObject();
+                gen.writeNumberField("maKhoan", rule.getMaKhoan());
+                gen.writeStringField("tenKhoan", rule.getTenKhoan());
+                writeNumberField(gen, "donGia", rule.getDonGia());
+                gen.writeStringField("tinhTheo", rule.getBasis().name());
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+
+            if (includeHouseholds) {
+                gen.writeArrayFieldStart("households");
+            }
+
+            try {
+                // Cursor chỉ hoạt động khi autoCommit = false; chỉ đọc nên kết thúc bằng rollback
+                conn.setAutoCommit(false);
+                conn.setReadOnly(true);
+                try {
+                    engine.streamHouseholds(conn, dotThu.getId(), (household, alreadyBilled) -> {
+                        totals.householdCount++;
+                        if (alreadyBilled) {
+                            totals.alreadyBilledCount++;
+                            return;
+                        }
+
+                        PhieuThuGenerationEngine.PlannedReceipt receipt = rules.isEmpty()
+                                ? null : engine.computeReceipt(household, rules);
+                        if (receipt == null) {
+                            totals.zeroAmountCount++;
+                        } else {
+                            totals.receiptCount++;
+                            totals.tongTien = totals.tongTien.add(receipt.getTongTien());
+                            accumulate(rules, feeTotals, receipt);
+                        }
+
+                        if (includeHouseholds) {
+                            writeHousehold(gen, household, receipt);
+                        }
+                    });
+                } finally {
+                    conn.rollback();
+                    conn.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                // Phần đầu JSON đã gửi đi (status 200): đánh dấu lỗi thay cho summary để client không coi
+                // danh sách hộ bị cắt là kết quả đầy đủ
+                logger.log(Level.SEVERE, "Preview of drive " + dotThu.getId() + " failed after "
+                        + totals.householdCount + " households", e);
+                if (gen.getOutputContext().inArray()) {
+                    gen.writeEndArray();
+                }
+                gen.writeStringField("error", "Preview aborted: database error after "
+                        + totals.householdCount + " households");
+                gen.writeEndObject();
+                return;
+            }
+
+            if (includeHouseholds) {
+                gen.writeEndArray();
+            }
+
+            writeSummary(gen, rules, feeTotals, totals);
+            gen.writeEndObject();
+        }
+
+        logger.log(Level.INFO, "Previewed drive " + dotThu.getId() + ": " + totals.receiptCount + " receipts, total "
+                + totals.tongTien.toPlainString() + " over " + totals.householdCount + " households");
+    }
+
+    private static void accumulate(List<FeeRule> rules, FeeTotals[] feeTotals,
+                                   PhieuThuGenerationEngine.PlannedReceipt receipt) {
+        // Các dòng chi tiết giữ thứ tự của rules nhưng bỏ qua khoản không áp dụng
+        int ruleIdx = 0;
+        for (ChiTietThu line : receipt.getLines()) {
+            while (rules.get(ruleIdx).getMaKhoan() != line.getMaKhoan()) {
+                ruleIdx++;
+            }
+            FeeTotals fee = feeTotals[ruleIdx++];
+            fee.soHo++;
+            fee.tongSoLuong = fee.tongSoLuong.add(line.getSoLuong());
+            fee.tongTien = fee.tongTien.add(line.getThanhTien());
+        }
+    }
+
+    private static void writeHousehold(JsonGenerator gen, PhieuThuGenerationEngine.HouseholdSnapshot household,
+                                       PhieuThuGenerationEngine.PlannedReceipt receipt) throws IOException {
+        gen.writeStartObject();
+        gen.writeNumberField("maHo", household.getHousehold().getId());
+        gen.writeNumberField("soPhong", household.getHousehold().getSoPhong());
+        writeNumberField(gen, "tongTien", receipt != null ? receipt.getTongTien() : BigDecimal.ZERO);
+        gen.writeArrayFieldStart("chiTiet");
+        if (receipt != null) {
+            for (ChiTietThu line : receipt.getLines()) {
+                gen.writeStartObject();
+                gen.writeNumberField("maKhoan", line.getMaKhoan());
+                writeNumberField(gen, "soLuong", line.getSoLuong());
+                writeNumberField(gen, "donGia", line.getDonGia());
+                writeNumberField(gen, "thanhTien", line.getThanhTien());
+                gen.writeEndObject();
+            }
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+    }
+
+    private static void writeSummary(JsonGenerator gen, List<FeeRule> rules, FeeTotals[] feeTotals,
+                                     Totals totals) throws IOException {
+        gen.writeObjectFieldStart("summary");
+        gen.writeNumberField("householdCount", totals.householdCount);
+        gen.writeNumberField("receiptCount", totals.receiptCount);
+        gen.writeNumberField("alreadyBilledCount", totals.alreadyBilledCount);
+        gen.writeNumberField("zeroAmountCount", totals.zeroAmountCount);
+        writeNumberField(gen, "tongTien", totals.tongTien);
+        gen.writeArrayFieldStart("fees");
+        for (int i = 0; i < feeTotals.length; i++) {
+            gen.writeStartObject();
+            gen.writeNumberField("maKhoan", rules.get(i).getMaKhoan());
+            gen.writeStringField("tenKhoan", rules.get(i).getTenKhoan());
+            gen.writeNumberField("soHo", feeTotals[i].soHo);
+            writeNumberField(gen, "tongSoLuong", feeTotals[i].tongSoLuong);
+            writeNumberField(gen, "tongTien", feeTotals[i].tongTien);
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+    }
+
+    private static void writeNumberField(JsonGenerator gen, String name, BigDecimal value) throws IOException {
+        gen.writeFieldName(name);
+        if (value == null) {
+            gen.writeNull();
+        } else {
+            gen.writeNumber(value);
+        }
+    }
+
+    /** Bộ đếm tổng hợp của cả đợt. */
+    private static class Totals {
+        private int householdCount;
+        private int receiptCount;
+        private int alreadyBilledCount;
+        private int zeroAmountCount;
+        private BigDecimal tongTien = BigDecimal.ZERO;
+    }
+
+    /** Bộ đếm tổng hợp của một khoản thu. */
+    private static class FeeTotals {
+        private int soHo;
+        private BigDecimal tongSoLuong = BigDecimal.ZERO;
+        private BigDecimal tongTien = BigDecimal.ZERO;
+    }
+}
@@ -0,0 +1,245 @@
+package com.bluemoon.services.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.lowagie.text.Document;
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.pdf.PdfCopy;
+import com.lowagie.text.pdf.PdfReader;
+
+import com.bluemoon.models.HoaDon;
+import com.bluemoon.utils.DatabaseConnector;
+
+/**
+ * DriveInvoiceExporter: xuất PDF phiếu thu của cả một đợt thu trong một lần gọi.
+ * <p>
+ * Toàn bộ phiếu thu và chi tiết được đọc bằng một truy vấn qua cursor ({@link HoaDonReader}) vào bộ nhớ
+ * (chỉ dữ liệu, vài trăm byte mỗi phiếu) rồi trả connection về pool ngay, nên client tải chậm không giữ
+ * connection. Sau đó mỗi phiếu được dựng PDF song song trên pool riêng ({@value #PARALLELISM_PROPERTY})
+ * bằng {@link InvoicePdfRenderer} và ghi ra luồng theo đúng thứ tự số phòng; chỉ tối đa
+ * {@code parallelism * WINDOW_PER_THREAD} PDF nằm trong bộ nhớ tại một thời điểm.
+ * <p>
+ * Luồng ra chỉ được mở (caller đặt header lúc này) khi đợt thu có ít nhất một phiếu thu.
+ * <ul>
+ *   <li>{@link Format#ZIP}: mỗi phiếu một file {@code PhieuThu_<soPhong>_<id>.pdf}</li>
+ *   <li>{@link Format#PDF}: một file PDF nhiều trang (các trang được chép bằng PdfCopy)</li>
+ * </ul>
+ */
+public class DriveInvoiceExporter {
+
+    private static final Logger logger = Logger.getLogger(DriveInvoiceExporter.class.getName());
+
+    /** System property: số luồng dựng PDF. */
+    public static final String PARALLELISM_PROPERTY = "bluemoon.pdf.parallelism";
+
+    /** Định dạng kết quả. */
+    public enum Format {
+        ZIP, PDF
+    }
+
+    private static final int FETCH_SIZE = 500;
+
+    /** Số phiếu đang chờ/đã dựng xong nhưng chưa ghi, tính trên mỗi luồng. */
+    private static final int WINDOW_PER_THREAD = 4;
+
+    private final ExecutorService executor;
+    private final int parallelism;
+
+    public DriveInvoiceExporter() {
+        this(Integer.getInteger(PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param parallelism số luồng dựng PDF
+     */
+    public DriveInvoiceExporter(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(this.parallelism, r -> {
+            Thread t = new Thread(r, "bluemoon-pdf-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Xuất PDF phiếu thu của một đợt thu.
+     *
+     * @param maDot  mã đợt thu
+     * @param format ZIP hoặc PDF nhiều trang
+     * @param out    mở luồng ghi kết quả (không bị đóng); chỉ được gọi nếu đợt thu có phiếu thu
+     * @return số phiếu thu đã xuất (0 nếu đợt thu không có phiếu thu, khi đó không ghi gì)
+     * @throws SQLException nếu lỗi truy vấn
+     * @throws IOException  nếu lỗi dựng hoặc ghi PDF
+     */
+    public int export(int maDot, Format format, Supplier<OutputStream> out) throws SQLException, IOException {
+        List<HoaDon> invoices = loadDrive(maDot);
+        if (invoices.isEmpty()) {
+            logger.log(Level.INFO, "Drive " + maDot + " has no invoices to export");
+            return 0;
+        }
+
+        OutputStream stream = out.get();
+        InvoiceSink sink = format == Format.ZIP ? new ZipSink(stream) : new MergedPdfSink(stream);
+        renderAll(invoices, sink);
+        sink.finish();
+        logger.log(Level.INFO, "Exported " + invoices.size() + " invoices of drive " + maDot + " as " + format);
+        return invoices.size();
+    }
+
+    private static List<HoaDon> loadDrive(int maDot) throws SQLException, IOException {
+        List<HoaDon> invoices = new ArrayList<>();
+        try (Connection conn = DatabaseConnector.getConnection()) {
+            // Cursor chỉ hoạt động khi autoCommit = false; chỉ đọc nên kết thúc bằng rollback
+            conn.setAutoCommit(false);
+            conn.setReadOnly(true);
+            try {
+                HoaDonReader.streamByDot(conn, maDot, FETCH_SIZE, invoices::add);
+            } finally {
+                conn.rollback();
+                conn.setReadOnly(false);
+                conn.setAutoCommit(true);
+            }
+        }
+        return invoices;
+    }
+
+    private void renderAll(List<HoaDon> invoices, InvoiceSink sink) throws IOException {
+        Deque<Pending> window = new ArrayDeque<>();
+        int windowSize = parallelism * WINDOW_PER_THREAD;
+        try {
+            for (HoaDon hoaDon : invoices) {
+                if (window.size() >= windowSize) {
+                    drainOne(window, sink);
+                }
+                window.addLast(new Pending(hoaDon.getId(), hoaDon.getSoPhong(),
+                        executor.submit(() -> InvoicePdfRenderer.render(hoaDon))));
+            }
+            while (!window.isEmpty()) {
+                drainOne(window, sink);
+            }
+        } finally {
+            for (Pending pending : window) {
+                pending.future.cancel(true);
+            }
+        }
+    }
+
+    private static void drainOne(Deque<Pending> window, InvoiceSink sink) throws IOException {
+        Pending pending = window.removeFirst();
+        byte[] pdf;
+        try {
+            pdf = pending.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while rendering invoice " + pending.maPhieu);
+        } catch (ExecutionException e) {
+            throw new IOException("Error rendering invoice " + pending.maPhieu + ": " + e.getCause().getMessage(),
+                    e.getCause());
+        }
+        sink.accept(pending, pdf);
+    }
+
+    /** Phiếu thu đã gửi đi dựng PDF. */
+    private static final class Pending {
+        private final int maPhieu;
+        private final int soPhong;
+        private final Future<byte[]> future;
+
+        Pending(int maPhieu, int soPhong, Future<byte[]> future) {
+            this.maPhieu = maPhieu;
+            this.soPhong = soPhong;
+            this.future = future;
+        }
+    }
+
+    /** Nơi nhận các PDF đã dựng theo thứ tự. */
+    private interface InvoiceSink {
+        void accept(Pending invoice, byte[] pdf) throws IOException;
+
+        void finish() throws IOException;
+    }
+
+    /** Mỗi phiếu một entry trong file ZIP. */
+    private static final class ZipSink implements InvoiceSink {
+        private final ZipOutputStream zip;
+
+        ZipSink(OutputStream out) {
+            this.zip = new ZipOutputStream(out);
+            // PDF đã được nén sẵn, không cần nén lại kỹ
+            this.zip.setLevel(Deflater.BEST_SPEED);
+        }
+
+        @Override
+        public void accept(Pending invoice, byte[] pdf) throws IOException {
+            zip.putNextEntry(new ZipEntry("PhieuThu_" + invoice.soPhong + "_" + invoice.maPhieu + ".pdf"));
+            zip.write(pdf);
+            zip.closeEntry();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            // finish() thay vì close(): không đóng luồng của caller
+            zip.finish();
+        }
+    }
+
+    /** Chép trang của từng phiếu vào một file PDF chung; trang được ghi ra luồng ngay khi chép. */
+    private static final class MergedPdfSink implements InvoiceSink {
+        private final OutputStream out;
+        private Document document;
+        private PdfCopy copy;
+
+        MergedPdfSink(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void accept(Pending invoice, byte[] pdf) throws IOException {
+            try {
+                if (document == null) {
+                    document = new Document();
+                    copy = new PdfCopy(document, out);
+                    copy.setCloseStream(false);
+                    document.open();
+                }
+                PdfReader reader = new PdfReader(pdf);
+                try {
+                    for (int page = 1; page <= reader.getNumberOfPages(); page++) {
+                        copy.addPage(copy.getImportedPage(reader, page));
+                    }
+                    copy.freeReader(reader);
+                } finally {
+                    reader.close();
+                }
+            } catch (DocumentException e) {
+                throw new IOException("Error merging invoice " + invoice.maPhieu + ": " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            // export() chỉ tạo sink khi có ít nhất một phiếu, nên document đã được mở
+            document.close();
+        }
+    }
+}
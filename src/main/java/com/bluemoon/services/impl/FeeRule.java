@@ -0,0 +1,198 @@
+package com.bluemoon.services.impl;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bluemoon.models.KhoanThu;
+
+/**
+ * FeeRule: quy tắc tính phí đã "biên dịch" từ một {@link KhoanThu}.
+ * Chuỗi tinhTheo chỉ được chuẩn hóa và tra cứu một lần khi biên dịch; mỗi lần tính cho một hộ
+ * chỉ còn một phép switch trên enum và trả về cả số lượng lẫn thành tiền.
+ */
+public final class FeeRule {
+
+    private static final Logger logger = Logger.getLogger(FeeRule.class.getName());
+
+    /**
+     * Cơ sở tính phí (giá trị chuẩn hóa của KhoanThu.tinhTheo).
+     */
+    public enum Basis {
+        /** Cố định theo hộ: số lượng = 1. */
+        CO_DINH,
+        /** Theo nhân khẩu đang hiệu lực của hộ. */
+        NHAN_KHAU,
+        /** Theo diện tích phòng (Phong.dienTich). */
+        DIEN_TICH,
+        /** Theo số xe máy. */
+        XE_MAY,
+        /** Theo số ô tô. */
+        O_TO
+    }
+
+    private static final Map<String, Basis> ALIASES = new HashMap<>();
+
+    static {
+        for (String alias : new String[] { "hokhau", "hộ khẩu", "codinh", "cố định", "fixed" }) {
+            ALIASES.put(alias, Basis.CO_DINH);
+        }
+        for (String alias : new String[] { "nhankhau", "nhân khẩu", "person", "perperson" }) {
+            ALIASES.put(alias, Basis.NHAN_KHAU);
+        }
+        for (String alias : new String[] { "dientich", "diện tích", "area", "perarea" }) {
+            ALIASES.put(alias, Basis.DIEN_TICH);
+        }
+        for (String alias : new String[] { "xemay", "xe máy", "xe may", "motorbike", "moto" }) {
+            ALIASES.put(alias, Basis.XE_MAY);
+        }
+        for (String alias : new String[] { "oto", "ô tô", "o to", "car", "automobile" }) {
+            ALIASES.put(alias, Basis.O_TO);
+        }
+    }
+
+    /** Các cặp (khoản thu, tinhTheo) không nhận diện được đã cảnh báo, để không lặp lại giữa các lần chạy. */
+    private static final Set<String> WARNED_UNKNOWN = ConcurrentHashMap.newKeySet();
+
+    private final int maKhoan;
+    private final String tenKhoan;
+    private final BigDecimal donGia;
+    private final Basis basis;
+
+    private FeeRule(KhoanThu fee, Basis basis) {
+        this(fee.getId(), fee.getTenKhoan(), fee.getDonGia(), basis);
+    }
+
+    private FeeRule(int maKhoan, String tenKhoan, BigDecimal donGia, Basis basis) {
+        this.maKhoan = maKhoan;
+        this.tenKhoan = tenKhoan;
+        this.donGia = donGia;
+        this.basis = basis;
+    }
+
+    /**
+     * Biên dịch một khoản thu thành quy tắc tính phí.
+     * tinhTheo rỗng hoặc không nhận diện được được coi là cố định theo hộ (cảnh báo một lần cho mỗi khoản thu).
+     *
+     * @param fee khoản thu
+     * @return quy tắc tính phí
+     */
+    public static FeeRule compile(KhoanThu fee) {
+        String tinhTheo = fee.getTinhTheo();
+        if (tinhTheo == null || tinhTheo.trim().isEmpty()) {
+            return new FeeRule(fee, Basis.CO_DINH);
+        }
+
+        Basis basis = ALIASES.get(tinhTheo.toLowerCase().trim());
+        if (basis == null) {
+            if (WARNED_UNKNOWN.add(fee.getId() + ":" + tinhTheo)) {
+                logger.log(Level.WARNING, "Unknown tinhTheo value: '" + tinhTheo + "' for fee: " + fee.getTenKhoan()
+                        + " (id " + fee.getId() + "), defaulting to fixed fee per household");
+            }
+            basis = Basis.CO_DINH;
+        }
+        return new FeeRule(fee, basis);
+    }
+
+    /**
+     * Biên dịch danh sách khoản thu.
+     *
+     * @param fees danh sách khoản thu
+     * @return danh sách quy tắc (cùng thứ tự)
+     */
+    public static List<FeeRule> compileAll(List<KhoanThu> fees) {
+        List<FeeRule> rules = new ArrayList<>(fees.size());
+        for (KhoanThu fee : fees) {
+            rules.add(compile(fee));
+        }
+        return rules;
+    }
+
+    /**
+     * Quy tắc tương ứng khi khoản thu theo nhân khẩu chỉ tính một suất mỗi hộ (như pr_TaoHoaDonHangLoat).
+     *
+     * @return quy tắc cố định theo hộ nếu là khoản theo nhân khẩu, ngược lại chính quy tắc này
+     */
+    public FeeRule perHousehold() {
+        return basis == Basis.NHAN_KHAU ? new FeeRule(maKhoan, tenKhoan, donGia, Basis.CO_DINH) : this;
+    }
+
+    /**
+     * Tính phí cho một hộ.
+     *
+     * @param household dữ liệu hộ (diện tích, số nhân khẩu, số xe)
+     * @return số lượng và thành tiền, hoặc null nếu khoản thu không áp dụng (thành tiền bằng 0)
+     */
+    public Charge evaluate(PhieuThuGenerationEngine.HouseholdSnapshot household) {
+        if (donGia == null) {
+            return null;
+        }
+        BigDecimal soLuong = quantity(household);
+        if (soLuong == null) {
+            return null;
+        }
+        BigDecimal thanhTien = donGia.multiply(soLuong);
+        return thanhTien.signum() > 0 ? new Charge(soLuong, thanhTien) : null;
+    }
+
+    /**
+     * Số lượng tính phí của một hộ, kể cả khi đơn giá bằng 0.
+     *
+     * @param household dữ liệu hộ
+     * @return số lượng (&gt; 0), hoặc null nếu hộ không có gì để tính (không diện tích, không xe...)
+     */
+    BigDecimal quantity(PhieuThuGenerationEngine.HouseholdSnapshot household) {
+        BigDecimal soLuong;
+        switch (basis) {
+            case NHAN_KHAU:
+                soLuong = positiveCount(household.getMemberCount());
+                break;
+            case DIEN_TICH:
+                BigDecimal dienTich = household.getHousehold().getDienTich();
+                soLuong = (dienTich != null && dienTich.signum() > 0) ? dienTich : null;
+                break;
+            case XE_MAY:
+                soLuong = positiveCount(household.getMotorbikeCount());
+                break;
+            case O_TO:
+                soLuong = positiveCount(household.getCarCount());
+                break;
+            case CO_DINH:
+            default:
+                soLuong = BigDecimal.ONE;
+                break;
+        }
+        return soLuong;
+    }
+
+    private static BigDecimal positiveCount(int count) {
+        return count > 0 ? BigDecimal.valueOf(count) : null;
+    }
+
+    public int getMaKhoan() { return maKhoan; }
+    public String getTenKhoan() { return tenKhoan; }
+    public BigDecimal getDonGia() { return donGia; }
+    public Basis getBasis() { return basis; }
+
+    /**
+     * Kết quả tính phí cho một hộ: số lượng và thành tiền (= donGia * soLuong).
+     */
+    public static final class Charge {
+        private final BigDecimal soLuong;
+        private final BigDecimal thanhTien;
+
+        Charge(BigDecimal soLuong, BigDecimal thanhTien) {
+            this.soLuong = soLuong;
+            this.thanhTien = thanhTien;
+        }
+
+        public BigDecimal getSoLuong() { return soLuong; }
+        public BigDecimal getThanhTien() { return thanhTien; }
+    }
+}
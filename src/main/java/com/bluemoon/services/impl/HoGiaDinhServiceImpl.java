@@ -1,5 +1,6 @@
 package com.bluemoon.services.impl;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -12,7 +13,9 @@ import java.util.logging.Logger;
 
 import com.bluemoon.models.HoGiaDinh;
 import com.bluemoon.services.HoGiaDinhService;
+import com.bluemoon.services.RowHandler;
 import com.bluemoon.utils.DatabaseConnector;
+import com.bluemoon.utils.ResourceVersions;
 
 /**
  * Triển khai {@link HoGiaDinhService} với database integration.
@@ -56,10 +59,11 @@ public class HoGiaDinhServiceImpl implements HoGiaDinhService {
     private static final String CHECK_PHIEU_THU_DEPENDENCIES = 
             "SELECT COUNT(*) FROM PhieuThu WHERE maHo = ?";
 
+    // Tìm trên ghi chú như trước, không phân biệt dấu/hoa thường (index trigram idx_hogiadinh_ghichu_tim_kiem)
     private static final String SEARCH = 
             "SELECT h.id, h.soPhong, h.maChuHo, h.trangThai, h.ghiChu, h.thoiGianBatDauO, h.thoiGianKetThucO, p.dienTich " +
-            "FROM HoGiaDinh h LEFT JOIN Phong p ON h.soPhong = p.soPhong " +
-            "WHERE h.ghiChu LIKE ? ORDER BY h.id";
+            "FROM (SELECT * FROM HoGiaDinh WHERE " + TimKiemServiceImpl.DOC_HO_GIA_DINH_GHI_CHU + " LIKE fn_KhongDau(?)) h " +
+            "LEFT JOIN Phong p ON h.soPhong = p.soPhong ORDER BY h.id";
 
     private static final String UPDATE_PHONG_STATUS = 
             "UPDATE Phong SET trangThai = ? WHERE soPhong = ?";
@@ -68,24 +72,23 @@ public class HoGiaDinhServiceImpl implements HoGiaDinhService {
     public List<HoGiaDinh> getAllHoGiaDinh() {
         List<HoGiaDinh> result = new ArrayList<>();
 
-        try (Connection conn = DatabaseConnector.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(SELECT_ALL);
-             ResultSet rs = pstmt.executeQuery()) {
-
-            while (rs.next()) {
-                result.add(buildHoGiaDinhFromResultSet(rs));
-            }
-
+        try {
+            streamAllHoGiaDinh(result::add);
             logger.log(Level.INFO, "Retrieved " + result.size() + " households");
             return result;
 
-        } catch (SQLException e) {
+        } catch (SQLException | IOException e) {
             logger.log(Level.SEVERE, "Error retrieving all households", e);
             e.printStackTrace();
             return new ArrayList<>();
         }
     }
 
+    @Override
+    public void streamAllHoGiaDinh(RowHandler<HoGiaDinh> handler) throws SQLException, IOException {
+        CursorReader.stream(SELECT_ALL, this::buildHoGiaDinhFromResultSet, handler);
+    }
+
     @Override
     public HoGiaDinh findById(int id) {
         try (Connection conn = DatabaseConnector.getConnection();
@@ -156,6 +159,8 @@ public class HoGiaDinhServiceImpl implements HoGiaDinhService {
 
             if (success) {
                 logger.log(Level.INFO, "Successfully added household with soPhong: " + hoGiaDinh.getSoPhong());
+                // Trạng thái phòng đổi theo hộ (trigger trg_SyncPhongStatus và UPDATE_PHONG_STATUS)
+                ResourceVersions.bump(ResourceVersions.Resource.PHONG);
 
                 // Cập nhật trạng thái phòng thành "DangO"
                 try (PreparedStatement psUpdate = conn.prepareStatement(UPDATE_PHONG_STATUS)) {
@@ -225,6 +230,7 @@ public class HoGiaDinhServiceImpl implements HoGiaDinhService {
 
                 if (success) {
                     logger.log(Level.INFO, "Successfully updated household with id: " + hoGiaDinh.getId());
+                    ResourceVersions.bump(ResourceVersions.Resource.PHONG);
                 } else {
                     logger.log(Level.WARNING, "Failed to update household with id: " + hoGiaDinh.getId());
                 }
@@ -298,6 +304,7 @@ public class HoGiaDinhServiceImpl implements HoGiaDinhService {
 
                 if (success) {
                     logger.log(Level.INFO, "Successfully deleted household with id: " + id);
+                    ResourceVersions.bump(ResourceVersions.Resource.PHONG);
 
                     // Trả lại trạng thái phòng thành "Trong" (nếu tìm thấy dữ liệu cũ)
                     if (oldData != null && oldData.getSoPhong() > 0) {
@@ -335,8 +342,7 @@ public class HoGiaDinhServiceImpl implements HoGiaDinhService {
         try (Connection conn = DatabaseConnector.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(SEARCH)) {
 
-            String searchPattern = "%" + keyword.trim() + "%";
-            pstmt.setString(1, searchPattern);
+            pstmt.setString(1, TimKiemServiceImpl.containsPattern(keyword.trim()));
 
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
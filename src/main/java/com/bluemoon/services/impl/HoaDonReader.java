@@ -0,0 +1,143 @@
+package com.bluemoon.services.impl;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+import com.bluemoon.models.ChiTietThu;
+import com.bluemoon.models.HoaDon;
+
+/**
+ * HoaDonReader: đọc {@link HoaDon} (phiếu thu + chi tiết) bằng một truy vấn JOIN duy nhất.
+ * Mỗi dòng kết quả là một chi tiết thu kèm thông tin phiếu; các dòng liên tiếp cùng mã phiếu
+ * được gom thành một hóa đơn. Phiếu không có chi tiết vẫn trả về một dòng (LEFT JOIN).
+ */
+final class HoaDonReader {
+
+    /** Nhận từng hóa đơn đã đọc xong. */
+    @FunctionalInterface
+    interface HoaDonHandler {
+        void accept(HoaDon hoaDon) throws IOException;
+    }
+
+    private static final String SELECT_HOA_DON =
+            "SELECT " +
+            "pt.id as maPhieu, pt.maHo, pt.maDot, pt.ngayLap, pt.tongTien, pt.trangThai, pt.hinhThucThu, " +
+            "hg.soPhong, nk.hoTen as tenChuHo, dt.tenDot, tk.hoTen as tenNguoiLap, " +
+            "ct.id as maChiTiet, ct.maKhoan, ct.soLuong, ct.donGia, ct.thanhTien, ct.ghiChu, " +
+            "kt.tenKhoan, kt.donViTinh " +
+            "FROM PhieuThu pt " +
+            "INNER JOIN HoGiaDinh hg ON pt.maHo = hg.id " +
+            "LEFT JOIN NhanKhau nk ON hg.maChuHo = nk.soCCCD AND nk.hieuLuc = TRUE " +
+            "LEFT JOIN DotThu dt ON pt.maDot = dt.id " +
+            "LEFT JOIN TaiKhoan tk ON pt.maTaiKhoan = tk.id " +
+            "LEFT JOIN ChiTietThu ct ON ct.maPhieu = pt.id " +
+            "LEFT JOIN KhoanThu kt ON ct.maKhoan = kt.id ";
+
+    private static final String SELECT_BY_ID = SELECT_HOA_DON +
+            "WHERE pt.id = ? " +
+            "ORDER BY ct.id";
+
+    // Sắp theo phòng rồi theo phiếu để các dòng của một phiếu luôn liền nhau
+    private static final String SELECT_BY_DOT = SELECT_HOA_DON +
+            "WHERE pt.maDot = ? " +
+            "ORDER BY hg.soPhong, pt.id, ct.id";
+
+    private HoaDonReader() {}
+
+    /**
+     * Đọc một hóa đơn.
+     *
+     * @param conn connection
+     * @param id   mã phiếu thu
+     * @return hóa đơn, hoặc null nếu phiếu thu không tồn tại
+     * @throws SQLException nếu lỗi truy vấn
+     */
+    static HoaDon findById(Connection conn, int id) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(SELECT_BY_ID)) {
+            stmt.setInt(1, id);
+            try (ResultSet rs = stmt.executeQuery()) {
+                HoaDon hoaDon = null;
+                while (rs.next()) {
+                    if (hoaDon == null) {
+                        hoaDon = readHeader(rs);
+                    }
+                    addChiTiet(hoaDon, rs);
+                }
+                return hoaDon;
+            }
+        }
+    }
+
+    /**
+     * Đọc lần lượt mọi hóa đơn của một đợt thu (theo số phòng). Với cursor, connection phải có autoCommit = false.
+     *
+     * @param conn      connection
+     * @param maDot     mã đợt thu
+     * @param fetchSize số dòng lấy mỗi lần
+     * @param handler   nhận từng hóa đơn
+     * @return số hóa đơn đã đọc
+     * @throws SQLException nếu lỗi truy vấn
+     * @throws IOException  nếu handler lỗi
+     */
+    static int streamByDot(Connection conn, int maDot, int fetchSize, HoaDonHandler handler)
+            throws SQLException, IOException {
+        int count = 0;
+        try (PreparedStatement stmt = conn.prepareStatement(SELECT_BY_DOT)) {
+            stmt.setFetchSize(fetchSize);
+            stmt.setInt(1, maDot);
+            try (ResultSet rs = stmt.executeQuery()) {
+                HoaDon current = null;
+                while (rs.next()) {
+                    int maPhieu = rs.getInt("maPhieu");
+                    if (current == null || current.getId() != maPhieu) {
+                        if (current != null) {
+                            handler.accept(current);
+                            count++;
+                        }
+                        current = readHeader(rs);
+                    }
+                    addChiTiet(current, rs);
+                }
+                if (current != null) {
+                    handler.accept(current);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static HoaDon readHeader(ResultSet rs) throws SQLException {
+        HoaDon hoaDon = new HoaDon();
+        hoaDon.setId(rs.getInt("maPhieu"));
+        hoaDon.setMaHo(rs.getInt("maHo"));
+        hoaDon.setSoPhong(rs.getInt("soPhong"));
+        hoaDon.setMaDot(rs.getInt("maDot"));
+        hoaDon.setTenDot(rs.getString("tenDot"));
+        hoaDon.setTenChuHo(rs.getString("tenChuHo"));
+        hoaDon.setTongTien(rs.getBigDecimal("tongTien"));
+        hoaDon.setTrangThai(rs.getString("trangThai"));
+        hoaDon.setHinhThucThu(rs.getString("hinhThucThu"));
+        Timestamp ngayLap = rs.getTimestamp("ngayLap");
+        hoaDon.setNgayLap(ngayLap != null ? ngayLap.toLocalDateTime() : null);
+        hoaDon.setTenNguoiLap(rs.getString("tenNguoiLap"));
+        return hoaDon;
+    }
+
+    private static void addChiTiet(HoaDon hoaDon, ResultSet rs) throws SQLException {
+        int maChiTiet = rs.getInt("maChiTiet");
+        if (rs.wasNull()) {
+            return;
+        }
+        ChiTietThu chiTiet = new ChiTietThu(maChiTiet, hoaDon.getId(), rs.getInt("maKhoan"),
+                rs.getBigDecimal("soLuong"), rs.getBigDecimal("donGia"), rs.getBigDecimal("thanhTien"),
+                rs.getString("ghiChu"));
+        chiTiet.setTenKhoan(rs.getString("tenKhoan"));
+        chiTiet.setDonViTinh(rs.getString("donViTinh"));
+        hoaDon.getChiTietList().add(chiTiet);
+    }
+}
@@ -0,0 +1,171 @@
+package com.bluemoon.services.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.text.DecimalFormat;
+import java.time.format.DateTimeFormatter;
+
+import com.lowagie.text.Chunk;
+import com.lowagie.text.Document;
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.Element;
+import com.lowagie.text.Font;
+import com.lowagie.text.PageSize;
+import com.lowagie.text.Paragraph;
+import com.lowagie.text.Phrase;
+import com.lowagie.text.pdf.PdfPCell;
+import com.lowagie.text.pdf.PdfPTable;
+import com.lowagie.text.pdf.PdfWriter;
+
+import com.bluemoon.models.ChiTietThu;
+import com.bluemoon.models.HoaDon;
+
+/**
+ * InvoicePdfRenderer: dựng nội dung PDF của một phiếu thu từ {@link HoaDon}.
+ * Font, ô tiêu đề bảng và định dạng ngày được tạo một lần và dùng chung (chỉ đọc),
+ * nên có thể gọi đồng thời từ nhiều luồng.
+ */
+public final class InvoicePdfRenderer {
+
+    private static final Font HEADER_FONT = new Font(Font.HELVETICA, 18, Font.BOLD);
+    private static final Font COMPANY_FONT = new Font(Font.HELVETICA, 14, Font.BOLD);
+    private static final Font NORMAL_FONT = new Font(Font.HELVETICA, 10);
+    private static final Font BOLD_FONT = new Font(Font.HELVETICA, 10, Font.BOLD);
+    private static final Font TOTAL_FONT = new Font(Font.HELVETICA, 12, Font.BOLD);
+
+    private static final float[] TABLE_WIDTHS = {1, 3, 1, 1.5f, 1.5f};
+
+    /** Ô tiêu đề bảng; PdfPTable.addCell sao chép ô nên mẫu không bị thay đổi. */
+    private static final PdfPCell[] TABLE_HEADER = {
+            new PdfPCell(new Phrase("STT", BOLD_FONT)),
+            new PdfPCell(new Phrase("Tên khoản thu", BOLD_FONT)),
+            new PdfPCell(new Phrase("SL", BOLD_FONT)),
+            new PdfPCell(new Phrase("Đơn giá", BOLD_FONT)),
+            new PdfPCell(new Phrase("Thành tiền", BOLD_FONT))
+    };
+
+    private static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
+
+    /** DecimalFormat không thread-safe: mỗi luồng một bản. */
+    private static final ThreadLocal<DecimalFormat> MONEY_FORMAT =
+            ThreadLocal.withInitial(() -> new DecimalFormat("#,##0"));
+
+    private InvoicePdfRenderer() {}
+
+    /**
+     * Tạo file PDF (một trang A4) cho một phiếu thu.
+     *
+     * @param hoaDon hóa đơn
+     * @return nội dung file PDF
+     * @throws DocumentException nếu lỗi dựng PDF
+     */
+    public static byte[] render(HoaDon hoaDon) throws DocumentException {
+        Document document = new Document(PageSize.A4);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(8 * 1024);
+        PdfWriter.getInstance(document, outputStream);
+
+        document.open();
+        writeInvoice(document, hoaDon);
+        document.close();
+
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Ghi nội dung một phiếu thu vào document đang mở.
+     *
+     * @param document document đã open()
+     * @param hoaDon   hóa đơn
+     * @throws DocumentException nếu lỗi dựng PDF
+     */
+    public static void writeInvoice(Document document, HoaDon hoaDon) throws DocumentException {
+        DecimalFormat df = MONEY_FORMAT.get();
+
+        // Add header
+        Paragraph header = new Paragraph("PHIẾU THU", HEADER_FONT);
+        header.setAlignment(Element.ALIGN_CENTER);
+        header.setSpacingAfter(20);
+        document.add(header);
+
+        // Add apartment name
+        Paragraph company = new Paragraph("CHUNG CƯ BLUEMOON", COMPANY_FONT);
+        company.setAlignment(Element.ALIGN_CENTER);
+        company.setSpacingAfter(30);
+        document.add(company);
+
+        // Add invoice info
+        String ngayLapStr = hoaDon.getNgayLap() != null ? hoaDon.getNgayLap().format(DATE_TIME_FORMAT) : "N/A";
+
+        Paragraph invoiceInfo = new Paragraph();
+        invoiceInfo.add(new Chunk("Mã phiếu: ", BOLD_FONT));
+        invoiceInfo.add(new Chunk(String.valueOf(hoaDon.getId()), NORMAL_FONT));
+        invoiceInfo.add(new Chunk("        Ngày lập: ", BOLD_FONT));
+        invoiceInfo.add(new Chunk(ngayLapStr, NORMAL_FONT));
+        invoiceInfo.setSpacingAfter(10);
+        document.add(invoiceInfo);
+
+        // Add customer info
+        Paragraph customerInfo = new Paragraph();
+        customerInfo.add(new Chunk("Hộ gia đình: ", BOLD_FONT));
+        customerInfo.add(new Chunk("Phòng " + hoaDon.getSoPhong(), NORMAL_FONT));
+        customerInfo.add(new Chunk("        Chủ hộ: ", BOLD_FONT));
+        customerInfo.add(new Chunk(textOrNA(hoaDon.getTenChuHo()), NORMAL_FONT));
+        customerInfo.setSpacingAfter(10);
+        document.add(customerInfo);
+
+        Paragraph dotInfo = new Paragraph();
+        dotInfo.add(new Chunk("Đợt thu: ", BOLD_FONT));
+        dotInfo.add(new Chunk(textOrNA(hoaDon.getTenDot()), NORMAL_FONT));
+        dotInfo.setSpacingAfter(20);
+        document.add(dotInfo);
+
+        // Add items table
+        if (!hoaDon.getChiTietList().isEmpty()) {
+            PdfPTable table = new PdfPTable(TABLE_WIDTHS.length);
+            table.setWidthPercentage(100);
+            table.setWidths(TABLE_WIDTHS);
+
+            for (PdfPCell cell : TABLE_HEADER) {
+                table.addCell(cell);
+            }
+
+            int stt = 1;
+            for (ChiTietThu chiTiet : hoaDon.getChiTietList()) {
+                table.addCell(new PdfPCell(new Phrase(String.valueOf(stt++), NORMAL_FONT)));
+                table.addCell(new PdfPCell(new Phrase(textOrNA(chiTiet.getTenKhoan()), NORMAL_FONT)));
+
+                BigDecimal soLuong = chiTiet.getSoLuong();
+                table.addCell(new PdfPCell(new Phrase(soLuong != null ? soLuong.toString() : "0", NORMAL_FONT)));
+                table.addCell(new PdfPCell(new Phrase(money(df, chiTiet.getDonGia()), NORMAL_FONT)));
+                table.addCell(new PdfPCell(new Phrase(money(df, chiTiet.getThanhTien()), NORMAL_FONT)));
+            }
+
+            document.add(table);
+        }
+
+        // Add total
+        Paragraph total = new Paragraph();
+        total.setSpacingBefore(20);
+        total.setAlignment(Element.ALIGN_RIGHT);
+        total.add(new Chunk("TỔNG CỘNG: ", BOLD_FONT));
+        total.add(new Chunk(money(df, hoaDon.getTongTien()), TOTAL_FONT));
+        document.add(total);
+
+        // Add signature area
+        document.add(new Paragraph(" "));
+        Paragraph signature = new Paragraph();
+        signature.setSpacingBefore(40);
+        signature.add(new Chunk("Người lập: ", BOLD_FONT));
+        signature.add(new Chunk(textOrNA(hoaDon.getTenNguoiLap()), NORMAL_FONT));
+        signature.setAlignment(Element.ALIGN_RIGHT);
+        document.add(signature);
+    }
+
+    private static String money(DecimalFormat df, BigDecimal value) {
+        return value != null ? df.format(value) + " đ" : "0 đ";
+    }
+
+    private static String textOrNA(String value) {
+        return value != null ? value : "N/A";
+    }
+}
@@ -13,10 +13,13 @@ import java.util.logging.Logger;
 import com.bluemoon.models.KhoanThu;
 import com.bluemoon.services.KhoanThuService;
 import com.bluemoon.utils.DatabaseConnector;
+import com.bluemoon.utils.ReferenceDataCache;
+import com.bluemoon.utils.ResourceVersions;
 
 /**
  * Triển khai {@link KhoanThuService} với database integration.
  * Sử dụng PostgreSQL database để lưu trữ dữ liệu.
+ * Danh sách khoản thu được cache qua {@link ReferenceDataCache}; mọi thao tác ghi thành công đều xóa cache.
  */
 public class KhoanThuServiceImpl implements KhoanThuService {
 
@@ -38,8 +41,16 @@ public class KhoanThuServiceImpl implements KhoanThuService {
     private static final String CHECK_FEE_USED = 
             "SELECT COUNT(*) FROM ChiTietThu WHERE maKhoan = ?";
 
+    private final ReferenceDataCache cache = ReferenceDataCache.getInstance();
+
     @Override
     public List<KhoanThu> getAllKhoanThu() {
+        List<KhoanThu> cached = cache.getKhoanThuList();
+        if (cached != null) {
+            return copyAll(cached);
+        }
+
+        long version = cache.khoanThuVersion();
         List<KhoanThu> result = new ArrayList<>();
 
         try (Connection conn = DatabaseConnector.getConnection();
@@ -51,7 +62,8 @@ public class KhoanThuServiceImpl implements KhoanThuService {
             }
 
             logger.log(Level.INFO, "Retrieved " + result.size() + " fee items");
-            return result;
+            cache.putKhoanThuList(result, version);
+            return copyAll(result);
 
         } catch (SQLException e) {
             logger.log(Level.SEVERE, "Error retrieving all fee items", e);
@@ -94,6 +106,8 @@ public class KhoanThuServiceImpl implements KhoanThuService {
             boolean success = rowsAffected > 0;
 
             if (success) {
+                cache.invalidateKhoanThu();
+                ResourceVersions.bump(ResourceVersions.Resource.KHOAN_THU);
                 logger.log(Level.INFO, "Successfully added fee: " + khoanThu.getTenKhoan() + " (rows affected: " + rowsAffected + ")");
             } else {
                 logger.log(Level.WARNING, "Failed to add fee: " + khoanThu.getTenKhoan() + " (rows affected: " + rowsAffected + ")");
@@ -143,6 +157,8 @@ public class KhoanThuServiceImpl implements KhoanThuService {
             boolean success = rowsAffected > 0;
 
             if (success) {
+                cache.invalidateKhoanThu();
+                ResourceVersions.bump(ResourceVersions.Resource.KHOAN_THU);
                 logger.log(Level.INFO, "Successfully updated fee with id: " + khoanThu.getId() + " (rows affected: " + rowsAffected + ")");
             } else {
                 logger.log(Level.WARNING, "Failed to update fee with id: " + khoanThu.getId() + " (rows affected: " + rowsAffected + ")");
@@ -184,6 +200,8 @@ public class KhoanThuServiceImpl implements KhoanThuService {
                 boolean success = rowsAffected > 0;
 
                 if (success) {
+                    cache.invalidateKhoanThu();
+                    ResourceVersions.bump(ResourceVersions.Resource.KHOAN_THU);
                     logger.log(Level.INFO, "Successfully deleted fee with id: " + maKhoanThu + " (rows affected: " + rowsAffected + ")");
                 } else {
                     logger.log(Level.WARNING, "Failed to delete fee with id: " + maKhoanThu + " (rows affected: " + rowsAffected + ")");
@@ -199,6 +217,27 @@ public class KhoanThuServiceImpl implements KhoanThuService {
         }
     }
 
+    /**
+     * Sao chép danh sách khoản thu để caller có thể sửa mà không ảnh hưởng bản trong cache.
+     */
+    private static List<KhoanThu> copyAll(List<KhoanThu> source) {
+        List<KhoanThu> copies = new ArrayList<>(source.size());
+        for (KhoanThu k : source) {
+            KhoanThu copy = new KhoanThu();
+            copy.setId(k.getId());
+            copy.setTenKhoan(k.getTenKhoan());
+            copy.setLoai(k.getLoai());
+            copy.setDonGia(k.getDonGia());
+            copy.setDonViTinh(k.getDonViTinh());
+            copy.setTinhTheo(k.getTinhTheo());
+            copy.setBatBuoc(k.isBatBuoc());
+            copy.setMoTa(k.getMoTa());
+            copy.setLoaiKhoanThu(k.getLoaiKhoanThu());
+            copies.add(copy);
+        }
+        return copies;
+    }
+
     /**
      * Xây dựng đối tượng KhoanThu từ ResultSet.
      */
@@ -1,5 +1,6 @@
 package com.bluemoon.services.impl;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.Date;
 import java.sql.PreparedStatement;
@@ -14,6 +15,7 @@ import java.util.logging.Logger;
 import com.bluemoon.models.LichSuNhanKhau;
 import com.bluemoon.models.NhanKhau;
 import com.bluemoon.services.NhanKhauService;
+import com.bluemoon.services.RowHandler;
 import com.bluemoon.utils.DatabaseConnector;
 
 /**
@@ -71,24 +73,23 @@ public class NhanKhauServiceImpl implements NhanKhauService {
     public List<NhanKhau> getAll() {
         List<NhanKhau> result = new ArrayList<>();
 
-        try (Connection conn = DatabaseConnector.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(SELECT_ALL);
-             ResultSet rs = pstmt.executeQuery()) {
-
-            while (rs.next()) {
-                result.add(buildNhanKhauFromResultSet(rs));
-            }
-
+        try {
+            streamAll(result::add);
             logger.log(Level.INFO, "Retrieved " + result.size() + " residents");
             return result;
 
-        } catch (SQLException e) {
+        } catch (SQLException | IOException e) {
             logger.log(Level.SEVERE, "Error retrieving all residents", e);
             e.printStackTrace();
             return new ArrayList<>();
         }
     }
 
+    @Override
+    public void streamAll(RowHandler<NhanKhau> handler) throws SQLException, IOException {
+        CursorReader.stream(SELECT_ALL, this::buildNhanKhauFromResultSet, handler);
+    }
+
     @Override
     public NhanKhau findById(int id) {
         try (Connection conn = DatabaseConnector.getConnection();
@@ -513,17 +514,16 @@ public class NhanKhauServiceImpl implements NhanKhauService {
     @Override
     public List<NhanKhau> getAllHistory() {
         List<NhanKhau> list = new ArrayList<>();
-        // Sử dụng try-with-resources để tự động đóng connection
-        try (Connection conn = DatabaseConnector.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(SELECT_ALL_HISTORY);
-             ResultSet rs = pstmt.executeQuery()) {
-            
-            while (rs.next()) {
-                list.add(buildNhanKhauFromResultSet(rs));
-            }
-        } catch (SQLException e) {
+        try {
+            streamAllHistory(list::add);
+        } catch (SQLException | IOException e) {
             logger.log(Level.SEVERE, "Lỗi khi lấy lịch sử cư trú tổng hợp", e);
         }
         return list;
     }
+
+    @Override
+    public void streamAllHistory(RowHandler<NhanKhau> handler) throws SQLException, IOException {
+        CursorReader.stream(SELECT_ALL_HISTORY, this::buildNhanKhauFromResultSet, handler);
+    }
 }
@@ -0,0 +1,390 @@
+package com.bluemoon.services.impl;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bluemoon.utils.DatabaseConnector;
+import com.bluemoon.utils.ProgressListener;
+
+/**
+ * PartitionedReceiptGenerator: sinh phiếu thu cho một đợt thu theo từng phân vùng số phòng
+ * (mặc định mỗi {@value #DEFAULT_PARTITION_WIDTH} phòng), chạy song song trên ForkJoinPool,
+ * mỗi phân vùng một transaction riêng.
+ * - Phân vùng commit xong được ghi vào bảng PhieuThuCheckpoint; lần chạy sau bỏ qua các phân vùng này.
+ * - Hộ đã có phiếu thu trong đợt luôn được bỏ qua (kèm unique index PhieuThu(maHo, maDot)),
+ *   nên chạy lại sau khi lỗi/hủy chỉ sinh phần còn thiếu.
+ * - Một phân vùng lỗi chỉ rollback phân vùng đó; các phân vùng khác vẫn được commit.
+ */
+public class PartitionedReceiptGenerator {
+
+    private static final Logger logger = Logger.getLogger(PartitionedReceiptGenerator.class.getName());
+
+    /** System property: số phòng trong một phân vùng. */
+    public static final String PARTITION_WIDTH_PROPERTY = "bluemoon.generation.partitionWidth";
+
+    /** System property: số phân vùng xử lý đồng thời (mỗi phân vùng giữ một connection). */
+    public static final String PARALLELISM_PROPERTY = "bluemoon.generation.parallelism";
+
+    private static final int DEFAULT_PARTITION_WIDTH = 100;
+
+    private static final String SELECT_CHECKPOINTS =
+            "SELECT phongTu, phongDen FROM PhieuThuCheckpoint WHERE maDot = ?";
+
+    private static final String UPSERT_CHECKPOINT =
+            "INSERT INTO PhieuThuCheckpoint (maDot, phongTu, phongDen, soPhieu, hoanThanhLuc) " +
+            "VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP) " +
+            "ON CONFLICT (maDot, phongTu) DO UPDATE SET phongDen = EXCLUDED.phongDen, " +
+            "soPhieu = EXCLUDED.soPhieu, hoanThanhLuc = EXCLUDED.hoanThanhLuc";
+
+    private static final String SELECT_BILLED_IN_PARTITION =
+            "SELECT maHo FROM PhieuThu WHERE maDot = ? AND maHo = ANY(?)";
+
+    /** Khóa theo (đợt thu, phân vùng) để hai tiến trình không cùng xử lý một phân vùng. */
+    private static final String LOCK_PARTITION = "SELECT pg_advisory_xact_lock(?, ?)";
+
+    private final PhieuThuGenerationEngine engine;
+    private final int partitionWidth;
+    private final int parallelism;
+
+    public PartitionedReceiptGenerator(PhieuThuGenerationEngine engine) {
+        this(engine,
+                Integer.getInteger(PARTITION_WIDTH_PROPERTY, DEFAULT_PARTITION_WIDTH),
+                Integer.getInteger(PARALLELISM_PROPERTY, defaultParallelism()));
+    }
+
+    /**
+     * @param engine         engine tính và ghi phiếu thu
+     * @param partitionWidth số phòng trong một phân vùng
+     * @param parallelism    số phân vùng xử lý đồng thời
+     */
+    public PartitionedReceiptGenerator(PhieuThuGenerationEngine engine, int partitionWidth, int parallelism) {
+        this.engine = engine;
+        this.partitionWidth = Math.max(1, partitionWidth);
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Mặc định: không vượt số CPU và chỉ dùng tối đa một nửa pool connection.
+     */
+    private static int defaultParallelism() {
+        int poolShare = Math.max(1, DatabaseConnector.getPool().getMaxSize() / 2);
+        return Math.min(Runtime.getRuntime().availableProcessors(), poolShare);
+    }
+
+    /**
+     * Sinh (hoặc sinh tiếp) phiếu thu cho đợt thu.
+     *
+     * @param maDot      mã đợt thu
+     * @param maTaiKhoan tài khoản lập phiếu
+     * @param progress   nhận tiến độ (tổng = số hộ) và yêu cầu hủy
+     * @return số phiếu thu tạo mới trong lần chạy này
+     * @throws SQLException nếu lỗi đọc dữ liệu, hoặc có phân vùng lỗi (các phân vùng khác đã được commit)
+     * @throws CancellationException nếu bị hủy (các phân vùng đã commit được giữ lại)
+     */
+    public int generate(int maDot, int maTaiKhoan, ProgressListener progress) throws SQLException {
+        List<FeeRule> rules = FeeRule.compileAll(engine.loadMandatoryFees());
+        if (rules.isEmpty()) {
+            logger.log(Level.WARNING, "No mandatory fees found for drive generation");
+            return 0;
+        }
+
+        List<PhieuThuGenerationEngine.HouseholdSnapshot> households;
+        Set<Integer> alreadyBilled = new HashSet<>();
+        Map<Integer, Integer> checkpoints;
+        try (Connection conn = DatabaseConnector.getConnection()) {
+            households = engine.loadHouseholds(conn, maDot, alreadyBilled);
+            checkpoints = loadCheckpoints(conn, maDot);
+        }
+
+        progress.setTotal(households.size());
+
+        // Gom hộ theo khoảng số phòng [phongTu, phongTu + partitionWidth - 1]
+        TreeMap<Integer, List<PhieuThuGenerationEngine.HouseholdSnapshot>> byPartition = new TreeMap<>();
+        for (PhieuThuGenerationEngine.HouseholdSnapshot household : households) {
+            int phongTu = Math.floorDiv(household.getHousehold().getSoPhong(), partitionWidth) * partitionWidth;
+            byPartition.computeIfAbsent(phongTu, k -> new ArrayList<>()).add(household);
+        }
+
+        List<Partition> pending = new ArrayList<>();
+        int skippedPartitions = 0;
+        for (Map.Entry<Integer, List<PhieuThuGenerationEngine.HouseholdSnapshot>> entry : byPartition.entrySet()) {
+            int phongTu = entry.getKey();
+            int phongDen = phongTu + partitionWidth - 1;
+            List<PhieuThuGenerationEngine.HouseholdSnapshot> members = entry.getValue();
+
+            Integer checkpointEnd = checkpoints.get(phongTu);
+            if (checkpointEnd != null && checkpointEnd == phongDen) {
+                skippedPartitions++;
+                progress.advance(members.size());
+                continue;
+            }
+
+            List<PhieuThuGenerationEngine.HouseholdSnapshot> todo = new ArrayList<>(members.size());
+            for (PhieuThuGenerationEngine.HouseholdSnapshot household : members) {
+                if (!alreadyBilled.contains(household.getHousehold().getId())) {
+                    todo.add(household);
+                }
+            }
+            progress.advance(members.size() - todo.size());
+            pending.add(new Partition(phongTu, phongDen, todo));
+        }
+
+        logger.log(Level.INFO, "Drive " + maDot + ": " + byPartition.size() + " partitions of " + partitionWidth
+                + " rooms, " + skippedPartitions + " already checkpointed, " + pending.size()
+                + " to process with parallelism " + parallelism);
+        if (pending.isEmpty()) {
+            return 0;
+        }
+
+        LocalDateTime ngayLap = LocalDateTime.now();
+        ProgressListener partitionProgress = new PartitionProgress(progress);
+        ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, pending.size()), p -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName("bluemoon-generation-" + maDot + "-" + t.getPoolIndex());
+            t.setDaemon(true);
+            return t;
+        }, null, false);
+
+        List<PartitionOutcome> outcomes = new ArrayList<>(pending.size());
+        try {
+            List<ForkJoinTask<PartitionOutcome>> submitted = new ArrayList<>(pending.size());
+            for (Partition partition : pending) {
+                submitted.add(pool.submit(ForkJoinTask.adapt(
+                        () -> runPartition(maDot, partition, rules, maTaiKhoan, ngayLap, partitionProgress))));
+            }
+            for (ForkJoinTask<PartitionOutcome> task : submitted) {
+                // runPartition tự bắt lỗi nên join() chỉ trả về kết quả
+                outcomes.add(task.join());
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        int created = 0;
+        int cancelled = 0;
+        List<PartitionOutcome> failed = new ArrayList<>();
+        for (PartitionOutcome outcome : outcomes) {
+            created += outcome.created;
+            if (outcome.cancelled) {
+                cancelled++;
+            } else if (outcome.error != null) {
+                failed.add(outcome);
+            }
+        }
+
+        if (!failed.isEmpty()) {
+            PartitionOutcome first = failed.get(0);
+            SQLException e = new SQLException("Receipt generation for drive " + maDot + ": " + failed.size() + "/"
+                    + outcomes.size() + " partitions failed (first: rooms " + first.partition.phongTu + "-"
+                    + first.partition.phongDen + ": " + first.error.getMessage() + "); " + created
+                    + " receipts committed, run again to resume", first.error);
+            for (int i = 1; i < failed.size(); i++) {
+                e.addSuppressed(failed.get(i).error);
+            }
+            throw e;
+        }
+        if (cancelled > 0) {
+            throw new CancellationException("Receipt generation for drive " + maDot + " was cancelled after "
+                    + created + " receipts; " + cancelled + " partitions not processed");
+        }
+
+        logger.log(Level.INFO, "Partitioned generation created " + created + " receipts for drive " + maDot);
+        return created;
+    }
+
+    private PartitionOutcome runPartition(int maDot, Partition partition, List<FeeRule> rules, int maTaiKhoan,
+                                          LocalDateTime ngayLap, ProgressListener progress) {
+        if (progress.isCancelled()) {
+            return PartitionOutcome.cancelled(partition);
+        }
+
+        try (Connection conn = DatabaseConnector.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                lockPartition(conn, maDot, partition.phongTu);
+
+                // Đọc lại sau khi giữ khóa: tiến trình khác có thể vừa xử lý một phần phân vùng
+                Set<Integer> billed = loadBilledInPartition(conn, maDot, partition.households);
+                List<PhieuThuGenerationEngine.PlannedReceipt> receipts = new ArrayList<>(partition.households.size());
+                int pendingCount = 0;
+                for (PhieuThuGenerationEngine.HouseholdSnapshot household : partition.households) {
+                    if (billed.contains(household.getHousehold().getId())) {
+                        continue;
+                    }
+                    pendingCount++;
+                    PhieuThuGenerationEngine.PlannedReceipt receipt = engine.computeReceipt(household, rules);
+                    if (receipt != null) {
+                        receipts.add(receipt);
+                    }
+                }
+                progress.advance(partition.households.size() - pendingCount);
+
+                PhieuThuGenerationEngine.GenerationPlan plan =
+                        new PhieuThuGenerationEngine.GenerationPlan(maDot, pendingCount, rules.size(), receipts);
+                int created = engine.write(conn, plan, maTaiKhoan, ngayLap, progress);
+                saveCheckpoint(conn, maDot, partition, created);
+
+                conn.commit();
+                logger.log(Level.FINE, "Drive " + maDot + ": partition " + partition.phongTu + "-"
+                        + partition.phongDen + " committed with " + created + " receipts");
+                return PartitionOutcome.succeeded(partition, created);
+
+            } catch (CancellationException e) {
+                conn.rollback();
+                return PartitionOutcome.cancelled(partition);
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                logger.log(Level.SEVERE, "Drive " + maDot + ": partition " + partition.phongTu + "-"
+                        + partition.phongDen + " failed, rolled back", e);
+                return PartitionOutcome.failed(partition, e);
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Drive " + maDot + ": cannot process partition " + partition.phongTu, e);
+            return PartitionOutcome.failed(partition, e);
+        }
+    }
+
+    private Map<Integer, Integer> loadCheckpoints(Connection conn, int maDot) throws SQLException {
+        Map<Integer, Integer> checkpoints = new HashMap<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(SELECT_CHECKPOINTS)) {
+            pstmt.setInt(1, maDot);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    checkpoints.put(rs.getInt("phongTu"), rs.getInt("phongDen"));
+                }
+            }
+        }
+        return checkpoints;
+    }
+
+    private void lockPartition(Connection conn, int maDot, int phongTu) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(LOCK_PARTITION)) {
+            pstmt.setInt(1, maDot);
+            pstmt.setInt(2, phongTu);
+            pstmt.execute();
+        }
+    }
+
+    private Set<Integer> loadBilledInPartition(Connection conn, int maDot,
+                                               List<PhieuThuGenerationEngine.HouseholdSnapshot> households)
+            throws SQLException {
+        Integer[] ids = new Integer[households.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = households.get(i).getHousehold().getId();
+        }
+        Set<Integer> billed = new HashSet<>();
+        Array idArray = conn.createArrayOf("integer", ids);
+        try (PreparedStatement pstmt = conn.prepareStatement(SELECT_BILLED_IN_PARTITION)) {
+            pstmt.setInt(1, maDot);
+            pstmt.setArray(2, idArray);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    billed.add(rs.getInt(1));
+                }
+            }
+        } finally {
+            idArray.free();
+        }
+        return billed;
+    }
+
+    private void saveCheckpoint(Connection conn, int maDot, Partition partition, int created) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(UPSERT_CHECKPOINT)) {
+            pstmt.setInt(1, maDot);
+            pstmt.setInt(2, partition.phongTu);
+            pstmt.setInt(3, partition.phongDen);
+            pstmt.setInt(4, created);
+            pstmt.executeUpdate();
+        }
+    }
+
+    // ==================== Kiểu dữ liệu ====================
+
+    /**
+     * Một phân vùng: khoảng số phòng và các hộ chưa có phiếu thu trong khoảng đó.
+     */
+    private static class Partition {
+        private final int phongTu;
+        private final int phongDen;
+        private final List<PhieuThuGenerationEngine.HouseholdSnapshot> households;
+
+        Partition(int phongTu, int phongDen, List<PhieuThuGenerationEngine.HouseholdSnapshot> households) {
+            this.phongTu = phongTu;
+            this.phongDen = phongDen;
+            this.households = households;
+        }
+    }
+
+    /**
+     * Kết quả xử lý một phân vùng.
+     */
+    private static class PartitionOutcome {
+        private final Partition partition;
+        private final int created;
+        private final boolean cancelled;
+        private final Exception error;
+
+        private PartitionOutcome(Partition partition, int created, boolean cancelled, Exception error) {
+            this.partition = partition;
+            this.created = created;
+            this.cancelled = cancelled;
+            this.error = error;
+        }
+
+        static PartitionOutcome succeeded(Partition partition, int created) {
+            return new PartitionOutcome(partition, created, false, null);
+        }
+
+        static PartitionOutcome cancelled(Partition partition) {
+            return new PartitionOutcome(partition, 0, true, null);
+        }
+
+        static PartitionOutcome failed(Partition partition, Exception error) {
+            return new PartitionOutcome(partition, 0, false, error);
+        }
+    }
+
+    /**
+     * Chuyển tiến độ của từng phân vùng về listener chung; tổng do generate() đặt một lần
+     * nên lời gọi setTotal() của engine (theo từng phân vùng) được bỏ qua.
+     */
+    private static class PartitionProgress implements ProgressListener {
+        private final ProgressListener delegate;
+
+        PartitionProgress(ProgressListener delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void setTotal(long total) { }
+
+        @Override
+        public void advance(long delta) {
+            delegate.advance(delta);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return delegate.isCancelled();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.bluemoon.services.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+import com.bluemoon.models.ChiTietThu;
+
+/**
+ * PhieuThuCopyWriter: ghi PhieuThu và ChiTietThu hàng loạt bằng lệnh COPY ... FROM STDIN (CopyManager).
+ * Id được cấp trước từ sequence của cột identity (nextval), nên không cần INSERT ... RETURNING;
+ * COPY luôn dùng giá trị id được cung cấp kể cả với cột GENERATED ALWAYS.
+ * Dữ liệu được đẩy theo từng khối nhỏ, không dựng toàn bộ payload trong bộ nhớ.
+ */
+public class PhieuThuCopyWriter {
+
+    private static final Logger logger = Logger.getLogger(PhieuThuCopyWriter.class.getName());
+
+    private static final String ALLOCATE_IDS =
+            "SELECT nextval(pg_get_serial_sequence(?, 'id')) FROM generate_series(1, ?)";
+
+    private static final String COPY_PHIEU_THU =
+            "COPY PhieuThu (id, maHo, maDot, maTaiKhoan, ngayLap, tongTien, trangThai) FROM STDIN";
+
+    private static final String COPY_CHI_TIET =
+            "COPY ChiTietThu (id, maPhieu, maKhoan, soLuong, donGia, thanhTien) FROM STDIN";
+
+    /** Kích thước bộ đệm trước khi đẩy sang server. */
+    private static final int FLUSH_THRESHOLD = 64 * 1024;
+
+    /**
+     * Lấy CopyManager của connection (kể cả khi connection là proxy của pool).
+     *
+     * @param conn connection
+     * @return CopyManager, hoặc null nếu driver/connection không hỗ trợ COPY
+     */
+    public static CopyManager getCopyManager(Connection conn) {
+        try {
+            if (conn.isWrapperFor(PGConnection.class)) {
+                return conn.unwrap(PGConnection.class).getCopyAPI();
+            }
+        } catch (SQLException e) {
+            logger.log(Level.FINE, "COPY API not available on this connection", e);
+        }
+        return null;
+    }
+
+    /**
+     * Ghi các phiếu thu (và chi tiết) bằng COPY. Caller quản lý transaction.
+     *
+     * @param copyManager CopyManager của connection
+     * @param conn        connection (cùng connection với copyManager)
+     * @param maDot       mã đợt thu
+     * @param receipts    các phiếu thu dự kiến; maPhieu được gán lại sau khi cấp id
+     * @param maTaiKhoan  tài khoản lập phiếu
+     * @param ngayLap     thời điểm lập phiếu
+     * @return số phiếu thu đã ghi
+     * @throws SQLException nếu lỗi cấp id hoặc lỗi COPY
+     */
+    public int write(CopyManager copyManager, Connection conn, int maDot,
+                     List<PhieuThuGenerationEngine.PlannedReceipt> receipts,
+                     int maTaiKhoan, Timestamp ngayLap) throws SQLException {
+        if (receipts.isEmpty()) {
+            return 0;
+        }
+
+        int lineCount = 0;
+        for (PhieuThuGenerationEngine.PlannedReceipt receipt : receipts) {
+            lineCount += receipt.getLines().size();
+        }
+
+        // Bước 1: cấp id cho PhieuThu và ChiTietThu
+        int[] phieuIds = allocateIds(conn, "phieuthu", receipts.size());
+        int[] chiTietIds = allocateIds(conn, "chitietthu", lineCount);
+
+        // Bước 2: COPY PhieuThu
+        String ngayLapText = ngayLap.toString();
+        long phieuRows;
+        CopyIn copyIn = copyManager.copyIn(COPY_PHIEU_THU);
+        try {
+            StringBuilder buf = new StringBuilder(FLUSH_THRESHOLD + 256);
+            for (int i = 0; i < receipts.size(); i++) {
+                PhieuThuGenerationEngine.PlannedReceipt receipt = receipts.get(i);
+                receipt.setMaPhieu(phieuIds[i]);
+                buf.append(phieuIds[i]).append('\t')
+                   .append(receipt.getMaHo()).append('\t')
+                   .append(maDot).append('\t')
+                   .append(maTaiKhoan).append('\t')
+                   .append(ngayLapText).append('\t')
+                   .append(receipt.getTongTien().toPlainString()).append('\t')
+                   .append("ChuaThu").append('\n');
+                if (buf.length() >= FLUSH_THRESHOLD) {
+                    flush(copyIn, buf);
+                }
+            }
+            flush(copyIn, buf);
+            phieuRows = copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+
+        // Bước 3: COPY ChiTietThu
+        long chiTietRows = 0;
+        if (lineCount > 0) {
+            copyIn = copyManager.copyIn(COPY_CHI_TIET);
+            try {
+                StringBuilder buf = new StringBuilder(FLUSH_THRESHOLD + 256);
+                int next = 0;
+                for (PhieuThuGenerationEngine.PlannedReceipt receipt : receipts) {
+                    for (ChiTietThu line : receipt.getLines()) {
+                        line.setId(chiTietIds[next++]);
+                        line.setMaPhieu(receipt.getMaPhieu());
+                        buf.append(line.getId()).append('\t')
+                           .append(line.getMaPhieu()).append('\t')
+                           .append(line.getMaKhoan()).append('\t')
+                           .append(line.getSoLuong().toPlainString()).append('\t')
+                           .append(line.getDonGia().toPlainString()).append('\t')
+                           .append(line.getThanhTien().toPlainString()).append('\n');
+                        if (buf.length() >= FLUSH_THRESHOLD) {
+                            flush(copyIn, buf);
+                        }
+                    }
+                }
+                flush(copyIn, buf);
+                chiTietRows = copyIn.endCopy();
+            } finally {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+        }
+
+        logger.log(Level.FINE, "COPY wrote " + phieuRows + " PhieuThu and " + chiTietRows
+                + " ChiTietThu rows for drive " + maDot);
+        return (int) phieuRows;
+    }
+
+    private int[] allocateIds(Connection conn, String table, int count) throws SQLException {
+        int[] ids = new int[count];
+        if (count == 0) {
+            return ids;
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(ALLOCATE_IDS)) {
+            pstmt.setString(1, table);
+            pstmt.setInt(2, count);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                int i = 0;
+                while (rs.next()) {
+                    ids[i++] = rs.getInt(1);
+                }
+                if (i != count) {
+                    throw new SQLException("Allocated " + i + " ids for " + table + ", expected " + count);
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static void flush(CopyIn copyIn, StringBuilder buf) throws SQLException {
+        if (buf.length() == 0) {
+            return;
+        }
+        byte[] bytes = buf.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        buf.setLength(0);
+    }
+}
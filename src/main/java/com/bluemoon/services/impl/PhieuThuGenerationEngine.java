@@ -0,0 +1,615 @@
+package com.bluemoon.services.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import org.postgresql.copy.CopyManager;
+
+import com.bluemoon.models.ChiTietThu;
+import com.bluemoon.models.HoGiaDinh;
+import com.bluemoon.models.KhoanThu;
+import com.bluemoon.services.KhoanThuService;
+import com.bluemoon.utils.ProgressListener;
+
+/**
+ * PhieuThuGenerationEngine: sinh phiếu thu hàng loạt cho một đợt thu theo hướng set-based.
+ * - Hộ gia đình, số nhân khẩu, số phương tiện và trạng thái đã có phiếu được đọc bằng một truy vấn (gom nhóm).
+ * - Toàn bộ ChiTietThu được tính trong bộ nhớ bằng các {@link FeeRule} biên dịch một lần mỗi lần chạy.
+ * - PhieuThu và ChiTietThu được ghi bằng COPY ({@link PhieuThuCopyWriter}), hoặc INSERT nhiều dòng
+ *   theo lô khi COPY không khả dụng. tongTien đã tính sẵn nên trigger tính lại tongTien được tắt trong lúc ghi.
+ * - Hộ đã có phiếu thu trong đợt được bỏ qua, nên chạy lại không tạo phiếu trùng (maHo, maDot).
+ * Engine không tự quản lý transaction: caller truyền Connection và quyết định commit/rollback.
+ */
+public class PhieuThuGenerationEngine {
+
+    private static final Logger logger = Logger.getLogger(PhieuThuGenerationEngine.class.getName());
+
+    /** System property bật/tắt ghi bằng COPY (mặc định bật). */
+    public static final String USE_COPY_PROPERTY = "bluemoon.generation.useCopy";
+
+    /** Số phiếu thu ghi trong một lát (giữa các lát: báo tiến độ, kiểm tra hủy). */
+    private static final int WRITE_SLICE_SIZE = 1000;
+
+    /** Số dòng tối đa trong một câu INSERT nhiều dòng (5 tham số/dòng, dưới giới hạn 32767 tham số). */
+    private static final int INSERT_CHUNK_SIZE = 1000;
+
+    /**
+     * Một dòng mỗi hộ: diện tích, số nhân khẩu, số xe máy/ô tô (theo nhomXe)
+     * và hộ đã có phiếu thu trong đợt hay chưa. Tham số: maDot.
+     */
+    private static final String SELECT_HOUSEHOLD_FACTS =
+            "SELECT h.id, h.soPhong, p.dienTich, " +
+            "COALESCE(nk.soNhanKhau, 0) AS soNhanKhau, " +
+            "COALESCE(xe.soXeMay, 0) AS soXeMay, COALESCE(xe.soOto, 0) AS soOto, " +
+            "EXISTS (SELECT 1 FROM PhieuThu pt WHERE pt.maHo = h.id AND pt.maDot = ?) AS daCoPhieu " +
+            "FROM HoGiaDinh h " +
+            "LEFT JOIN Phong p ON h.soPhong = p.soPhong " +
+            "LEFT JOIN (SELECT maHo, COUNT(*) AS soNhanKhau FROM NhanKhau " +
+            "           WHERE hieuLuc = TRUE GROUP BY maHo) nk ON nk.maHo = h.id " +
+            "LEFT JOIN (SELECT maHo, COUNT(*) FILTER (WHERE nhomXe = 'XeMay') AS soXeMay, " +
+            "                  COUNT(*) FILTER (WHERE nhomXe = 'Oto') AS soOto " +
+            "           FROM PhuongTien WHERE nhomXe <> 'Khac' GROUP BY maHo) xe ON xe.maHo = h.id ";
+
+    private static final String STREAM_HOUSEHOLD_FACTS = SELECT_HOUSEHOLD_FACTS + "ORDER BY h.id";
+
+    /** Hộ đang ở và có phòng, như vòng lặp của pr_TaoHoaDonHangLoat. */
+    private static final String STREAM_ACTIVE_HOUSEHOLD_FACTS = SELECT_HOUSEHOLD_FACTS +
+            "WHERE h.trangThai = 'DangO' AND p.soPhong IS NOT NULL ORDER BY h.id";
+
+    private static final String SELECT_HOUSEHOLD_FACTS_BY_ID = SELECT_HOUSEHOLD_FACTS + "WHERE h.id = ?";
+
+    /** Số dòng lấy mỗi lần khi đọc bằng cursor. */
+    private static final int STREAM_FETCH_SIZE = 500;
+
+    private static final String INSERT_PHIEU_THU_PREFIX =
+            "INSERT INTO PhieuThu (maHo, maDot, maTaiKhoan, ngayLap, tongTien, trangThai) VALUES ";
+    private static final String INSERT_PHIEU_THU_ROW = "(?, ?, ?, ?, ?, 'ChuaThu')";
+    private static final String INSERT_PHIEU_THU_SUFFIX = " RETURNING id, maHo";
+
+    private static final String INSERT_CHI_TIET_PREFIX =
+            "INSERT INTO ChiTietThu (maPhieu, maKhoan, soLuong, donGia, thanhTien) VALUES ";
+    private static final String INSERT_CHI_TIET_ROW = "(?, ?, ?, ?, ?)";
+
+    /**
+     * Bật/tắt trigger tính lại tongTien (fn_UpdateTongTienPhieuThu) trong transaction hiện tại:
+     * tongTien của phiếu sinh hàng loạt đã được tính sẵn từ chính các dòng chi tiết.
+     */
+    private static final String SET_SKIP_TONG_TIEN =
+            "SELECT set_config('bluemoon.skip_tong_tien', ?, TRUE)";
+
+    /**
+     * Bộ quy tắc lập phiếu thu cho một đợt.
+     */
+    public enum BillingRules {
+        /**
+         * Sinh phiếu thu cho đợt đang mở (/generate): mọi hộ, khoản theo nhân khẩu nhân số nhân khẩu,
+         * bỏ qua khoản và hộ không phát sinh tiền.
+         */
+        STANDARD,
+        /**
+         * Tạo đợt thu kèm phiếu, giữ đúng quy tắc của pr_TaoHoaDonHangLoat: chỉ hộ đang ở có phòng,
+         * khoản theo nhân khẩu tính một suất mỗi hộ, khoản có số lượng được ghi kể cả khi đơn giá 0
+         * và hộ nào cũng có phiếu (kể cả tổng 0).
+         */
+        NEW_DRIVE
+    }
+
+    /**
+     * Nhận từng hộ khi đọc tuần tự bằng {@link #streamHouseholds}.
+     */
+    @FunctionalInterface
+    public interface HouseholdVisitor {
+        /**
+         * @param household     dữ liệu hộ
+         * @param alreadyBilled true nếu hộ đã có phiếu thu trong đợt
+         */
+        void visit(HouseholdSnapshot household, boolean alreadyBilled) throws IOException;
+    }
+
+    private final KhoanThuService khoanThuService;
+    private final PhieuThuCopyWriter copyWriter = new PhieuThuCopyWriter();
+    private final boolean useCopy;
+
+    public PhieuThuGenerationEngine(KhoanThuService khoanThuService) {
+        this(khoanThuService, Boolean.parseBoolean(System.getProperty(USE_COPY_PROPERTY, "true")));
+    }
+
+    /**
+     * @param khoanThuService service đọc khoản thu
+     * @param useCopy         true để ghi bằng COPY (nếu connection hỗ trợ), false để luôn dùng INSERT nhiều dòng
+     */
+    public PhieuThuGenerationEngine(KhoanThuService khoanThuService, boolean useCopy) {
+        this.khoanThuService = khoanThuService;
+        this.useCopy = useCopy;
+    }
+
+    // ==================== Lập kế hoạch (chỉ đọc) ====================
+
+    /**
+     * Tính toàn bộ phiếu thu cần tạo cho một đợt thu theo {@link BillingRules#STANDARD},
+     * không ghi gì xuống database.
+     *
+     * @param conn  connection dùng để đọc dữ liệu
+     * @param maDot mã đợt thu
+     * @return kế hoạch sinh phiếu thu
+     * @throws SQLException nếu lỗi truy vấn
+     */
+    public GenerationPlan plan(Connection conn, int maDot) throws SQLException {
+        return plan(conn, maDot, BillingRules.STANDARD);
+    }
+
+    /**
+     * Tính toàn bộ phiếu thu cần tạo cho một đợt thu, không ghi gì xuống database.
+     *
+     * @param conn         connection dùng để đọc dữ liệu
+     * @param maDot        mã đợt thu
+     * @param billingRules bộ quy tắc lập phiếu
+     * @return kế hoạch sinh phiếu thu
+     * @throws SQLException nếu lỗi truy vấn
+     */
+    public GenerationPlan plan(Connection conn, int maDot, BillingRules billingRules) throws SQLException {
+        List<FeeRule> rules = FeeRule.compileAll(loadMandatoryFees());
+        if (billingRules == BillingRules.NEW_DRIVE) {
+            rules.replaceAll(FeeRule::perHousehold);
+        } else if (rules.isEmpty()) {
+            logger.log(Level.WARNING, "No mandatory fees found for drive generation");
+            return new GenerationPlan(maDot, 0, 0, Collections.emptyList());
+        }
+
+        Set<Integer> alreadyBilled = new HashSet<>();
+        List<HouseholdSnapshot> households = loadHouseholds(conn,
+                billingRules == BillingRules.NEW_DRIVE ? STREAM_ACTIVE_HOUSEHOLD_FACTS : STREAM_HOUSEHOLD_FACTS,
+                maDot, alreadyBilled);
+        List<PlannedReceipt> receipts = new ArrayList<>(households.size());
+        int pending = 0;
+        for (HouseholdSnapshot household : households) {
+            if (alreadyBilled.contains(household.getHousehold().getId())) {
+                continue;
+            }
+            pending++;
+            PlannedReceipt receipt = computeReceipt(household, rules, billingRules);
+            if (receipt != null) {
+                receipts.add(receipt);
+            }
+        }
+
+        logger.log(Level.INFO, "Planned " + receipts.size() + " receipts for drive " + maDot + " from "
+                + pending + " households (" + (households.size() - pending) + " already billed) and "
+                + rules.size() + " mandatory fees");
+        return new GenerationPlan(maDot, pending, rules.size(), receipts);
+    }
+
+    /**
+     * Lấy danh sách khoản thu bắt buộc.
+     */
+    List<KhoanThu> loadMandatoryFees() {
+        return khoanThuService.getAllKhoanThu().stream()
+                .filter(KhoanThu::isBatBuoc)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Đọc toàn bộ hộ gia đình cùng số nhân khẩu và số xe máy/ô tô (theo nhomXe) vào bộ nhớ,
+     * bằng chính truy vấn của {@link #streamHouseholds}.
+     *
+     * @param conn          connection dùng để đọc dữ liệu
+     * @param maDot         mã đợt thu
+     * @param alreadyBilled nhận mã các hộ đã có phiếu thu trong đợt
+     * @return danh sách hộ gia đình (theo thứ tự id)
+     * @throws SQLException nếu lỗi truy vấn
+     */
+    public List<HouseholdSnapshot> loadHouseholds(Connection conn, int maDot, Set<Integer> alreadyBilled)
+            throws SQLException {
+        return loadHouseholds(conn, STREAM_HOUSEHOLD_FACTS, maDot, alreadyBilled);
+    }
+
+    private List<HouseholdSnapshot> loadHouseholds(Connection conn, String sql, int maDot,
+                                                   Set<Integer> alreadyBilled) throws SQLException {
+        List<HouseholdSnapshot> households = new ArrayList<>();
+        try {
+            streamHouseholds(conn, sql, maDot, (household, billed) -> {
+                households.add(household);
+                if (billed) {
+                    alreadyBilled.add(household.getHousehold().getId());
+                }
+            });
+        } catch (IOException e) {
+            // Visitor chỉ gom vào danh sách, không ghi ra luồng nào
+            throw new UncheckedIOException(e);
+        }
+        return households;
+    }
+
+    /**
+     * Đọc tuần tự từng hộ (kèm số nhân khẩu, số xe và trạng thái đã có phiếu) bằng một truy vấn
+     * qua cursor, không giữ toàn bộ danh sách trong bộ nhớ. Connection phải ở chế độ autoCommit = false
+     * để driver dùng cursor (fetch size).
+     *
+     * @param conn    connection (autoCommit = false)
+     * @param maDot   mã đợt thu
+     * @param visitor nhận từng hộ theo thứ tự id
+     * @return số hộ đã đọc
+     * @throws SQLException nếu lỗi truy vấn
+     * @throws IOException  nếu visitor lỗi ghi
+     */
+    public int streamHouseholds(Connection conn, int maDot, HouseholdVisitor visitor) throws SQLException, IOException {
+        return streamHouseholds(conn, STREAM_HOUSEHOLD_FACTS, maDot, visitor);
+    }
+
+    private static int streamHouseholds(Connection conn, String sql, int maDot, HouseholdVisitor visitor)
+            throws SQLException, IOException {
+        int count = 0;
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setFetchSize(STREAM_FETCH_SIZE);
+            pstmt.setInt(1, maDot);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    visitor.visit(readHouseholdFacts(rs), rs.getBoolean("daCoPhieu"));
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Đọc dữ liệu tính phí của một hộ bằng một truy vấn.
+     *
+     * @param conn  connection
+     * @param maHo  mã hộ
+     * @param maDot mã đợt thu
+     * @return dữ liệu hộ, hoặc null nếu không tồn tại
+     * @throws SQLException nếu lỗi truy vấn
+     */
+    public HouseholdSnapshot loadHousehold(Connection conn, int maHo, int maDot) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(SELECT_HOUSEHOLD_FACTS_BY_ID)) {
+            pstmt.setInt(1, maDot);
+            pstmt.setInt(2, maHo);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? readHouseholdFacts(rs) : null;
+            }
+        }
+    }
+
+    private static HouseholdSnapshot readHouseholdFacts(ResultSet rs) throws SQLException {
+        HoGiaDinh household = new HoGiaDinh();
+        household.setId(rs.getInt("id"));
+        household.setSoPhong(rs.getInt("soPhong"));
+        household.setDienTich(rs.getBigDecimal("dienTich"));
+        return new HouseholdSnapshot(household, rs.getInt("soNhanKhau"), rs.getInt("soXeMay"), rs.getInt("soOto"));
+    }
+
+    /**
+     * Tính các dòng ChiTietThu và tổng tiền cho một hộ.
+     *
+     * @param household dữ liệu hộ gia đình
+     * @param rules     quy tắc tính phí của các khoản thu bắt buộc (đã biên dịch)
+     * @return phiếu thu dự kiến, hoặc null nếu tổng tiền bằng 0
+     */
+    public PlannedReceipt computeReceipt(HouseholdSnapshot household, List<FeeRule> rules) {
+        return computeReceipt(household, rules, BillingRules.STANDARD);
+    }
+
+    private static PlannedReceipt computeReceipt(HouseholdSnapshot household, List<FeeRule> rules,
+                                                 BillingRules billingRules) {
+        boolean keepZero = billingRules == BillingRules.NEW_DRIVE;
+        BigDecimal totalAmount = BigDecimal.ZERO;
+        List<ChiTietThu> lines = new ArrayList<>(rules.size());
+
+        for (FeeRule rule : rules) {
+            BigDecimal soLuong;
+            BigDecimal thanhTien;
+            if (keepZero) {
+                // Như procedure: có số lượng là ghi dòng, kể cả đơn giá 0
+                soLuong = rule.getDonGia() != null ? rule.quantity(household) : null;
+                thanhTien = soLuong != null ? rule.getDonGia().multiply(soLuong) : null;
+            } else {
+                FeeRule.Charge charge = rule.evaluate(household);
+                soLuong = charge != null ? charge.getSoLuong() : null;
+                thanhTien = charge != null ? charge.getThanhTien() : null;
+            }
+            if (thanhTien != null) {
+                totalAmount = totalAmount.add(thanhTien);
+
+                ChiTietThu chiTiet = new ChiTietThu();
+                chiTiet.setMaKhoan(rule.getMaKhoan());
+                chiTiet.setDonGia(rule.getDonGia());
+                chiTiet.setSoLuong(soLuong);
+                chiTiet.setThanhTien(thanhTien);
+                lines.add(chiTiet);
+            }
+        }
+
+        if (!keepZero && totalAmount.signum() <= 0) {
+            return null;
+        }
+        return new PlannedReceipt(household.getHousehold().getId(), totalAmount, lines);
+    }
+
+    // ==================== Ghi dữ liệu ====================
+
+    /**
+     * Ghi các phiếu thu trong kế hoạch (PhieuThu trước, ChiTietThu sau) bằng COPY hoặc INSERT nhiều dòng.
+     *
+     * @param conn       connection (caller quản lý transaction)
+     * @param plan       kế hoạch đã tính
+     * @param maTaiKhoan tài khoản lập phiếu
+     * @param ngayLap    thời điểm lập phiếu
+     * @return số phiếu thu đã tạo
+     * @throws SQLException nếu lỗi ghi
+     */
+    public int write(Connection conn, GenerationPlan plan, int maTaiKhoan, LocalDateTime ngayLap) throws SQLException {
+        return write(conn, plan, maTaiKhoan, ngayLap, ProgressListener.NONE);
+    }
+
+    /**
+     * Ghi các phiếu thu theo từng lát {@value #WRITE_SLICE_SIZE} phiếu, báo tiến độ theo số hộ
+     * và kiểm tra yêu cầu hủy giữa các lát.
+     *
+     * @param conn       connection (caller quản lý transaction)
+     * @param plan       kế hoạch đã tính
+     * @param maTaiKhoan tài khoản lập phiếu
+     * @param ngayLap    thời điểm lập phiếu
+     * @param progress   nhận tiến độ (tổng = số hộ trong kế hoạch)
+     * @return số phiếu thu đã tạo
+     * @throws SQLException nếu lỗi ghi
+     * @throws CancellationException nếu bị hủy giữa chừng (caller cần rollback)
+     */
+    public int write(Connection conn, GenerationPlan plan, int maTaiKhoan, LocalDateTime ngayLap,
+                     ProgressListener progress) throws SQLException {
+        List<PlannedReceipt> receipts = plan.getReceipts();
+        progress.setTotal(plan.getHouseholdCount());
+        // Các hộ không phát sinh phí coi như đã xử lý xong
+        progress.advance(plan.getHouseholdCount() - receipts.size());
+        if (receipts.isEmpty()) {
+            return 0;
+        }
+
+        Timestamp ngayLapTs = Timestamp.valueOf(ngayLap != null ? ngayLap : LocalDateTime.now());
+
+        // Chỉ bỏ qua trigger khi caller giữ transaction: set_config(..., TRUE) hết hiệu lực khi transaction
+        // kết thúc (kể cả rollback), còn ở chế độ autoCommit thì không có tác dụng với các câu lệnh sau
+        boolean skipTrigger = !conn.getAutoCommit();
+        if (skipTrigger) {
+            setSkipTongTien(conn, true);
+        }
+
+        // Ưu tiên COPY; nếu connection không hỗ trợ hoặc server từ chối thì quay về INSERT nhiều dòng
+        CopyManager copyManager = useCopy ? PhieuThuCopyWriter.getCopyManager(conn) : null;
+        boolean copyVerified = false;
+        int written = 0;
+
+        for (int from = 0; from < receipts.size(); from += WRITE_SLICE_SIZE) {
+            if (progress.isCancelled()) {
+                throw new CancellationException("Receipt generation for drive " + plan.getMaDot() + " was cancelled");
+            }
+            List<PlannedReceipt> slice = receipts.subList(from, Math.min(from + WRITE_SLICE_SIZE, receipts.size()));
+
+            if (copyManager != null && !copyVerified) {
+                // Lát đầu tiên: thử COPY trong savepoint để có thể quay về INSERT
+                Savepoint savepoint = conn.getAutoCommit() ? null : conn.setSavepoint();
+                try {
+                    written += copyWriter.write(copyManager, conn, plan.getMaDot(), slice, maTaiKhoan, ngayLapTs);
+                    if (savepoint != null) {
+                        conn.releaseSavepoint(savepoint);
+                    }
+                    copyVerified = true;
+                } catch (SQLException e) {
+                    if (savepoint == null || !isCopyUnavailable(e)) {
+                        throw e;
+                    }
+                    conn.rollback(savepoint);
+                    logger.log(Level.WARNING, "COPY unavailable (" + e.getSQLState() + "), falling back to batched INSERT", e);
+                    copyManager = null;
+                    written += insertSlice(conn, plan.getMaDot(), slice, maTaiKhoan, ngayLapTs);
+                }
+            } else if (copyManager != null) {
+                written += copyWriter.write(copyManager, conn, plan.getMaDot(), slice, maTaiKhoan, ngayLapTs);
+            } else {
+                written += insertSlice(conn, plan.getMaDot(), slice, maTaiKhoan, ngayLapTs);
+            }
+            progress.advance(slice.size());
+        }
+
+        if (skipTrigger) {
+            // Các câu lệnh sau trong cùng transaction (của caller) vẫn được trigger tính lại tongTien
+            setSkipTongTien(conn, false);
+        }
+
+        logger.log(Level.INFO, "Wrote " + written + " PhieuThu for drive " + plan.getMaDot()
+                + (copyManager != null ? " via COPY" : " via batched INSERT"));
+        return written;
+    }
+
+    private static void setSkipTongTien(Connection conn, boolean skip) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(SET_SKIP_TONG_TIEN)) {
+            pstmt.setString(1, skip ? "on" : "off");
+            pstmt.execute();
+        }
+    }
+
+    private int insertSlice(Connection conn, int maDot, List<PlannedReceipt> slice,
+                            int maTaiKhoan, Timestamp ngayLap) throws SQLException {
+        Map<Integer, Integer> maPhieuByHo = insertHeaders(conn, maDot, slice, maTaiKhoan, ngayLap);
+        insertDetails(conn, slice, maPhieuByHo);
+        return maPhieuByHo.size();
+    }
+
+    /**
+     * COPY bị từ chối do không được hỗ trợ (0A000) hoặc thiếu quyền (42501): có thể ghi lại bằng INSERT.
+     */
+    private static boolean isCopyUnavailable(SQLException e) {
+        String state = e.getSQLState();
+        return "0A000".equals(state) || "42501".equals(state);
+    }
+
+    private Map<Integer, Integer> insertHeaders(Connection conn, int maDot, List<PlannedReceipt> receipts,
+                                                int maTaiKhoan, Timestamp ngayLap) throws SQLException {
+        Map<Integer, Integer> maPhieuByHo = new HashMap<>(receipts.size() * 2);
+
+        for (int from = 0; from < receipts.size(); from += INSERT_CHUNK_SIZE) {
+            List<PlannedReceipt> chunk = receipts.subList(from, Math.min(from + INSERT_CHUNK_SIZE, receipts.size()));
+            String sql = multiRowSql(INSERT_PHIEU_THU_PREFIX, INSERT_PHIEU_THU_ROW, chunk.size(), INSERT_PHIEU_THU_SUFFIX);
+
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                int idx = 1;
+                for (PlannedReceipt receipt : chunk) {
+                    pstmt.setInt(idx++, receipt.getMaHo());
+                    pstmt.setInt(idx++, maDot);
+                    pstmt.setInt(idx++, maTaiKhoan);
+                    pstmt.setTimestamp(idx++, ngayLap);
+                    pstmt.setBigDecimal(idx++, receipt.getTongTien());
+                }
+                // RETURNING không đảm bảo thứ tự: ghép lại theo maHo (duy nhất trong một lần sinh)
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        maPhieuByHo.put(rs.getInt("maHo"), rs.getInt("id"));
+                    }
+                }
+            }
+        }
+        return maPhieuByHo;
+    }
+
+    private int insertDetails(Connection conn, List<PlannedReceipt> receipts,
+                              Map<Integer, Integer> maPhieuByHo) throws SQLException {
+        List<ChiTietThu> allLines = new ArrayList<>();
+        for (PlannedReceipt receipt : receipts) {
+            Integer maPhieu = maPhieuByHo.get(receipt.getMaHo());
+            if (maPhieu == null) {
+                throw new SQLException("Missing generated PhieuThu id for household " + receipt.getMaHo());
+            }
+            receipt.setMaPhieu(maPhieu);
+            for (ChiTietThu line : receipt.getLines()) {
+                line.setMaPhieu(maPhieu);
+                allLines.add(line);
+            }
+        }
+
+        String fullChunkSql = null;
+        for (int from = 0; from < allLines.size(); from += INSERT_CHUNK_SIZE) {
+            List<ChiTietThu> chunk = allLines.subList(from, Math.min(from + INSERT_CHUNK_SIZE, allLines.size()));
+            String sql;
+            if (chunk.size() == INSERT_CHUNK_SIZE) {
+                if (fullChunkSql == null) {
+                    fullChunkSql = multiRowSql(INSERT_CHI_TIET_PREFIX, INSERT_CHI_TIET_ROW, INSERT_CHUNK_SIZE, "");
+                }
+                sql = fullChunkSql;
+            } else {
+                sql = multiRowSql(INSERT_CHI_TIET_PREFIX, INSERT_CHI_TIET_ROW, chunk.size(), "");
+            }
+
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                int idx = 1;
+                for (ChiTietThu line : chunk) {
+                    pstmt.setInt(idx++, line.getMaPhieu());
+                    pstmt.setInt(idx++, line.getMaKhoan());
+                    pstmt.setBigDecimal(idx++, line.getSoLuong());
+                    pstmt.setBigDecimal(idx++, line.getDonGia());
+                    pstmt.setBigDecimal(idx++, line.getThanhTien());
+                }
+                pstmt.executeUpdate();
+            }
+        }
+        return allLines.size();
+    }
+
+    private static String multiRowSql(String prefix, String row, int rows, String suffix) {
+        StringBuilder sb = new StringBuilder(prefix.length() + (row.length() + 2) * rows + suffix.length());
+        sb.append(prefix);
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(row);
+        }
+        return sb.append(suffix).toString();
+    }
+
+    // ==================== Kiểu dữ liệu ====================
+
+    /**
+     * Dữ liệu một hộ dùng để tính phí: thông tin hộ (kèm diện tích) và các bộ đếm.
+     */
+    public static class HouseholdSnapshot {
+        private final HoGiaDinh household;
+        private final int memberCount;
+        private final int motorbikeCount;
+        private final int carCount;
+
+        HouseholdSnapshot(HoGiaDinh household, int memberCount, int motorbikeCount, int carCount) {
+            this.household = household;
+            this.memberCount = memberCount;
+            this.motorbikeCount = motorbikeCount;
+            this.carCount = carCount;
+        }
+
+        public HoGiaDinh getHousehold() { return household; }
+        public int getMemberCount() { return memberCount; }
+        public int getMotorbikeCount() { return motorbikeCount; }
+        public int getCarCount() { return carCount; }
+    }
+
+    /**
+     * Một phiếu thu dự kiến: hộ, tổng tiền và các dòng chi tiết.
+     */
+    public static class PlannedReceipt {
+        private final int maHo;
+        private final BigDecimal tongTien;
+        private final List<ChiTietThu> lines;
+        private int maPhieu;
+
+        PlannedReceipt(int maHo, BigDecimal tongTien, List<ChiTietThu> lines) {
+            this.maHo = maHo;
+            this.tongTien = tongTien;
+            this.lines = lines;
+        }
+
+        public int getMaHo() { return maHo; }
+        public BigDecimal getTongTien() { return tongTien; }
+        public List<ChiTietThu> getLines() { return lines; }
+        public int getMaPhieu() { return maPhieu; }
+        void setMaPhieu(int maPhieu) { this.maPhieu = maPhieu; }
+    }
+
+    /**
+     * Kết quả lập kế hoạch cho một đợt thu.
+     */
+    public static class GenerationPlan {
+        private final int maDot;
+        private final int householdCount;
+        private final int feeCount;
+        private final List<PlannedReceipt> receipts;
+
+        GenerationPlan(int maDot, int householdCount, int feeCount, List<PlannedReceipt> receipts) {
+            this.maDot = maDot;
+            this.householdCount = householdCount;
+            this.feeCount = feeCount;
+            this.receipts = receipts;
+        }
+
+        public int getMaDot() { return maDot; }
+        public int getHouseholdCount() { return householdCount; }
+        public int getFeeCount() { return feeCount; }
+        public List<PlannedReceipt> getReceipts() { return receipts; }
+    }
+}
@@ -1,50 +1,38 @@
 package com.bluemoon.services.impl;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
-import java.text.DecimalFormat;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import java.math.BigDecimal;
 
-import com.lowagie.text.Document;
-import com.lowagie.text.Element;
-import com.lowagie.text.Font;
-import com.lowagie.text.PageSize;
-import com.lowagie.text.Paragraph;
-import com.lowagie.text.Phrase;
-import com.lowagie.text.pdf.PdfPCell;
-import com.lowagie.text.pdf.PdfPTable;
-import com.lowagie.text.pdf.PdfWriter;
-
 import com.bluemoon.models.ChiTietThu;
 import com.bluemoon.models.DotThu;
-import com.bluemoon.models.HoGiaDinh;
+import com.bluemoon.models.HoaDon;
+import com.bluemoon.models.KeysetPage;
 import com.bluemoon.models.KhoanThu;
-import com.bluemoon.models.NhanKhau;
 import com.bluemoon.models.PhieuThu;
-import com.bluemoon.models.PhuongTien;
 import com.bluemoon.services.ChiTietThuService;
 import com.bluemoon.services.DotThuService;
-import com.bluemoon.services.HoGiaDinhService;
 import com.bluemoon.services.KhoanThuService;
-import com.bluemoon.services.NhanKhauService;
 import com.bluemoon.services.PhieuThuService;
-import com.bluemoon.services.PhuongTienService;
 import com.bluemoon.utils.DatabaseConnector;
+import com.bluemoon.utils.ProgressListener;
+import com.bluemoon.utils.UnitOfWork;
 
 /**
  * Triển khai {@link PhieuThuService} với database integration.
@@ -57,18 +45,20 @@ public class PhieuThuServiceImpl implements PhieuThuService {
     // Services để kiểm tra trạng thái đợt thu và tính phí
     private final DotThuService dotThuService;
     private final KhoanThuService khoanThuService;
-    private final HoGiaDinhService hoGiaDinhService;
-    private final NhanKhauService nhanKhauService;
-    private final PhuongTienService phuongTienService;
     private final ChiTietThuService chiTietThuService;
+    private final PhieuThuGenerationEngine generationEngine;
+    private final PartitionedReceiptGenerator partitionedGenerator;
+    private final DriveBillingPreview billingPreview;
+    private final DriveInvoiceExporter invoiceExporter;
     
     public PhieuThuServiceImpl() {
         this.dotThuService = new com.bluemoon.services.impl.DotThuServiceImpl();
         this.khoanThuService = new com.bluemoon.services.impl.KhoanThuServiceImpl();
-        this.hoGiaDinhService = new com.bluemoon.services.impl.HoGiaDinhServiceImpl();
-        this.nhanKhauService = new com.bluemoon.services.impl.NhanKhauServiceImpl();
-        this.phuongTienService = new com.bluemoon.services.impl.PhuongTienServiceImpl();
         this.chiTietThuService = new com.bluemoon.services.impl.ChiTietThuServiceImpl();
+        this.generationEngine = new PhieuThuGenerationEngine(khoanThuService);
+        this.partitionedGenerator = new PartitionedReceiptGenerator(generationEngine);
+        this.billingPreview = new DriveBillingPreview(generationEngine);
+        this.invoiceExporter = new DriveInvoiceExporter();
     }
     
     /**
@@ -112,6 +102,25 @@ public class PhieuThuServiceImpl implements PhieuThuService {
             "WHERE dt.trangThai = 'Mo' OR pt.trangThai = 'DaThu' OR pt.trangThai = 'DaThanhToan' " +
             "ORDER BY pt.id DESC";
 
+    /**
+     * Phân trang theo khóa: cùng tập phiếu thu với SELECT_ALL, mới nhất trước.
+     * Bộ lọc (SELECT_PAGE_BY_*) và "AND pt.id < ?" được nối vào trước ORDER BY.
+     */
+    private static final String SELECT_PAGE =
+            "SELECT pt.*, tk.hoTen as tenNguoiLap " +
+            "FROM PhieuThu pt " +
+            "LEFT JOIN TaiKhoan tk ON pt.maTaiKhoan = tk.id " +
+            "JOIN DotThu dt ON pt.maDot = dt.id " +
+            "WHERE (dt.trangThai = 'Mo' OR pt.trangThai = 'DaThu' OR pt.trangThai = 'DaThanhToan')";
+    private static final String SELECT_PAGE_AFTER = " AND pt.id < ?";
+    private static final String SELECT_PAGE_BY_DOT = " AND pt.maDot = ?";
+    private static final String SELECT_PAGE_BY_MAHO = " AND pt.maHo = ?";
+    private static final String SELECT_PAGE_BY_TRANG_THAI = " AND pt.trangThai = ?";
+    private static final String SELECT_PAGE_ORDER = " ORDER BY pt.id DESC LIMIT ?";
+
+    /** Số phiếu thu tối đa của một trang. */
+    public static final int MAX_PAGE_SIZE = 500;
+
     private static final String SELECT_BY_ID = 
             "SELECT pt.*, tk.hoTen as tenNguoiLap " +
             "FROM PhieuThu pt " +
@@ -232,6 +241,10 @@ public class PhieuThuServiceImpl implements PhieuThuService {
 
     @Override
     public int createPhieuThuWithDetails(PhieuThu phieuThu, List<ChiTietThu> chiTietList) {
+        return inUnitOfWork(() -> createPhieuThuWithDetailsInUnit(phieuThu, chiTietList), -1);
+    }
+
+    private int createPhieuThuWithDetailsInUnit(PhieuThu phieuThu, List<ChiTietThu> chiTietList) {
         if (phieuThu == null) {
             logger.log(Level.WARNING, "Cannot create PhieuThu with details: phieuThu is null");
             return -1;
@@ -290,9 +303,8 @@ public class PhieuThuServiceImpl implements PhieuThuService {
                 chiTiet.setMaPhieu(maPhieu);
                     }
                     
-                    // Use ChiTietThuService with transaction support
-                    ChiTietThuServiceImpl chiTietServiceImpl = (ChiTietThuServiceImpl) chiTietThuService;
-                    if (!chiTietServiceImpl.saveAll(chiTietList, conn)) {
+                    // ChiTietThuService dùng chung connection/transaction qua UnitOfWork
+                    if (!chiTietThuService.saveAll(chiTietList)) {
                         conn.rollback();
                         logger.log(Level.WARNING, "Failed to save ChiTietThu list, transaction rolled back");
                         return -1;
@@ -419,6 +431,49 @@ public class PhieuThuServiceImpl implements PhieuThuService {
         }
     }
 
+    @Override
+    public KeysetPage<PhieuThu> findPhieuThuPage(Integer after, int limit, Integer maDot, Integer maHo, String trangThai) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+
+        StringBuilder sql = new StringBuilder(SELECT_PAGE);
+        if (after != null) sql.append(SELECT_PAGE_AFTER);
+        if (maDot != null) sql.append(SELECT_PAGE_BY_DOT);
+        if (maHo != null) sql.append(SELECT_PAGE_BY_MAHO);
+        if (trangThai != null) sql.append(SELECT_PAGE_BY_TRANG_THAI);
+        sql.append(SELECT_PAGE_ORDER);
+
+        try (Connection conn = DatabaseConnector.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
+
+            int idx = 1;
+            if (after != null) pstmt.setInt(idx++, after);
+            if (maDot != null) pstmt.setInt(idx++, maDot);
+            if (maHo != null) pstmt.setInt(idx++, maHo);
+            if (trangThai != null) pstmt.setString(idx++, trangThai);
+            // Lấy thêm một dòng để biết còn trang sau hay không
+            pstmt.setInt(idx, pageSize + 1);
+
+            List<PhieuThu> items = new ArrayList<>(pageSize + 1);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    items.add(buildPhieuThuFromResultSet(rs));
+                }
+            }
+
+            Integer nextCursor = null;
+            if (items.size() > pageSize) {
+                items.remove(pageSize);
+                nextCursor = items.get(pageSize - 1).getId();
+            }
+            return new KeysetPage<>(items, pageSize, nextCursor);
+
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error retrieving PhieuThu page after " + after, e);
+            e.printStackTrace();
+            return new KeysetPage<>(new ArrayList<>(), pageSize, null);
+        }
+    }
+
     @Override
     public boolean updatePhieuThuStatus(int maPhieu, String newStatus) {
         try (Connection conn = DatabaseConnector.getConnection()) {
@@ -463,147 +518,8 @@ public class PhieuThuServiceImpl implements PhieuThuService {
             return 0;
         }
 
-        // Get current user ID for maTaiKhoan (default to 1 if not available)
-        int maTaiKhoan = 1;
-        
-        try (Connection conn = DatabaseConnector.getConnection()) {
-            conn.setAutoCommit(false);
-            int successCount = 0;
-
-            try {
-                // Step 1: Fetch all required data efficiently (batch queries to avoid N+1)
-                List<HoGiaDinh> allHouseholds = hoGiaDinhService.getAllHoGiaDinh();
-                List<KhoanThu> allFees = khoanThuService.getAllKhoanThu();
-                
-                // Filter only mandatory fees (batBuoc = true)
-                List<KhoanThu> mandatoryFees = allFees.stream()
-                    .filter(KhoanThu::isBatBuoc)
-                    .collect(java.util.stream.Collectors.toList());
-
-                if (mandatoryFees.isEmpty()) {
-                    logger.log(Level.WARNING, "No mandatory fees found for drive generation");
-                    conn.rollback();
-                    return 0;
-                }
-
-                logger.log(Level.INFO, "Generating receipts for " + allHouseholds.size() + 
-                    " households with " + mandatoryFees.size() + " mandatory fees");
-
-                // Step 2: Pre-fetch all household data to avoid N+1 queries
-                // Map: householdId -> household data
-                java.util.Map<Integer, HoGiaDinh> householdMap = new java.util.HashMap<>();
-                java.util.Map<Integer, Integer> memberCountMap = new java.util.HashMap<>();
-                java.util.Map<Integer, Integer> motorbikeCountMap = new java.util.HashMap<>();
-                java.util.Map<Integer, Integer> carCountMap = new java.util.HashMap<>();
-
-                for (HoGiaDinh household : allHouseholds) {
-                    int householdId = household.getId();
-                    householdMap.put(householdId, household);
-                    
-                    // Count members
-                    List<NhanKhau> members = nhanKhauService.getNhanKhauByHoGiaDinh(householdId);
-                    memberCountMap.put(householdId, members.size());
-                    
-                    // Count vehicles
-                    List<PhuongTien> vehicles = phuongTienService.getPhuongTienByHoGiaDinh(householdId);
-                    int motorbikeCount = 0;
-                    int carCount = 0;
-                    for (PhuongTien vehicle : vehicles) {
-                        String loaiXe = vehicle.getLoaiXe();
-                        if (loaiXe != null) {
-                            String loaiXeLower = loaiXe.toLowerCase().trim();
-                            if (loaiXeLower.contains("xe máy") || loaiXeLower.contains("xemay") || 
-                                loaiXeLower.contains("moto") || loaiXeLower.contains("xe may")) {
-                                motorbikeCount++;
-                            } else if (loaiXeLower.contains("ô tô") || loaiXeLower.contains("oto") || 
-                                      loaiXeLower.contains("car") || loaiXeLower.contains("o to")) {
-                                carCount++;
-                            }
-                        }
-                    }
-                    motorbikeCountMap.put(householdId, motorbikeCount);
-                    carCountMap.put(householdId, carCount);
-                }
-
-                // Step 3: Generate receipts for each household
-                LocalDateTime now = LocalDateTime.now();
-                
-                for (HoGiaDinh household : allHouseholds) {
-                    int householdId = household.getId();
-                    
-                    // Calculate total amount for this household
-                    BigDecimal totalAmount = BigDecimal.ZERO;
-                    List<ChiTietThu> chiTietList = new ArrayList<>();
-
-                    // Calculate each mandatory fee based on tinhTheo
-                    for (KhoanThu fee : mandatoryFees) {
-                        BigDecimal feeAmount = calculateFeeAmount(
-                            fee, 
-                            household, 
-                            memberCountMap.get(householdId),
-                            motorbikeCountMap.get(householdId),
-                            carCountMap.get(householdId)
-                        );
-
-                        if (feeAmount != null && feeAmount.compareTo(BigDecimal.ZERO) > 0) {
-                            totalAmount = totalAmount.add(feeAmount);
-                            
-                            // Create ChiTietThu với soLuong đúng theo tinhTheo
-                            ChiTietThu chiTiet = new ChiTietThu();
-                            chiTiet.setMaKhoan(fee.getId());
-                            chiTiet.setDonGia(fee.getDonGia());
-                            
-                            // Tính soLuong dựa trên tinhTheo
-                            BigDecimal soLuong = calculateSoLuongForFee(
-                                fee,
-                                household,
-                                memberCountMap.get(householdId),
-                                motorbikeCountMap.get(householdId),
-                                carCountMap.get(householdId)
-                            );
-                            chiTiet.setSoLuong(soLuong);
-                            
-                            // thanhTien sẽ được tính = soLuong * donGia trong ChiTietThuServiceImpl khi INSERT
-                            chiTietList.add(chiTiet);
-                        }
-                    }
-
-                    // Only create receipt if total amount > 0
-                    if (totalAmount.compareTo(BigDecimal.ZERO) > 0) {
-                        // Create PhieuThu
-                        PhieuThu phieuThu = new PhieuThu();
-                        phieuThu.setMaHo(householdId);
-                        phieuThu.setMaDot(maDot);
-                        phieuThu.setMaTaiKhoan(maTaiKhoan);
-                        phieuThu.setNgayLap(now);
-                        phieuThu.setTongTien(totalAmount);
-                        phieuThu.setTrangThai("ChuaThu");
-                        phieuThu.setHinhThucThu(null);
-
-                        // Create receipt with details using transaction
-                        int maPhieu = createPhieuThuWithDetailsInTransaction(phieuThu, chiTietList, conn);
-                        if (maPhieu > 0) {
-                            successCount++;
-                        } else {
-                            logger.log(Level.WARNING, "Failed to create receipt for household: " + householdId);
-                        }
-                    }
-                }
-
-                // Commit transaction
-                conn.commit();
-                logger.log(Level.INFO, "Successfully generated " + successCount + " receipts for drive: " + maDot);
-                return successCount;
-
-            } catch (Exception e) {
-                conn.rollback();
-                logger.log(Level.SEVERE, "Error generating receipts for drive: " + maDot, e);
-                e.printStackTrace();
-                throw e;
-            } finally {
-                conn.setAutoCommit(true);
-            }
-
+        try {
+            return generateReceipts(maDot, ProgressListener.NONE);
         } catch (SQLException e) {
             logger.log(Level.SEVERE, "Error in generateReceiptsForDrive for maDot: " + maDot, e);
             e.printStackTrace();
@@ -611,197 +527,74 @@ public class PhieuThuServiceImpl implements PhieuThuService {
         }
     }
 
-    /**
-     * Calculate fee amount based on tinhTheo (calculation method).
-     * 
-     * @param fee The fee definition (KhoanThu)
-     * @param household The household
-     * @param memberCount Number of members in the household
-     * @param motorbikeCount Number of motorbikes
-     * @param carCount Number of cars
-     * @return Calculated fee amount, or null if calculation method is not supported
-     */
-    private BigDecimal calculateFeeAmount(KhoanThu fee, HoGiaDinh household, 
-                                         Integer memberCount, Integer motorbikeCount, Integer carCount) {
-        if (fee == null || fee.getDonGia() == null) {
-            return BigDecimal.ZERO;
-        }
+    @Override
+    public int generateReceiptsForDrive(int maDot, ProgressListener progress) throws SQLException {
+        requireOpenDrive(maDot);
+        return generateReceipts(maDot, progress);
+    }
 
-        BigDecimal basePrice = fee.getDonGia();
-        String tinhTheo = fee.getTinhTheo();
-        
-        if (tinhTheo == null || tinhTheo.trim().isEmpty()) {
-            // Default: Fixed fee per household
-            return basePrice;
-        }
+    @Override
+    public int generateReceiptsForDrivePartitioned(int maDot, ProgressListener progress) throws SQLException {
+        requireOpenDrive(maDot);
+        // Get current user ID for maTaiKhoan (default to 1 if not available)
+        int maTaiKhoan = 1;
+        return partitionedGenerator.generate(maDot, maTaiKhoan, progress);
+    }
 
-        String tinhTheoLower = tinhTheo.toLowerCase().trim();
-        BigDecimal multiplier = BigDecimal.ONE;
-
-        // Switch-case logic for different calculation methods
-        switch (tinhTheoLower) {
-            case "hokhau":
-            case "hộ khẩu":
-            case "codinh":
-            case "cố định":
-            case "fixed":
-                // Fixed Fee per Household: Amount = Fee_Price * 1
-                multiplier = BigDecimal.ONE;
-                break;
-
-            case "nhankhau":
-            case "nhân khẩu":
-            case "person":
-            case "perperson":
-                // Fee per Person: Amount = Fee_Price * Count(NhanKhau)
-                if (memberCount == null || memberCount <= 0) {
-                    logger.log(Level.WARNING, "Cannot calculate fee per person: memberCount is 0 or null for household: " + household.getId());
-                    return BigDecimal.ZERO;
-                }
-                multiplier = BigDecimal.valueOf(memberCount);
-                break;
-
-            case "dientich":
-            case "diện tích":
-            case "area":
-            case "perarea":
-                // Fee per Area: Amount = Fee_Price * Phong.dienTich
-                // Lưu ý: dienTich đã được JOIN từ bảng Phong và set vào HoGiaDinh.dienTich
-                if (household == null) {
-                    logger.log(Level.WARNING, "Cannot calculate fee per area: household is null");
-                    return BigDecimal.ZERO;
-                }
-                BigDecimal dienTich = household.getDienTich();
-                if (dienTich == null || dienTich.compareTo(BigDecimal.ZERO) <= 0) {
-                    logger.log(Level.WARNING, "Cannot calculate fee per area: dienTich is null or zero for household: " + household.getId());
-                    return BigDecimal.ZERO;
-                }
-                multiplier = dienTich;
-                break;
-
-            case "xemay":
-            case "xe máy":
-            case "xe may":
-            case "motorbike":
-            case "moto":
-                // Fee per Motorbike: Amount = Fee_Price * Count(Motorbikes)
-                if (motorbikeCount == null || motorbikeCount <= 0) {
-                    // No motorbikes, return 0 (or could return base price if business rule requires)
-                    return BigDecimal.ZERO;
-                }
-                multiplier = BigDecimal.valueOf(motorbikeCount);
-                break;
-
-            case "oto":
-            case "ô tô":
-            case "o to":
-            case "car":
-            case "automobile":
-                // Fee per Car: Amount = Fee_Price * Count(Cars)
-                if (carCount == null || carCount <= 0) {
-                    // No cars, return 0 (or could return base price if business rule requires)
-                    return BigDecimal.ZERO;
-                }
-                multiplier = BigDecimal.valueOf(carCount);
-                break;
-
-            default:
-                // Unknown calculation method, default to fixed fee
-                logger.log(Level.WARNING, "Unknown tinhTheo value: '" + tinhTheo + "' for fee: " + fee.getTenKhoan() + 
-                    ", defaulting to fixed fee per household");
-                multiplier = BigDecimal.ONE;
-                break;
+    @Override
+    public void previewDrive(int maDot, boolean includeHouseholds, OutputStream out) throws SQLException, IOException {
+        DotThu dotThu = dotThuService.getDotThuById(maDot);
+        if (dotThu == null) {
+            throw new IllegalArgumentException("Đợt thu không tồn tại: " + maDot);
         }
+        billingPreview.write(dotThu, out, includeHouseholds);
+    }
 
-        // Calculate: Amount = basePrice * multiplier
-        BigDecimal amount = basePrice.multiply(multiplier);
-        logger.log(Level.FINE, "Calculated fee for " + fee.getTenKhoan() + " (tinhTheo: " + tinhTheo + 
-            "): " + basePrice + " * " + multiplier + " = " + amount);
-        
-        return amount;
+    private void requireOpenDrive(int maDot) {
+        if (!isDotThuOpen(maDot)) {
+            DotThu dotThu = dotThuService.getDotThuById(maDot);
+            String errorMsg = "Không thể tạo phiếu thu: Đợt thu không tồn tại hoặc đã đóng";
+            if (dotThu != null) {
+                errorMsg = "Không thể tạo phiếu thu: Đợt thu \"" + dotThu.getTenDot() + "\" đã đóng (trạng thái: " + dotThu.getTrangThai() + ")";
+            }
+            throw new IllegalArgumentException(errorMsg);
+        }
     }
 
     /**
-     * Tính soLuong cho ChiTietThu dựa trên tinhTheo của khoản thu.
-     * 
-     * @param fee The fee definition (KhoanThu)
-     * @param household The household
-     * @param memberCount Number of members in the household
-     * @param motorbikeCount Number of motorbikes
-     * @param carCount Number of cars
-     * @return soLuong value for ChiTietThu
+     * Sinh phiếu thu cho toàn bộ hộ gia đình trong một transaction bằng {@link PhieuThuGenerationEngine}:
+     * đọc dữ liệu bằng truy vấn gom nhóm, tính trong bộ nhớ và ghi bằng COPY/INSERT nhiều dòng.
+     *
+     * @param maDot    mã đợt thu (đã kiểm tra đang mở)
+     * @param progress nhận tiến độ và yêu cầu hủy
+     * @return số phiếu thu đã tạo
+     * @throws SQLException nếu lỗi database (transaction đã được rollback)
      */
-    private BigDecimal calculateSoLuongForFee(KhoanThu fee, HoGiaDinh household,
-                                             Integer memberCount, Integer motorbikeCount, Integer carCount) {
-        if (fee == null) {
-            return BigDecimal.ONE;
-        }
+    private int generateReceipts(int maDot, ProgressListener progress) throws SQLException {
+        // Get current user ID for maTaiKhoan (default to 1 if not available)
+        int maTaiKhoan = 1;
 
-        String tinhTheo = fee.getTinhTheo();
-        if (tinhTheo == null || tinhTheo.trim().isEmpty()) {
-            return BigDecimal.ONE; // Default: fixed fee per household
-        }
+        try (Connection conn = DatabaseConnector.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                PhieuThuGenerationEngine.GenerationPlan plan = generationEngine.plan(conn, maDot);
+                int successCount = generationEngine.write(conn, plan, maTaiKhoan, LocalDateTime.now(), progress);
 
-        String tinhTheoLower = tinhTheo.toLowerCase().trim();
-        
-        switch (tinhTheoLower) {
-            case "hokhau":
-            case "hộ khẩu":
-            case "codinh":
-            case "cố định":
-            case "fixed":
-                // Fixed Fee per Household: soLuong = 1
-                return BigDecimal.ONE;
-
-            case "nhankhau":
-            case "nhân khẩu":
-            case "person":
-            case "perperson":
-                // Fee per Person: soLuong = số nhân khẩu
-                if (memberCount == null || memberCount <= 0) {
-                    return BigDecimal.ONE;
-                }
-                return BigDecimal.valueOf(memberCount);
-
-            case "dientich":
-            case "diện tích":
-            case "area":
-            case "perarea":
-                // Fee per Area: soLuong = diện tích
-                if (household == null) {
-                    return BigDecimal.ONE;
-                }
-                BigDecimal dienTich = household.getDienTich();
-                if (dienTich == null || dienTich.compareTo(BigDecimal.ZERO) <= 0) {
-                    return BigDecimal.ONE;
-                }
-                return dienTich;
-
-            case "xemay":
-            case "xe máy":
-            case "xe may":
-            case "motorbike":
-            case "moto":
-                // Fee per Motorbike: soLuong = số xe máy
-                if (motorbikeCount == null || motorbikeCount <= 0) {
-                    return BigDecimal.ONE;
-                }
-                return BigDecimal.valueOf(motorbikeCount);
-
-            case "oto":
-            case "ô tô":
-            case "o to":
-            case "car":
-            case "automobile":
-                // Fee per Car: soLuong = số ô tô
-                if (carCount == null || carCount <= 0) {
-                    return BigDecimal.ONE;
-                }
-                return BigDecimal.valueOf(carCount);
+                conn.commit();
+                logger.log(Level.INFO, "Successfully generated " + successCount + " receipts for drive: " + maDot);
+                return successCount;
 
-            default:
-                // Unknown calculation method, default to 1
-                return BigDecimal.ONE;
+            } catch (CancellationException e) {
+                conn.rollback();
+                logger.log(Level.INFO, "Receipt generation cancelled for drive " + maDot + ", transaction rolled back");
+                throw e;
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                logger.log(Level.SEVERE, "Error generating receipts for drive: " + maDot, e);
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
         }
     }
 
@@ -814,61 +607,27 @@ public class PhieuThuServiceImpl implements PhieuThuService {
                 return null;
             }
 
-            // Get household
-            HoGiaDinh household = hoGiaDinhService.findById(maHo);
-            if (household == null) {
-                logger.log(Level.WARNING, "Household not found: " + maHo);
-                return null;
-            }
-
             // Get all mandatory fees
-            List<KhoanThu> allFees = khoanThuService.getAllKhoanThu();
-            List<KhoanThu> mandatoryFees = allFees.stream()
-                .filter(KhoanThu::isBatBuoc)
-                .collect(java.util.stream.Collectors.toList());
-
+            List<KhoanThu> mandatoryFees = generationEngine.loadMandatoryFees();
             if (mandatoryFees.isEmpty()) {
                 logger.log(Level.INFO, "No mandatory fees found for calculation");
                 return BigDecimal.ZERO;
             }
 
-            // Get household data
-            List<NhanKhau> members = nhanKhauService.getNhanKhauByHoGiaDinh(maHo);
-            int memberCount = members.size();
-
-            // Count vehicles
-            List<PhuongTien> vehicles = phuongTienService.getPhuongTienByHoGiaDinh(maHo);
-            int motorbikeCount = 0;
-            int carCount = 0;
-            for (PhuongTien vehicle : vehicles) {
-                String loaiXe = vehicle.getLoaiXe();
-                if (loaiXe != null) {
-                    String loaiXeLower = loaiXe.toLowerCase().trim();
-                    if (loaiXeLower.contains("xe máy") || loaiXeLower.contains("xemay") || 
-                        loaiXeLower.contains("moto") || loaiXeLower.contains("xe may")) {
-                        motorbikeCount++;
-                    } else if (loaiXeLower.contains("ô tô") || loaiXeLower.contains("oto") || 
-                              loaiXeLower.contains("car") || loaiXeLower.contains("o to")) {
-                        carCount++;
-                    }
-                }
+            // Diện tích, số nhân khẩu và số xe của hộ: một truy vấn, cùng dữ liệu với lúc sinh phiếu thu
+            PhieuThuGenerationEngine.HouseholdSnapshot snapshot;
+            try (Connection conn = DatabaseConnector.getConnection()) {
+                snapshot = generationEngine.loadHousehold(conn, maHo, maDot);
+            }
+            if (snapshot == null) {
+                logger.log(Level.WARNING, "Household not found: " + maHo);
+                return null;
             }
 
             // Calculate total amount
-            BigDecimal totalAmount = BigDecimal.ZERO;
-            for (KhoanThu fee : mandatoryFees) {
-                BigDecimal feeAmount = calculateFeeAmount(
-                    fee, 
-                    household, 
-                    memberCount,
-                    motorbikeCount,
-                    carCount
-                );
-
-                if (feeAmount != null && feeAmount.compareTo(BigDecimal.ZERO) > 0) {
-                    totalAmount = totalAmount.add(feeAmount);
-                }
-            }
+            PhieuThuGenerationEngine.PlannedReceipt receipt =
+                generationEngine.computeReceipt(snapshot, FeeRule.compileAll(mandatoryFees));
+            BigDecimal totalAmount = receipt != null ? receipt.getTongTien() : BigDecimal.ZERO;
 
             logger.log(Level.INFO, "Calculated total amount for household " + maHo + 
                 " in drive " + maDot + ": " + totalAmount);
@@ -882,72 +641,6 @@ public class PhieuThuServiceImpl implements PhieuThuService {
         }
     }
 
-    /**
-     * Create PhieuThu with details using an existing connection (for transaction support).
-     * 
-     * @param phieuThu The receipt to create
-     * @param chiTietList List of receipt details
-     * @param conn Existing database connection
-     * @return Generated receipt ID, or -1 if failed
-     */
-    private int createPhieuThuWithDetailsInTransaction(PhieuThu phieuThu, List<ChiTietThu> chiTietList, Connection conn) {
-        try {
-            // Step 1: Create PhieuThu
-            int maPhieu = -1;
-            try (PreparedStatement pstmt = conn.prepareStatement(INSERT, PreparedStatement.RETURN_GENERATED_KEYS)) {
-                pstmt.setInt(1, phieuThu.getMaHo());
-                pstmt.setInt(2, phieuThu.getMaDot());
-                pstmt.setInt(3, phieuThu.getMaTaiKhoan());
-                pstmt.setTimestamp(4, convertToSqlTimestamp(phieuThu.getNgayLap()));
-                pstmt.setBigDecimal(5, phieuThu.getTongTien());
-                pstmt.setString(6, phieuThu.getTrangThai() != null ? phieuThu.getTrangThai() : "ChuaThu");
-                pstmt.setString(7, phieuThu.getHinhThucThu());
-                pstmt.setString(8, null); // ghiChu
-
-                int rowsAffected = pstmt.executeUpdate();
-                if (rowsAffected > 0) {
-                    try (ResultSet generatedKeys = pstmt.getGeneratedKeys()) {
-                        if (generatedKeys.next()) {
-                            maPhieu = generatedKeys.getInt(1);
-                        }
-                    }
-                }
-
-                if (maPhieu == -1) {
-                    logger.log(Level.WARNING, "Failed to create PhieuThu in transaction");
-                    return -1;
-                }
-            }
-
-            // Step 2: Add all ChiTietThu using ChiTietThuService (with transaction support)
-            // Lưu ý: thanhTien sẽ được tính = soLuong * donGia trong ChiTietThuServiceImpl
-            // Trigger fn_UpdateTongTienPhieuThu() sẽ tự động cập nhật tongTien từ thanhTien
-            if (chiTietList != null && !chiTietList.isEmpty()) {
-                // Set maPhieu for all chiTiet
-                for (ChiTietThu chiTiet : chiTietList) {
-                    chiTiet.setMaPhieu(maPhieu);
-                }
-                
-                // Use ChiTietThuService with transaction support
-                ChiTietThuServiceImpl chiTietServiceImpl = (ChiTietThuServiceImpl) chiTietThuService;
-                if (!chiTietServiceImpl.saveAll(chiTietList, conn)) {
-                    logger.log(Level.WARNING, "Failed to save ChiTietThu list in transaction");
-                    return -1;
-                }
-                // Trigger fn_UpdateTongTienPhieuThu() sẽ tự động cập nhật tongTien từ thanhTien
-                logger.log(Level.FINE, "ChiTietThu saved, trigger will automatically update PhieuThu.tongTien from thanhTien");
-            }
-
-            logger.log(Level.FINE, "Successfully created PhieuThu with details in transaction, id: " + maPhieu);
-            return maPhieu;
-
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Error creating PhieuThu with details in transaction", e);
-            e.printStackTrace();
-            return -1;
-        }
-    }
-
     @Override
     public boolean hasUnpaidFees(int maHo) {
         List<PhieuThu> phieuThuList = findPhieuThuByHoGiaDinh(maHo);
@@ -1040,8 +733,16 @@ public class PhieuThuServiceImpl implements PhieuThuService {
         }
     }
 
+    /**
+     * Cập nhật phiếu thu. Các bước kiểm tra (trạng thái, đợt thu, trùng lặp, tính tổng tiền) và
+     * transaction ghi chạy trên cùng một connection nhờ {@link UnitOfWork}.
+     */
     @Override
     public boolean updatePhieuThu(PhieuThu phieuThu, List<ChiTietThu> chiTietList) {
+        return inUnitOfWork(() -> updatePhieuThuInUnit(phieuThu, chiTietList), false);
+    }
+
+    private boolean updatePhieuThuInUnit(PhieuThu phieuThu, List<ChiTietThu> chiTietList) {
         if (phieuThu == null || phieuThu.getId() == 0) {
             logger.log(Level.WARNING, "Invalid PhieuThu: null or id is 0");
             return false;
@@ -1143,9 +844,8 @@ public class PhieuThuServiceImpl implements PhieuThuService {
 
                 // Step 2: Update ChiTietThu if provided
             if (chiTietList != null) {
-                    // Delete old details using ChiTietThuService (with transaction support)
-                    ChiTietThuServiceImpl chiTietServiceImpl = (ChiTietThuServiceImpl) chiTietThuService;
-                    if (!chiTietServiceImpl.deleteByMaPhieu(phieuThu.getId(), conn)) {
+                    // Delete old details (ChiTietThuService joins this transaction via UnitOfWork)
+                    if (!chiTietThuService.deleteByMaPhieu(phieuThu.getId())) {
                         conn.rollback();
                         logger.log(Level.WARNING, "Failed to delete old ChiTietThu, transaction rolled back");
                         return false;
@@ -1158,7 +858,7 @@ public class PhieuThuServiceImpl implements PhieuThuService {
                         chiTiet.setMaPhieu(phieuThu.getId());
                         }
                         
-                        if (!chiTietServiceImpl.saveAll(chiTietList, conn)) {
+                        if (!chiTietThuService.saveAll(chiTietList)) {
                             conn.rollback();
                             logger.log(Level.WARNING, "Failed to save new ChiTietThu, transaction rolled back");
                             return false;
@@ -1187,6 +887,10 @@ public class PhieuThuServiceImpl implements PhieuThuService {
 
     @Override
     public boolean deletePhieuThu(int maPhieu) {
+        return inUnitOfWork(() -> deletePhieuThuInUnit(maPhieu), false);
+    }
+
+    private boolean deletePhieuThuInUnit(int maPhieu) {
         // Check if receipt can be modified (deleted)
         if (!canModifyPhieuThu(maPhieu)) {
             logger.log(Level.WARNING, 
@@ -1199,9 +903,8 @@ public class PhieuThuServiceImpl implements PhieuThuService {
             conn.setAutoCommit(false);
 
             try {
-                // Step 1: Delete ChiTietThu first using ChiTietThuService (with transaction support)
-                ChiTietThuServiceImpl chiTietServiceImpl = (ChiTietThuServiceImpl) chiTietThuService;
-                if (!chiTietServiceImpl.deleteByMaPhieu(maPhieu, conn)) {
+                // Step 1: Delete ChiTietThu first (ChiTietThuService joins this transaction via UnitOfWork)
+                if (!chiTietThuService.deleteByMaPhieu(maPhieu)) {
                     conn.rollback();
                     logger.log(Level.WARNING, "Failed to delete ChiTietThu, transaction rolled back");
                     return false;
@@ -1237,6 +940,24 @@ public class PhieuThuServiceImpl implements PhieuThuService {
         }
     }
 
+    /**
+     * Chạy thao tác ghi trong {@link UnitOfWork} (tham gia unit của request nếu có), để mọi lời gọi
+     * service bên trong dùng chung một connection và một transaction.
+     *
+     * @param work    thao tác
+     * @param onError giá trị trả về khi lỗi database
+     */
+    private static <T> T inUnitOfWork(UnitOfWork.Work<T> work, T onError) {
+        try {
+            return UnitOfWork.call(work);
+        } catch (RuntimeException e) {
+            throw e; // IllegalArgumentException... (lỗi nghiệp vụ) giữ nguyên cho caller
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Error in unit of work", e);
+            return onError;
+        }
+    }
+
     /**
      * Xây dựng đối tượng PhieuThu từ ResultSet.
      */
@@ -1296,187 +1017,8 @@ public class PhieuThuServiceImpl implements PhieuThuService {
             throw new IllegalArgumentException(errorMsg);
         }
 
-        // Get current user ID for maTaiKhoan (default to 1 if not available)
-        int maTaiKhoan = 1;
-        
-        try (Connection conn = DatabaseConnector.getConnection()) {
-            conn.setAutoCommit(false);
-            int successCount = 0;
-
-            try {
-                // Step 1: Fetch all required data efficiently
-                List<HoGiaDinh> allHouseholds = hoGiaDinhService.getAllHoGiaDinh();
-                List<KhoanThu> allFees = khoanThuService.getAllKhoanThu();
-                
-                // Filter only mandatory fees (batBuoc = true)
-                List<KhoanThu> mandatoryFees = allFees.stream()
-                    .filter(KhoanThu::isBatBuoc)
-                    .collect(java.util.stream.Collectors.toList());
-
-                if (mandatoryFees.isEmpty()) {
-                    logger.log(Level.WARNING, "No mandatory fees found for batch creation");
-                    conn.rollback();
-                    return 0;
-                }
-
-                logger.log(Level.INFO, "Creating batch receipts for " + allHouseholds.size() + 
-                    " households with " + mandatoryFees.size() + " mandatory fees");
-
-                // Step 2: Pre-fetch all household data to avoid N+1 queries
-                java.util.Map<Integer, HoGiaDinh> householdMap = new java.util.HashMap<>();
-                java.util.Map<Integer, Integer> memberCountMap = new java.util.HashMap<>();
-                java.util.Map<Integer, Integer> motorbikeCountMap = new java.util.HashMap<>();
-                java.util.Map<Integer, Integer> carCountMap = new java.util.HashMap<>();
-
-                for (HoGiaDinh household : allHouseholds) {
-                    int householdId = household.getId();
-                    householdMap.put(householdId, household);
-                    
-                    // Count members
-                    List<NhanKhau> members = nhanKhauService.getNhanKhauByHoGiaDinh(householdId);
-                    memberCountMap.put(householdId, members.size());
-                    
-                    // Count vehicles
-                    List<PhuongTien> vehicles = phuongTienService.getPhuongTienByHoGiaDinh(householdId);
-                    int motorbikeCount = 0;
-                    int carCount = 0;
-                    for (PhuongTien vehicle : vehicles) {
-                        String loaiXe = vehicle.getLoaiXe();
-                        if (loaiXe != null) {
-                            String loaiXeLower = loaiXe.toLowerCase().trim();
-                            if (loaiXeLower.contains("xe máy") || loaiXeLower.contains("xemay") || 
-                                loaiXeLower.contains("moto") || loaiXeLower.contains("xe may")) {
-                                motorbikeCount++;
-                            } else if (loaiXeLower.contains("ô tô") || loaiXeLower.contains("oto") || 
-                                      loaiXeLower.contains("car") || loaiXeLower.contains("o to")) {
-                                carCount++;
-                            }
-                        }
-                    }
-                    motorbikeCountMap.put(householdId, motorbikeCount);
-                    carCountMap.put(householdId, carCount);
-                }
-
-                // Step 3: Prepare data structures
-                LocalDateTime now = LocalDateTime.now();
-                java.util.List<java.util.Map<String, Object>> phieuDataList = new java.util.ArrayList<>();
-                
-                // Step 4: Calculate and prepare PhieuThu data for each household
-                for (HoGiaDinh household : allHouseholds) {
-                    int householdId = household.getId();
-                    
-                    // Calculate total amount for this household
-                    BigDecimal totalAmount = BigDecimal.ZERO;
-                    List<ChiTietThu> chiTietList = new ArrayList<>();
-
-                    // Calculate each mandatory fee based on tinhTheo
-                    for (KhoanThu fee : mandatoryFees) {
-                        BigDecimal feeAmount = calculateFeeAmount(
-                            fee, 
-                            household, 
-                            memberCountMap.get(householdId),
-                            motorbikeCountMap.get(householdId),
-                            carCountMap.get(householdId)
-                        );
-
-                        if (feeAmount != null && feeAmount.compareTo(BigDecimal.ZERO) > 0) {
-                            totalAmount = totalAmount.add(feeAmount);
-                            
-                            // Create ChiTietThu với soLuong đúng theo tinhTheo
-                            ChiTietThu chiTiet = new ChiTietThu();
-                            chiTiet.setMaKhoan(fee.getId());
-                            chiTiet.setDonGia(fee.getDonGia());
-                            
-                            // Tính soLuong dựa trên tinhTheo
-                            BigDecimal soLuong = calculateSoLuongForFee(
-                                fee,
-                                household,
-                                memberCountMap.get(householdId),
-                                motorbikeCountMap.get(householdId),
-                                carCountMap.get(householdId)
-                            );
-                            chiTiet.setSoLuong(soLuong);
-                            
-                            // thanhTien sẽ được tính = soLuong * donGia trong ChiTietThuServiceImpl khi INSERT
-                            chiTietList.add(chiTiet);
-                        }
-                    }
-
-                    // Only create receipt if total amount > 0
-                    if (totalAmount.compareTo(BigDecimal.ZERO) > 0) {
-                        java.util.Map<String, Object> phieuData = new java.util.HashMap<>();
-                        phieuData.put("maHo", householdId);
-                        phieuData.put("tongTien", totalAmount);
-                        phieuData.put("chiTietList", chiTietList);
-                        phieuDataList.add(phieuData);
-                    }
-                }
-
-                // Step 5: Insert PhieuThu one by one to get generated IDs, then batch insert ChiTietThu
-                String insertPhieuThu = "INSERT INTO PhieuThu (maHo, maDot, maTaiKhoan, ngayLap, tongTien, trangThai, hinhThucThu, ghiChu) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
-                // Lưu ý: thanhTien cần được tính = soLuong * donGia và set khi INSERT
-                String insertChiTiet = "INSERT INTO ChiTietThu (maPhieu, maKhoan, soLuong, donGia, thanhTien, ghiChu) VALUES (?, ?, ?, ?, ?, ?)";
-                
-                PreparedStatement chiTietStmt = conn.prepareStatement(insertChiTiet);
-                
-                for (java.util.Map<String, Object> phieuData : phieuDataList) {
-                    // Insert PhieuThu and get generated ID
-                    int maPhieu = -1;
-                    try (PreparedStatement phieuStmt = conn.prepareStatement(insertPhieuThu, PreparedStatement.RETURN_GENERATED_KEYS)) {
-                        phieuStmt.setInt(1, (Integer) phieuData.get("maHo"));
-                        phieuStmt.setInt(2, maDotThu);
-                        phieuStmt.setInt(3, maTaiKhoan);
-                        phieuStmt.setTimestamp(4, Timestamp.valueOf(now));
-                        phieuStmt.setBigDecimal(5, (BigDecimal) phieuData.get("tongTien"));
-                        phieuStmt.setString(6, "ChuaThu");
-                        phieuStmt.setString(7, null);
-                        phieuStmt.setString(8, null);
-                        
-                        int rowsAffected = phieuStmt.executeUpdate();
-                        if (rowsAffected > 0) {
-                            try (ResultSet generatedKeys = phieuStmt.getGeneratedKeys()) {
-                                if (generatedKeys.next()) {
-                                    maPhieu = generatedKeys.getInt(1);
-                                }
-                            }
-                        }
-                    }
-                    
-                    if (maPhieu > 0) {
-                        successCount++;
-                        
-                        // Add ChiTietThu to batch
-                        @SuppressWarnings("unchecked")
-                        List<ChiTietThu> chiTietList = (List<ChiTietThu>) phieuData.get("chiTietList");
-                        for (ChiTietThu chiTiet : chiTietList) {
-                            chiTietStmt.setInt(1, maPhieu);
-                            chiTietStmt.setInt(2, chiTiet.getMaKhoan());
-                            chiTietStmt.setBigDecimal(3, chiTiet.getSoLuong());
-                            chiTietStmt.setBigDecimal(4, chiTiet.getDonGia());
-                            // thanhTien là GENERATED column, database sẽ tự tính
-                            chiTietStmt.addBatch();
-                        }
-                    }
-                }
-
-                // Step 6: Execute ChiTietThu batch insert
-                chiTietStmt.executeBatch();
-                chiTietStmt.close();
-
-                // Commit transaction
-                conn.commit();
-                logger.log(Level.INFO, "Successfully created " + successCount + " batch receipts for drive: " + maDotThu);
-                return successCount;
-
-            } catch (Exception e) {
-                conn.rollback();
-                logger.log(Level.SEVERE, "Error creating batch receipts for drive: " + maDotThu, e);
-                e.printStackTrace();
-                throw new RuntimeException("Failed to create batch receipts: " + e.getMessage(), e);
-            } finally {
-                conn.setAutoCommit(true);
-            }
-
+        try {
+            return generateReceipts(maDotThu, ProgressListener.NONE);
         } catch (SQLException e) {
             logger.log(Level.SEVERE, "Error in createBatch for maDotThu: " + maDotThu, e);
             e.printStackTrace();
@@ -1485,80 +1027,13 @@ public class PhieuThuServiceImpl implements PhieuThuService {
     }
 
     @Override
-    public Map<String, Object> getInvoiceDetail(int id) {
-        // SQL query với JOIN để lấy đầy đủ thông tin
-        String sql = "SELECT " +
-                     "pt.id as maPhieu, pt.maHo, pt.maDot, pt.maTaiKhoan, pt.ngayLap, " +
-                     "pt.tongTien, pt.trangThai, pt.hinhThucThu, " +
-                     "hg.soPhong, hg.maChuHo, " +
-                     "nk.hoTen as tenChuHo, " +
-                     "dt.tenDot, " +
-                     "tk.hoTen as tenNguoiLap " +
-                     "FROM PhieuThu pt " +
-                     "INNER JOIN HoGiaDinh hg ON pt.maHo = hg.id " +
-                     "LEFT JOIN NhanKhau nk ON hg.maChuHo = nk.soCCCD AND nk.hieuLuc = TRUE " +
-                     "LEFT JOIN DotThu dt ON pt.maDot = dt.id " +
-                     "LEFT JOIN TaiKhoan tk ON pt.maTaiKhoan = tk.id " +
-                     "WHERE pt.id = ?";
-
-        try (Connection conn = DatabaseConnector.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setInt(1, id);
-            
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (!rs.next()) {
-                    throw new NoSuchElementException("Phiếu thu với ID " + id + " không tồn tại");
-                }
-                
-                // Build invoice detail map
-                Map<String, Object> invoiceDetail = new HashMap<>();
-                
-                // General info
-                invoiceDetail.put("id", rs.getInt("maPhieu"));
-                invoiceDetail.put("maHo", rs.getInt("maHo"));
-                invoiceDetail.put("soPhong", rs.getInt("soPhong"));
-                invoiceDetail.put("maDot", rs.getInt("maDot"));
-                invoiceDetail.put("tenDot", rs.getString("tenDot"));
-                invoiceDetail.put("tenChuHo", rs.getString("tenChuHo"));
-                invoiceDetail.put("tongTien", rs.getBigDecimal("tongTien"));
-                invoiceDetail.put("trangThai", rs.getString("trangThai"));
-                invoiceDetail.put("hinhThucThu", rs.getString("hinhThucThu"));
-                invoiceDetail.put("ngayLap", rs.getTimestamp("ngayLap"));
-                invoiceDetail.put("tenNguoiLap", rs.getString("tenNguoiLap"));
-                
-                // Get ChiTietThu with KhoanThu info
-                String chiTietSql = "SELECT " +
-                                   "ct.id, ct.maPhieu, ct.maKhoan, ct.soLuong, ct.donGia, ct.thanhTien, " +
-                                   "kt.tenKhoan, kt.donViTinh " +
-                                   "FROM ChiTietThu ct " +
-                                   "INNER JOIN KhoanThu kt ON ct.maKhoan = kt.id " +
-                                   "WHERE ct.maPhieu = ? " +
-                                   "ORDER BY ct.id";
-                
-                List<Map<String, Object>> chiTietList = new ArrayList<>();
-                try (PreparedStatement chiTietStmt = conn.prepareStatement(chiTietSql)) {
-                    chiTietStmt.setInt(1, id);
-                    try (ResultSet chiTietRs = chiTietStmt.executeQuery()) {
-                        while (chiTietRs.next()) {
-                            Map<String, Object> chiTiet = new HashMap<>();
-                            chiTiet.put("id", chiTietRs.getInt("id"));
-                            chiTiet.put("maKhoan", chiTietRs.getInt("maKhoan"));
-                            chiTiet.put("tenKhoan", chiTietRs.getString("tenKhoan"));
-                            chiTiet.put("soLuong", chiTietRs.getBigDecimal("soLuong"));
-                            chiTiet.put("donGia", chiTietRs.getBigDecimal("donGia"));
-                            chiTiet.put("thanhTien", chiTietRs.getBigDecimal("thanhTien"));
-                            chiTiet.put("donViTinh", chiTietRs.getString("donViTinh"));
-                            chiTietList.add(chiTiet);
-                        }
-                    }
-                }
-                
-                invoiceDetail.put("chiTietList", chiTietList);
-                
-                return invoiceDetail;
+    public HoaDon getInvoiceDetail(int id) {
+        try (Connection conn = DatabaseConnector.getConnection()) {
+            HoaDon hoaDon = HoaDonReader.findById(conn, id);
+            if (hoaDon == null) {
+                throw new NoSuchElementException("Phiếu thu với ID " + id + " không tồn tại");
             }
-            
+            return hoaDon;
         } catch (SQLException e) {
             logger.log(Level.SEVERE, "Error getting invoice detail for id: " + id, e);
             e.printStackTrace();
@@ -1569,128 +1044,22 @@ public class PhieuThuServiceImpl implements PhieuThuService {
     @Override
     public InputStream exportInvoiceToPdf(int id) {
         try {
-            // Get invoice detail
-            Map<String, Object> invoiceDetail = getInvoiceDetail(id);
-            
-            // Create PDF document
-            Document document = new Document(PageSize.A4);
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            PdfWriter.getInstance(document, outputStream);
-            
-            document.open();
-            
-            // Add header
-            Font headerFont = new Font(Font.HELVETICA, 18, Font.BOLD);
-            Paragraph header = new Paragraph("PHIẾU THU", headerFont);
-            header.setAlignment(Element.ALIGN_CENTER);
-            header.setSpacingAfter(20);
-            document.add(header);
-            
-            // Add apartment name
-            Font companyFont = new Font(Font.HELVETICA, 14, Font.BOLD);
-            Paragraph company = new Paragraph("CHUNG CƯ BLUEMOON", companyFont);
-            company.setAlignment(Element.ALIGN_CENTER);
-            company.setSpacingAfter(30);
-            document.add(company);
-            
-            // Add invoice info
-            Font normalFont = new Font(Font.HELVETICA, 10);
-            Font boldFont = new Font(Font.HELVETICA, 10, Font.BOLD);
-            
-            Timestamp ngayLap = (Timestamp) invoiceDetail.get("ngayLap");
-            String ngayLapStr = ngayLap != null ? 
-                ngayLap.toLocalDateTime().format(java.time.format.DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm")) : "N/A";
-            
-            Paragraph invoiceInfo = new Paragraph();
-            invoiceInfo.add(new com.lowagie.text.Chunk("Mã phiếu: ", boldFont));
-            invoiceInfo.add(new com.lowagie.text.Chunk(String.valueOf(invoiceDetail.get("id")), normalFont));
-            invoiceInfo.add(new com.lowagie.text.Chunk("        Ngày lập: ", boldFont));
-            invoiceInfo.add(new com.lowagie.text.Chunk(ngayLapStr, normalFont));
-            invoiceInfo.setSpacingAfter(10);
-            document.add(invoiceInfo);
-            
-            // Add customer info
-            Paragraph customerInfo = new Paragraph();
-            customerInfo.add(new com.lowagie.text.Chunk("Hộ gia đình: ", boldFont));
-            customerInfo.add(new com.lowagie.text.Chunk("Phòng " + invoiceDetail.get("soPhong"), normalFont));
-            customerInfo.add(new com.lowagie.text.Chunk("        Chủ hộ: ", boldFont));
-            customerInfo.add(new com.lowagie.text.Chunk((String) invoiceDetail.getOrDefault("tenChuHo", "N/A"), normalFont));
-            customerInfo.setSpacingAfter(10);
-            document.add(customerInfo);
-            
-            Paragraph dotInfo = new Paragraph();
-            dotInfo.add(new com.lowagie.text.Chunk("Đợt thu: ", boldFont));
-            dotInfo.add(new com.lowagie.text.Chunk((String) invoiceDetail.getOrDefault("tenDot", "N/A"), normalFont));
-            dotInfo.setSpacingAfter(20);
-            document.add(dotInfo);
-            
-            // Add items table
-            @SuppressWarnings("unchecked")
-            List<Map<String, Object>> chiTietList = (List<Map<String, Object>>) invoiceDetail.get("chiTietList");
-            
-            if (chiTietList != null && !chiTietList.isEmpty()) {
-                PdfPTable table = new PdfPTable(5);
-                table.setWidthPercentage(100);
-                table.setWidths(new float[]{1, 3, 1, 1.5f, 1.5f});
-                
-                // Table header
-                table.addCell(new PdfPCell(new Phrase("STT", boldFont)));
-                table.addCell(new PdfPCell(new Phrase("Tên khoản thu", boldFont)));
-                table.addCell(new PdfPCell(new Phrase("SL", boldFont)));
-                table.addCell(new PdfPCell(new Phrase("Đơn giá", boldFont)));
-                table.addCell(new PdfPCell(new Phrase("Thành tiền", boldFont)));
-                
-                // Table rows
-                int stt = 1;
-                DecimalFormat df = new DecimalFormat("#,##0");
-                for (Map<String, Object> chiTiet : chiTietList) {
-                    table.addCell(new PdfPCell(new Phrase(String.valueOf(stt++), normalFont)));
-                    table.addCell(new PdfPCell(new Phrase((String) chiTiet.getOrDefault("tenKhoan", "N/A"), normalFont)));
-                    
-                    BigDecimal soLuong = (BigDecimal) chiTiet.get("soLuong");
-                    table.addCell(new PdfPCell(new Phrase(
-                        soLuong != null ? soLuong.toString() : "0", normalFont)));
-                    
-                    BigDecimal donGia = (BigDecimal) chiTiet.get("donGia");
-                    table.addCell(new PdfPCell(new Phrase(
-                        donGia != null ? df.format(donGia) + " đ" : "0 đ", normalFont)));
-                    
-                    BigDecimal thanhTien = (BigDecimal) chiTiet.get("thanhTien");
-                    table.addCell(new PdfPCell(new Phrase(
-                        thanhTien != null ? df.format(thanhTien) + " đ" : "0 đ", normalFont)));
-                }
-                
-                document.add(table);
-            }
-            
-            // Add total
-            BigDecimal tongTien = (BigDecimal) invoiceDetail.get("tongTien");
-            Paragraph total = new Paragraph();
-            total.setSpacingBefore(20);
-            total.setAlignment(Element.ALIGN_RIGHT);
-            total.add(new com.lowagie.text.Chunk("TỔNG CỘNG: ", boldFont));
-            total.add(new com.lowagie.text.Chunk(
-                tongTien != null ? new DecimalFormat("#,##0").format(tongTien) + " đ" : "0 đ", 
-                new Font(Font.HELVETICA, 12, Font.BOLD)));
-            document.add(total);
-            
-            // Add signature area
-            document.add(new Paragraph(" "));
-            Paragraph signature = new Paragraph();
-            signature.setSpacingBefore(40);
-            signature.add(new com.lowagie.text.Chunk("Người lập: ", boldFont));
-            signature.add(new com.lowagie.text.Chunk((String) invoiceDetail.getOrDefault("tenNguoiLap", "N/A"), normalFont));
-            signature.setAlignment(Element.ALIGN_RIGHT);
-            document.add(signature);
-            
-            document.close();
-            
-            return new ByteArrayInputStream(outputStream.toByteArray());
-            
+            return new ByteArrayInputStream(InvoicePdfRenderer.render(getInvoiceDetail(id)));
+        } catch (NoSuchElementException e) {
+            throw e;
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error exporting invoice to PDF for id: " + id, e);
             e.printStackTrace();
             throw new RuntimeException("Error exporting invoice to PDF: " + e.getMessage(), e);
         }
     }
+
+    @Override
+    public int exportDriveInvoices(int maDot, boolean asZip, Supplier<OutputStream> out) throws SQLException, IOException {
+        if (dotThuService.getDotThuById(maDot) == null) {
+            throw new IllegalArgumentException("Đợt thu không tồn tại: " + maDot);
+        }
+        return invoiceExporter.export(maDot,
+                asZip ? DriveInvoiceExporter.Format.ZIP : DriveInvoiceExporter.Format.PDF, out);
+    }
 }
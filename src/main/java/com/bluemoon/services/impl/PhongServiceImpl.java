@@ -12,6 +12,7 @@ import java.util.logging.Logger;
 import com.bluemoon.models.Phong;
 import com.bluemoon.services.PhongService;
 import com.bluemoon.utils.DatabaseConnector;
+import com.bluemoon.utils.ResourceVersions;
 
 public class PhongServiceImpl implements PhongService {
     
@@ -88,7 +89,7 @@ public class PhongServiceImpl implements PhongService {
             ps.setString(4, phong.getTrangThai());
             ps.setString(5, phong.getGhiChu());
             
-            return ps.executeUpdate() > 0; // Trả về true nếu insert thành công
+            return bumpIfWritten(ps.executeUpdate() > 0); // Trả về true nếu insert thành công
             
         } catch (SQLException e) {
             LOGGER.log(Level.SEVERE, "Lỗi addPhong", e);
@@ -117,7 +118,7 @@ public class PhongServiceImpl implements PhongService {
             ps.setString(4, phong.getGhiChu());
             ps.setInt(5, phong.getSoPhong());
             
-            return ps.executeUpdate() > 0;
+            return bumpIfWritten(ps.executeUpdate() > 0);
 
         } catch (SQLException e) {
             LOGGER.log(Level.SEVERE, "Lỗi updatePhong", e);
@@ -141,11 +142,21 @@ public class PhongServiceImpl implements PhongService {
              PreparedStatement ps = conn.prepareStatement(sql)) {
             
             ps.setInt(1, soPhong);
-            return ps.executeUpdate() > 0;
+            return bumpIfWritten(ps.executeUpdate() > 0);
             
         } catch (SQLException e) {
             LOGGER.log(Level.SEVERE, "Lỗi deletePhong (có thể do ràng buộc khóa ngoại)", e);
             return false;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Tăng phiên bản danh sách phòng (ETag của GET /api/phong) nếu thao tác ghi thành công.
+     */
+    private static boolean bumpIfWritten(boolean success) {
+        if (success) {
+            ResourceVersions.bump(ResourceVersions.Resource.PHONG);
+        }
+        return success;
+    }
+}
@@ -1,5 +1,6 @@
 package com.bluemoon.services.impl;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.Date;
 import java.sql.PreparedStatement;
@@ -10,9 +11,12 @@ import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.bluemoon.models.NhomXe;
 import com.bluemoon.models.PhuongTien;
 import com.bluemoon.services.PhuongTienService;
+import com.bluemoon.services.RowHandler;
 import com.bluemoon.utils.DatabaseConnector;
+import com.bluemoon.utils.PlateNumberIndex;
 
 /**
  * Triển khai {@link PhuongTienService} với database integration.
@@ -24,31 +28,30 @@ public class PhuongTienServiceImpl implements PhuongTienService {
 
     // SQL Queries
     private static final String SELECT_ALL = 
-            "SELECT id, maHo, loaiXe, bienSo, tenChuXe, ngayDangKy FROM PhuongTien ORDER BY id";
+            "SELECT id, maHo, loaiXe, nhomXe, bienSo, tenChuXe, ngayDangKy FROM PhuongTien ORDER BY id";
 
     private static final String SELECT_BY_ID = 
-            "SELECT id, maHo, loaiXe, bienSo, tenChuXe, ngayDangKy FROM PhuongTien WHERE id = ?";
+            "SELECT id, maHo, loaiXe, nhomXe, bienSo, tenChuXe, ngayDangKy FROM PhuongTien WHERE id = ?";
 
     private static final String SELECT_BY_MAHO = 
-            "SELECT id, maHo, loaiXe, bienSo, tenChuXe, ngayDangKy FROM PhuongTien WHERE maHo = ? ORDER BY id";
+            "SELECT id, maHo, loaiXe, nhomXe, bienSo, tenChuXe, ngayDangKy FROM PhuongTien WHERE maHo = ? ORDER BY id";
 
     private static final String SELECT_BY_BIENSO = 
-            "SELECT id, maHo, loaiXe, bienSo, tenChuXe, ngayDangKy FROM PhuongTien WHERE UPPER(TRIM(bienSo)) = UPPER(TRIM(?))";
+            "SELECT id, maHo, loaiXe, nhomXe, bienSo, tenChuXe, ngayDangKy FROM PhuongTien WHERE UPPER(TRIM(bienSo)) = UPPER(TRIM(?))";
 
     private static final String INSERT = 
-            "INSERT INTO PhuongTien (maHo, loaiXe, bienSo, tenChuXe, ngayDangKy) VALUES (?, ?, ?, ?, ?)";
+            "INSERT INTO PhuongTien (maHo, loaiXe, bienSo, tenChuXe, ngayDangKy, nhomXe) VALUES (?, ?, ?, ?, ?, ?)";
 
     private static final String UPDATE = 
-            "UPDATE PhuongTien SET maHo = ?, loaiXe = ?, bienSo = ?, tenChuXe = ?, ngayDangKy = ? WHERE id = ?";
+            "UPDATE PhuongTien SET maHo = ?, loaiXe = ?, bienSo = ?, tenChuXe = ?, ngayDangKy = ?, nhomXe = ? WHERE id = ?";
 
     private static final String DELETE = 
             "DELETE FROM PhuongTien WHERE id = ?";
 
+    // Không phân biệt dấu/hoa thường trên biển số, tên chủ xe, loại xe (index trigram idx_phuongtien_tim_kiem)
     private static final String SEARCH = 
-            "SELECT id, maHo, loaiXe, bienSo, tenChuXe, ngayDangKy FROM PhuongTien " +
-            "WHERE UPPER(TRIM(bienSo)) LIKE UPPER(TRIM(?)) OR " +
-            "UPPER(TRIM(tenChuXe)) LIKE UPPER(TRIM(?)) OR " +
-            "UPPER(TRIM(loaiXe)) LIKE UPPER(TRIM(?)) " +
+            "SELECT id, maHo, loaiXe, nhomXe, bienSo, tenChuXe, ngayDangKy FROM PhuongTien " +
+            "WHERE " + TimKiemServiceImpl.DOC_PHUONG_TIEN + " LIKE fn_KhongDau(?) " +
             "ORDER BY id";
 
     private static final String CHECK_BIENSO_EXISTS = 
@@ -58,24 +61,23 @@ public class PhuongTienServiceImpl implements PhuongTienService {
     public List<PhuongTien> getAllPhuongTien() {
         List<PhuongTien> result = new ArrayList<>();
 
-        try (Connection conn = DatabaseConnector.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(SELECT_ALL);
-             ResultSet rs = pstmt.executeQuery()) {
-
-            while (rs.next()) {
-                result.add(buildPhuongTienFromResultSet(rs));
-            }
-
+        try {
+            streamAllPhuongTien(result::add);
             logger.log(Level.INFO, "Retrieved " + result.size() + " vehicles");
             return result;
 
-        } catch (SQLException e) {
+        } catch (SQLException | IOException e) {
             logger.log(Level.SEVERE, "Error retrieving all vehicles", e);
             e.printStackTrace();
             return new ArrayList<>();
         }
     }
 
+    @Override
+    public void streamAllPhuongTien(RowHandler<PhuongTien> handler) throws SQLException, IOException {
+        CursorReader.stream(SELECT_ALL, this::buildPhuongTienFromResultSet, handler);
+    }
+
     @Override
     public PhuongTien getPhuongTienById(int id) {
         try (Connection conn = DatabaseConnector.getConnection();
@@ -174,19 +176,29 @@ public class PhuongTienServiceImpl implements PhuongTienService {
             return false;
         }
 
+        // Phân loại nhóm xe một lần khi ghi, để các truy vấn đếm xe chỉ cần so sánh nhomXe
+        phuongTien.setNhomXe(NhomXe.fromLoaiXe(phuongTien.getLoaiXe()).getCode());
+
         try (Connection conn = DatabaseConnector.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(INSERT)) {
+             PreparedStatement pstmt = conn.prepareStatement(INSERT, PreparedStatement.RETURN_GENERATED_KEYS)) {
 
             pstmt.setInt(1, phuongTien.getMaHo());
             pstmt.setString(2, phuongTien.getLoaiXe());
             pstmt.setString(3, phuongTien.getBienSo().trim());
             pstmt.setString(4, phuongTien.getTenChuXe());
             pstmt.setDate(5, phuongTien.getNgayDangKy() != null ? Date.valueOf(phuongTien.getNgayDangKy()) : null);
+            pstmt.setString(6, phuongTien.getNhomXe());
 
             int rowsAffected = pstmt.executeUpdate();
             boolean success = rowsAffected > 0;
 
             if (success) {
+                try (ResultSet generatedKeys = pstmt.getGeneratedKeys()) {
+                    if (generatedKeys.next()) {
+                        phuongTien.setId(generatedKeys.getInt(1));
+                    }
+                }
+                PlateNumberIndex.getInstance().onSaved(phuongTien);
                 logger.log(Level.INFO, "Successfully added vehicle: " + phuongTien.getBienSo() + " (rows affected: " + rowsAffected + ")");
             } else {
                 logger.log(Level.WARNING, "Failed to add vehicle: " + phuongTien.getBienSo() + " (rows affected: " + rowsAffected + ")");
@@ -237,6 +249,9 @@ public class PhuongTienServiceImpl implements PhuongTienService {
             return false;
         }
 
+        // Phân loại nhóm xe một lần khi ghi, để các truy vấn đếm xe chỉ cần so sánh nhomXe
+        phuongTien.setNhomXe(NhomXe.fromLoaiXe(phuongTien.getLoaiXe()).getCode());
+
         try (Connection conn = DatabaseConnector.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(UPDATE)) {
 
@@ -245,12 +260,14 @@ public class PhuongTienServiceImpl implements PhuongTienService {
             pstmt.setString(3, phuongTien.getBienSo().trim());
             pstmt.setString(4, phuongTien.getTenChuXe());
             pstmt.setDate(5, phuongTien.getNgayDangKy() != null ? Date.valueOf(phuongTien.getNgayDangKy()) : null);
-            pstmt.setInt(6, phuongTien.getId());
+            pstmt.setString(6, phuongTien.getNhomXe());
+            pstmt.setInt(7, phuongTien.getId());
 
             int rowsAffected = pstmt.executeUpdate();
             boolean success = rowsAffected > 0;
 
             if (success) {
+                PlateNumberIndex.getInstance().onSaved(phuongTien);
                 logger.log(Level.INFO, "Successfully updated vehicle with id: " + phuongTien.getId() + " (rows affected: " + rowsAffected + ")");
             } else {
                 logger.log(Level.WARNING, "Failed to update vehicle with id: " + phuongTien.getId() + " (rows affected: " + rowsAffected + ")");
@@ -287,6 +304,7 @@ public class PhuongTienServiceImpl implements PhuongTienService {
             boolean success = rowsAffected > 0;
 
             if (success) {
+                PlateNumberIndex.getInstance().onDeleted(id);
                 logger.log(Level.INFO, "Successfully deleted vehicle with id: " + id);
             } else {
                 logger.log(Level.WARNING, "Failed to delete vehicle with id: " + id + " - vehicle may not exist");
@@ -312,10 +330,7 @@ public class PhuongTienServiceImpl implements PhuongTienService {
         try (Connection conn = DatabaseConnector.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(SEARCH)) {
 
-            String searchPattern = "%" + keyword.trim() + "%";
-            pstmt.setString(1, searchPattern);
-            pstmt.setString(2, searchPattern);
-            pstmt.setString(3, searchPattern);
+            pstmt.setString(1, TimKiemServiceImpl.containsPattern(keyword.trim()));
 
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
@@ -407,6 +422,7 @@ public class PhuongTienServiceImpl implements PhuongTienService {
         pt.setId(rs.getInt("id"));
         pt.setMaHo(rs.getInt("maHo"));
         pt.setLoaiXe(rs.getString("loaiXe"));
+        pt.setNhomXe(rs.getString("nhomXe"));
         pt.setBienSo(rs.getString("bienSo"));
         pt.setTenChuXe(rs.getString("tenChuXe"));
         
@@ -0,0 +1,75 @@
+package com.bluemoon.services.impl;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bluemoon.services.ThongKeService;
+
+/**
+ * SummaryReconciler: định kỳ đối soát số liệu tổng hợp của dashboard (ThongKeTongHop, DoanhThuThang)
+ * và sổ công nợ (SoCongNo) với bảng gốc bằng {@link ThongKeService#reconcileSummary()}.
+ * <p>
+ * Trigger giữ số liệu đúng khi ghi qua ứng dụng hoặc SQL; đối soát bắt các sai lệch còn lại
+ * (trigger bị tắt tạm thời, sửa dữ liệu bằng COPY/TRUNCATE...) và ghi log cảnh báo khi phát hiện lệch.
+ * Chu kỳ cấu hình bằng {@value #PERIOD_PROPERTY} (phút, 0 để tắt).
+ */
+public class SummaryReconciler {
+
+    private static final Logger logger = Logger.getLogger(SummaryReconciler.class.getName());
+
+    /** System property: chu kỳ đối soát (phút); 0 để tắt. */
+    public static final String PERIOD_PROPERTY = "bluemoon.summary.reconcileMinutes";
+
+    private static final long DEFAULT_PERIOD_MINUTES = 60;
+
+    private final ThongKeService thongKeService;
+    private ScheduledExecutorService scheduler;
+
+    public SummaryReconciler(ThongKeService thongKeService) {
+        this.thongKeService = thongKeService;
+    }
+
+    /**
+     * Bắt đầu đối soát định kỳ (lần đầu sau một chu kỳ).
+     */
+    public synchronized void start() {
+        long period = Long.getLong(PERIOD_PROPERTY, DEFAULT_PERIOD_MINUTES);
+        if (period <= 0 || scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bluemoon-summary-reconcile");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::runOnce, period, period, TimeUnit.MINUTES);
+        logger.info("Dashboard summary reconciliation every " + period + " minutes");
+    }
+
+    /**
+     * Dừng đối soát định kỳ.
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private void runOnce() {
+        try {
+            List<Map<String, Object>> drift = thongKeService.reconcileSummary();
+            if (!drift.isEmpty()) {
+                logger.warning("Dashboard summary drift corrected: " + drift);
+            }
+        } catch (RuntimeException e) {
+            // Không để lỗi làm dừng lịch chạy
+            logger.log(Level.SEVERE, "Dashboard summary reconciliation failed", e);
+        }
+    }
+}
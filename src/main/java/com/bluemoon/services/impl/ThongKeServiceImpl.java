@@ -4,20 +4,114 @@ import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.bluemoon.services.ThongKeService;
 import com.bluemoon.utils.DatabaseConnector;
 
 public class ThongKeServiceImpl implements ThongKeService {
 
+    private static final Logger logger = Logger.getLogger(ThongKeServiceImpl.class.getName());
+
+    /** SQLState của PostgreSQL khi bảng/hàm chưa tồn tại (database chưa chạy nang_cap.sql). */
+    private static final String UNDEFINED_TABLE = "42P01";
+    private static final String UNDEFINED_FUNCTION = "42883";
+
+    /**
+     * Đọc số liệu tổng hợp (ThongKeTongHop do trigger duy trì, mỗi chỉ số vài mảnh) và doanh thu tháng hiện tại.
+     */
+    private static final String SELECT_SUMMARY =
+            "SELECT chiSo, SUM(giaTri) FROM ThongKeTongHop GROUP BY chiSo " +
+            "UNION ALL " +
+            "SELECT 'doanhThuThang', COALESCE(SUM(tongTien), 0) FROM DoanhThuThang " +
+            "WHERE thang = CAST(date_trunc('month', CURRENT_DATE) AS DATE)";
+
+    private static final String RECONCILE_SUMMARY =
+            "SELECT r_chi_so, r_gia_tri_cu, r_gia_tri_dung FROM fn_ThongKe_DoiSoat()";
+
+    private static final String RECONCILE_LEDGER = "SELECT fn_SoCongNo_DoiSoat()";
+
+    /**
+     * Phiếu chưa thu, đọc từ sổ công nợ (index idx_socongno_phieu_chua_thu, đã sắp theo ngayLap).
+     * Sổ công nợ theo (maHo, maDot) nên không có phiếu thiếu hộ hoặc đợt; các phiếu đó được đọc thẳng
+     * từ PhieuThu (index idx_phieuthu_chua_thu_mo_coi) để danh sách vẫn đủ như khi LEFT JOIN trên PhieuThu.
+     */
+    private static final String SELECT_DEBT_DETAILS =
+            "SELECT maPhieu, ngayLap, tongTien, maChuHo, tenDot FROM (" +
+            "SELECT l.maPhieu, l.ngayLap, l.tongTien, h.maChuHo, d.tenDot " +
+            "FROM SoCongNo l " +
+            "JOIN HoGiaDinh h ON h.id = l.maHo " +
+            "JOIN DotThu d ON d.id = l.maDot " +
+            "WHERE l.maPhieu IS NOT NULL AND NOT l.daThu " +
+            "UNION ALL " +
+            "SELECT p.id, p.ngayLap, p.tongTien, h.maChuHo, d.tenDot " +
+            "FROM PhieuThu p " +
+            "LEFT JOIN HoGiaDinh h ON h.id = p.maHo " +
+            "LEFT JOIN DotThu d ON d.id = p.maDot " +
+            "WHERE (p.maHo IS NULL OR p.maDot IS NULL) AND p.trangThai <> 'DaThu'" +
+            ") congNo ORDER BY ngayLap DESC";
+
+    /** Đã cảnh báo thiếu bảng tổng hợp (chỉ log một lần). */
+    private static volatile boolean summaryMissingLogged;
+
     // 1. Dashboard tổng quan
     @Override
     public Map<String, Object> getDashboardStats() {
+        try (Connection conn = DatabaseConnector.getConnection()) {
+            Map<String, BigDecimal> summary = readSummary(conn);
+            if (summary != null) {
+                Map<String, Object> stats = new HashMap<>();
+                stats.put("totalHouseholds", summary.getOrDefault("soHoDangO", BigDecimal.ZERO).intValue());
+                stats.put("totalResidents", summary.getOrDefault("soNhanKhau", BigDecimal.ZERO).intValue());
+                stats.put("totalReceipts", summary.getOrDefault("soPhieuThu", BigDecimal.ZERO).intValue());
+                stats.put("totalRevenue", summary.getOrDefault("doanhThu", BigDecimal.ZERO));
+                stats.put("totalDebt", summary.getOrDefault("congNo", BigDecimal.ZERO));
+                stats.put("monthlyRevenue", summary.getOrDefault("doanhThuThang", BigDecimal.ZERO));
+                return stats;
+            }
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error reading dashboard summary", e);
+        }
+        return getDashboardStatsLive();
+    }
+
+    /**
+     * Đọc bảng tổng hợp.
+     *
+     * @return chỉ số -&gt; giá trị, hoặc null nếu database chưa có bảng tổng hợp
+     */
+    private static Map<String, BigDecimal> readSummary(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(SELECT_SUMMARY);
+             ResultSet rs = ps.executeQuery()) {
+            Map<String, BigDecimal> summary = new HashMap<>();
+            while (rs.next()) {
+                summary.put(rs.getString(1), rs.getBigDecimal(2));
+            }
+            return summary;
+        } catch (SQLException e) {
+            if (!UNDEFINED_TABLE.equals(e.getSQLState())) {
+                throw e;
+            }
+            if (!summaryMissingLogged) {
+                summaryMissingLogged = true;
+                logger.warning("ThongKeTongHop not found (run dtb/nang_cap.sql); falling back to live aggregates");
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Tính trực tiếp từ bảng gốc, dùng khi database chưa có bảng tổng hợp.
+     */
+    private Map<String, Object> getDashboardStatsLive() {
         Map<String, Object> stats = new HashMap<>();
         try (Connection conn = DatabaseConnector.getConnection()) {
             // Tổng số hộ đang ở
@@ -40,10 +134,10 @@ public class ThongKeServiceImpl implements ThongKeService {
             try (PreparedStatement ps = conn.prepareStatement("SELECT COALESCE(SUM(tongTien), 0) FROM PhieuThu WHERE trangThai != 'DaThu'")) {
                 try (ResultSet rs = ps.executeQuery()) { if (rs.next()) stats.put("totalDebt", rs.getBigDecimal(1)); }
             }
-            // Doanh thu tháng này
+            // Doanh thu tháng này (so sánh khoảng để dùng được index trên ngayLap)
             String sqlMonth = "SELECT COALESCE(SUM(tongTien), 0) FROM PhieuThu WHERE trangThai = 'DaThu' " +
-                              "AND EXTRACT(MONTH FROM ngayLap) = EXTRACT(MONTH FROM CURRENT_DATE) " +
-                              "AND EXTRACT(YEAR FROM ngayLap) = EXTRACT(YEAR FROM CURRENT_DATE)";
+                              "AND ngayLap >= date_trunc('month', CURRENT_DATE) " +
+                              "AND ngayLap < date_trunc('month', CURRENT_DATE) + INTERVAL '1 month'";
             try (PreparedStatement ps = conn.prepareStatement(sqlMonth); ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) stats.put("monthlyRevenue", rs.getBigDecimal(1));
             }
@@ -75,6 +169,16 @@ public class ThongKeServiceImpl implements ThongKeService {
     @Override
     public Map<String, Number> getDebtStats() {
         Map<String, Number> stats = new HashMap<>();
+        try (Connection conn = DatabaseConnector.getConnection()) {
+            Map<String, BigDecimal> summary = readSummary(conn);
+            if (summary != null) {
+                stats.put("Đã nộp", summary.getOrDefault("doanhThu", BigDecimal.ZERO));
+                stats.put("Chưa nộp", summary.getOrDefault("congNo", BigDecimal.ZERO));
+                return stats;
+            }
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error reading debt summary", e);
+        }
         String sql = "SELECT " +
                      "SUM(CASE WHEN trangThai = 'DaThu' THEN tongTien ELSE 0 END) as daNop, " +
                      "SUM(CASE WHEN trangThai != 'DaThu' THEN tongTien ELSE 0 END) as chuaNop " +
@@ -105,6 +209,14 @@ public class ThongKeServiceImpl implements ThongKeService {
     // 5. Tổng nợ hiện tại
     @Override
     public BigDecimal getTotalDebt() {
+        try (Connection conn = DatabaseConnector.getConnection()) {
+            Map<String, BigDecimal> summary = readSummary(conn);
+            if (summary != null) {
+                return summary.getOrDefault("congNo", BigDecimal.ZERO);
+            }
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error reading debt summary", e);
+        }
         try (Connection conn = DatabaseConnector.getConnection();
              PreparedStatement ps = conn.prepareStatement("SELECT COALESCE(SUM(tongTien), 0) FROM PhieuThu WHERE trangThai != 'DaThu'");
              ResultSet rs = ps.executeQuery()) {
@@ -145,6 +257,28 @@ public class ThongKeServiceImpl implements ThongKeService {
     // 8. Chi tiết nợ (List)
     @Override
     public List<Map<String, Object>> getDebtDetails() {
+        List<Map<String, Object>> list = new ArrayList<>();
+        try (Connection conn = DatabaseConnector.getConnection();
+             PreparedStatement ps = conn.prepareStatement(SELECT_DEBT_DETAILS);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                Map<String, Object> map = new HashMap<>();
+                map.put("maPhieu", rs.getInt("maPhieu"));
+                map.put("ngayLap", rs.getTimestamp("ngayLap"));
+                map.put("tongTien", rs.getBigDecimal("tongTien"));
+                map.put("trangThai", "ChuaThu");
+                map.put("tenHo", rs.getString("maChuHo"));
+                map.put("tenDot", rs.getString("tenDot"));
+                list.add(map);
+            }
+            return list;
+        } catch (SQLException e) {
+            if (!UNDEFINED_TABLE.equals(e.getSQLState())) {
+                logger.log(Level.SEVERE, "Error reading debt details", e);
+                return list;
+            }
+        }
+        // Database chưa có sổ công nợ
         return getDetailsCommon(null, null, false);
     }
 
@@ -235,4 +369,60 @@ public class ThongKeServiceImpl implements ThongKeService {
         } catch (Exception e) { e.printStackTrace(); }
         return demo;
     }
-}
\ No newline at end of file
+
+    // 10. Đối soát số liệu tổng hợp
+    @Override
+    public List<Map<String, Object>> reconcileSummary() {
+        List<Map<String, Object>> drift = new ArrayList<>();
+        try (Connection conn = DatabaseConnector.getConnection();
+             PreparedStatement ps = conn.prepareStatement(RECONCILE_SUMMARY);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                Map<String, Object> row = new LinkedHashMap<>();
+                row.put("chiSo", rs.getString(1));
+                row.put("giaTriCu", rs.getBigDecimal(2));
+                row.put("giaTriDung", rs.getBigDecimal(3));
+                drift.add(row);
+                logger.warning("Summary drift on " + row.get("chiSo") + ": " + row.get("giaTriCu")
+                        + " -> " + row.get("giaTriDung"));
+            }
+        } catch (SQLException e) {
+            if (UNDEFINED_FUNCTION.equals(e.getSQLState())) {
+                logger.warning("fn_ThongKe_DoiSoat not found (run dtb/nang_cap.sql), skipping reconciliation");
+                return drift;
+            }
+            logger.log(Level.SEVERE, "Error reconciling dashboard summary", e);
+            throw new IllegalStateException("Không thể đối soát số liệu tổng hợp: " + e.getMessage(), e);
+        }
+        int ledgerRows = reconcileDebtLedger();
+        if (ledgerRows > 0) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("chiSo", "soCongNo");
+            row.put("soDongSua", ledgerRows);
+            drift.add(row);
+            logger.warning("Debt ledger drift: " + ledgerRows + " row(s) corrected");
+        }
+        logger.info("Dashboard summary reconciled, " + drift.size() + " metric(s) drifted");
+        return drift;
+    }
+
+    /**
+     * Đối soát sổ công nợ (SoCongNo) với PhieuThu/HoGiaDinh/DotThu.
+     *
+     * @return số dòng đã sửa; 0 nếu database chưa có sổ công nợ
+     */
+    private int reconcileDebtLedger() {
+        try (Connection conn = DatabaseConnector.getConnection();
+             PreparedStatement ps = conn.prepareStatement(RECONCILE_LEDGER);
+             ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        } catch (SQLException e) {
+            if (UNDEFINED_FUNCTION.equals(e.getSQLState())) {
+                logger.warning("fn_SoCongNo_DoiSoat not found (run dtb/nang_cap.sql), skipping ledger reconciliation");
+                return 0;
+            }
+            logger.log(Level.SEVERE, "Error reconciling debt ledger", e);
+            throw new IllegalStateException("Không thể đối soát sổ công nợ: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.bluemoon.services.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bluemoon.services.TimKiemService;
+import com.bluemoon.utils.DatabaseConnector;
+
+/**
+ * Triển khai {@link TimKiemService} bằng pg_trgm trên chuỗi đã bỏ dấu (fn_KhongDau, xem dtb/nang_cap.sql).
+ * <p>
+ * Mỗi bảng có một "chuỗi tìm kiếm" ghép các cột cần tìm; index GIN (gin_trgm_ops) trên đúng biểu thức đó
+ * phục vụ cả {@code LIKE '%...%'} (khớp chuỗi con) và {@code <%} (khớp gần đúng theo word_similarity),
+ * nên không quét tuần tự. Các biểu thức DOC_* dưới đây phải giữ nguyên văn như trong index.
+ * Điểm = 1 nếu khớp chuỗi con + word_similarity, mỗi loại lấy tối đa {@code limit} dòng rồi xếp chung.
+ */
+public class TimKiemServiceImpl implements TimKiemService {
+
+    private static final Logger logger = Logger.getLogger(TimKiemServiceImpl.class.getName());
+
+    /** Biểu thức của index idx_phuongtien_tim_kiem. */
+    static final String DOC_PHUONG_TIEN =
+            "fn_KhongDau(COALESCE(bienSo, '') || ' ' || COALESCE(tenChuXe, '') || ' ' || COALESCE(loaiXe, ''))";
+
+    /** Biểu thức của index idx_nhankhau_tim_kiem. */
+    static final String DOC_NHAN_KHAU =
+            "fn_KhongDau(COALESCE(hoTen, '') || ' ' || COALESCE(soCCCD, ''))";
+
+    /** Biểu thức của index idx_hogiadinh_tim_kiem. */
+    static final String DOC_HO_GIA_DINH =
+            "fn_KhongDau(COALESCE(CAST(soPhong AS TEXT), '') || ' ' || COALESCE(maChuHo, '') || ' ' || COALESCE(ghiChu, ''))";
+
+    /** Biểu thức của index idx_hogiadinh_ghichu_tim_kiem (tìm hộ gia đình theo ghi chú). */
+    static final String DOC_HO_GIA_DINH_GHI_CHU = "fn_KhongDau(ghiChu)";
+
+    /** Biểu thức của index idx_dotthu_tim_kiem. */
+    static final String DOC_DOT_THU =
+            "fn_KhongDau(COALESCE(tenDot, '') || ' ' || COALESCE(ghiChu, ''))";
+
+    private static final int MIN_KEYWORD_LENGTH = 2;
+    private static final int MAX_LIMIT = 100;
+
+    private static final String SEARCH_PHUONG_TIEN =
+            "(SELECT '" + LOAI_PHUONG_TIEN + "' AS loai, pt.id, pt.maHo, h.soPhong, pt.bienSo AS tieuDe, " +
+            "concat_ws(' - ', pt.tenChuXe, pt.loaiXe) AS moTa, " + score(DOC_PHUONG_TIEN) + " " +
+            "FROM (SELECT * FROM PhuongTien WHERE " + matches(DOC_PHUONG_TIEN) + ") pt " +
+            "LEFT JOIN HoGiaDinh h ON h.id = pt.maHo " +
+            "ORDER BY diem DESC, pt.id LIMIT ?)";
+
+    private static final String SEARCH_NHAN_KHAU =
+            "(SELECT '" + LOAI_NHAN_KHAU + "' AS loai, nk.id, nk.maHo, h.soPhong, nk.hoTen AS tieuDe, " +
+            "concat_ws(' - ', nk.soCCCD, nk.quanHeVoiChuHo) AS moTa, " + score(DOC_NHAN_KHAU) + " " +
+            "FROM (SELECT * FROM NhanKhau WHERE hieuLuc = TRUE AND (" + matches(DOC_NHAN_KHAU) + ")) nk " +
+            "LEFT JOIN HoGiaDinh h ON h.id = nk.maHo " +
+            "ORDER BY diem DESC, nk.id LIMIT ?)";
+
+    private static final String SEARCH_HO_GIA_DINH =
+            "(SELECT '" + LOAI_HO_GIA_DINH + "' AS loai, h.id, h.id AS maHo, h.soPhong, " +
+            "'Phòng ' || h.soPhong AS tieuDe, concat_ws(' - ', h.maChuHo, h.trangThai, h.ghiChu) AS moTa, " +
+            score(DOC_HO_GIA_DINH) + " " +
+            "FROM HoGiaDinh h WHERE " + matches(DOC_HO_GIA_DINH) + " " +
+            "ORDER BY diem DESC, h.id LIMIT ?)";
+
+    /**
+     * Điểm của dòng; tham số: mẫu LIKE, từ khóa.
+     */
+    private static String score(String doc) {
+        return "(CASE WHEN " + doc + " LIKE fn_KhongDau(?) THEN 1 ELSE 0 END "
+                + "+ word_similarity(fn_KhongDau(?), " + doc + ")) AS diem";
+    }
+
+    /**
+     * Điều kiện khớp dùng được index trigram; tham số: mẫu LIKE, từ khóa.
+     */
+    private static String matches(String doc) {
+        return doc + " LIKE fn_KhongDau(?) OR fn_KhongDau(?) <% " + doc;
+    }
+
+    /**
+     * Mẫu {@code LIKE '%tuKhoa%'} (đã thoát %, _ và \ trong từ khóa), để so với chuỗi tìm kiếm bằng
+     * {@code DOC LIKE fn_KhongDau(?)}.
+     *
+     * @param keyword từ khóa (đã trim)
+     * @return mẫu LIKE
+     */
+    static String containsPattern(String keyword) {
+        String escaped = keyword.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+        return "%" + escaped + "%";
+    }
+
+    @Override
+    public List<Map<String, Object>> search(String tuKhoa, String loai, int limit) {
+        String keyword = tuKhoa != null ? tuKhoa.trim() : "";
+        if (keyword.length() < MIN_KEYWORD_LENGTH) {
+            throw new IllegalArgumentException("Từ khóa tìm kiếm phải có ít nhất " + MIN_KEYWORD_LENGTH + " ký tự");
+        }
+        int maxRows = Math.max(1, Math.min(limit, MAX_LIMIT));
+        Set<String> types = parseTypes(loai);
+
+        List<String> parts = new ArrayList<>();
+        if (types.contains(LOAI_PHUONG_TIEN)) {
+            parts.add(SEARCH_PHUONG_TIEN);
+        }
+        if (types.contains(LOAI_NHAN_KHAU)) {
+            parts.add(SEARCH_NHAN_KHAU);
+        }
+        if (types.contains(LOAI_HO_GIA_DINH)) {
+            parts.add(SEARCH_HO_GIA_DINH);
+        }
+        String sql = "SELECT * FROM (" + String.join(" UNION ALL ", parts) + ") kq "
+                + "ORDER BY diem DESC, loai, id LIMIT ?";
+
+        List<Map<String, Object>> result = new ArrayList<>();
+        String pattern = containsPattern(keyword);
+
+        try (Connection conn = DatabaseConnector.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            int idx = 1;
+            for (int i = 0; i < parts.size(); i++) {
+                // score(), matches(), LIMIT của từng loại
+                pstmt.setString(idx++, pattern);
+                pstmt.setString(idx++, keyword);
+                pstmt.setString(idx++, pattern);
+                pstmt.setString(idx++, keyword);
+                pstmt.setInt(idx++, maxRows);
+            }
+            pstmt.setInt(idx, maxRows);
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    row.put("loai", rs.getString("loai"));
+                    row.put("id", rs.getInt("id"));
+                    row.put("maHo", rs.getObject("maHo") != null ? rs.getInt("maHo") : null);
+                    row.put("soPhong", rs.getObject("soPhong") != null ? rs.getInt("soPhong") : null);
+                    row.put("tieuDe", rs.getString("tieuDe"));
+                    row.put("moTa", rs.getString("moTa"));
+                    row.put("diem", rs.getDouble("diem"));
+                    result.add(row);
+                }
+            }
+
+            logger.log(Level.FINE, "Search '" + keyword + "' returned " + result.size() + " results");
+            return result;
+
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error searching with keyword: " + keyword, e);
+            return new ArrayList<>();
+        }
+    }
+
+    private static Set<String> parseTypes(String loai) {
+        Set<String> types = new LinkedHashSet<>();
+        if (loai == null || loai.trim().isEmpty()) {
+            types.add(LOAI_PHUONG_TIEN);
+            types.add(LOAI_NHAN_KHAU);
+            types.add(LOAI_HO_GIA_DINH);
+            return types;
+        }
+        for (String part : loai.split(",")) {
+            String type = part.trim();
+            if (type.equalsIgnoreCase(LOAI_PHUONG_TIEN)) {
+                types.add(LOAI_PHUONG_TIEN);
+            } else if (type.equalsIgnoreCase(LOAI_NHAN_KHAU)) {
+                types.add(LOAI_NHAN_KHAU);
+            } else if (type.equalsIgnoreCase(LOAI_HO_GIA_DINH)) {
+                types.add(LOAI_HO_GIA_DINH);
+            } else if (!type.isEmpty()) {
+                throw new IllegalArgumentException("Loại tìm kiếm không hợp lệ: " + type);
+            }
+        }
+        if (types.isEmpty()) {
+            throw new IllegalArgumentException("Loại tìm kiếm không hợp lệ: " + loai);
+        }
+        return types;
+    }
+}
@@ -0,0 +1,390 @@
+package com.bluemoon.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.javalin.http.Context;
+
+/**
+ * AssetCache: giữ toàn bộ file tĩnh (trang HTML, CSS, JS, ảnh, font, thư viện vendor) trong bộ nhớ,
+ * nạp một lần khi khởi động, kèm bản nén gzip (và brotli nếu build đã tạo file {@code .br}).
+ * <p>
+ * Mỗi asset (trừ trang HTML) có thêm một URL chứa mã băm nội dung ({@code css/sb-admin-2.min.<hash>.css});
+ * thuộc tính {@code src}/{@code href} trong trang HTML được viết lại sang URL đó, nên trình duyệt cache
+ * vĩnh viễn ({@code Cache-Control: immutable}) và tự tải bản mới khi nội dung đổi. URL gốc và trang HTML
+ * dùng {@code no-cache} + ETag (trả 304 khi không đổi). URL trong CSS ({@code url(...)}) giữ nguyên.
+ * <p>
+ * Danh sách file lấy từ {@value #MANIFEST} (task {@code manifest} trong gulpfile.js); nếu không có thì
+ * quét thư mục resources, bỏ qua mã nguồn SCSS/LESS, bộ icon SVG rời và file của build.
+ * JVM không có bộ nén brotli, nên bản brotli chỉ có khi task manifest đã ghi file {@code <asset>.br}; file
+ * {@code .br} chỉ được dùng khi mã băm trong manifest còn khớp nội dung hiện tại (tránh gửi bản nén cũ).
+ */
+public final class AssetCache {
+
+    private static final Logger logger = Logger.getLogger(AssetCache.class.getName());
+
+    /** Manifest do gulp tạo: {@code {"files": {"css/sb-admin-2.min.css": "<12 ký tự đầu SHA-256>", ...}}}. */
+    public static final String MANIFEST = "asset-manifest.json";
+
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+
+    /** Thư mục/file trong resources không phải asset (mã nguồn của vendor, file build). */
+    private static final Pattern EXCLUDED = Pattern.compile(
+            "(^|.*/)(scss|less|svgs|sprites|metadata|node_modules)/.*|^(com|META-INF)/.*"
+            + "|^gulpfile\\.js$|^package(-lock)?\\.json$|^" + Pattern.quote(MANIFEST) + "$");
+
+    private static final Map<String, String> CONTENT_TYPES = Map.ofEntries(
+            Map.entry("html", "text/html; charset=utf-8"),
+            Map.entry("css", "text/css; charset=utf-8"),
+            Map.entry("js", "text/javascript; charset=utf-8"),
+            Map.entry("json", "application/json; charset=utf-8"),
+            Map.entry("map", "application/json; charset=utf-8"),
+            Map.entry("svg", "image/svg+xml"),
+            Map.entry("png", "image/png"),
+            Map.entry("jpg", "image/jpeg"),
+            Map.entry("jpeg", "image/jpeg"),
+            Map.entry("gif", "image/gif"),
+            Map.entry("ico", "image/x-icon"),
+            Map.entry("woff", "font/woff"),
+            Map.entry("woff2", "font/woff2"),
+            Map.entry("ttf", "font/ttf"),
+            Map.entry("eot", "application/vnd.ms-fontobject"));
+
+    /** Định dạng văn bản: đáng nén. Ảnh bitmap và font woff/woff2 đã nén sẵn. */
+    private static final Pattern COMPRESSIBLE = Pattern.compile(".*\\.(html|css|js|json|map|svg|ttf|eot)$");
+
+    private static final Pattern ASSET_REF = Pattern.compile("((?:src|href)\\s*=\\s*\")(/?)(?:\\./)?([^\"#?:]+)(\")");
+
+    /** File nhỏ hơn ngưỡng này không nén (header gzip lấn át phần tiết kiệm). */
+    private static final int MIN_COMPRESS_BYTES = 512;
+
+    /** Một file tĩnh trong bộ nhớ. */
+    private static final class Asset {
+        final String contentType;
+        final String hash;
+        final byte[] raw;
+        final byte[] gzip;
+        final byte[] brotli;
+
+        Asset(String contentType, String hash, byte[] raw, byte[] gzip, byte[] brotli) {
+            this.contentType = contentType;
+            this.hash = hash;
+            this.raw = raw;
+            this.gzip = gzip;
+            this.brotli = brotli;
+        }
+    }
+
+    private final Map<String, Asset> byPath = new HashMap<>();
+    private final Map<String, Asset> byFingerprint = new HashMap<>();
+    /** Đường dẫn gốc -&gt; đường dẫn có mã băm (chỉ asset không phải HTML). */
+    private final Map<String, String> fingerprints = new HashMap<>();
+
+    private AssetCache() {}
+
+    /**
+     * Nạp toàn bộ asset từ classpath.
+     *
+     * @return cache (rỗng nếu không tìm thấy resources)
+     */
+    public static AssetCache load() {
+        AssetCache cache = new AssetCache();
+        long start = System.nanoTime();
+        Map<String, String> manifestHashes = new HashMap<>();
+        List<String> paths = listAssets(manifestHashes);
+
+        // Asset thường trước (để có mã băm), rồi trang HTML (viết lại src/href sang URL có mã băm)
+        long rawBytes = 0;
+        long sentBytes = 0;
+        for (boolean html : new boolean[] {false, true}) {
+            for (String path : paths) {
+                if (path.endsWith(".html") != html) {
+                    continue;
+                }
+                try {
+                    byte[] raw = readResource(path);
+                    if (raw == null) {
+                        continue;
+                    }
+                    if (html) {
+                        raw = cache.rewriteReferences(new String(raw, StandardCharsets.UTF_8))
+                                .getBytes(StandardCharsets.UTF_8);
+                    }
+                    Asset asset = cache.add(path, raw, manifestHashes.get(path));
+                    rawBytes += asset.raw.length;
+                    sentBytes += asset.gzip != null ? asset.gzip.length : asset.raw.length;
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Cannot load asset " + path, e);
+                }
+            }
+        }
+
+        logger.info("Loaded " + cache.byPath.size() + " static assets (" + rawBytes / 1024 + " KB, "
+                + sentBytes / 1024 + " KB gzip) in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return cache;
+    }
+
+    /**
+     * Ghi asset ứng với đường dẫn request (đường dẫn gốc hoặc có mã băm; "/" là index.html).
+     * Chọn bản brotli/gzip theo Accept-Encoding; trả 304 nếu If-None-Match khớp.
+     *
+     * @param ctx  context của request
+     * @param path đường dẫn request
+     * @return false nếu không có asset (caller trả 404)
+     */
+    public boolean serve(Context ctx, String path) {
+        String key = path.startsWith("/") ? path.substring(1) : path;
+        if (key.isEmpty() || key.endsWith("/")) {
+            key += "index.html";
+        }
+        Asset asset = byFingerprint.get(key);
+        boolean immutable = asset != null;
+        if (asset == null) {
+            asset = byPath.get(key);
+        }
+        if (asset == null) {
+            return false;
+        }
+
+        // ETag strong phải khác nhau giữa các bản nén của cùng nội dung
+        String acceptEncoding = ctx.header("Accept-Encoding");
+        byte[] body = asset.raw;
+        String encoding = null;
+        if (asset.brotli != null && accepts(acceptEncoding, "br")) {
+            body = asset.brotli;
+            encoding = "br";
+        } else if (asset.gzip != null && accepts(acceptEncoding, "gzip")) {
+            body = asset.gzip;
+            encoding = "gzip";
+        }
+        String etag = "\"" + asset.hash + (encoding != null ? "-" + encoding : "") + "\"";
+
+        ctx.header("ETag", etag);
+        ctx.header("Vary", "Accept-Encoding");
+        ctx.header("Cache-Control", immutable ? IMMUTABLE : "no-cache");
+        if (ResourceVersions.matches(ctx.header("If-None-Match"), etag)) {
+            ctx.status(304);
+            return true;
+        }
+        if (encoding != null) {
+            // Javalin không nén lại response đã có Content-Encoding
+            ctx.header("Content-Encoding", encoding);
+        }
+        ctx.contentType(asset.contentType);
+        ctx.result(body);
+        return true;
+    }
+
+    /**
+     * @return số asset đã nạp
+     */
+    public int size() {
+        return byPath.size();
+    }
+
+    // ==================== Nạp ====================
+
+    /**
+     * @param manifestHash mã băm của file khi gulp tạo bản .br (null nếu không có manifest)
+     */
+    private Asset add(String path, byte[] raw, String manifestHash) throws IOException {
+        String hash = sha256(raw).substring(0, 12);
+        byte[] gzip = null;
+        byte[] brotli = null;
+        if (raw.length >= MIN_COMPRESS_BYTES && COMPRESSIBLE.matcher(path).matches()) {
+            gzip = gzip(raw);
+            if (gzip.length >= raw.length) {
+                gzip = null;
+            }
+            // Trang HTML đã được viết lại nên không khớp manifest; asset khác chỉ dùng .br nếu chưa bị sửa
+            if (hash.equals(manifestHash)) {
+                brotli = readResource(path + ".br");
+            }
+        }
+
+        Asset asset = new Asset(contentType(path), hash, raw, gzip, brotli);
+        byPath.put(path, asset);
+        if (!path.endsWith(".html")) {
+            String fingerprinted = fingerprint(path, hash);
+            byFingerprint.put(fingerprinted, asset);
+            fingerprints.put(path, fingerprinted);
+        }
+        return asset;
+    }
+
+    /**
+     * Viết lại {@code src="..."}/{@code href="..."} trỏ tới asset đã nạp sang URL có mã băm.
+     * Trang được tham chiếu bằng đường dẫn tương đối từ gốc (mọi trang nằm ở thư mục gốc).
+     */
+    private String rewriteReferences(String html) {
+        Matcher m = ASSET_REF.matcher(html);
+        StringBuilder sb = new StringBuilder(html.length() + 256);
+        while (m.find()) {
+            String fingerprinted = fingerprints.get(m.group(3));
+            String replacement = fingerprinted != null
+                    ? m.group(1) + m.group(2) + fingerprinted + m.group(4)
+                    : m.group();
+            m.appendReplacement(sb, Matcher.quoteReplacement(replacement));
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
+    /** "css/a.min.css" + hash -&gt; "css/a.min.&lt;hash&gt;.css". */
+    private static String fingerprint(String path, String hash) {
+        int slash = path.lastIndexOf('/');
+        int dot = path.lastIndexOf('.');
+        if (dot <= slash) {
+            return path + "." + hash;
+        }
+        return path.substring(0, dot) + "." + hash + path.substring(dot);
+    }
+
+    /**
+     * Danh sách asset: theo manifest nếu có (kèm mã băm vào {@code manifestHashes}), ngược lại quét resources.
+     */
+    private static List<String> listAssets(Map<String, String> manifestHashes) {
+        List<String> paths = new ArrayList<>();
+        try {
+            byte[] manifest = readResource(MANIFEST);
+            if (manifest != null) {
+                Iterator<Map.Entry<String, JsonNode>> files =
+                        new ObjectMapper().readTree(manifest).path("files").fields();
+                while (files.hasNext()) {
+                    Map.Entry<String, JsonNode> file = files.next();
+                    paths.add(file.getKey());
+                    manifestHashes.put(file.getKey(), file.getValue().asText());
+                }
+                return paths;
+            }
+            for (String path : scanResources()) {
+                if (contentType(path) != null && !EXCLUDED.matcher(path).matches()) {
+                    paths.add(path);
+                }
+            }
+        } catch (IOException | URISyntaxException e) {
+            logger.log(Level.SEVERE, "Cannot list static assets", e);
+        }
+        return paths;
+    }
+
+    /**
+     * Mọi file trong thư mục gốc của resources (thư mục khi chạy từ target/classes, hoặc trong file jar).
+     */
+    private static List<String> scanResources() throws IOException, URISyntaxException {
+        List<String> paths = new ArrayList<>();
+        URL marker = AssetCache.class.getResource("/index.html");
+        if (marker == null) {
+            return paths;
+        }
+        if ("jar".equals(marker.getProtocol())) {
+            JarURLConnection connection = (JarURLConnection) marker.openConnection();
+            connection.setUseCaches(false);
+            try (JarFile jar = connection.getJarFile()) {
+                Enumeration<JarEntry> entries = jar.entries();
+                while (entries.hasMoreElements()) {
+                    JarEntry entry = entries.nextElement();
+                    if (!entry.isDirectory()) {
+                        paths.add(entry.getName());
+                    }
+                }
+            }
+        } else {
+            Path root = Paths.get(marker.toURI()).getParent();
+            try (Stream<Path> files = Files.walk(root)) {
+                files.filter(Files::isRegularFile)
+                        .forEach(file -> paths.add(root.relativize(file).toString().replace('\\', '/')));
+            }
+        }
+        return paths;
+    }
+
+    private static byte[] readResource(String path) throws IOException {
+        try (InputStream is = AssetCache.class.getResourceAsStream("/" + path)) {
+            return is != null ? is.readAllBytes() : null;
+        }
+    }
+
+    private static String contentType(String path) {
+        int dot = path.lastIndexOf('.');
+        return dot < 0 ? null : CONTENT_TYPES.get(path.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Accept-Encoding có chấp nhận mã nén không (bỏ qua mục có q=0).
+     */
+    private static boolean accepts(String acceptEncoding, String coding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String part : acceptEncoding.split(",")) {
+            String[] tokens = part.trim().split(";");
+            if (!tokens[0].trim().equalsIgnoreCase(coding)) {
+                continue;
+            }
+            for (int i = 1; i < tokens.length; i++) {
+                String param = tokens[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static byte[] gzip(byte[] raw) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 3 + 64);
+        // Nén một lần lúc khởi động nên dùng mức nén cao nhất
+        try (GZIPOutputStream gz = new GZIPOutputStream(out) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gz.write(raw);
+        }
+        return out.toByteArray();
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package com.bluemoon.utils;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * ConnectionPool: DataSource có pool cho PostgreSQL.
+ * - Giới hạn số connection tối thiểu (minIdle) / tối đa (maxSize), chờ có timeout khi pool đầy.
+ * - Kiểm tra connection bằng isValid() khi mượn nếu connection đã nhàn rỗi một thời gian.
+ * - Phát hiện rò rỉ: ghi lại stack trace nơi mượn, cảnh báo khi giữ quá ngưỡng.
+ * - Giới hạn tuổi thọ (maxLifetime) và thời gian nhàn rỗi (idleTimeout) của connection vật lý.
+ * Connection trả ra là proxy: gọi close() sẽ trả connection về pool thay vì đóng socket.
+ */
+public class ConnectionPool implements DataSource, AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(ConnectionPool.class.getName());
+
+    /** Connection vừa được trả về trong khoảng này thì không cần isValid() lại khi mượn. */
+    private static final long VALIDATION_BYPASS_MS = 500L;
+    private static final long HOUSEKEEPING_PERIOD_MS = 5_000L;
+
+    private final DatabaseConfig config;
+    private final Properties driverProperties;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final Semaphore permits;
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final AtomicInteger pendingThreads = new AtomicInteger();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    public ConnectionPool(DatabaseConfig config) {
+        this.config = config;
+        this.permits = new Semaphore(config.getMaxSize(), true);
+        this.driverProperties = new Properties();
+        driverProperties.setProperty("user", config.getUser());
+        driverProperties.setProperty("password", config.getPassword());
+        driverProperties.setProperty("ApplicationName", "BlueMoon");
+        driverProperties.setProperty("connectTimeout",
+                String.valueOf(Math.max(1L, config.getConnectionTimeoutMs() / 1000L)));
+
+        try {
+            Class.forName("org.postgresql.Driver");
+        } catch (ClassNotFoundException e) {
+            logger.log(Level.SEVERE, "PostgreSQL JDBC Driver not found.", e);
+        }
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bluemoon-db-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        // Lần chạy đầu tiên cũng làm nhiệm vụ tạo sẵn minIdle connection mà không chặn khởi động
+        housekeeper.scheduleWithFixedDelay(this::housekeep, 0L, HOUSEKEEPING_PERIOD_MS, TimeUnit.MILLISECONDS);
+
+        logger.info("Connection pool created: url=" + config.getUrl() + ", minIdle=" + config.getMinIdle()
+                + ", maxSize=" + config.getMaxSize());
+    }
+
+    /**
+     * Mượn một connection từ pool. Gọi close() trên connection trả về để trả lại pool.
+     *
+     * @return Connection (proxy)
+     * @throws SQLException nếu pool đã đóng, hết thời gian chờ hoặc không thể kết nối
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        pendingThreads.incrementAndGet();
+        try {
+            if (!permits.tryAcquire(config.getConnectionTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException("Connection pool exhausted: no connection available after "
+                        + config.getConnectionTimeoutMs() + "ms (active=" + borrowed.size()
+                        + ", max=" + config.getMaxSize() + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        } finally {
+            pendingThreads.decrementAndGet();
+        }
+
+        try {
+            PooledConnection pooled = takeValidConnection();
+            pooled.borrowedAt = System.currentTimeMillis();
+            pooled.borrowStack = config.getLeakDetectionThresholdMs() > 0
+                    ? new Throwable("Connection borrowed by thread " + Thread.currentThread().getName())
+                    : null;
+            pooled.leakReported = false;
+            borrowed.add(pooled);
+            return pooled.newHandle();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection takeValidConnection() throws SQLException {
+        while (true) {
+            PooledConnection pooled;
+            // LIFO: ưu tiên connection vừa trả về (còn "nóng", ít khả năng bị server đóng)
+            while ((pooled = idle.pollFirst()) != null) {
+                long now = System.currentTimeMillis();
+                if (isExpired(pooled, now)) {
+                    closePhysical(pooled, "max lifetime reached");
+                    continue;
+                }
+                if (now - pooled.lastReturnedAt > VALIDATION_BYPASS_MS && !isAlive(pooled)) {
+                    closePhysical(pooled, "validation failed");
+                    continue;
+                }
+                return pooled;
+            }
+            if (reserveSlot()) {
+                return createPhysical();
+            }
+
+            // Đã đủ maxSize connection vật lý dù ta đang giữ permit: housekeeper vừa tạo connection nhàn rỗi
+            // và sắp đưa vào hàng đợi, chờ nó thay vì tạo thêm
+            try {
+                pooled = idle.pollFirst(config.getConnectionTimeoutMs(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a database connection", e);
+            }
+            if (pooled == null) {
+                throw new SQLTransientConnectionException("Connection pool exhausted: "
+                        + totalConnections.get() + " physical connections (max=" + config.getMaxSize() + ")");
+            }
+            // Đưa lại đầu hàng đợi để đi qua bước kiểm tra ở vòng lặp trên
+            idle.offerFirst(pooled);
+        }
+    }
+
+    /**
+     * Giữ chỗ cho một connection vật lý mới (CAS trên totalConnections), để tổng số không vượt maxSize
+     * khi người mượn và housekeeper cùng tạo connection.
+     *
+     * @return false nếu đã đủ maxSize
+     */
+    private boolean reserveSlot() {
+        while (true) {
+            int current = totalConnections.get();
+            if (current >= config.getMaxSize()) {
+                return false;
+            }
+            if (totalConnections.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean isAlive(PooledConnection pooled) {
+        try {
+            return pooled.physical.isValid(config.getValidationTimeoutSec());
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private boolean isExpired(PooledConnection pooled, long now) {
+        return config.getMaxLifetimeMs() > 0 && now - pooled.createdAt > config.getMaxLifetimeMs();
+    }
+
+    /**
+     * Mở connection vật lý cho chỗ đã giữ bằng {@link #reserveSlot()}; trả lại chỗ nếu không kết nối được.
+     */
+    private PooledConnection createPhysical() throws SQLException {
+        try {
+            return new PooledConnection(DriverManager.getConnection(config.getUrl(), driverProperties));
+        } catch (SQLException | RuntimeException e) {
+            totalConnections.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void closePhysical(PooledConnection pooled, String reason) {
+        totalConnections.decrementAndGet();
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            logger.log(Level.FINE, "Error closing pooled connection", e);
+        }
+        logger.fine("Closed pooled connection (" + reason + ")");
+    }
+
+    /**
+     * Trả connection về pool: rollback giao dịch dang dở, khôi phục autoCommit/readOnly.
+     */
+    private void release(PooledConnection pooled, boolean broken) {
+        borrowed.remove(pooled);
+        pooled.borrowStack = null;
+        try {
+            boolean reusable = !broken && !closed && !pooled.broken;
+            if (reusable) {
+                try {
+                    Connection conn = pooled.physical;
+                    if (!conn.getAutoCommit()) {
+                        conn.rollback();
+                        conn.setAutoCommit(true);
+                    }
+                    if (conn.isReadOnly()) {
+                        conn.setReadOnly(false);
+                    }
+                    conn.clearWarnings();
+                } catch (SQLException e) {
+                    logger.log(Level.WARNING, "Failed to reset connection state, discarding connection", e);
+                    reusable = false;
+                }
+            }
+            long now = System.currentTimeMillis();
+            if (reusable && !isExpired(pooled, now)) {
+                pooled.lastReturnedAt = now;
+                idle.offerFirst(pooled);
+            } else {
+                closePhysical(pooled, broken || pooled.broken ? "broken" : "retired");
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+
+            // 1. Cảnh báo rò rỉ
+            long leakThreshold = config.getLeakDetectionThresholdMs();
+            if (leakThreshold > 0) {
+                for (PooledConnection pooled : borrowed) {
+                    if (!pooled.leakReported && now - pooled.borrowedAt > leakThreshold) {
+                        pooled.leakReported = true;
+                        logger.log(Level.WARNING, "Possible connection leak: connection held for "
+                                + (now - pooled.borrowedAt) + "ms", pooled.borrowStack);
+                    }
+                }
+            }
+
+            // 2. Loại bỏ connection hết tuổi thọ hoặc nhàn rỗi quá lâu (giữ lại minIdle)
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while (it.hasNext()) {
+                PooledConnection pooled = it.next();
+                boolean expired = isExpired(pooled, now);
+                boolean idleTooLong = config.getIdleTimeoutMs() > 0
+                        && now - pooled.lastReturnedAt > config.getIdleTimeoutMs()
+                        && idle.size() > config.getMinIdle();
+                if ((expired || idleTooLong) && idle.remove(pooled)) {
+                    closePhysical(pooled, expired ? "max lifetime reached" : "idle timeout");
+                }
+            }
+
+            // 3. Bổ sung cho đủ minIdle
+            while (!closed && idle.size() < config.getMinIdle() && reserveSlot()) {
+                idle.offerLast(createPhysical());
+            }
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Connection pool could not pre-create idle connections: " + e.getMessage());
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Connection pool housekeeping failed", e);
+        }
+    }
+
+    /**
+     * Đóng pool: đóng các connection nhàn rỗi; connection đang mượn sẽ bị đóng khi được trả về.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            closePhysical(pooled, "pool shutdown");
+        }
+        logger.info("Connection pool closed (" + borrowed.size() + " connection(s) still borrowed)");
+    }
+
+    // ==================== Thống kê ====================
+
+    public int getActiveConnections() { return borrowed.size(); }
+    public int getIdleConnections() { return idle.size(); }
+    public int getTotalConnections() { return totalConnections.get(); }
+    public int getPendingThreads() { return pendingThreads.get(); }
+    public int getMaxSize() { return config.getMaxSize(); }
+
+    // ==================== DataSource ====================
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("ConnectionPool uses the configured credentials only");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() { return null; }
+
+    @Override
+    public void setLogWriter(PrintWriter out) { }
+
+    @Override
+    public void setLoginTimeout(int seconds) { }
+
+    @Override
+    public int getLoginTimeout() { return (int) (config.getConnectionTimeoutMs() / 1000L); }
+
+    @Override
+    public Logger getParentLogger() { return logger; }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("ConnectionPool is not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * Connection vật lý trong pool cùng thông tin vòng đời.
+     */
+    private final class PooledConnection {
+        private final Connection physical;
+        private final long createdAt = System.currentTimeMillis();
+        private volatile long lastReturnedAt = createdAt;
+        private volatile long borrowedAt;
+        private volatile Throwable borrowStack;
+        private volatile boolean leakReported;
+        private volatile boolean broken;
+
+        private PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        private Connection newHandle() {
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class },
+                    new ConnectionHandle(this));
+        }
+    }
+
+    /**
+     * Proxy cho một lần mượn connection: close() trả connection về pool, các lời gọi sau close() bị từ chối.
+     */
+    private final class ConnectionHandle implements InvocationHandler {
+        private final PooledConnection pooled;
+        private volatile boolean handleClosed;
+
+        private ConnectionHandle(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    closeHandle(false);
+                    return null;
+                case "abort":
+                    closeHandle(true);
+                    return null;
+                case "isClosed":
+                    return handleClosed || pooled.physical.isClosed();
+                case "isWrapperFor":
+                    return ((Class<?>) args[0]).isInstance(proxy) || pooled.physical.isWrapperFor((Class<?>) args[0]);
+                case "unwrap":
+                    if (((Class<?>) args[0]).isInstance(proxy)) {
+                        return proxy;
+                    }
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + pooled.physical + (handleClosed ? ", closed" : "") + "]";
+                default:
+                    break;
+            }
+            if (handleClosed) {
+                throw new SQLException("Connection is closed");
+            }
+            try {
+                return method.invoke(pooled.physical, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException) {
+                    String state = ((SQLException) cause).getSQLState();
+                    // SQLState lớp 08 = lỗi kết nối: không đưa connection này trở lại pool
+                    if (state != null && state.startsWith("08")) {
+                        pooled.broken = true;
+                    }
+                }
+                throw cause;
+            }
+        }
+
+        private synchronized void closeHandle(boolean broken) {
+            if (handleClosed) {
+                return;
+            }
+            handleClosed = true;
+            release(pooled, broken);
+        }
+    }
+}
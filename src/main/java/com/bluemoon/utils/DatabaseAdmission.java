@@ -0,0 +1,128 @@
+package com.bluemoon.utils;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import io.javalin.Javalin;
+
+/**
+ * DatabaseAdmission: giới hạn số request đồng thời được dùng database.
+ * <p>
+ * Khi handler chạy trên virtual thread, số request đang xử lý không còn bị giới hạn bởi pool luồng của Jetty;
+ * hàng nghìn request cùng chờ connection sẽ lần lượt hết {@code db.pool.connectionTimeoutMs}.
+ * Semaphore (fair) này cho request vào database theo thứ tự đến: request lấy permit ở lần
+ * {@link DatabaseConnector#getConnection()} đầu tiên và giữ đến khi request kết thúc, nên request không chạm
+ * database (trang tĩnh, theo dõi job...) không phải xếp hàng và số connection không vượt quá số permit.
+ * Chờ quá {@value #TIMEOUT_PROPERTY} ms thì request bị từ chối bằng {@link BusyException} (HTTP 503).
+ * Luồng ngoài request (job, dựng PDF) không bị giới hạn ở đây; chúng có pool luồng riêng.
+ */
+public final class DatabaseAdmission {
+
+    private static final Logger logger = Logger.getLogger(DatabaseAdmission.class.getName());
+
+    /** System property: số request được dùng database cùng lúc (mặc định = db.pool.maxSize). */
+    public static final String PERMITS_PROPERTY = "bluemoon.db.maxConcurrentRequests";
+    /** System property: thời gian chờ tối đa để được vào database (ms). */
+    public static final String TIMEOUT_PROPERTY = "bluemoon.db.admissionTimeoutMs";
+
+    private static final long TIMEOUT_MS = Long.getLong(TIMEOUT_PROPERTY, 30_000L);
+
+    /** null khi chưa cài (chế độ luồng platform): không giới hạn. */
+    private static volatile Semaphore permits;
+    private static volatile int maxPermits;
+
+    /** Trạng thái của request trên luồng hiện tại: [0] = 1 nếu đang giữ permit. */
+    private static final ThreadLocal<int[]> CURRENT = new ThreadLocal<>();
+
+    private static final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Request bị từ chối vì chờ vào database quá lâu.
+     */
+    public static final class BusyException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        BusyException(String message) {
+            super(message);
+        }
+    }
+
+    private DatabaseAdmission() {}
+
+    /**
+     * Bật giới hạn và gắn before/after handler theo dõi phạm vi request.
+     *
+     * @param app            Javalin app
+     * @param defaultPermits số permit khi không cấu hình {@value #PERMITS_PROPERTY}
+     */
+    public static void install(Javalin app, int defaultPermits) {
+        int size = Math.max(1, Integer.getInteger(PERMITS_PROPERTY, defaultPermits));
+        maxPermits = size;
+        permits = new Semaphore(size, true);
+        app.before(ctx -> CURRENT.set(new int[1]));
+        app.after(ctx -> release());
+        logger.info("Database admission limit: " + size + " concurrent requests, timeout " + TIMEOUT_MS + "ms");
+    }
+
+    /**
+     * Lấy permit cho request hiện tại nếu chưa có. Không làm gì ngoài request hoặc khi chưa cài.
+     *
+     * @throws BusyException nếu chờ quá thời gian cho phép
+     */
+    static void enter() {
+        Semaphore semaphore = permits;
+        int[] state = CURRENT.get();
+        if (semaphore == null || state == null || state[0] == 1) {
+            return;
+        }
+        boolean acquired;
+        try {
+            acquired = semaphore.tryAcquire(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusyException("Interrupted while waiting for database access");
+        }
+        if (!acquired) {
+            rejected.incrementAndGet();
+            throw new BusyException("Hệ thống đang quá tải, vui lòng thử lại sau");
+        }
+        state[0] = 1;
+    }
+
+    private static void release() {
+        int[] state = CURRENT.get();
+        CURRENT.remove();
+        if (state != null && state[0] == 1) {
+            permits.release();
+        }
+    }
+
+    /** @return true nếu giới hạn đang bật */
+    public static boolean isEnabled() {
+        return permits != null;
+    }
+
+    /** @return số permit tối đa (0 nếu chưa bật) */
+    public static int getMaxPermits() {
+        return maxPermits;
+    }
+
+    /** @return số request đang giữ permit */
+    public static int getActive() {
+        Semaphore semaphore = permits;
+        return semaphore != null ? maxPermits - semaphore.availablePermits() : 0;
+    }
+
+    /** @return số request đang chờ permit (ước lượng) */
+    public static int getWaiting() {
+        Semaphore semaphore = permits;
+        return semaphore != null ? semaphore.getQueueLength() : 0;
+    }
+
+    /** @return tổng số request bị từ chối vì chờ quá lâu */
+    public static long getRejected() {
+        return rejected.get();
+    }
+}
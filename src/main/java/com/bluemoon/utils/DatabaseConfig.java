@@ -0,0 +1,113 @@
+package com.bluemoon.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * DatabaseConfig: Đọc cấu hình kết nối database và connection pool.
+ * Thứ tự ưu tiên: system property &gt; file config/database.properties &gt; classpath &gt; giá trị mặc định.
+ */
+public class DatabaseConfig {
+
+    private static final Logger logger = Logger.getLogger(DatabaseConfig.class.getName());
+
+    private static final String CONFIG_PATH_PROPERTY = "bluemoon.db.config";
+    private static final String DEFAULT_CONFIG_FILE = "config/database.properties";
+    private static final String CLASSPATH_CONFIG_FILE = "/database.properties";
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int minIdle;
+    private final int maxSize;
+    private final long connectionTimeoutMs;
+    private final int validationTimeoutSec;
+    private final long idleTimeoutMs;
+    private final long maxLifetimeMs;
+    private final long leakDetectionThresholdMs;
+
+    private DatabaseConfig(Properties props) {
+        this.url = get(props, "db.url", "jdbc:postgresql://localhost:5432/bluemoon");
+        this.user = get(props, "db.user", "postgres");
+        this.password = get(props, "db.password", "admin");
+        this.maxSize = Math.max(1, getInt(props, "db.pool.maxSize", 10));
+        this.minIdle = Math.max(0, Math.min(getInt(props, "db.pool.minIdle", 2), maxSize));
+        this.connectionTimeoutMs = Math.max(250L, getLong(props, "db.pool.connectionTimeoutMs", 10_000L));
+        this.validationTimeoutSec = Math.max(1, getInt(props, "db.pool.validationTimeoutSec", 2));
+        this.idleTimeoutMs = Math.max(0L, getLong(props, "db.pool.idleTimeoutMs", 600_000L));
+        this.maxLifetimeMs = Math.max(0L, getLong(props, "db.pool.maxLifetimeMs", 1_800_000L));
+        this.leakDetectionThresholdMs = Math.max(0L, getLong(props, "db.pool.leakDetectionThresholdMs", 60_000L));
+    }
+
+    /**
+     * Tải cấu hình từ file (nếu có) và system properties.
+     *
+     * @return cấu hình database
+     */
+    public static DatabaseConfig load() {
+        Properties props = new Properties();
+        Path path = Paths.get(System.getProperty(CONFIG_PATH_PROPERTY, DEFAULT_CONFIG_FILE));
+        if (Files.isRegularFile(path)) {
+            try (InputStream in = Files.newInputStream(path)) {
+                props.load(in);
+                logger.info("Loaded database config from " + path.toAbsolutePath());
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Cannot read database config " + path.toAbsolutePath(), e);
+            }
+        } else {
+            try (InputStream in = DatabaseConfig.class.getResourceAsStream(CLASSPATH_CONFIG_FILE)) {
+                if (in != null) {
+                    props.load(in);
+                    logger.info("Loaded database config from classpath " + CLASSPATH_CONFIG_FILE);
+                } else {
+                    logger.warning("No database config found at " + path.toAbsolutePath() + ", using defaults");
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Cannot read classpath database config", e);
+            }
+        }
+        return new DatabaseConfig(props);
+    }
+
+    private static String get(Properties props, String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = props.getProperty(key);
+        }
+        return (value == null || value.trim().isEmpty()) ? defaultValue : value.trim();
+    }
+
+    private static int getInt(Properties props, String key, int defaultValue) {
+        return (int) getLong(props, key, defaultValue);
+    }
+
+    private static long getLong(Properties props, String key, long defaultValue) {
+        String value = get(props, key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            logger.warning("Invalid value for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public String getUrl() { return url; }
+    public String getUser() { return user; }
+    public String getPassword() { return password; }
+    public int getMinIdle() { return minIdle; }
+    public int getMaxSize() { return maxSize; }
+    public long getConnectionTimeoutMs() { return connectionTimeoutMs; }
+    public int getValidationTimeoutSec() { return validationTimeoutSec; }
+    public long getIdleTimeoutMs() { return idleTimeoutMs; }
+    public long getMaxLifetimeMs() { return maxLifetimeMs; }
+    public long getLeakDetectionThresholdMs() { return leakDetectionThresholdMs; }
+}
@@ -1,38 +1,78 @@
 package com.bluemoon.utils;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.sql.DataSource;
 
 /**
  * Utility class để quản lý kết nối database.
- * Sử dụng PostgreSQL database.
+ * Sử dụng PostgreSQL database thông qua ConnectionPool (cấu hình trong config/database.properties).
  */
 public class DatabaseConnector {
 
     private static final Logger logger = Logger.getLogger(DatabaseConnector.class.getName());
 
-    // Database configuration - should be moved to config file in production
-    private static final String DB_URL = "jdbc:postgresql://localhost:5432/bluemoon";
-    private static final String DB_USER = "postgres";
-    private static final String DB_PASSWORD = "admin";
+    /**
+     * Khởi tạo pool lười (lazy) ở lần gọi đầu tiên, an toàn đa luồng.
+     */
+    private static final class PoolHolder {
+        private static final ConnectionPool POOL = createPool();
+
+        private static ConnectionPool createPool() {
+            ConnectionPool pool = new ConnectionPool(DatabaseConfig.load());
+            Runtime.getRuntime().addShutdownHook(new Thread(pool::close, "bluemoon-db-pool-shutdown"));
+            return pool;
+        }
+    }
 
     /**
-     * Lấy kết nối database PostgreSQL.
+     * Lấy kết nối database PostgreSQL từ pool.
+     * Luôn đóng connection (try-with-resources) để trả về pool.
+     * Các câu lệnh chạy trên connection được đo bởi {@link QueryTracker}.
+     * Nếu luồng hiện tại đang trong {@link UnitOfWork}, trả về handle tới connection của unit đó
+     * (transaction của caller trở thành savepoint trong transaction chung).
+     * Khi chạy trên virtual thread, request phải qua {@link DatabaseAdmission} trước.
      *
      * @return Connection object
      * @throws SQLException nếu không thể kết nối
      */
     public static Connection getConnection() throws SQLException {
-        try {
-            // Load PostgreSQL JDBC driver
-            Class.forName("org.postgresql.Driver");
-            return DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-        } catch (ClassNotFoundException e) {
-            logger.log(Level.SEVERE, "PostgreSQL JDBC Driver not found.", e);
-            throw new SQLException("PostgreSQL JDBC Driver not found.", e);
-        }
+        DatabaseAdmission.enter();
+        Connection joined = UnitOfWork.currentConnection();
+        return joined != null ? joined : openConnection();
+    }
+
+    /**
+     * Mượn connection riêng từ pool, bỏ qua unit of work của luồng hiện tại.
+     */
+    static Connection openConnection() throws SQLException {
+        return QueryTracker.wrap(PoolHolder.POOL.getConnection());
+    }
+
+    /**
+     * Lấy DataSource dùng chung của ứng dụng.
+     *
+     * @return DataSource (ConnectionPool)
+     */
+    public static DataSource getDataSource() {
+        return PoolHolder.POOL;
+    }
+
+    /**
+     * Lấy pool để đọc thống kê (active/idle/pending).
+     *
+     * @return ConnectionPool
+     */
+    public static ConnectionPool getPool() {
+        return PoolHolder.POOL;
+    }
+
+    /**
+     * Đóng pool và toàn bộ connection nhàn rỗi.
+     */
+    public static void shutdown() {
+        logger.info("Shutting down database connection pool");
+        PoolHolder.POOL.close();
     }
 }
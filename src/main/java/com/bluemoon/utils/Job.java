@@ -0,0 +1,220 @@
+package com.bluemoon.utils;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Job: một tác vụ nền do {@link JobManager} quản lý.
+ * Lưu trạng thái, tiến độ (đã xử lý / tổng), kết quả hoặc lỗi; hỗ trợ hủy.
+ */
+public class Job implements ProgressListener {
+
+    private static final Logger logger = Logger.getLogger(Job.class.getName());
+
+    /**
+     * Trạng thái của job.
+     */
+    public enum Status {
+        PENDING, RUNNING, SUCCEEDED, FAILED, CANCELLED;
+
+        public boolean isFinished() {
+            return this == SUCCEEDED || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    private final String id;
+    private final String type;
+    private final String key;
+    private final String description;
+    private final Instant createdAt = Instant.now();
+    private final AtomicLong processed = new AtomicLong();
+    private final List<Runnable> cancelHooks = new CopyOnWriteArrayList<>();
+
+    private volatile long total;
+    private volatile Status status = Status.PENDING;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile Object result;
+    private volatile String error;
+    private volatile boolean cancelRequested;
+    private volatile Future<?> future;
+
+    Job(String id, String type, String key, String description) {
+        this.id = id;
+        this.type = type;
+        this.key = key;
+        this.description = description;
+    }
+
+    // ==================== ProgressListener ====================
+
+    @Override
+    public void setTotal(long total) {
+        this.total = Math.max(0L, total);
+    }
+
+    @Override
+    public void advance(long delta) {
+        if (delta > 0) {
+            processed.addAndGet(delta);
+        }
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelRequested;
+    }
+
+    /**
+     * Đăng ký hành động chạy khi job bị hủy (ví dụ: Statement.cancel() cho truy vấn đang chạy).
+     * Nếu job đã bị hủy thì hành động chạy ngay.
+     *
+     * @param hook hành động hủy
+     */
+    public void onCancel(Runnable hook) {
+        cancelHooks.add(hook);
+        if (cancelRequested) {
+            runHook(hook);
+        }
+    }
+
+    /**
+     * Gỡ hành động hủy đã đăng ký (khi tài nguyên tương ứng đã được giải phóng).
+     *
+     * @param hook hành động hủy
+     */
+    public void removeCancelHook(Runnable hook) {
+        cancelHooks.remove(hook);
+    }
+
+    // ==================== Vòng đời (JobManager gọi) ====================
+
+    void markRunning() {
+        startedAt = Instant.now();
+        status = Status.RUNNING;
+    }
+
+    void markSucceeded(Object value) {
+        result = value;
+        if (total > 0 && processed.get() < total) {
+            processed.set(total);
+        }
+        finish(Status.SUCCEEDED);
+    }
+
+    void markFailed(Throwable t) {
+        error = t.getMessage() != null ? t.getMessage() : t.getClass().getSimpleName();
+        finish(Status.FAILED);
+    }
+
+    void markCancelled() {
+        finish(Status.CANCELLED);
+    }
+
+    private void finish(Status finalStatus) {
+        finishedAt = Instant.now();
+        status = finalStatus;
+    }
+
+    void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    /**
+     * Yêu cầu hủy job (hợp tác): đặt cờ mà tác vụ đọc qua {@link #isCancelled()} giữa các lát công việc
+     * và chạy các hook hủy (ví dụ Statement.cancel()). Luồng đang chạy không bị ngắt (interrupt), để không
+     * làm hỏng connection JDBC đang dùng; job chưa bắt đầu thì được gỡ khỏi hàng đợi và đánh dấu đã hủy ngay.
+     *
+     * @return true nếu job chưa kết thúc tại thời điểm yêu cầu
+     */
+    boolean requestCancel() {
+        if (status.isFinished()) {
+            return false;
+        }
+        cancelRequested = true;
+        for (Runnable hook : cancelHooks) {
+            runHook(hook);
+        }
+        Future<?> f = future;
+        if (status == Status.PENDING && f != null && f.cancel(false)) {
+            // Chưa bắt đầu chạy: executor sẽ không gọi task nữa
+            markCancelled();
+        }
+        return true;
+    }
+
+    private void runHook(Runnable hook) {
+        try {
+            hook.run();
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Cancel hook failed for job " + id, e);
+        }
+    }
+
+    // ==================== Thông tin ====================
+
+    public String getId() { return id; }
+    public String getType() { return type; }
+    public String getKey() { return key; }
+    public String getDescription() { return description; }
+    public Status getStatus() { return status; }
+    public long getProcessed() { return processed.get(); }
+    public long getTotal() { return total; }
+    public Object getResult() { return result; }
+    public String getError() { return error; }
+    public Instant getCreatedAt() { return createdAt; }
+    public Instant getStartedAt() { return startedAt; }
+    public Instant getFinishedAt() { return finishedAt; }
+
+    /**
+     * Ảnh chụp trạng thái để trả về qua API: tiến độ, tốc độ xử lý (đơn vị/giây) và thời gian còn lại ước tính.
+     *
+     * @return map trạng thái
+     */
+    public Map<String, Object> toSnapshot() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        long done = processed.get();
+        long all = total;
+        Instant start = startedAt;
+        Instant end = finishedAt;
+
+        map.put("id", id);
+        map.put("type", type);
+        map.put("description", description);
+        map.put("status", status.name());
+        map.put("processed", done);
+        map.put("total", all);
+        map.put("percent", all > 0 ? Math.min(100.0, Math.round(done * 1000.0 / all) / 10.0) : null);
+
+        Double throughput = null;
+        Long etaSeconds = null;
+        if (start != null) {
+            long elapsedMs = Math.max(1L, (end != null ? end : Instant.now()).toEpochMilli() - start.toEpochMilli());
+            throughput = Math.round(done * 10_000.0 / elapsedMs) / 10.0;
+            if (end == null && done > 0 && all > done) {
+                etaSeconds = Math.round((all - done) * (elapsedMs / 1000.0) / done);
+            }
+            map.put("elapsedMs", elapsedMs);
+        }
+        map.put("throughputPerSec", throughput);
+        map.put("etaSeconds", etaSeconds);
+        map.put("createdAt", createdAt.toString());
+        map.put("startedAt", start != null ? start.toString() : null);
+        map.put("finishedAt", end != null ? end.toString() : null);
+        map.put("cancelRequested", cancelRequested);
+        if (result != null) {
+            map.put("result", result);
+        }
+        if (error != null) {
+            map.put("error", error);
+        }
+        return map;
+    }
+}
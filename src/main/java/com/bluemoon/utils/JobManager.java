@@ -0,0 +1,218 @@
+package com.bluemoon.utils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * JobManager: chạy các tác vụ lâu (sinh phiếu thu hàng loạt...) trên executor riêng,
+ * tách khỏi luồng xử lý HTTP. Job tiếp tục chạy kể cả khi client ngắt kết nối;
+ * client theo dõi tiến độ qua id của job và có thể yêu cầu hủy.
+ */
+public class JobManager {
+
+    private static final Logger logger = Logger.getLogger(JobManager.class.getName());
+
+    /** Tiền tố key cho job sinh phiếu thu của một đợt thu (mỗi đợt chỉ chạy một job tại một thời điểm). */
+    public static final String DRIVE_GENERATION_KEY_PREFIX = "drive-generation:";
+
+    private static final int DEFAULT_WORKERS = 2;
+    private static final Duration FINISHED_RETENTION = Duration.ofHours(1);
+
+    private static final JobManager INSTANCE = new JobManager(
+            Integer.getInteger("bluemoon.jobs.workers", DEFAULT_WORKERS));
+
+    /**
+     * Công việc chạy trong job. Gọi {@link Job#isCancelled()} định kỳ để dừng khi bị hủy.
+     *
+     * @param <T> kiểu kết quả
+     */
+    @FunctionalInterface
+    public interface JobTask<T> {
+        T run(Job job) throws Exception;
+    }
+
+    private final ExecutorService executor;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    private JobManager(int workers) {
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, workers), r -> {
+            Thread t = new Thread(r, "bluemoon-job-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static JobManager getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Tạo key cho job sinh phiếu thu của một đợt thu.
+     *
+     * @param maDot mã đợt thu
+     * @return key
+     */
+    public static String driveGenerationKey(int maDot) {
+        return DRIVE_GENERATION_KEY_PREFIX + maDot;
+    }
+
+    /**
+     * Gửi một job. Nếu đã có job chưa kết thúc với cùng key thì trả về job đó thay vì tạo job mới.
+     *
+     * @param type        loại job (ví dụ "generate-receipts")
+     * @param key         khóa chống chạy trùng (có thể null)
+     * @param description mô tả hiển thị
+     * @param task        công việc
+     * @return job (mới hoặc đang chạy)
+     */
+    public synchronized Job submit(String type, String key, String description, JobTask<?> task) {
+        evictFinished();
+
+        if (key != null) {
+            Job active = findActiveByKey(key);
+            if (active != null) {
+                logger.info("Job " + active.getId() + " already running for key " + key);
+                return active;
+            }
+        }
+
+        Job job = new Job(UUID.randomUUID().toString(), type, key, description);
+        jobs.put(job.getId(), job);
+        if (!UnitOfWork.afterCompletion(committed -> start(job, task, committed))) {
+            job.setFuture(executor.submit(() -> execute(job, task)));
+        }
+        logger.info("Submitted job " + job.getId() + " (" + type + "): " + description);
+        return job;
+    }
+
+    /**
+     * Job gửi từ trong unit of work chỉ chạy sau khi unit commit (job dùng connection riêng,
+     * chưa commit thì không thấy dữ liệu vừa ghi); unit rollback thì job bị hủy.
+     */
+    private void start(Job job, JobTask<?> task, boolean committed) {
+        if (committed) {
+            job.setFuture(executor.submit(() -> execute(job, task)));
+        } else {
+            logger.info("Unit of work rolled back, cancelling job " + job.getId());
+            job.markCancelled();
+        }
+    }
+
+    private void execute(Job job, JobTask<?> task) {
+        if (job.isCancelled()) {
+            job.markCancelled();
+            return;
+        }
+        job.markRunning();
+        try {
+            Object result = task.run(job);
+            if (job.isCancelled()) {
+                job.markCancelled();
+            } else {
+                job.markSucceeded(result);
+            }
+            logger.info("Job " + job.getId() + " finished with status " + job.getStatus());
+        } catch (CancellationException e) {
+            job.markCancelled();
+            logger.info("Job " + job.getId() + " cancelled");
+        } catch (Exception e) {
+            if (job.isCancelled()) {
+                // Lỗi phát sinh do hủy (ví dụ: truy vấn bị Statement.cancel())
+                job.markCancelled();
+                logger.info("Job " + job.getId() + " cancelled: " + e.getMessage());
+            } else {
+                job.markFailed(e);
+                logger.log(Level.SEVERE, "Job " + job.getId() + " failed", e);
+            }
+        }
+    }
+
+    /**
+     * Lấy job theo id.
+     *
+     * @param id id job
+     * @return job hoặc null
+     */
+    public Job getJob(String id) {
+        return id == null ? null : jobs.get(id);
+    }
+
+    /**
+     * Tìm job chưa kết thúc theo key.
+     *
+     * @param key key
+     * @return job đang chờ/chạy hoặc null
+     */
+    public Job findActiveByKey(String key) {
+        for (Job job : jobs.values()) {
+            if (key.equals(job.getKey()) && !job.getStatus().isFinished()) {
+                return job;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tìm job gần nhất (kể cả đã kết thúc) theo key.
+     *
+     * @param key key
+     * @return job mới nhất hoặc null
+     */
+    public Job findLatestByKey(String key) {
+        Job latest = null;
+        for (Job job : jobs.values()) {
+            if (key.equals(job.getKey()) && (latest == null || job.getCreatedAt().isAfter(latest.getCreatedAt()))) {
+                latest = job;
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Yêu cầu hủy job.
+     *
+     * @param id id job
+     * @return true nếu job tồn tại và chưa kết thúc
+     */
+    public boolean cancel(String id) {
+        Job job = getJob(id);
+        if (job == null) {
+            return false;
+        }
+        boolean accepted = job.requestCancel();
+        if (accepted) {
+            logger.info("Cancellation requested for job " + id);
+        }
+        return accepted;
+    }
+
+    /**
+     * Danh sách job gần đây (mới nhất trước).
+     *
+     * @return danh sách job
+     */
+    public List<Job> listJobs() {
+        evictFinished();
+        List<Job> list = new ArrayList<>(jobs.values());
+        list.sort(Comparator.comparing(Job::getCreatedAt).reversed());
+        return list;
+    }
+
+    private void evictFinished() {
+        Instant cutoff = Instant.now().minus(FINISHED_RETENTION);
+        jobs.values().removeIf(job -> job.getFinishedAt() != null && job.getFinishedAt().isBefore(cutoff));
+    }
+}
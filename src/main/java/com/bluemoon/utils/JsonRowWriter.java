@@ -0,0 +1,67 @@
+package com.bluemoon.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.bluemoon.services.RowHandler;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * JsonRowWriter: ghi từng dòng ra luồng ngay khi nhận được, dạng mảng JSON ({@code [{...},{...}]})
+ * hoặc NDJSON (mỗi dòng một đối tượng JSON, kết thúc bằng xuống dòng).
+ * <p>
+ * Dòng đầu tiên được flush ngay để client nhận byte đầu sớm; sau đó để bộ đệm của generator/Jetty gom ghi.
+ * {@link #finish()} chỉ gọi khi đọc xong: nếu lỗi giữa chừng, mảng JSON bị cắt cụt (client nhận biết được)
+ * thay vì trông như một danh sách đầy đủ.
+ */
+public final class JsonRowWriter<T> implements RowHandler<T> {
+
+    /** Content type của NDJSON. */
+    public static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
+    private final JsonGenerator gen;
+    private final boolean ndjson;
+    private int count;
+
+    /**
+     * @param mapper ObjectMapper dùng để ghi từng dòng
+     * @param out    luồng ghi (không bị đóng)
+     * @param ndjson true: NDJSON; false: mảng JSON
+     * @throws IOException nếu lỗi ghi
+     */
+    public JsonRowWriter(ObjectMapper mapper, OutputStream out, boolean ndjson) throws IOException {
+        this.gen = mapper.getFactory().createGenerator(out)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .setRootValueSeparator(null);
+        this.ndjson = ndjson;
+        if (!ndjson) {
+            gen.writeStartArray();
+        }
+    }
+
+    @Override
+    public void accept(T row) throws IOException {
+        gen.writeObject(row);
+        if (ndjson) {
+            gen.writeRaw('\n');
+        }
+        if (count++ == 0) {
+            gen.flush();
+        }
+    }
+
+    /**
+     * Đóng mảng (nếu là mảng JSON) và flush phần còn lại.
+     *
+     * @return số dòng đã ghi
+     * @throws IOException nếu lỗi ghi
+     */
+    public int finish() throws IOException {
+        if (!ndjson) {
+            gen.writeEndArray();
+        }
+        gen.close();
+        return count;
+    }
+}
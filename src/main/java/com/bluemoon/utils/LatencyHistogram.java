@@ -0,0 +1,109 @@
+package com.bluemoon.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram: histogram thời gian dạng log-linear (kiểu HdrHistogram) với số bucket cố định.
+ * <p>
+ * Mỗi quãng lũy thừa 2 micro giây [2^k, 2^(k+1)) được chia đôi, từ 64µs đến ~67 giây; giá trị lớn hơn
+ * rơi vào bucket tràn. Chỉ số bucket tính bằng phép dịch bit, các bộ đếm là mảng atomic tạo sẵn,
+ * nên {@link #record(long)} không cấp phát bộ nhớ và an toàn khi gọi đồng thời.
+ */
+public final class LatencyHistogram {
+
+    /** Cận trên (µs) của bucket đầu tiên = 2^MIN_SHIFT. */
+    private static final int MIN_SHIFT = 6;
+
+    /** Quãng lớn nhất [2^MAX_SHIFT, 2^(MAX_SHIFT+1)) µs. */
+    private static final int MAX_SHIFT = 25;
+
+    /** Số bucket có cận trên hữu hạn. */
+    private static final int FINITE_BUCKETS = 1 + (MAX_SHIFT - MIN_SHIFT + 1) * 2;
+
+    /** Cận trên (giây) của từng bucket hữu hạn, dùng khi xuất dữ liệu. */
+    private static final double[] UPPER_BOUNDS_SECONDS = new double[FINITE_BUCKETS];
+
+    static {
+        UPPER_BOUNDS_SECONDS[0] = (1L << MIN_SHIFT) / 1e6;
+        for (int k = MIN_SHIFT; k <= MAX_SHIFT; k++) {
+            int base = 1 + (k - MIN_SHIFT) * 2;
+            UPPER_BOUNDS_SECONDS[base] = (3L << (k - 1)) / 1e6;
+            UPPER_BOUNDS_SECONDS[base + 1] = (1L << (k + 1)) / 1e6;
+        }
+    }
+
+    /** FINITE_BUCKETS bucket hữu hạn + 1 bucket tràn. */
+    private final AtomicLongArray counts = new AtomicLongArray(FINITE_BUCKETS + 1);
+    private final AtomicLong sumNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Ghi nhận một lần đo.
+     *
+     * @param nanos thời gian (nano giây)
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketIndex(nanos / 1000));
+        sumNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+            // thử lại khi luồng khác vừa cập nhật max
+        }
+    }
+
+    static int bucketIndex(long micros) {
+        if (micros < (1L << MIN_SHIFT)) {
+            return 0;
+        }
+        int k = 63 - Long.numberOfLeadingZeros(micros);
+        if (k > MAX_SHIFT) {
+            return FINITE_BUCKETS;
+        }
+        int half = (int) (micros >>> (k - 1)) & 1;
+        return 1 + (k - MIN_SHIFT) * 2 + half;
+    }
+
+    /** @return số bucket hữu hạn */
+    public static int bucketCount() {
+        return FINITE_BUCKETS;
+    }
+
+    /**
+     * @param index chỉ số bucket (0..bucketCount()-1)
+     * @return cận trên của bucket (giây)
+     */
+    public static double upperBoundSeconds(int index) {
+        return UPPER_BOUNDS_SECONDS[index];
+    }
+
+    /**
+     * @param index chỉ số bucket (0..bucketCount(), bucketCount() là bucket tràn)
+     * @return số lần đo trong bucket
+     */
+    public long countAt(int index) {
+        return counts.get(index);
+    }
+
+    /** @return tổng số lần đo */
+    public long totalCount() {
+        long total = 0;
+        for (int i = 0; i <= FINITE_BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /** @return tổng thời gian (giây) */
+    public double sumSeconds() {
+        return sumNanos.get() / 1e9;
+    }
+
+    /** @return thời gian lớn nhất đã đo (giây) */
+    public double maxSeconds() {
+        return maxNanos.get() / 1e9;
+    }
+}
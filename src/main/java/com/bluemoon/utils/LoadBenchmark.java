@@ -0,0 +1,259 @@
+package com.bluemoon.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import io.javalin.util.ConcurrencyUtil;
+
+/**
+ * LoadBenchmark: đo thông lượng và độ trễ p50/p99 của API ở hai chế độ luồng
+ * ({@value WebServer#THREADS_PROPERTY} = platform / virtual).
+ * <p>
+ * Mỗi chế độ được chạy trên một JVM con riêng (cùng classpath, cùng các system property {@code db.*} và
+ * {@code bluemoon.*}) để hai lần đo không ảnh hưởng nhau; {@value #CONCURRENCY_PROPERTY} client gửi request
+ * liên tục, xoay vòng các đường dẫn trong {@value #PATHS_PROPERTY}. Nếu đặt {@value #URL_PROPERTY} thì chỉ đo
+ * server đang chạy ở địa chỉ đó. Cần database có dữ liệu như khi chạy thật. Chế độ virtual bị bỏ qua
+ * khi JVM không hỗ trợ virtual thread (dưới Java 21).
+ * <p>
+ * Chạy: {@code mvn -Pbenchmark compile exec:exec} (tham số: {@code -Dbluemoon.bench.concurrency=500 ...}).
+ */
+public final class LoadBenchmark {
+
+    public static final String URL_PROPERTY = "bluemoon.bench.url";
+    public static final String MODES_PROPERTY = "bluemoon.bench.modes";
+    public static final String PATHS_PROPERTY = "bluemoon.bench.paths";
+    public static final String CONCURRENCY_PROPERTY = "bluemoon.bench.concurrency";
+    public static final String DURATION_PROPERTY = "bluemoon.bench.durationSeconds";
+    public static final String WARMUP_PROPERTY = "bluemoon.bench.warmupSeconds";
+    public static final String PORT_PROPERTY = "bluemoon.bench.port";
+
+    private static final String DEFAULT_PATHS = "/api/thong-ke/dashboard,/api/dot-thu,/api/khoan-thu,/api/phong";
+    private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(60);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    private final List<String> paths;
+    private final int concurrency;
+    private final int durationSeconds;
+    private final int warmupSeconds;
+
+    private LoadBenchmark() {
+        this.paths = Arrays.asList(System.getProperty(PATHS_PROPERTY, DEFAULT_PATHS).split("\\s*,\\s*"));
+        this.concurrency = Integer.getInteger(CONCURRENCY_PROPERTY, 200);
+        this.durationSeconds = Integer.getInteger(DURATION_PROPERTY, 30);
+        this.warmupSeconds = Integer.getInteger(WARMUP_PROPERTY, 5);
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadBenchmark benchmark = new LoadBenchmark();
+        List<Result> results = new ArrayList<>();
+
+        String url = System.getProperty(URL_PROPERTY);
+        if (url != null) {
+            results.add(benchmark.measure("external", stripSlash(url)));
+        } else {
+            int port = Integer.getInteger(PORT_PROPERTY, 7171);
+            for (String mode : System.getProperty(MODES_PROPERTY, "platform,virtual").split("\\s*,\\s*")) {
+                // JVM con dùng cùng java.home: không có virtual thread thì server quay về platform,
+                // hàng "virtual" sẽ đo nhầm luồng platform
+                if ("virtual".equalsIgnoreCase(mode) && !ConcurrencyUtil.isLoomAvailable()) {
+                    System.out.println("Skipping virtual mode: requires Java 21+ (running "
+                            + Runtime.version().feature() + ")");
+                    continue;
+                }
+                results.add(benchmark.runMode(mode, port));
+            }
+        }
+
+        System.out.println();
+        System.out.printf("concurrency=%d, duration=%ds, paths=%s%n",
+                benchmark.concurrency, benchmark.durationSeconds, benchmark.paths);
+        System.out.printf("%-10s %12s %10s %10s %10s %10s %8s%n",
+                "mode", "requests", "req/s", "p50 ms", "p99 ms", "max ms", "errors");
+        for (Result r : results) {
+            System.out.printf("%-10s %12d %10.1f %10.2f %10.2f %10.2f %8d%n",
+                    r.mode, r.requests, r.throughput(), r.percentileMillis(0.50), r.percentileMillis(0.99),
+                    r.percentileMillis(1.0), r.errors);
+        }
+    }
+
+    private Result runMode(String mode, int port) throws Exception {
+        Process server = startServer(mode, port);
+        try {
+            String baseUrl = "http://localhost:" + port;
+            awaitReady(server, baseUrl);
+            return measure(mode, baseUrl);
+        } finally {
+            server.destroy();
+            if (!server.waitFor(10, TimeUnit.SECONDS)) {
+                server.destroyForcibly();
+            }
+        }
+    }
+
+    private Process startServer(String mode, int port) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        for (Map.Entry<Object, Object> entry : System.getProperties().entrySet()) {
+            String key = entry.getKey().toString();
+            if ((key.startsWith("db.") || key.startsWith("bluemoon.")) && !key.startsWith("bluemoon.bench.")) {
+                command.add("-D" + key + "=" + entry.getValue());
+            }
+        }
+        command.add("-D" + WebServer.PORT_PROPERTY + "=" + port);
+        command.add("-D" + WebServer.THREADS_PROPERTY + "=" + mode);
+        command.add(WebServer.class.getName());
+
+        System.out.println("Starting server (" + mode + " threads) on port " + port);
+        return new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(new File(System.getProperty("java.io.tmpdir"), "bluemoon-bench-" + mode + ".log"))
+                .start();
+    }
+
+    private void awaitReady(Process server, String baseUrl) throws Exception {
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        HttpRequest health = HttpRequest.newBuilder(URI.create(baseUrl + "/api/health"))
+                .timeout(Duration.ofSeconds(2)).build();
+        while (System.nanoTime() < deadline) {
+            if (!server.isAlive()) {
+                throw new IllegalStateException("Server exited with code " + server.exitValue());
+            }
+            try {
+                if (client.send(health, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // chưa mở cổng
+            }
+            Thread.sleep(250);
+        }
+        throw new IllegalStateException("Server did not start within " + STARTUP_TIMEOUT);
+    }
+
+    /**
+     * Chạy tải lên server: khởi động (không tính), rồi đo trong durationSeconds.
+     */
+    private Result measure(String mode, String baseUrl) throws InterruptedException {
+        List<URI> targets = new ArrayList<>();
+        for (String path : paths) {
+            targets.add(URI.create(baseUrl + path));
+        }
+
+        System.out.println("Warming up " + mode + " for " + warmupSeconds + "s");
+        runLoad(targets, warmupSeconds, null);
+
+        System.out.println("Measuring " + mode + " for " + durationSeconds + "s with " + concurrency + " clients");
+        Result result = new Result(mode, durationSeconds);
+        runLoad(targets, durationSeconds, result);
+        return result;
+    }
+
+    private void runLoad(List<URI> targets, int seconds, Result result) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        CountDownLatch done = new CountDownLatch(concurrency);
+        for (int c = 0; c < concurrency; c++) {
+            final int offset = c;
+            clients.execute(() -> {
+                Samples samples = new Samples();
+                int errors = 0;
+                try {
+                    for (int i = offset; System.nanoTime() < deadline; i++) {
+                        HttpRequest request = HttpRequest.newBuilder(targets.get(i % targets.size()))
+                                .timeout(REQUEST_TIMEOUT).build();
+                        long start = System.nanoTime();
+                        try {
+                            int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                            if (status >= 400) {
+                                errors++;
+                            }
+                        } catch (IOException e) {
+                            errors++;
+                        }
+                        samples.add(System.nanoTime() - start);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    if (result != null) {
+                        result.merge(samples, errors);
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        clients.shutdown();
+    }
+
+    private static String stripSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    /** Mảng độ trễ (nano giây) tự giãn của một client. */
+    private static final class Samples {
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(long nanos) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = nanos;
+        }
+    }
+
+    /** Kết quả đo của một chế độ. */
+    private static final class Result {
+        private final String mode;
+        private final int seconds;
+        private long[] latencies = new long[0];
+        private long requests;
+        private long errors;
+
+        Result(String mode, int seconds) {
+            this.mode = mode;
+            this.seconds = seconds;
+        }
+
+        synchronized void merge(Samples samples, int clientErrors) {
+            int offset = latencies.length;
+            latencies = Arrays.copyOf(latencies, offset + samples.size);
+            System.arraycopy(samples.values, 0, latencies, offset, samples.size);
+            requests += samples.size;
+            errors += clientErrors;
+        }
+
+        double throughput() {
+            return requests / (double) seconds;
+        }
+
+        double percentileMillis(double p) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            Arrays.sort(latencies);
+            int index = (int) Math.ceil(p * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.bluemoon.utils;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+
+/**
+ * MetricsRegistry: số liệu theo route của WebServer (histogram độ trễ, đếm theo mã trạng thái)
+ * cùng các gauge JVM, pool connection và cache danh mục, xuất ra dạng text của Prometheus.
+ * <p>
+ * Route được nhận diện bằng mẫu đường dẫn đã khớp (ví dụ {@code /api/phieu-thu/{id}}), không phải
+ * đường dẫn thực, nên số nhãn không tăng theo id. Thời điểm bắt đầu lưu trong mảng ThreadLocal
+ * tạo sẵn; việc ghi nhận sau request chỉ tra map và tăng bộ đếm atomic, không cấp phát bộ nhớ.
+ */
+public final class MetricsRegistry {
+
+    /** Nhãn route cho request không khớp endpoint nào (404/405, file tĩnh). */
+    static final String UNMATCHED_ROUTE = "unmatched";
+
+    private static final int MAX_STATUS = 600;
+
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+    /** Thời điểm bắt đầu của request đang xử lý trên luồng hiện tại. */
+    private static final ThreadLocal<long[]> REQUEST_START = ThreadLocal.withInitial(() -> new long[1]);
+
+    /** Tạo sẵn cho mọi HandlerType nên chỉ đọc sau khởi tạo. */
+    private final Map<HandlerType, ConcurrentHashMap<String, RouteMetrics>> routes = new EnumMap<>(HandlerType.class);
+
+    private MetricsRegistry() {
+        for (HandlerType type : HandlerType.values()) {
+            routes.put(type, new ConcurrentHashMap<>());
+        }
+    }
+
+    public static MetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gắn before/after handler đo mọi request của app.
+     *
+     * @param app Javalin app
+     */
+    public void install(Javalin app) {
+        app.before(ctx -> REQUEST_START.get()[0] = System.nanoTime());
+        app.after(this::recordRequest);
+    }
+
+    private void recordRequest(Context ctx) {
+        long start = REQUEST_START.get()[0];
+        if (start == 0) {
+            return;
+        }
+        REQUEST_START.get()[0] = 0;
+        record(ctx.method(), ctx.endpointHandlerPath(), ctx.status().getCode(), System.nanoTime() - start);
+    }
+
+    /**
+     * Ghi nhận một request.
+     *
+     * @param method phương thức HTTP
+     * @param route  mẫu đường dẫn của endpoint
+     * @param status mã trạng thái HTTP
+     * @param nanos  thời gian xử lý (nano giây)
+     */
+    public void record(HandlerType method, String route, int status, long nanos) {
+        RouteMetrics metrics = route(method, route);
+        metrics.latency.record(nanos);
+        if (status > 0 && status < MAX_STATUS) {
+            metrics.statusCounts.incrementAndGet(status);
+        }
+    }
+
+    /**
+     * Cộng số câu lệnh JDBC của một request vào route tương ứng.
+     *
+     * @param method  phương thức HTTP
+     * @param route   mẫu đường dẫn của endpoint
+     * @param queries số câu lệnh đã chạy
+     */
+    public void recordQueries(HandlerType method, String route, int queries) {
+        route(method, route).queries.add(queries);
+    }
+
+    private RouteMetrics route(HandlerType method, String route) {
+        if (route == null || !route.startsWith("/")) {
+            route = UNMATCHED_ROUTE;
+        }
+        ConcurrentHashMap<String, RouteMetrics> byPath = routes.get(method);
+        RouteMetrics metrics = byPath.get(route);
+        if (metrics == null) {
+            metrics = byPath.computeIfAbsent(route, RouteMetrics::new);
+        }
+        return metrics;
+    }
+
+    // ==================== Xuất dữ liệu ====================
+
+    /**
+     * Xuất toàn bộ số liệu theo định dạng text của Prometheus (version 0.0.4).
+     *
+     * @return nội dung cho endpoint /metrics
+     */
+    public String scrape() {
+        StringBuilder sb = new StringBuilder(16 * 1024);
+        List<RouteMetrics> all = new ArrayList<>();
+        List<HandlerType> methods = new ArrayList<>();
+        for (Map.Entry<HandlerType, ConcurrentHashMap<String, RouteMetrics>> entry : routes.entrySet()) {
+            for (RouteMetrics metrics : entry.getValue().values()) {
+                all.add(metrics);
+                methods.add(entry.getKey());
+            }
+        }
+
+        header(sb, "bluemoon_http_request_duration_seconds", "histogram", "Thời gian xử lý request theo route");
+        for (int r = 0; r < all.size(); r++) {
+            RouteMetrics metrics = all.get(r);
+            String labels = "method=\"" + methods.get(r) + "\",route=\"" + escape(metrics.route) + "\"";
+            long cumulative = 0;
+            for (int i = 0; i < LatencyHistogram.bucketCount(); i++) {
+                cumulative += metrics.latency.countAt(i);
+                sb.append("bluemoon_http_request_duration_seconds_bucket{").append(labels)
+                        .append(",le=\"").append(LatencyHistogram.upperBoundSeconds(i)).append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            cumulative += metrics.latency.countAt(LatencyHistogram.bucketCount());
+            sb.append("bluemoon_http_request_duration_seconds_bucket{").append(labels)
+                    .append(",le=\"+Inf\"} ").append(cumulative).append('\n');
+            sb.append("bluemoon_http_request_duration_seconds_sum{").append(labels).append("} ")
+                    .append(metrics.latency.sumSeconds()).append('\n');
+            sb.append("bluemoon_http_request_duration_seconds_count{").append(labels).append("} ")
+                    .append(cumulative).append('\n');
+        }
+
+        header(sb, "bluemoon_http_request_duration_max_seconds", "gauge", "Thời gian xử lý lớn nhất theo route");
+        for (int r = 0; r < all.size(); r++) {
+            sample(sb, "bluemoon_http_request_duration_max_seconds",
+                    "method=\"" + methods.get(r) + "\",route=\"" + escape(all.get(r).route) + "\"",
+                    all.get(r).latency.maxSeconds());
+        }
+
+        header(sb, "bluemoon_http_responses_total", "counter", "Số response theo route và mã trạng thái");
+        for (int r = 0; r < all.size(); r++) {
+            RouteMetrics metrics = all.get(r);
+            for (int status = 0; status < MAX_STATUS; status++) {
+                long count = metrics.statusCounts.get(status);
+                if (count > 0) {
+                    sb.append("bluemoon_http_responses_total{method=\"").append(methods.get(r))
+                            .append("\",route=\"").append(escape(metrics.route))
+                            .append("\",status=\"").append(status).append("\"} ").append(count).append('\n');
+                }
+            }
+        }
+
+        header(sb, "bluemoon_http_request_queries_total", "counter", "Số câu lệnh JDBC đã chạy theo route");
+        for (int r = 0; r < all.size(); r++) {
+            sample(sb, "bluemoon_http_request_queries_total",
+                    "method=\"" + methods.get(r) + "\",route=\"" + escape(all.get(r).route) + "\"",
+                    all.get(r).queries.sum());
+        }
+
+        appendJvm(sb);
+        appendConnectionPool(sb);
+        appendQueries(sb);
+        appendReferenceCache(sb);
+        return sb.toString();
+    }
+
+    private static void appendJvm(StringBuilder sb) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        MemoryUsage heap = memory.getHeapMemoryUsage();
+        MemoryUsage nonHeap = memory.getNonHeapMemoryUsage();
+
+        header(sb, "jvm_memory_used_bytes", "gauge", "Bộ nhớ JVM đang dùng");
+        sample(sb, "jvm_memory_used_bytes", "area=\"heap\"", heap.getUsed());
+        sample(sb, "jvm_memory_used_bytes", "area=\"nonheap\"", nonHeap.getUsed());
+        header(sb, "jvm_memory_committed_bytes", "gauge", "Bộ nhớ JVM đã cấp");
+        sample(sb, "jvm_memory_committed_bytes", "area=\"heap\"", heap.getCommitted());
+        sample(sb, "jvm_memory_committed_bytes", "area=\"nonheap\"", nonHeap.getCommitted());
+        header(sb, "jvm_memory_max_bytes", "gauge", "Bộ nhớ JVM tối đa (-1 nếu không giới hạn)");
+        sample(sb, "jvm_memory_max_bytes", "area=\"heap\"", heap.getMax());
+
+        List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        header(sb, "jvm_gc_collections_total", "counter", "Số lần GC theo collector");
+        for (GarbageCollectorMXBean gc : collectors) {
+            sample(sb, "jvm_gc_collections_total", "gc=\"" + escape(gc.getName()) + "\"", gc.getCollectionCount());
+        }
+        header(sb, "jvm_gc_collection_seconds_total", "counter", "Tổng thời gian GC theo collector");
+        for (GarbageCollectorMXBean gc : collectors) {
+            sample(sb, "jvm_gc_collection_seconds_total", "gc=\"" + escape(gc.getName()) + "\"",
+                    gc.getCollectionTime() / 1000.0);
+        }
+
+        header(sb, "jvm_threads_live", "gauge", "Số luồng đang sống");
+        sample(sb, "jvm_threads_live", null, ManagementFactory.getThreadMXBean().getThreadCount());
+    }
+
+    private static void appendConnectionPool(StringBuilder sb) {
+        ConnectionPool pool = DatabaseConnector.getPool();
+        header(sb, "bluemoon_db_connections", "gauge", "Connection của pool theo trạng thái");
+        sample(sb, "bluemoon_db_connections", "state=\"active\"", pool.getActiveConnections());
+        sample(sb, "bluemoon_db_connections", "state=\"idle\"", pool.getIdleConnections());
+        sample(sb, "bluemoon_db_connections", "state=\"total\"", pool.getTotalConnections());
+        header(sb, "bluemoon_db_connections_max", "gauge", "Số connection tối đa của pool");
+        sample(sb, "bluemoon_db_connections_max", null, pool.getMaxSize());
+        header(sb, "bluemoon_db_connections_pending", "gauge", "Số luồng đang chờ connection");
+        sample(sb, "bluemoon_db_connections_pending", null, pool.getPendingThreads());
+
+        if (DatabaseAdmission.isEnabled()) {
+            header(sb, "bluemoon_db_admission_requests", "gauge", "Request đang giữ/chờ quyền dùng database");
+            sample(sb, "bluemoon_db_admission_requests", "state=\"active\"", DatabaseAdmission.getActive());
+            sample(sb, "bluemoon_db_admission_requests", "state=\"waiting\"", DatabaseAdmission.getWaiting());
+            header(sb, "bluemoon_db_admission_max", "gauge", "Số request được dùng database cùng lúc");
+            sample(sb, "bluemoon_db_admission_max", null, DatabaseAdmission.getMaxPermits());
+            header(sb, "bluemoon_db_admission_rejected_total", "counter", "Số request bị từ chối vì chờ database quá lâu");
+            sample(sb, "bluemoon_db_admission_rejected_total", null, DatabaseAdmission.getRejected());
+        }
+    }
+
+    private static void appendQueries(StringBuilder sb) {
+        LatencyHistogram latency = QueryTracker.queryLatency();
+        header(sb, "bluemoon_db_query_duration_seconds", "histogram", "Thời gian thực thi câu lệnh JDBC");
+        long cumulative = 0;
+        for (int i = 0; i < LatencyHistogram.bucketCount(); i++) {
+            cumulative += latency.countAt(i);
+            sb.append("bluemoon_db_query_duration_seconds_bucket{le=\"")
+                    .append(LatencyHistogram.upperBoundSeconds(i)).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += latency.countAt(LatencyHistogram.bucketCount());
+        sb.append("bluemoon_db_query_duration_seconds_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+        sample(sb, "bluemoon_db_query_duration_seconds_sum", null, latency.sumSeconds());
+        sample(sb, "bluemoon_db_query_duration_seconds_count", null, cumulative);
+
+        header(sb, "bluemoon_db_slow_queries_total", "counter", "Số câu lệnh vượt ngưỡng chậm");
+        sample(sb, "bluemoon_db_slow_queries_total", null, QueryTracker.slowQueries());
+        header(sb, "bluemoon_http_requests_flagged_total", "counter", "Số request vượt ngân sách câu lệnh hoặc nghi N+1");
+        sample(sb, "bluemoon_http_requests_flagged_total", null, QueryTracker.flaggedRequests());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void appendReferenceCache(StringBuilder sb) {
+        Map<String, Object> stats = ReferenceDataCache.getInstance().getStats();
+        header(sb, "bluemoon_cache_requests_total", "counter", "Số lần đọc cache danh mục theo kết quả");
+        for (Map.Entry<String, Object> entry : stats.entrySet()) {
+            if (entry.getValue() instanceof Map) {
+                Map<String, Object> region = (Map<String, Object>) entry.getValue();
+                String cache = "cache=\"" + escape(entry.getKey()) + "\"";
+                sample(sb, "bluemoon_cache_requests_total", cache + ",result=\"hit\"", ((Number) region.get("hits")).doubleValue());
+                sample(sb, "bluemoon_cache_requests_total", cache + ",result=\"miss\"", ((Number) region.get("misses")).doubleValue());
+            }
+        }
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, double value) {
+        sb.append(name);
+        if (labels != null) {
+            sb.append('{').append(labels).append('}');
+        }
+        sb.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            sb.append((long) value);
+        } else {
+            sb.append(value);
+        }
+        sb.append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /** Số liệu của một route. */
+    private static final class RouteMetrics {
+        private final String route;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLongArray statusCounts = new AtomicLongArray(MAX_STATUS);
+        private final LongAdder queries = new LongAdder();
+
+        RouteMetrics(String route) {
+            this.route = route;
+        }
+    }
+}
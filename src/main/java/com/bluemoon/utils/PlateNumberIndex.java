@@ -0,0 +1,292 @@
+package com.bluemoon.utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bluemoon.models.PhuongTien;
+
+/**
+ * PlateNumberIndex: chỉ mục biển số trong bộ nhớ để tra cứu theo tiền tố (gợi ý khi nhập biển số ở cổng)
+ * mà không truy vấn database.
+ * <p>
+ * Biển số được chuẩn hóa (chỉ giữ chữ và số, viết hoa: "30a-123.45" -&gt; "30A12345") và giữ trong một mảng
+ * đã sắp xếp; tra cứu = tìm nhị phân vị trí đầu tiên &gt;= tiền tố rồi đọc tuần tự. Mảng không bao giờ bị sửa
+ * sau khi công bố (copy-on-write), nên đọc không cần khóa; mỗi thao tác ghi chép lại mảng (O(n) sao chép,
+ * không sắp xếp lại).
+ * <p>
+ * Nạp toàn bộ khi khởi động ({@link #load()}), sau đó {@code PhuongTienServiceImpl} cập nhật theo từng
+ * thao tác ghi; trong {@link UnitOfWork} thay đổi chỉ được áp dụng khi commit. Dữ liệu sửa trực tiếp trong
+ * database được nạp lại bằng {@link #load()} (DELETE /api/cache).
+ */
+public final class PlateNumberIndex {
+
+    private static final Logger logger = Logger.getLogger(PlateNumberIndex.class.getName());
+
+    private static final String SELECT_ALL =
+            "SELECT id, maHo, bienSo, loaiXe, tenChuXe FROM PhuongTien WHERE bienSo IS NOT NULL";
+
+    private static final PlateNumberIndex INSTANCE = new PlateNumberIndex();
+
+    /**
+     * Một phương tiện trong chỉ mục (bất biến).
+     */
+    public static final class Entry {
+        private final int id;
+        private final int maHo;
+        private final String bienSo;
+        private final String loaiXe;
+        private final String tenChuXe;
+
+        Entry(int id, int maHo, String bienSo, String loaiXe, String tenChuXe) {
+            this.id = id;
+            this.maHo = maHo;
+            this.bienSo = bienSo;
+            this.loaiXe = loaiXe;
+            this.tenChuXe = tenChuXe;
+        }
+
+        public int getId() { return id; }
+        public int getMaHo() { return maHo; }
+        public String getBienSo() { return bienSo; }
+        public String getLoaiXe() { return loaiXe; }
+        public String getTenChuXe() { return tenChuXe; }
+    }
+
+    /** Ảnh chụp bất biến: keys[i] là biển số chuẩn hóa của entries[i], keys tăng dần. */
+    private static final class Snapshot {
+        final String[] keys;
+        final Entry[] entries;
+
+        Snapshot(String[] keys, Entry[] entries) {
+            this.keys = keys;
+            this.entries = entries;
+        }
+    }
+
+    private volatile Snapshot snapshot = new Snapshot(new String[0], new Entry[0]);
+    private volatile boolean loaded;
+
+    /** Biển số chuẩn hóa hiện tại theo id (chỉ dùng khi giữ khóa). */
+    private final Map<Integer, String> keyById = new HashMap<>();
+
+    private PlateNumberIndex() {}
+
+    public static PlateNumberIndex getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Chuẩn hóa biển số: bỏ khoảng trắng, dấu gạch, dấu chấm...; viết hoa.
+     *
+     * @param bienSo biển số hoặc tiền tố
+     * @return chuỗi chỉ gồm chữ và số (rỗng nếu null)
+     */
+    public static String normalize(String bienSo) {
+        if (bienSo == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(bienSo.length());
+        for (int i = 0; i < bienSo.length(); i++) {
+            char c = bienSo.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toUpperCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    // ==================== Tra cứu ====================
+
+    /**
+     * Các phương tiện có biển số (đã chuẩn hóa) bắt đầu bằng tiền tố, theo thứ tự biển số.
+     *
+     * @param prefix tiền tố biển số (chuẩn hóa như {@link #normalize})
+     * @param limit  số kết quả tối đa
+     * @return danh sách kết quả; rỗng nếu tiền tố rỗng
+     */
+    public List<Entry> lookup(String prefix, int limit) {
+        String key = normalize(prefix);
+        if (key.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        if (!loaded) {
+            load();
+        }
+        Snapshot current = snapshot;
+        List<Entry> result = new ArrayList<>(Math.min(limit, 16));
+        for (int i = lowerBound(current.keys, key); i < current.keys.length && result.size() < limit; i++) {
+            if (!current.keys[i].startsWith(key)) {
+                break;
+            }
+            result.add(current.entries[i]);
+        }
+        return result;
+    }
+
+    /**
+     * @return số phương tiện trong chỉ mục
+     */
+    public int size() {
+        return snapshot.keys.length;
+    }
+
+    // ==================== Nạp và cập nhật ====================
+
+    /**
+     * Nạp lại toàn bộ chỉ mục từ database. Giữ khóa trong lúc đọc để thao tác ghi xảy ra song song
+     * được áp dụng sau khi nạp xong (không bị ảnh chụp cũ ghi đè).
+     *
+     * @return true nếu nạp thành công
+     */
+    public synchronized boolean load() {
+        List<Entry> entries = new ArrayList<>();
+        try (Connection conn = DatabaseConnector.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(SELECT_ALL);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                entries.add(new Entry(rs.getInt("id"), rs.getInt("maHo"), rs.getString("bienSo").trim(),
+                        rs.getString("loaiXe"), rs.getString("tenChuXe")));
+            }
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error loading plate number index", e);
+            return false;
+        }
+
+        String[] keys = new String[entries.size()];
+        Entry[] sorted = new Entry[entries.size()];
+        Integer[] order = new Integer[entries.size()];
+        String[] unsortedKeys = new String[entries.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            unsortedKeys[i] = normalize(entries.get(i).bienSo);
+        }
+        Arrays.sort(order, (a, b) -> unsortedKeys[a].compareTo(unsortedKeys[b]));
+
+        keyById.clear();
+        for (int i = 0; i < order.length; i++) {
+            keys[i] = unsortedKeys[order[i]];
+            sorted[i] = entries.get(order[i]);
+            keyById.put(sorted[i].id, keys[i]);
+        }
+        snapshot = new Snapshot(keys, sorted);
+        loaded = true;
+        logger.info("Plate number index loaded with " + keys.length + " vehicles");
+        return true;
+    }
+
+    /**
+     * Ghi nhận phương tiện vừa thêm/sửa (áp dụng khi unit of work hiện tại commit, hoặc ngay nếu không có).
+     *
+     * @param phuongTien phương tiện đã lưu (có id)
+     */
+    public void onSaved(PhuongTien phuongTien) {
+        if (phuongTien == null || phuongTien.getId() <= 0) {
+            return;
+        }
+        String bienSo = phuongTien.getBienSo() != null ? phuongTien.getBienSo().trim() : null;
+        Entry entry = new Entry(phuongTien.getId(), phuongTien.getMaHo(), bienSo,
+                phuongTien.getLoaiXe(), phuongTien.getTenChuXe());
+        afterCommit(() -> put(entry));
+    }
+
+    /**
+     * Ghi nhận phương tiện vừa xóa (áp dụng khi unit of work hiện tại commit, hoặc ngay nếu không có).
+     *
+     * @param id id phương tiện
+     */
+    public void onDeleted(int id) {
+        afterCommit(() -> remove(id));
+    }
+
+    private static void afterCommit(Runnable change) {
+        if (!UnitOfWork.afterCompletion(committed -> {
+            if (committed) {
+                change.run();
+            }
+        })) {
+            change.run();
+        }
+    }
+
+    private synchronized void put(Entry entry) {
+        if (!loaded) {
+            // Chưa nạp: lần nạp đầu tiên sẽ đọc thay đổi này từ database
+            return;
+        }
+        Snapshot current = removeFrom(snapshot, entry.id);
+        if (entry.bienSo == null || normalize(entry.bienSo).isEmpty()) {
+            snapshot = current;
+            return;
+        }
+        String key = normalize(entry.bienSo);
+        int pos = lowerBound(current.keys, key);
+        int n = current.keys.length;
+        String[] keys = new String[n + 1];
+        Entry[] entries = new Entry[n + 1];
+        System.arraycopy(current.keys, 0, keys, 0, pos);
+        System.arraycopy(current.entries, 0, entries, 0, pos);
+        keys[pos] = key;
+        entries[pos] = entry;
+        System.arraycopy(current.keys, pos, keys, pos + 1, n - pos);
+        System.arraycopy(current.entries, pos, entries, pos + 1, n - pos);
+        keyById.put(entry.id, key);
+        snapshot = new Snapshot(keys, entries);
+    }
+
+    private synchronized void remove(int id) {
+        if (loaded) {
+            snapshot = removeFrom(snapshot, id);
+        }
+    }
+
+    /**
+     * Bỏ phương tiện có id khỏi ảnh chụp (trả về chính ảnh chụp nếu không có). Gọi khi giữ khóa.
+     */
+    private Snapshot removeFrom(Snapshot current, int id) {
+        String key = keyById.remove(id);
+        if (key == null) {
+            return current;
+        }
+        // Biển số chuẩn hóa có thể trùng nhau ("30A-123" và "30A.123"): tìm đúng id trong dải khóa
+        for (int i = lowerBound(current.keys, key); i < current.keys.length && current.keys[i].equals(key); i++) {
+            if (current.entries[i].id == id) {
+                int n = current.keys.length;
+                String[] keys = new String[n - 1];
+                Entry[] entries = new Entry[n - 1];
+                System.arraycopy(current.keys, 0, keys, 0, i);
+                System.arraycopy(current.entries, 0, entries, 0, i);
+                System.arraycopy(current.keys, i + 1, keys, i, n - i - 1);
+                System.arraycopy(current.entries, i + 1, entries, i, n - i - 1);
+                return new Snapshot(keys, entries);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Vị trí đầu tiên có khóa &gt;= key.
+     */
+    private static int lowerBound(String[] keys, String key) {
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
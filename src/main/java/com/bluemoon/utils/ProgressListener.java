@@ -0,0 +1,39 @@
+package com.bluemoon.utils;
+
+/**
+ * ProgressListener: nhận tiến độ từ các tác vụ chạy lâu (sinh phiếu thu, xuất báo cáo...).
+ * Tác vụ gọi {@link #isCancelled()} giữa các bước để dừng sớm khi người dùng hủy.
+ */
+public interface ProgressListener {
+
+    /** Listener rỗng: không ghi nhận tiến độ và không bao giờ bị hủy. */
+    ProgressListener NONE = new ProgressListener() {
+        @Override
+        public void setTotal(long total) { }
+
+        @Override
+        public void advance(long delta) { }
+
+        @Override
+        public boolean isCancelled() { return false; }
+    };
+
+    /**
+     * Đặt tổng số đơn vị công việc (ví dụ: số hộ gia đình).
+     *
+     * @param total tổng số đơn vị
+     */
+    void setTotal(long total);
+
+    /**
+     * Ghi nhận thêm một số đơn vị đã xử lý xong.
+     *
+     * @param delta số đơn vị vừa xử lý
+     */
+    void advance(long delta);
+
+    /**
+     * @return true nếu tác vụ đã được yêu cầu hủy
+     */
+    boolean isCancelled();
+}
@@ -0,0 +1,437 @@
+package com.bluemoon.utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+
+/**
+ * QueryTracker: đo các câu lệnh JDBC chạy qua connection của {@link DatabaseConnector}.
+ * <p>
+ * Connection, Statement và ResultSet được bọc bằng proxy để ghi nhận SQL, thời gian thực thi
+ * và số dòng (đọc qua {@code next()} hoặc trả về từ lệnh cập nhật). Trong một HTTP request, số liệu
+ * được gom theo luồng; khi request kết thúc, request bị đánh dấu nếu vượt ngân sách số câu lệnh
+ * ({@value #QUERY_BUDGET_PROPERTY}) hoặc lặp lại cùng một dạng câu lệnh từ
+ * {@value #REPEAT_THRESHOLD_PROPERTY} lần trở lên (dấu hiệu N+1).
+ * Câu lệnh chạy lâu hơn {@value #SLOW_QUERY_PROPERTY} ms được ghi vào logger
+ * {@value #SLOW_LOGGER_NAME}. Dạng câu lệnh (shape) là SQL đã bỏ giá trị hằng, nên log không chứa dữ liệu.
+ */
+public final class QueryTracker {
+
+    private static final Logger logger = Logger.getLogger(QueryTracker.class.getName());
+
+    /** Logger riêng cho câu lệnh chậm (có thể cấu hình handler/level riêng). */
+    public static final String SLOW_LOGGER_NAME = "com.bluemoon.sql.slow";
+    private static final Logger slowLogger = Logger.getLogger(SLOW_LOGGER_NAME);
+
+    /** System property: bật/tắt proxy đo JDBC (mặc định bật). */
+    public static final String ENABLED_PROPERTY = "bluemoon.jdbc.instrumentation";
+    /** System property: số câu lệnh tối đa của một request trước khi bị đánh dấu. */
+    public static final String QUERY_BUDGET_PROPERTY = "bluemoon.jdbc.queryBudget";
+    /** System property: số lần lặp cùng dạng câu lệnh trong một request để bị coi là N+1. */
+    public static final String REPEAT_THRESHOLD_PROPERTY = "bluemoon.jdbc.repeatThreshold";
+    /** System property: ngưỡng câu lệnh chậm (ms). */
+    public static final String SLOW_QUERY_PROPERTY = "bluemoon.jdbc.slowQueryMs";
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"));
+    private static final int QUERY_BUDGET = Integer.getInteger(QUERY_BUDGET_PROPERTY, 20);
+    private static final int REPEAT_THRESHOLD = Integer.getInteger(REPEAT_THRESHOLD_PROPERTY, 5);
+    private static final long SLOW_QUERY_NANOS = Long.getLong(SLOW_QUERY_PROPERTY, 500L) * 1_000_000L;
+
+    /** Số mục giữ lại trong danh sách câu lệnh chậm / request bị đánh dấu gần nhất. */
+    private static final int RECENT_LIMIT = 100;
+    private static final int MAX_CACHED_SHAPES = 2_000;
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern PLACEHOLDER_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private static final Map<String, String> SHAPES = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<RequestQueries> CURRENT = new ThreadLocal<>();
+
+    private static final Deque<Map<String, Object>> recentSlowQueries = new ArrayDeque<>();
+    private static final Deque<Map<String, Object>> recentFlaggedRequests = new ArrayDeque<>();
+
+    private static final AtomicLong totalQueries = new AtomicLong();
+    private static final AtomicLong slowQueries = new AtomicLong();
+    private static final AtomicLong flaggedRequests = new AtomicLong();
+    private static final LatencyHistogram queryLatency = new LatencyHistogram();
+
+    private QueryTracker() {}
+
+    // ==================== Phạm vi request ====================
+
+    /**
+     * Gắn before/after handler: bắt đầu gom số liệu khi request vào, đánh giá và xóa khi request kết thúc.
+     *
+     * @param app Javalin app
+     */
+    public static void install(Javalin app) {
+        if (!ENABLED) {
+            return;
+        }
+        app.before(ctx -> CURRENT.set(new RequestQueries(ctx.method() + " " + ctx.path())));
+        app.after(QueryTracker::finishRequest);
+    }
+
+    private static void finishRequest(Context ctx) {
+        RequestQueries request = CURRENT.get();
+        if (request == null) {
+            return;
+        }
+        CURRENT.remove();
+
+        String route = ctx.endpointHandlerPath();
+        MetricsRegistry.getInstance().recordQueries(ctx.method(), route, request.count);
+
+        String repeatedShape = null;
+        int repeatedCount = 0;
+        for (Map.Entry<String, int[]> entry : request.shapeCounts.entrySet()) {
+            if (entry.getValue()[0] > repeatedCount) {
+                repeatedCount = entry.getValue()[0];
+                repeatedShape = entry.getKey();
+            }
+        }
+
+        boolean overBudget = request.count > QUERY_BUDGET;
+        boolean repeated = repeatedCount >= REPEAT_THRESHOLD;
+        if (!overBudget && !repeated) {
+            return;
+        }
+
+        flaggedRequests.incrementAndGet();
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("time", LocalDateTime.now().toString());
+        entry.put("request", request.label);
+        entry.put("route", route);
+        entry.put("queries", request.count);
+        entry.put("connections", request.connections);
+        entry.put("dbMillis", request.totalNanos / 1_000_000.0);
+        entry.put("rows", request.rowCounter[0]);
+        entry.put("overBudget", overBudget);
+        entry.put("mostRepeatedShape", repeatedShape);
+        entry.put("mostRepeatedCount", repeatedCount);
+        remember(recentFlaggedRequests, entry);
+
+        logger.log(Level.WARNING, (repeated ? "Possible N+1 in " : "Query budget exceeded in ") + request.label
+                + ": " + request.count + " queries over " + request.connections + " connection(s), "
+                + (request.totalNanos / 1_000_000) + "ms in database; most repeated (" + repeatedCount + "x): "
+                + repeatedShape);
+    }
+
+    // ==================== Bọc connection ====================
+
+    /**
+     * Bọc connection để đo các câu lệnh; trả nguyên connection nếu tính năng bị tắt.
+     *
+     * @param conn connection từ pool
+     * @return connection đã bọc
+     */
+    public static Connection wrap(Connection conn) {
+        if (!ENABLED) {
+            return conn;
+        }
+        RequestQueries request = CURRENT.get();
+        if (request != null) {
+            request.connections++;
+        }
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, new ConnectionHandler(conn));
+    }
+
+    private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /** Bọc Statement/PreparedStatement/CallableStatement do connection tạo ra. */
+    private static final class ConnectionHandler implements InvocationHandler {
+        private final Connection target;
+
+        ConnectionHandler(Connection target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("unwrap".equals(name) && ((Class<?>) args[0]).isInstance(proxy)) {
+                return proxy;
+            }
+            if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            }
+            Object result = invokeTarget(target, method, args);
+            switch (name) {
+                case "createStatement":
+                    return wrapStatement(Statement.class, (Statement) result, null);
+                case "prepareStatement":
+                    return wrapStatement(PreparedStatement.class, (Statement) result, (String) args[0]);
+                case "prepareCall":
+                    return wrapStatement(CallableStatement.class, (Statement) result, (String) args[0]);
+                default:
+                    return result;
+            }
+        }
+    }
+
+    private static Statement wrapStatement(Class<? extends Statement> type, Statement stmt, String sql) {
+        return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(),
+                new Class<?>[] { type }, new StatementHandler(stmt, sql));
+    }
+
+    /** Đo các lời gọi execute*; bọc ResultSet để đếm dòng. */
+    private static final class StatementHandler implements InvocationHandler {
+        private final Statement target;
+        private final String preparedSql;
+        private String lastSql;
+        private int batchSize;
+        private long[] lastRows;
+
+        StatementHandler(Statement target, String preparedSql) {
+            this.target = target;
+            this.preparedSql = preparedSql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("unwrap".equals(name) && ((Class<?>) args[0]).isInstance(proxy)) {
+                return proxy;
+            }
+            if ("addBatch".equals(name)) {
+                batchSize++;
+                if (preparedSql == null && args != null) {
+                    lastSql = (String) args[0];
+                }
+                return invokeTarget(target, method, args);
+            }
+            if ("getResultSet".equals(name)) {
+                ResultSet rs = (ResultSet) invokeTarget(target, method, args);
+                return rs == null || lastRows == null ? rs : wrapResultSet(rs, lastRows);
+            }
+            if (!name.startsWith("execute")) {
+                return invokeTarget(target, method, args);
+            }
+
+            String sql = preparedSql != null ? preparedSql
+                    : args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : lastSql;
+            boolean batch = name.startsWith("executeBatch") || name.startsWith("executeLargeBatch");
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = invokeTarget(target, method, args);
+            } finally {
+                long[] rows = record(sql, System.nanoTime() - start, batch ? batchSize : 0);
+                lastRows = rows;
+                if (batch) {
+                    batchSize = 0;
+                }
+            }
+
+            long[] rows = lastRows;
+            if (result instanceof ResultSet) {
+                return wrapResultSet((ResultSet) result, rows);
+            }
+            if (result instanceof Integer) {
+                addRows(rows, (Integer) result);
+            } else if (result instanceof Long) {
+                addRows(rows, (Long) result);
+            } else if (result instanceof int[]) {
+                for (int count : (int[]) result) {
+                    addRows(rows, Math.max(0, count));
+                }
+            } else if (result instanceof long[]) {
+                for (long count : (long[]) result) {
+                    addRows(rows, Math.max(0, count));
+                }
+            }
+            return result;
+        }
+    }
+
+    private static ResultSet wrapResultSet(ResultSet rs, long[] rows) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                new Class<?>[] { ResultSet.class }, new ResultSetHandler(rs, rows));
+    }
+
+    /** Đếm số dòng đã đọc qua next(). */
+    private static final class ResultSetHandler implements InvocationHandler {
+        private final ResultSet target;
+        private final long[] rows;
+
+        ResultSetHandler(ResultSet target, long[] rows) {
+            this.target = target;
+            this.rows = rows;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if ("unwrap".equals(method.getName()) && ((Class<?>) args[0]).isInstance(proxy)) {
+                return proxy;
+            }
+            Object result = invokeTarget(target, method, args);
+            if ("next".equals(method.getName()) && Boolean.TRUE.equals(result)) {
+                addRows(rows, 1);
+            }
+            return result;
+        }
+    }
+
+    // ==================== Ghi nhận ====================
+
+    /**
+     * Ghi nhận một lần thực thi.
+     *
+     * @return bộ đếm số dòng của lần thực thi (cộng dồn vào request hiện tại)
+     */
+    private static long[] record(String sql, long nanos, int batchSize) {
+        totalQueries.incrementAndGet();
+        queryLatency.record(nanos);
+
+        String shape = sql != null ? shape(sql) : "<unknown>";
+        RequestQueries request = CURRENT.get();
+        long[] rows = request != null ? request.rowCounter : new long[1];
+        if (request != null) {
+            request.count++;
+            request.totalNanos += nanos;
+            request.shapeCounts.computeIfAbsent(shape, k -> new int[1])[0]++;
+        }
+
+        if (nanos >= SLOW_QUERY_NANOS) {
+            slowQueries.incrementAndGet();
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("time", LocalDateTime.now().toString());
+            entry.put("millis", nanos / 1_000_000.0);
+            entry.put("request", request != null ? request.label : Thread.currentThread().getName());
+            entry.put("sql", shape);
+            if (batchSize > 0) {
+                entry.put("batchSize", batchSize);
+            }
+            remember(recentSlowQueries, entry);
+            slowLogger.log(Level.WARNING, "Slow query (" + (nanos / 1_000_000) + "ms"
+                    + (batchSize > 0 ? ", batch of " + batchSize : "") + ") in "
+                    + entry.get("request") + ": " + shape);
+        }
+        return rows;
+    }
+
+    private static void addRows(long[] rows, long count) {
+        rows[0] += count;
+    }
+
+    /**
+     * Dạng chuẩn hóa của câu lệnh: bỏ hằng chuỗi/số, gộp danh sách "(?, ?, ...)" và khoảng trắng.
+     *
+     * @param sql câu lệnh
+     * @return dạng câu lệnh
+     */
+    static String shape(String sql) {
+        String cached = SHAPES.get(sql);
+        if (cached != null) {
+            return cached;
+        }
+        String shape = STRING_LITERAL.matcher(sql).replaceAll("?");
+        shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+        shape = PLACEHOLDER_LIST.matcher(shape).replaceAll("(?...)");
+        shape = WHITESPACE.matcher(shape).replaceAll(" ").trim();
+        if (SHAPES.size() < MAX_CACHED_SHAPES) {
+            SHAPES.put(sql, shape);
+        }
+        return shape;
+    }
+
+    private static void remember(Deque<Map<String, Object>> deque, Map<String, Object> entry) {
+        synchronized (deque) {
+            if (deque.size() >= RECENT_LIMIT) {
+                deque.removeFirst();
+            }
+            deque.addLast(entry);
+        }
+    }
+
+    private static List<Map<String, Object>> snapshot(Deque<Map<String, Object>> deque) {
+        synchronized (deque) {
+            List<Map<String, Object>> list = new ArrayList<>(deque);
+            Collections.reverse(list);
+            return list;
+        }
+    }
+
+    // ==================== Thống kê ====================
+
+    /**
+     * Số liệu tổng và danh sách câu lệnh chậm / request bị đánh dấu gần nhất (mới nhất trước).
+     *
+     * @return map thống kê
+     */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", ENABLED);
+        stats.put("queryBudget", QUERY_BUDGET);
+        stats.put("repeatThreshold", REPEAT_THRESHOLD);
+        stats.put("slowQueryMs", SLOW_QUERY_NANOS / 1_000_000);
+        stats.put("totalQueries", totalQueries.get());
+        stats.put("slowQueries", slowQueries.get());
+        stats.put("flaggedRequests", flaggedRequests.get());
+        stats.put("recentSlowQueries", snapshot(recentSlowQueries));
+        stats.put("recentFlaggedRequests", snapshot(recentFlaggedRequests));
+        return stats;
+    }
+
+    static LatencyHistogram queryLatency() {
+        return queryLatency;
+    }
+
+    static long slowQueries() {
+        return slowQueries.get();
+    }
+
+    static long flaggedRequests() {
+        return flaggedRequests.get();
+    }
+
+    /** Số liệu JDBC của request đang xử lý trên luồng hiện tại (chỉ luồng đó truy cập). */
+    private static final class RequestQueries {
+        private final String label;
+        private final Map<String, int[]> shapeCounts = new HashMap<>();
+        private final long[] rowCounter = new long[1];
+        private int count;
+        private int connections;
+        private long totalNanos;
+
+        RequestQueries(String label) {
+            this.label = label;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.bluemoon.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.bluemoon.models.DotThu;
+import com.bluemoon.models.KhoanThu;
+
+/**
+ * ReferenceDataCache: cache trong tiến trình cho dữ liệu danh mục nhỏ, ít thay đổi (KhoanThu, DotThu).
+ * <p>
+ * Service đọc cache trước; khi cache trống thì đọc database rồi đưa kết quả vào bằng {@code put*}
+ * kèm phiên bản lấy trước khi đọc. Mỗi thao tác ghi gọi {@code invalidate*} để tăng phiên bản,
+ * nên kết quả của lần đọc bắt đầu trước khi ghi sẽ bị bỏ qua thay vì ghi đè dữ liệu mới.
+ * Mỗi mục còn có thời hạn ({@value #TTL_PROPERTY}, mặc định 300 giây) để nhận thay đổi ngoài ứng dụng.
+ * <p>
+ * Cache chỉ giữ tham chiếu; service trả về bản sao cho caller.
+ * <p>
+ * Trong {@link UnitOfWork}, dữ liệu đọc được có thể chưa commit nên không được đưa vào cache,
+ * và mỗi lần invalidate được lặp lại khi unit kết thúc (để bỏ kết quả đọc song song trước lúc commit).
+ */
+public final class ReferenceDataCache {
+
+    /** System property: thời hạn (giây) của một mục cache; 0 để tắt cache. */
+    public static final String TTL_PROPERTY = "bluemoon.cache.ttlSeconds";
+
+    private static final long DEFAULT_TTL_SECONDS = 300;
+
+    private static final ReferenceDataCache INSTANCE =
+            new ReferenceDataCache(TimeUnit.SECONDS.toNanos(Long.getLong(TTL_PROPERTY, DEFAULT_TTL_SECONDS)));
+
+    private final long ttlNanos;
+
+    private final Region khoanThuRegion = new Region("khoanThu");
+    private final Region dotThuRegion = new Region("dotThu");
+
+    private volatile Entry<List<KhoanThu>> khoanThuList;
+    private volatile Entry<List<DotThu>> dotThuList;
+    private final Map<Integer, Entry<DotThu>> dotThuById = new ConcurrentHashMap<>();
+
+    private ReferenceDataCache(long ttlNanos) {
+        this.ttlNanos = ttlNanos;
+    }
+
+    public static ReferenceDataCache getInstance() {
+        return INSTANCE;
+    }
+
+    // ==================== KhoanThu ====================
+
+    /**
+     * @return danh sách khoản thu đã cache (không được sửa), hoặc null nếu chưa có/hết hạn
+     */
+    public List<KhoanThu> getKhoanThuList() {
+        return khoanThuRegion.record(fresh(khoanThuList));
+    }
+
+    /**
+     * Phiên bản hiện tại của vùng KhoanThu; lấy trước khi đọc database và truyền lại cho {@link #putKhoanThuList}.
+     */
+    public long khoanThuVersion() {
+        return khoanThuRegion.version.get();
+    }
+
+    /**
+     * Đưa danh sách khoản thu vừa đọc vào cache, trừ khi đã có thao tác ghi kể từ {@code version}.
+     */
+    public void putKhoanThuList(List<KhoanThu> list, long version) {
+        if (!enabled()) {
+            return;
+        }
+        synchronized (khoanThuRegion) {
+            if (khoanThuRegion.version.get() == version) {
+                khoanThuList = new Entry<>(Collections.unmodifiableList(new ArrayList<>(list)), System.nanoTime());
+            }
+        }
+    }
+
+    /**
+     * Xóa cache khoản thu (gọi sau mỗi thao tác thêm/sửa/xóa KhoanThu).
+     */
+    public void invalidateKhoanThu() {
+        synchronized (khoanThuRegion) {
+            khoanThuRegion.version.incrementAndGet();
+            khoanThuList = null;
+            khoanThuRegion.invalidations.incrementAndGet();
+        }
+        UnitOfWork.afterCompletion(committed -> invalidateKhoanThu());
+    }
+
+    // ==================== DotThu ====================
+
+    /**
+     * @param id mã đợt thu
+     * @return đợt thu đã cache, hoặc null nếu chưa có/hết hạn
+     */
+    public DotThu getDotThu(int id) {
+        return dotThuRegion.record(fresh(dotThuById.get(id)));
+    }
+
+    /**
+     * @return danh sách đợt thu đã cache (không được sửa), hoặc null nếu chưa có/hết hạn
+     */
+    public List<DotThu> getDotThuList() {
+        return dotThuRegion.record(fresh(dotThuList));
+    }
+
+    /**
+     * Phiên bản hiện tại của vùng DotThu; lấy trước khi đọc database.
+     */
+    public long dotThuVersion() {
+        return dotThuRegion.version.get();
+    }
+
+    public void putDotThu(DotThu dotThu, long version) {
+        if (!enabled() || dotThu == null) {
+            return;
+        }
+        synchronized (dotThuRegion) {
+            if (dotThuRegion.version.get() == version) {
+                dotThuById.put(dotThu.getId(), new Entry<>(dotThu, System.nanoTime()));
+            }
+        }
+    }
+
+    public void putDotThuList(List<DotThu> list, long version) {
+        if (!enabled()) {
+            return;
+        }
+        synchronized (dotThuRegion) {
+            if (dotThuRegion.version.get() == version) {
+                long now = System.nanoTime();
+                dotThuList = new Entry<>(Collections.unmodifiableList(new ArrayList<>(list)), now);
+                for (DotThu dotThu : list) {
+                    dotThuById.put(dotThu.getId(), new Entry<>(dotThu, now));
+                }
+            }
+        }
+    }
+
+    /**
+     * Xóa một đợt thu khỏi cache (kèm danh sách đợt thu). Gọi sau khi sửa/xóa đợt thu đó.
+     *
+     * @param id mã đợt thu
+     */
+    public void invalidateDotThu(int id) {
+        synchronized (dotThuRegion) {
+            dotThuRegion.version.incrementAndGet();
+            dotThuById.remove(id);
+            dotThuList = null;
+            dotThuRegion.invalidations.incrementAndGet();
+        }
+        UnitOfWork.afterCompletion(committed -> invalidateDotThu(id));
+    }
+
+    /**
+     * Xóa danh sách đợt thu khỏi cache (các mục theo id vẫn giữ). Gọi sau khi thêm đợt thu mới.
+     */
+    public void invalidateDotThuList() {
+        synchronized (dotThuRegion) {
+            dotThuRegion.version.incrementAndGet();
+            dotThuList = null;
+            dotThuRegion.invalidations.incrementAndGet();
+        }
+        UnitOfWork.afterCompletion(committed -> invalidateDotThuList());
+    }
+
+    /**
+     * Xóa toàn bộ cache.
+     */
+    public void clear() {
+        invalidateKhoanThu();
+        synchronized (dotThuRegion) {
+            dotThuRegion.version.incrementAndGet();
+            dotThuById.clear();
+            dotThuList = null;
+            dotThuRegion.invalidations.incrementAndGet();
+        }
+    }
+
+    // ==================== Thống kê ====================
+
+    /**
+     * Bộ đếm hit/miss/invalidation của từng vùng.
+     *
+     * @return map thống kê
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ttlSeconds", TimeUnit.NANOSECONDS.toSeconds(ttlNanos));
+        stats.put(khoanThuRegion.name, khoanThuRegion.snapshot(khoanThuList != null ? khoanThuList.value.size() : 0));
+        stats.put(dotThuRegion.name, dotThuRegion.snapshot(dotThuById.size()));
+        return stats;
+    }
+
+    private boolean enabled() {
+        return ttlNanos > 0 && !UnitOfWork.isActive();
+    }
+
+    private <T> T fresh(Entry<T> entry) {
+        if (entry == null || System.nanoTime() - entry.loadedAt > ttlNanos) {
+            return null;
+        }
+        return entry.value;
+    }
+
+    /** Giá trị cache kèm thời điểm nạp. */
+    private static final class Entry<T> {
+        private final T value;
+        private final long loadedAt;
+
+        Entry(T value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    /** Phiên bản và bộ đếm của một vùng cache. */
+    private static final class Region {
+        private final String name;
+        private final AtomicLong version = new AtomicLong();
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong invalidations = new AtomicLong();
+
+        Region(String name) {
+            this.name = name;
+        }
+
+        <T> T record(T value) {
+            (value != null ? hits : misses).incrementAndGet();
+            return value;
+        }
+
+        Map<String, Object> snapshot(int size) {
+            long h = hits.get();
+            long m = misses.get();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("hits", h);
+            map.put("misses", m);
+            map.put("hitRatio", h + m > 0 ? Math.round(h * 1000.0 / (h + m)) / 1000.0 : null);
+            map.put("invalidations", invalidations.get());
+            map.put("size", size);
+            return map;
+        }
+    }
+}
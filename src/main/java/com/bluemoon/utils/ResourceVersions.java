@@ -0,0 +1,110 @@
+package com.bluemoon.utils;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ResourceVersions: phiên bản của các tài nguyên danh mục (khoản thu, đợt thu, phòng), dùng để tạo ETag
+ * cho GET và trả 304 khi client đã có bản mới nhất mà không cần truy vấn database.
+ * <p>
+ * Service tăng phiên bản sau mỗi thao tác ghi ({@link #bump}); trong {@link UnitOfWork} phiên bản được tăng
+ * thêm lần nữa khi unit kết thúc, nên ETag phát ra cho lần đọc song song trước lúc commit sẽ không còn khớp.
+ * Handler phải lấy ETag trước khi đọc database: nếu có ghi xen giữa, ETag cũ hơn dữ liệu và chỉ làm client
+ * tải lại một lần.
+ * <p>
+ * ETag gồm mốc khởi động tiến trình (ETag không trùng sau khi khởi động lại) và một khung thời gian bằng
+ * {@link ReferenceDataCache#TTL_PROPERTY}, để thay đổi ngoài ứng dụng (sửa trực tiếp trong database) được nhận
+ * sau tối đa một chu kỳ, giống cache danh mục. TTL = 0 thì không phát ETag.
+ */
+public final class ResourceVersions {
+
+    /** Tài nguyên có phiên bản. */
+    public enum Resource {
+        KHOAN_THU("khoan-thu"),
+        DOT_THU("dot-thu"),
+        PHONG("phong");
+
+        private final String key;
+
+        Resource(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final long TTL_MILLIS = TimeUnit.SECONDS.toMillis(
+            Long.getLong(ReferenceDataCache.TTL_PROPERTY, 300));
+
+    /** Mốc khởi động tiến trình (base 36). */
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+
+    private static final Map<Resource, AtomicLong> VERSIONS = new EnumMap<>(Resource.class);
+
+    static {
+        for (Resource resource : Resource.values()) {
+            VERSIONS.put(resource, new AtomicLong());
+        }
+    }
+
+    private ResourceVersions() {}
+
+    /**
+     * Ghi nhận tài nguyên vừa thay đổi (gọi sau mỗi thao tác thêm/sửa/xóa thành công).
+     *
+     * @param resource tài nguyên
+     */
+    public static void bump(Resource resource) {
+        AtomicLong version = VERSIONS.get(resource);
+        version.incrementAndGet();
+        UnitOfWork.afterCompletion(committed -> version.incrementAndGet());
+    }
+
+    /**
+     * Tăng phiên bản của mọi tài nguyên (khi dữ liệu bị sửa trực tiếp trong database).
+     */
+    public static void bumpAll() {
+        for (Resource resource : Resource.values()) {
+            bump(resource);
+        }
+    }
+
+    /**
+     * ETag (strong) cho phiên bản hiện tại của tài nguyên.
+     *
+     * @param resource tài nguyên
+     * @return ETag đã có dấu nháy, hoặc null nếu tắt (TTL = 0)
+     */
+    public static String etag(Resource resource) {
+        if (TTL_MILLIS <= 0) {
+            return null;
+        }
+        long window = System.currentTimeMillis() / TTL_MILLIS;
+        return "\"" + resource.key + "-" + EPOCH + "-" + VERSIONS.get(resource).get()
+                + "-" + Long.toString(window, 36) + "\"";
+    }
+
+    /**
+     * Kiểm tra header If-None-Match (danh sách ETag cách nhau bởi dấu phẩy, hoặc *) có khớp ETag không.
+     * If-None-Match dùng so sánh yếu nên bỏ tiền tố {@code W/}.
+     *
+     * @param ifNoneMatch giá trị header (có thể null)
+     * @param etag        ETag hiện tại
+     * @return true nếu client đã có bản hiện tại
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,365 @@
+package com.bluemoon.utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.postgresql.PGConnection;
+import org.postgresql.jdbc.AutoSave;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+
+/**
+ * UnitOfWork: một connection và một transaction dùng chung cho mọi lời gọi service trên cùng một luồng.
+ * <p>
+ * Khi có unit of work đang mở, {@link DatabaseConnector#getConnection()} trả về một handle tới connection
+ * của unit thay vì mượn connection mới từ pool, nên các {@code *ServiceImpl} tự động tham gia mà không cần
+ * overload nhận {@code Connection}. Trên handle:
+ * <ul>
+ *   <li>{@code close()} không trả connection về pool; connection được trả khi unit kết thúc;</li>
+ *   <li>{@code setAutoCommit(false)} / {@code commit()} / {@code rollback()} của service trở thành
+ *       savepoint lồng trong transaction của unit (rollback của service chỉ hoàn tác phần của nó);</li>
+ *   <li>{@code setReadOnly} và {@code setTransactionIsolation} bị bỏ qua (transaction đã bắt đầu).</li>
+ * </ul>
+ * Connection chỉ được mượn ở lần {@code getConnection()} đầu tiên, nên request không chạm database
+ * không giữ connection. Các luồng khác (job, pool dựng PDF...) không thấy unit of work của luồng gọi;
+ * dùng {@link #afterCompletion(Consumer)} để chỉ khởi chạy chúng khi dữ liệu đã commit.
+ * <p>
+ * Câu lệnh lỗi làm hỏng cả transaction trên PostgreSQL, trong khi service viết cho chế độ autoCommit thường bắt
+ * lỗi, ghi log rồi vẫn trả kết quả thành công. Vì vậy connection của unit bật autosave của driver
+ * ({@link AutoSave#ALWAYS}): mỗi câu lệnh chạy sau một savepoint gửi kèm cùng câu lệnh, lỗi chỉ hoàn tác câu lệnh
+ * đó như ở chế độ autoCommit, và phần còn lại của unit vẫn commit được.
+ */
+public final class UnitOfWork {
+
+    private static final Logger logger = Logger.getLogger(UnitOfWork.class.getName());
+
+    /** System property: bật/tắt unit of work cho request ghi (POST/PUT/PATCH/DELETE), mặc định bật. */
+    public static final String ENABLED_PROPERTY = "bluemoon.db.unitOfWork";
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"));
+
+    private static final ThreadLocal<UnitOfWork> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Công việc chạy trong unit of work.
+     *
+     * @param <T> kiểu kết quả
+     */
+    @FunctionalInterface
+    public interface Work<T> {
+        T run() throws Exception;
+    }
+
+    private Connection connection;
+    /** Chế độ autosave của driver trước khi unit bật, để khôi phục khi trả connection; null nếu không đổi. */
+    private AutoSave previousAutosave;
+    private boolean rollbackOnly;
+    private int depth = 1;
+    private final List<Consumer<Boolean>> completionCallbacks = new ArrayList<>();
+
+    private UnitOfWork() {}
+
+    // ==================== Phạm vi request ====================
+
+    /**
+     * Gắn before/after handler: mỗi request ghi dưới /api chạy trong một unit of work,
+     * commit nếu response thành công (status &lt; 400), ngược lại rollback.
+     * Request GET giữ cách cũ (mỗi lời gọi một connection, autoCommit) vì có thể chạy lâu (xuất file, cursor).
+     *
+     * @param app Javalin app
+     */
+    public static void install(Javalin app) {
+        if (!ENABLED) {
+            return;
+        }
+        app.before("/api/*", ctx -> {
+            if (isWrite(ctx.method())) {
+                begin();
+            }
+        });
+        app.after("/api/*", UnitOfWork::finishRequest);
+    }
+
+    private static boolean isWrite(HandlerType method) {
+        return method == HandlerType.POST || method == HandlerType.PUT
+                || method == HandlerType.PATCH || method == HandlerType.DELETE;
+    }
+
+    private static void finishRequest(Context ctx) {
+        UnitOfWork unit = CURRENT.get();
+        if (unit == null) {
+            return;
+        }
+        // begin() lồng nào chưa end() (handler ném exception giữa chừng) thì gộp vào mức của request
+        unit.depth = 1;
+        boolean success = ctx.statusCode() < 400;
+        try {
+            end(success);
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Commit failed for " + ctx.method() + " " + ctx.path(), e);
+            Map<String, Object> error = new LinkedHashMap<>();
+            error.put("success", false);
+            error.put("message", "Không thể lưu thay đổi");
+            error.put("errorCode", "COMMIT_FAILED");
+            error.put("details", e.getMessage());
+            ctx.status(500).json(error);
+        }
+    }
+
+    // ==================== API lập trình ====================
+
+    /**
+     * Chạy công việc trong unit of work: tham gia unit đang mở, hoặc mở unit mới và commit khi công việc
+     * trả về bình thường, rollback khi ném exception.
+     *
+     * @param work công việc
+     * @param <T>  kiểu kết quả
+     * @return kết quả của công việc
+     * @throws Exception exception của công việc (sau khi đã rollback)
+     */
+    public static <T> T call(Work<T> work) throws Exception {
+        begin();
+        boolean success = false;
+        try {
+            T result = work.run();
+            success = true;
+            return result;
+        } finally {
+            try {
+                end(success);
+            } catch (SQLException e) {
+                if (success) {
+                    throw e;
+                }
+                logger.log(Level.WARNING, "Rollback failed after error in unit of work", e);
+            }
+        }
+    }
+
+    /**
+     * Mở unit of work trên luồng hiện tại (hoặc tham gia unit đang mở). Mỗi begin() phải đi kèm một end().
+     */
+    public static void begin() {
+        UnitOfWork unit = CURRENT.get();
+        if (unit != null) {
+            unit.depth++;
+            return;
+        }
+        CURRENT.set(new UnitOfWork());
+    }
+
+    /**
+     * Kết thúc một mức begin(). Mức ngoài cùng commit (nếu {@code success} và không bị đánh dấu rollback)
+     * hoặc rollback, rồi trả connection về pool. Mức lồng thất bại chỉ đánh dấu rollback cho cả unit.
+     *
+     * @param success công việc của mức này thành công
+     * @throws SQLException nếu commit thất bại (transaction đã được rollback)
+     */
+    public static void end(boolean success) throws SQLException {
+        UnitOfWork unit = CURRENT.get();
+        if (unit == null) {
+            return;
+        }
+        if (!success) {
+            unit.rollbackOnly = true;
+        }
+        if (--unit.depth > 0) {
+            return;
+        }
+        CURRENT.remove();
+        unit.complete();
+    }
+
+    /**
+     * @return true nếu luồng hiện tại đang ở trong unit of work
+     */
+    public static boolean isActive() {
+        return CURRENT.get() != null;
+    }
+
+    /**
+     * Đánh dấu unit of work hiện tại chỉ được rollback (không làm gì nếu không có unit).
+     */
+    public static void setRollbackOnly() {
+        UnitOfWork unit = CURRENT.get();
+        if (unit != null) {
+            unit.rollbackOnly = true;
+        }
+    }
+
+    /**
+     * Đăng ký callback chạy khi unit of work hiện tại kết thúc (tham số: true nếu đã commit).
+     *
+     * @param callback callback
+     * @return false nếu không có unit of work (callback không được đăng ký, caller tự chạy ngay)
+     */
+    public static boolean afterCompletion(Consumer<Boolean> callback) {
+        UnitOfWork unit = CURRENT.get();
+        if (unit == null) {
+            return false;
+        }
+        unit.completionCallbacks.add(callback);
+        return true;
+    }
+
+    /**
+     * Handle tới connection của unit of work hiện tại; mượn connection ở lần gọi đầu.
+     *
+     * @return handle, hoặc null nếu không có unit of work
+     * @throws SQLException nếu không mượn được connection
+     */
+    static Connection currentConnection() throws SQLException {
+        UnitOfWork unit = CURRENT.get();
+        if (unit == null) {
+            return null;
+        }
+        if (unit.connection == null) {
+            Connection conn = DatabaseConnector.openConnection();
+            try {
+                conn.setAutoCommit(false);
+                if (conn.isWrapperFor(PGConnection.class)) {
+                    PGConnection pg = conn.unwrap(PGConnection.class);
+                    unit.previousAutosave = pg.getAutosave();
+                    pg.setAutosave(AutoSave.ALWAYS);
+                }
+            } catch (SQLException e) {
+                conn.close();
+                throw e;
+            }
+            unit.connection = conn;
+        }
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, new JoinedConnectionHandler(unit.connection));
+    }
+
+    private void complete() throws SQLException {
+        boolean committed = false;
+        try {
+            if (connection != null) {
+                try {
+                    if (rollbackOnly) {
+                        connection.rollback();
+                    } else {
+                        connection.commit();
+                        committed = true;
+                    }
+                } catch (SQLException e) {
+                    try {
+                        connection.rollback();
+                    } catch (SQLException rollbackError) {
+                        e.addSuppressed(rollbackError);
+                    }
+                    throw e;
+                } finally {
+                    try {
+                        connection.setAutoCommit(true);
+                        if (previousAutosave != null) {
+                            connection.unwrap(PGConnection.class).setAutosave(previousAutosave);
+                        }
+                    } catch (SQLException e) {
+                        logger.log(Level.WARNING, "Could not restore autoCommit/autosave", e);
+                    }
+                    connection.close();
+                }
+            } else {
+                committed = !rollbackOnly;
+            }
+        } finally {
+            for (Consumer<Boolean> callback : completionCallbacks) {
+                try {
+                    callback.accept(committed);
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Unit of work completion callback failed", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Handle của service trên connection dùng chung: transaction của service là một savepoint.
+     */
+    private static final class JoinedConnectionHandler implements InvocationHandler {
+        private final Connection target;
+        /** Savepoint của "transaction" service đang mở; null khi service ở chế độ autoCommit. */
+        private Savepoint savepoint;
+        private boolean closed;
+
+        JoinedConnectionHandler(Connection target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        // Giống pool: đóng khi còn transaction dở thì hoàn tác phần đó
+                        if (savepoint != null) {
+                            target.rollback(savepoint);
+                            savepoint = null;
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || target.isClosed();
+                case "getAutoCommit":
+                    return savepoint == null;
+                case "setAutoCommit":
+                    if (!(Boolean) args[0] && savepoint == null) {
+                        savepoint = target.setSavepoint();
+                    } else if ((Boolean) args[0] && savepoint != null) {
+                        target.releaseSavepoint(savepoint);
+                        savepoint = null;
+                    }
+                    return null;
+                case "commit":
+                    if (savepoint != null) {
+                        target.releaseSavepoint(savepoint);
+                        savepoint = target.setSavepoint();
+                    }
+                    return null;
+                case "rollback":
+                    if (args == null || args.length == 0) {
+                        if (savepoint != null) {
+                            target.rollback(savepoint);
+                            savepoint = target.setSavepoint();
+                        }
+                        return null;
+                    }
+                    break;
+                case "setReadOnly":
+                case "setTransactionIsolation":
+                    return null;
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("Connection is closed");
+            }
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.bluemoon.utils;
 
 import io.javalin.Javalin;
 import io.javalin.http.Context;
+import io.javalin.util.ConcurrencyUtil;
 import com.bluemoon.services.*;
 import com.bluemoon.services.impl.*;
 import com.bluemoon.models.*;
@@ -10,14 +11,18 @@ import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.BigDecimal;
-import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Map;
 import java.util.logging.Logger;
 
@@ -27,8 +32,20 @@ import java.util.logging.Logger;
  */
 public class WebServer {
 
-    private static final int PORT = 7070;
-    private static final ObjectMapper objectMapper = new ObjectMapper()
+    /** System property: cổng HTTP. */
+    public static final String PORT_PROPERTY = "bluemoon.server.port";
+    /** System property: luồng chạy handler, {@code platform} (mặc định, pool Jetty) hoặc {@code virtual}. */
+    public static final String THREADS_PROPERTY = "bluemoon.server.threads";
+
+    private static final int PORT = Integer.getInteger(PORT_PROPERTY, 7070);
+    /** Số phần tử mặc định của một trang khi client không truyền limit. */
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int DEFAULT_SEARCH_LIMIT = 20;
+    /** Số gợi ý biển số mặc định / tối đa của /api/phuong-tien/lookup. */
+    private static final int DEFAULT_LOOKUP_LIMIT = 10;
+    private static final int MAX_LOOKUP_LIMIT = 100;
+    /** Mapper cho mọi body JSON tự ghi (ngày giờ dạng ISO-8601); package-private để test định dạng. */
+    static final ObjectMapper objectMapper = new ObjectMapper()
             .registerModule(new JavaTimeModule())
             .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
             .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
@@ -47,6 +64,9 @@ public class WebServer {
     private final PhuongTienService phuongTienService;
     private final ChiTietThuService chiTietThuService;
     private final PhongService phongService;
+    private final TimKiemService timKiemService;
+    private final JobManager jobManager;
+    private final AssetCache assetCache;
 
     public WebServer() {
         // Initialize all services
@@ -62,6 +82,9 @@ public class WebServer {
         this.phuongTienService = new PhuongTienServiceImpl();
         this.chiTietThuService = new ChiTietThuServiceImpl();
         this.phongService = new PhongServiceImpl();
+        this.timKiemService = new TimKiemServiceImpl();
+        this.jobManager = JobManager.getInstance();
+        this.assetCache = AssetCache.load();
     }
 
     public static void main(String[] args) {
@@ -70,15 +93,22 @@ public class WebServer {
     }
 
     public void start() {
+        boolean virtualThreads = useVirtualThreads();
         Javalin app = Javalin.create(config -> {
+            config.useVirtualThreads = virtualThreads;
             config.bundledPlugins.enableCors(cors -> cors.addRule(it -> it.anyHost()));
-            config.staticFiles.add(staticFiles -> {
-                staticFiles.directory = "/";
-                staticFiles.hostedPath = "/";
-            });
+            // File tĩnh do AssetCache phục vụ (route cuối cùng, xem setupStaticAssetRoutes)
         });
 
         // Global Config
+        // UnitOfWork trước: after handler của nó commit trước khi đo thời gian request
+        UnitOfWork.install(app);
+        if (virtualThreads) {
+            // Sau UnitOfWork: permit chỉ được trả sau khi commit và trả connection
+            DatabaseAdmission.install(app, DatabaseConnector.getPool().getMaxSize());
+        }
+        MetricsRegistry.getInstance().install(app);
+        QueryTracker.install(app);
         app.before("/api/*", ctx -> ctx.contentType("application/json; charset=utf-8"));
         setupGlobalErrorHandlers(app);
         setupRootEndpoints(app);
@@ -93,15 +123,38 @@ public class WebServer {
         setupResidentRoutes(app);
         setupVehicleRoutes(app);
         setupReceiptRoutes(app);
+        setupJobRoutes(app);
         setupStatisticsRoutes(app);
         setupReportRoutes(app);
-        
+        setupSearchRoutes(app);
+        setupStaticAssetRoutes(app);
+
+        // Nạp chỉ mục biển số trước khi nhận request (lỗi thì nạp lại ở lần tra cứu đầu tiên)
+        PlateNumberIndex.getInstance().load();
+
         // Start Server
         app.start(PORT);
-        logger.info("WebServer started on port " + PORT);
+        new SummaryReconciler(thongKeService).start();
+        logger.info("WebServer started on port " + PORT + " (" + (virtualThreads ? "virtual" : "platform") + " threads)");
         logger.info("API available at http://localhost:" + PORT + "/api");
     }
 
+    /**
+     * Đọc {@value #THREADS_PROPERTY}. Virtual thread cần Java 21+; trên JVM cũ hơn thì quay về pool Jetty.
+     */
+    private static boolean useVirtualThreads() {
+        String mode = System.getProperty(THREADS_PROPERTY, "platform").trim();
+        if (!"virtual".equalsIgnoreCase(mode)) {
+            return false;
+        }
+        if (!ConcurrencyUtil.isLoomAvailable()) {
+            logger.warning(THREADS_PROPERTY + "=virtual requires Java 21+ (running "
+                    + Runtime.version().feature() + "), falling back to platform threads");
+            return false;
+        }
+        return true;
+    }
+
     // ===================================================================================
     // GROUP 1: SYSTEM & CONFIG ROUTES
     // ===================================================================================
@@ -121,6 +174,10 @@ public class WebServer {
         app.exception(NumberFormatException.class, (e, ctx) -> {
             ctx.status(400).json(createStandardErrorResponse("Invalid ID format", "INVALID_ID_FORMAT", e.getMessage(), ctx.path()));
         });
+        app.exception(DatabaseAdmission.BusyException.class, (e, ctx) -> {
+            ctx.header("Retry-After", "1");
+            ctx.status(503).json(createStandardErrorResponse("Service busy", "DATABASE_BUSY", e.getMessage(), ctx.path()));
+        });
         app.exception(IllegalArgumentException.class, (e, ctx) -> {
             ctx.status(400).json(createStandardErrorResponse("Invalid request", "INVALID_REQUEST", e.getMessage(), ctx.path()));
         });
@@ -148,6 +205,28 @@ public class WebServer {
             health.put("timestamp", LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
             ctx.json(createSuccessResponse("Server is running", health));
         });
+
+        // Thống kê cache danh mục (KhoanThu, DotThu): hit/miss/invalidation
+        app.get("/api/cache/stats", ctx ->
+                ctx.json(createSuccessResponse("Cache statistics", ReferenceDataCache.getInstance().getStats())));
+
+        // Xóa cache danh mục (khi dữ liệu bị sửa trực tiếp trong database)
+        app.delete("/api/cache", ctx -> {
+            ReferenceDataCache.getInstance().clear();
+            ResourceVersions.bumpAll();
+            PlateNumberIndex.getInstance().load();
+            ctx.json(createSuccessResponse("Cache cleared", null));
+        });
+
+        // Câu lệnh JDBC chậm và request nghi N+1 / vượt ngân sách câu lệnh (mới nhất trước)
+        app.get("/api/diagnostics/queries", ctx ->
+                ctx.json(createSuccessResponse("Query diagnostics", QueryTracker.getStats())));
+
+        // Số liệu cho Prometheus: độ trễ/mã trạng thái theo route, JVM, pool connection, cache
+        app.get("/metrics", ctx -> {
+            ctx.contentType("text/plain; version=0.0.4; charset=utf-8");
+            ctx.result(MetricsRegistry.getInstance().scrape());
+        });
     }
 
     // ===================================================================================
@@ -230,7 +309,10 @@ public class WebServer {
     // ===================================================================================
 
     private void setupFeeRoutes(Javalin app) {
-        app.get("/api/khoan-thu", ctx -> ctx.json(khoanThuService.getAllKhoanThu()));
+        // ETag theo phiên bản danh mục: If-None-Match khớp thì trả 304, không truy vấn database
+        app.get("/api/khoan-thu", ctx -> {
+            if (!notModified(ctx, ResourceVersions.Resource.KHOAN_THU)) ctx.json(khoanThuService.getAllKhoanThu());
+        });
         
         app.post("/api/khoan-thu", ctx -> {
             @SuppressWarnings("unchecked")
@@ -287,10 +369,12 @@ public class WebServer {
     }
 
     private void setupCollectionDriveRoutes(Javalin app) {
-        app.get("/api/dot-thu", ctx -> ctx.json(dotThuService.getAllDotThu()));
+        app.get("/api/dot-thu", ctx -> {
+            if (!notModified(ctx, ResourceVersions.Resource.DOT_THU)) ctx.json(dotThuService.getAllDotThu());
+        });
         app.get("/api/dot-thu/{id}", ctx -> {
             Integer id = parseIntSafe(ctx, "id");
-            if(id != null) ctx.json(dotThuService.getDotThuById(id));
+            if(id != null && !notModified(ctx, ResourceVersions.Resource.DOT_THU)) ctx.json(dotThuService.getDotThuById(id));
         });
         
         app.post("/api/dot-thu", ctx -> {
@@ -303,7 +387,13 @@ public class WebServer {
             int newId = dotThuService.createDotThuWithReceipts(dotThu, userId);
             if (newId != -1) {
                 dotThu.setId(newId);
-                ctx.status(201).json(createSuccessResponse("Drive created", dotThu));
+                // Phiếu thu được sinh bởi job chạy nền: trả kèm jobId để client theo dõi qua /api/jobs/{id}
+                Map<String, Object> response = createSuccessResponse("Drive created", dotThu);
+                Job job = jobManager.findLatestByKey(JobManager.driveGenerationKey(newId));
+                if (job != null) {
+                    response.put("jobId", job.getId());
+                }
+                ctx.status(201).json(response);
             } else {
                 ctx.status(400).json(createErrorResponse("Create failed"));
             }
@@ -328,12 +418,14 @@ public class WebServer {
 
     private void setupRoomRoutes(Javalin app) {
         // 1. Lấy danh sách
-        app.get("/api/phong", ctx -> ctx.json(phongService.getAllPhong()));
+        app.get("/api/phong", ctx -> {
+            if (!notModified(ctx, ResourceVersions.Resource.PHONG)) ctx.json(phongService.getAllPhong());
+        });
         
         // 2. Lấy chi tiết [BỔ SUNG QUAN TRỌNG]
         app.get("/api/phong/{id}", ctx -> {
             Integer id = parseIntSafe(ctx, "id");
-            if (id != null) {
+            if (id != null && !notModified(ctx, ResourceVersions.Resource.PHONG)) {
                 Phong p = phongService.getPhongById(id);
                 if (p != null) ctx.json(p); 
                 else ctx.status(404).json(createErrorResponse("Room not found"));
@@ -370,7 +462,10 @@ public class WebServer {
     // ===================================================================================
 
     private void setupHouseholdRoutes(Javalin app) {
-        app.get("/api/ho-gia-dinh", ctx -> ctx.json(hoGiaDinhService.getAllHoGiaDinh()));
+        // ?stream=json|ndjson (hoặc Accept: application/x-ndjson): ghi từng dòng qua cursor thay vì dựng cả danh sách
+        app.get("/api/ho-gia-dinh", ctx -> {
+            if (!streamRows(ctx, hoGiaDinhService::streamAllHoGiaDinh)) ctx.json(hoGiaDinhService.getAllHoGiaDinh());
+        });
         
         app.get("/api/ho-gia-dinh/{id}", ctx -> {
             Integer id = parseIntSafe(ctx, "id");
@@ -406,7 +501,9 @@ public class WebServer {
     }
 
     private void setupResidentRoutes(Javalin app) {
-        app.get("/api/nhan-khau", ctx -> ctx.json(nhanKhauService.getAll()));
+        app.get("/api/nhan-khau", ctx -> {
+            if (!streamRows(ctx, nhanKhauService::streamAll)) ctx.json(nhanKhauService.getAll());
+        });
         
         // [BỔ SUNG QUAN TRỌNG] Lấy chi tiết nhân khẩu
         app.get("/api/nhan-khau/{id}", ctx -> {
@@ -445,7 +542,9 @@ public class WebServer {
         });
         
         // --- CÁC API LỊCH SỬ & TRẠNG THÁI ---
-        app.get("/api/nhan-khau/lich-su/all", ctx -> ctx.json(nhanKhauService.getAllHistory()));
+        app.get("/api/nhan-khau/lich-su/all", ctx -> {
+            if (!streamRows(ctx, nhanKhauService::streamAllHistory)) ctx.json(nhanKhauService.getAllHistory());
+        });
         
         app.get("/api/nhan-khau/{id}/lich-su", ctx -> {
             Integer id = parseIntSafe(ctx, "id");
@@ -484,8 +583,18 @@ public class WebServer {
     }
 
     private void setupVehicleRoutes(Javalin app) {
-        app.get("/api/phuong-tien", ctx -> ctx.json(phuongTienService.getAllPhuongTien()));
-        
+        app.get("/api/phuong-tien", ctx -> {
+            if (!streamRows(ctx, phuongTienService::streamAllPhuongTien)) ctx.json(phuongTienService.getAllPhuongTien());
+        });
+
+        // Gợi ý biển số theo tiền tố từ chỉ mục trong bộ nhớ (không truy vấn database): ?prefix=30A&limit=10
+        // Phải đăng ký trước /api/phuong-tien/{id}
+        app.get("/api/phuong-tien/lookup", ctx -> {
+            Integer limit = parseIntQuery(ctx, "limit");
+            int maxRows = limit != null ? Math.max(1, Math.min(limit, MAX_LOOKUP_LIMIT)) : DEFAULT_LOOKUP_LIMIT;
+            ctx.json(PlateNumberIndex.getInstance().lookup(ctx.queryParam("prefix"), maxRows));
+        });
+
         app.get("/api/phuong-tien/{id}", ctx -> {
             Integer id = parseIntSafe(ctx, "id");
             if (id != null) {
@@ -526,18 +635,116 @@ public class WebServer {
     // ===================================================================================
 
     private void setupReceiptRoutes(Javalin app) {
-        app.get("/api/phieu-thu", ctx -> ctx.result(objectMapper.writeValueAsString(phieuThuService.getAllPhieuThu())));
+        // Có tham số after/limit/maDot/maHo/trangThai: trả về một trang { items, limit, nextCursor, hasMore }
+        // (mới nhất trước, trang sau: ?after=<nextCursor>). Không có tham số: danh sách đầy đủ như cũ.
+        app.get("/api/phieu-thu", ctx -> {
+            Map<String, List<String>> params = ctx.queryParamMap();
+            boolean paged = params.containsKey("after") || params.containsKey("limit") || params.containsKey("maDot")
+                    || params.containsKey("maHo") || params.containsKey("trangThai");
+            if (!paged) {
+                ctx.result(objectMapper.writeValueAsString(phieuThuService.getAllPhieuThu()));
+                return;
+            }
+            Integer limit = parseIntQuery(ctx, "limit");
+            String trangThai = ctx.queryParam("trangThai");
+            KeysetPage<PhieuThu> page = phieuThuService.findPhieuThuPage(
+                    parseIntQuery(ctx, "after"),
+                    limit != null ? limit : DEFAULT_PAGE_SIZE,
+                    parseIntQuery(ctx, "maDot"),
+                    parseIntQuery(ctx, "maHo"),
+                    trangThai != null && !trangThai.isBlank() ? trangThai : null);
+            // Cùng mapper với nhánh không phân trang: ngayLap luôn là chuỗi ISO-8601
+            ctx.contentType("application/json").result(objectMapper.writeValueAsString(page));
+        });
         
         app.get("/api/phieu-thu/{id}", ctx -> {
             Integer id = parseIntSafe(ctx, "id");
             if(id != null) ctx.result(objectMapper.writeValueAsString(phieuThuService.getPhieuThuWithDetails(id)));
         });
 
+        // Sinh phiếu thu chạy nền: trả 202 + jobId ngay, theo dõi qua GET /api/jobs/{id}
+        // ?mode=partitioned: chia theo số phòng, chạy song song, gọi lại để chạy tiếp sau khi lỗi/hủy
         app.post("/api/phieu-thu/generate/{maDot}", ctx -> {
             Integer maDot = parseIntSafe(ctx, "maDot");
-            if(maDot != null) {
-                int count = phieuThuService.generateReceiptsForDrive(maDot);
-                ctx.json(createSuccessResponse("Generated " + count + " receipts", count));
+            if (maDot == null) return;
+            DotThu dotThu = dotThuService.getDotThuById(maDot);
+            if (dotThu == null) {
+                ctx.status(404).json(createErrorResponse("Drive not found"));
+                return;
+            }
+            boolean partitioned = "partitioned".equalsIgnoreCase(ctx.queryParam("mode"));
+            String description = "Sinh phiếu thu cho đợt thu \"" + dotThu.getTenDot() + "\" (ID " + maDot + ")";
+            Job job = partitioned
+                    ? jobManager.submit("generate-receipts-partitioned", JobManager.driveGenerationKey(maDot),
+                            description + " theo phân vùng",
+                            j -> phieuThuService.generateReceiptsForDrivePartitioned(maDot, j))
+                    : jobManager.submit("generate-receipts", JobManager.driveGenerationKey(maDot),
+                            description,
+                            j -> phieuThuService.generateReceiptsForDrive(maDot, j));
+            ctx.header("Location", "/api/jobs/" + job.getId());
+            ctx.status(202).json(createSuccessResponse("Receipt generation started", job.toSnapshot()));
+        });
+
+        // Xem trước phiếu thu của đợt (không ghi database); ?summaryOnly=true để chỉ lấy phần tổng hợp
+        app.get("/api/phieu-thu/preview/{maDot}", ctx -> {
+            Integer maDot = parseIntSafe(ctx, "maDot");
+            if (maDot == null) return;
+            if (dotThuService.getDotThuById(maDot) == null) {
+                ctx.status(404).json(createErrorResponse("Drive not found"));
+                return;
+            }
+            boolean summaryOnly = Boolean.parseBoolean(ctx.queryParam("summaryOnly"));
+            ctx.contentType("application/json");
+            phieuThuService.previewDrive(maDot, !summaryOnly, ctx.outputStream());
+        });
+
+        // Chi tiết hóa đơn (phiếu thu + chi tiết kèm tên khoản thu)
+        app.get("/api/phieu-thu/{id}/detail", ctx -> {
+            Integer id = parseIntSafe(ctx, "id");
+            if (id == null) return;
+            try {
+                // objectMapper của WebServer: ngayLap dạng ISO-8601
+                ctx.contentType("application/json").result(objectMapper.writeValueAsString(
+                        createSuccessResponse("Invoice detail", phieuThuService.getInvoiceDetail(id))));
+            } catch (NoSuchElementException e) {
+                ctx.status(404).json(createErrorResponse(e.getMessage()));
+            }
+        });
+
+        // Xuất PDF một phiếu thu
+        app.get("/api/phieu-thu/{id}/export", ctx -> {
+            Integer id = parseIntSafe(ctx, "id");
+            if (id == null) return;
+            InputStream is;
+            try {
+                is = phieuThuService.exportInvoiceToPdf(id);
+            } catch (NoSuchElementException e) {
+                ctx.status(404).json(createErrorResponse(e.getMessage()));
+                return;
+            }
+            ctx.header("Content-Disposition", "attachment; filename=PhieuThu_" + id + ".pdf");
+            ctx.contentType("application/pdf");
+            ctx.result(is);
+        });
+
+        // Xuất PDF cả đợt thu: mặc định ZIP (mỗi phiếu một file), ?format=pdf để gộp thành một file nhiều trang
+        app.get("/api/phieu-thu/export/dot/{maDot}", ctx -> {
+            Integer maDot = parseIntSafe(ctx, "maDot");
+            if (maDot == null) return;
+            if (dotThuService.getDotThuById(maDot) == null) {
+                ctx.status(404).json(createErrorResponse("Drive not found"));
+                return;
+            }
+            boolean asZip = !"pdf".equalsIgnoreCase(ctx.queryParam("format"));
+            String fileName = "PhieuThu_Dot_" + maDot + (asZip ? ".zip" : ".pdf");
+            // Header chỉ đặt khi đã biết đợt có phiếu thu: đợt rỗng trả 404 như nhau cho cả ZIP và PDF
+            int count = phieuThuService.exportDriveInvoices(maDot, asZip, () -> {
+                ctx.header("Content-Disposition", "attachment; filename=" + fileName);
+                ctx.contentType(asZip ? "application/zip" : "application/pdf");
+                return ctx.outputStream();
+            });
+            if (count == 0) {
+                ctx.status(404).json(createErrorResponse("Drive has no receipts"));
             }
         });
 
@@ -629,6 +836,35 @@ public class WebServer {
     // GROUP 6: STATISTICS & REPORTS
     // ===================================================================================
 
+    private void setupJobRoutes(Javalin app) {
+        app.get("/api/jobs", ctx -> {
+            List<Map<String, Object>> snapshots = new ArrayList<>();
+            for (Job job : jobManager.listJobs()) {
+                snapshots.add(job.toSnapshot());
+            }
+            ctx.json(snapshots);
+        });
+
+        app.get("/api/jobs/{id}", ctx -> {
+            Job job = jobManager.getJob(ctx.pathParam("id"));
+            if (job != null) ctx.json(job.toSnapshot());
+            else ctx.status(404).json(createErrorResponse("Job not found"));
+        });
+
+        // Hủy job: job đang chạy sẽ dừng ở điểm kiểm tra kế tiếp và rollback
+        app.delete("/api/jobs/{id}", ctx -> {
+            String id = ctx.pathParam("id");
+            Job job = jobManager.getJob(id);
+            if (job == null) {
+                ctx.status(404).json(createErrorResponse("Job not found"));
+            } else if (jobManager.cancel(id)) {
+                ctx.status(202).json(createSuccessResponse("Cancellation requested", job.toSnapshot()));
+            } else {
+                ctx.status(409).json(createErrorResponse("Job already finished"));
+            }
+        });
+    }
+
     private void setupStatisticsRoutes(Javalin app) {
         // 1. Dashboard
         app.get("/api/thong-ke/dashboard", ctx -> ctx.json(thongKeService.getDashboardStats()));
@@ -648,6 +884,12 @@ public class WebServer {
 
         // 5. Chi tiết nợ (Bảng)
         app.get("/api/thong-ke/cong-no/chi-tiet", ctx -> ctx.json(thongKeService.getDebtDetails()));
+
+        // 6. Đối soát số liệu tổng hợp của dashboard ngay (bình thường chạy định kỳ)
+        app.post("/api/thong-ke/doi-soat", ctx -> {
+            List<Map<String, Object>> drift = thongKeService.reconcileSummary();
+            ctx.json(createSuccessResponse(drift.isEmpty() ? "Số liệu tổng hợp khớp" : "Đã sửa " + drift.size() + " chỉ số bị lệch", drift));
+        });
     }
 
     private void setupReportRoutes(Javalin app) {
@@ -662,17 +904,9 @@ public class WebServer {
         app.get("/api/bao-cao/thu/export", ctx -> {
             LocalDate fDate = parseDateParam(ctx.queryParam("from"), LocalDate.now().withDayOfMonth(1));
             LocalDate tDate = parseDateParam(ctx.queryParam("to"), LocalDate.now());
-            
-            List<BaoCaoThu> data = baoCaoService.getRevenueReport(fDate, tDate);
-            InputStream is = baoCaoService.exportRevenueToExcel(data, fDate, tDate);
-            
-            if(is != null) {
-                ctx.header("Content-Disposition", "attachment; filename=BaoCaoThu.xlsx");
-                ctx.contentType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
-                ctx.result(is);
-            } else {
-                ctx.status(500).result("Error exporting file");
-            }
+
+            // Header file chỉ đặt khi dữ liệu đã đọc xong: lỗi truy vấn vẫn trả JSON lỗi bình thường
+            baoCaoService.writeRevenueExcel(fDate, tDate, () -> excelDownload(ctx, "BaoCaoThu.xlsx"));
         });
 
         // 8. Xem báo cáo công nợ
@@ -686,17 +920,37 @@ public class WebServer {
         app.get("/api/bao-cao/cong-no/export", ctx -> {
             String maDotStr = ctx.queryParam("maDot");
             int maDot = (maDotStr != null && !maDotStr.isEmpty()) ? Integer.parseInt(maDotStr) : 0;
-            
-            List<BaoCaoCongNo> data = baoCaoService.getDebtReport(maDot);
-            InputStream is = baoCaoService.exportDebtToExcel(data);
-            
-            if(is != null) {
-                ctx.header("Content-Disposition", "attachment; filename=BaoCaoCongNo.xlsx");
-                ctx.contentType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
-                ctx.result(is);
-            } else {
-                ctx.status(500).result("Error exporting file");
-            }
+
+            baoCaoService.writeDebtExcel(maDot, () -> excelDownload(ctx, "BaoCaoCongNo.xlsx"));
+        });
+    }
+
+    /**
+     * Đặt header tải file Excel và trả luồng ghi của response.
+     */
+    private static OutputStream excelDownload(Context ctx, String fileName) {
+        ctx.header("Content-Disposition", "attachment; filename=" + fileName);
+        ctx.contentType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
+        return ctx.outputStream();
+    }
+
+    private void setupSearchRoutes(Javalin app) {
+        // Tìm nhanh không dấu: ?q=<từ khóa>&loai=PhuongTien,NhanKhau,HoGiaDinh&limit=20
+        app.get("/api/tim-kiem", ctx -> {
+            Integer limit = parseIntQuery(ctx, "limit");
+            ctx.json(timKiemService.search(ctx.queryParam("q"), ctx.queryParam("loai"),
+                    limit != null ? limit : DEFAULT_SEARCH_LIMIT));
+        });
+    }
+
+    // ===================================================================================
+    // GROUP 7: STATIC ASSETS
+    // ===================================================================================
+
+    private void setupStaticAssetRoutes(Javalin app) {
+        // Đăng ký sau mọi route API: chỉ nhận request không khớp route nào khác
+        app.get("/*", ctx -> {
+            if (!assetCache.serve(ctx, ctx.path())) ctx.status(404);
         });
     }
 
@@ -753,12 +1007,7 @@ public class WebServer {
     // --- Common Utilities ---
 
     private void serveHtmlFile(Context ctx, String path) {
-        try (InputStream is = getClass().getResourceAsStream(path)) {
-            if (is != null) ctx.html(new String(is.readAllBytes(), StandardCharsets.UTF_8));
-            else ctx.html("<h1>404 Not Found</h1>");
-        } catch (Exception e) {
-            ctx.html("<h1>500 Server Error</h1>");
-        }
+        if (!assetCache.serve(ctx, path)) ctx.html("<h1>404 Not Found</h1>");
     }
 
     private Integer parseIntSafe(Context ctx, String paramName) {
@@ -771,6 +1020,74 @@ public class WebServer {
         }
     }
 
+    /**
+     * Đọc tham số query kiểu số; trả về null nếu không có. Giá trị sai định dạng ném NumberFormatException (400).
+     */
+    private Integer parseIntQuery(Context ctx, String paramName) {
+        String val = ctx.queryParam(paramName);
+        return (val == null || val.isBlank()) ? null : Integer.parseInt(val.trim());
+    }
+
+    /**
+     * Gắn ETag của tài nguyên vào response (lấy trước khi đọc database) và trả 304 nếu If-None-Match khớp.
+     * {@code Cache-Control: no-cache}: trình duyệt giữ bản đã tải nhưng luôn hỏi lại server trước khi dùng.
+     *
+     * @return true nếu đã trả 304 (handler không cần đọc dữ liệu)
+     */
+    private boolean notModified(Context ctx, ResourceVersions.Resource resource) {
+        String etag = ResourceVersions.etag(resource);
+        if (etag == null) {
+            return false;
+        }
+        ctx.header("ETag", etag);
+        ctx.header("Cache-Control", "no-cache");
+        if (ResourceVersions.matches(ctx.header("If-None-Match"), etag)) {
+            ctx.status(304);
+            return true;
+        }
+        return false;
+    }
+
+    /** Nguồn dòng cho {@link #streamRows}: một phương thức stream* của service. */
+    @FunctionalInterface
+    private interface RowSource<T> {
+        void stream(RowHandler<T> handler) throws SQLException, IOException;
+    }
+
+    /**
+     * Ghi danh sách dạng stream nếu client yêu cầu: {@code ?stream=json} (mảng JSON), {@code ?stream=ndjson}
+     * hoặc {@code Accept: application/x-ndjson} (NDJSON). Ngày tháng theo ISO-8601 (objectMapper của WebServer).
+     * Lỗi giữa chừng để lại mảng JSON không đóng, vì status và header đã được gửi.
+     *
+     * @return false nếu client không yêu cầu stream (caller trả danh sách như cũ)
+     */
+    private <T> boolean streamRows(Context ctx, RowSource<T> source) throws SQLException, IOException {
+        String mode = ctx.queryParam("stream");
+        boolean ndjson;
+        if (mode != null && !mode.isBlank()) {
+            if (mode.equalsIgnoreCase("ndjson")) {
+                ndjson = true;
+            } else if (mode.equalsIgnoreCase("json")) {
+                ndjson = false;
+            } else {
+                throw new IllegalArgumentException("stream phải là json hoặc ndjson");
+            }
+        } else {
+            String accept = ctx.header("Accept");
+            if (accept == null || !accept.contains(JsonRowWriter.NDJSON_CONTENT_TYPE)) {
+                return false;
+            }
+            ndjson = true;
+        }
+
+        ctx.contentType(ndjson ? JsonRowWriter.NDJSON_CONTENT_TYPE + "; charset=utf-8" : "application/json; charset=utf-8");
+        JsonRowWriter<T> writer = new JsonRowWriter<>(objectMapper, ctx.outputStream(), ndjson);
+        source.stream(writer);
+        int count = writer.finish();
+        logger.fine("Streamed " + count + " rows for " + ctx.path());
+        return true;
+    }
+
     private LocalDate parseDateParam(String dateStr, LocalDate defaultDate) {
         if (dateStr != null && !dateStr.isEmpty()) {
             try { return LocalDate.parse(dateStr); } catch (Exception ignored) {}
@@ -12,6 +12,10 @@ const plumber = require("gulp-plumber");
 const rename = require("gulp-rename");
 const sass = require("gulp-sass");
 const uglify = require("gulp-uglify");
+const crypto = require("crypto");
+const fs = require("fs");
+const path = require("path");
+const zlib = require("zlib");
 
 // Load package.json for banner
 const pkg = require('./package.json');
@@ -123,6 +127,47 @@ function js() {
     .pipe(browsersync.stream());
 }
 
+// Static files loaded into memory by the server (AssetCache), relative to this directory
+const assets = [
+  './*.html',
+  './css/*.css',
+  './js/*.js',
+  './img/**/*',
+  './vendor/**/*.{js,css,map,woff,woff2,ttf,eot,svg}',
+  '!./vendor/**/{scss,less,svgs,sprites,metadata}/**',
+  '!./**/*.br',
+  '!./gulpfile.js'
+];
+
+// Asset manifest: asset-manifest.json maps each file AssetCache loads to its content hash,
+// and every text asset gets a brotli copy (<file>.br) since the JVM has no brotli encoder.
+// The server only uses a .br copy while the file still matches the hash recorded here.
+function manifest() {
+  const files = {};
+  return new Promise((resolve, reject) => {
+    gulp.src(assets, { base: './', nodir: true })
+      .on('data', file => {
+        if (file.isDirectory()) {
+          return;
+        }
+        const name = file.relative.split(path.sep).join('/');
+        files[name] = crypto.createHash('sha256').update(file.contents).digest('hex').substring(0, 12);
+        if (/\.(css|js|json|map|svg|ttf|eot)$/.test(name)) {
+          fs.writeFileSync(file.path + '.br', zlib.brotliCompressSync(file.contents, {
+            params: { [zlib.constants.BROTLI_PARAM_QUALITY]: zlib.constants.BROTLI_MAX_QUALITY }
+          }));
+        }
+      })
+      .on('error', reject)
+      .on('end', () => {
+        const sorted = {};
+        Object.keys(files).sort().forEach(name => sorted[name] = files[name]);
+        fs.writeFileSync('./asset-manifest.json', JSON.stringify({ files: sorted }, null, 2) + '\n');
+        resolve();
+      });
+  });
+}
+
 // Watch files
 function watchFiles() {
   gulp.watch("./scss/**/*", css);
@@ -132,12 +177,13 @@ function watchFiles() {
 
 // Define complex tasks
 const vendor = gulp.series(clean, modules);
-const build = gulp.series(vendor, gulp.parallel(css, js));
+const build = gulp.series(vendor, gulp.parallel(css, js), manifest);
 const watch = gulp.series(build, gulp.parallel(watchFiles, browserSync));
 
 // Export tasks
 exports.css = css;
 exports.js = js;
+exports.manifest = manifest;
 exports.clean = clean;
 exports.vendor = vendor;
 exports.build = build;
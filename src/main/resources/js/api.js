@@ -194,6 +194,18 @@ const PhieuThuAPI = {
         const response = await apiRequest('/phieu-thu', 'GET');
         return Array.isArray(response) ? response : (response.data || []);
     },
+    /**
+     * Lấy một trang phiếu thu (mới nhất trước): { items, limit, nextCursor, hasMore }.
+     * params: { after, limit, maDot, maHo, trangThai }; trang sau dùng after = nextCursor.
+     */
+    getPage: (params = {}) => {
+        const query = new URLSearchParams();
+        Object.entries(params).forEach(([key, value]) => {
+            if (value !== undefined && value !== null && value !== '') query.append(key, value);
+        });
+        if (!query.has('limit')) query.append('limit', 50);
+        return apiRequest(`/phieu-thu?${query.toString()}`, 'GET');
+    },
     getById: (id) => apiRequest(`/phieu-thu/${id}`, 'GET'),
     getChiTiet: (id) => apiRequest(`/phieu-thu/${id}/chi-tiet`, 'GET'),
     getDetail: async (id) => {
@@ -231,7 +243,37 @@ const PhieuThuAPI = {
     getByHoGiaDinh: (maHo) => apiRequest(`/phieu-thu/ho-gia-dinh/${maHo}`, 'GET'),
     getByDotThu: (maDotThu) => apiRequest(`/phieu-thu/dot-thu/${maDotThu}`, 'GET'),
     hasUnpaidFees: (maHo) => apiRequest(`/phieu-thu/ho-gia-dinh/${maHo}/unpaid`, 'GET'),
-    generateForDrive: (maDot) => apiRequest(`/phieu-thu/generate/${maDot}`, 'POST')
+    // Trả về ngay { data: { id, status, ... } } của job chạy nền; theo dõi bằng JobAPI
+    // partitioned = true: sinh theo phân vùng số phòng, gọi lại để chạy tiếp sau khi lỗi/hủy
+    generateForDrive: (maDot, partitioned = false) =>
+        apiRequest(`/phieu-thu/generate/${maDot}${partitioned ? '?mode=partitioned' : ''}`, 'POST'),
+    // Xem trước (không ghi): { fees, households: [...], summary: { tongTien, fees, zeroAmountCount, ... } }
+    previewForDrive: (maDot, summaryOnly = false) =>
+        apiRequest(`/phieu-thu/preview/${maDot}${summaryOnly ? '?summaryOnly=true' : ''}`, 'GET'),
+    // In cả đợt: ZIP (mỗi phiếu một file PDF) hoặc một file PDF nhiều trang
+    exportDrivePdf: (maDot, singleFile = false) => {
+        window.open(`/api/phieu-thu/export/dot/${maDot}${singleFile ? '?format=pdf' : ''}`, '_blank');
+    }
+};
+
+const JobAPI = {
+    getAll: () => apiRequest('/jobs', 'GET'),
+    get: (id) => apiRequest(`/jobs/${id}`, 'GET'),
+    cancel: (id) => apiRequest(`/jobs/${id}`, 'DELETE'),
+    /**
+     * Hỏi trạng thái job định kỳ cho tới khi kết thúc.
+     * onProgress nhận snapshot (processed, total, percent, etaSeconds...) sau mỗi lần hỏi.
+     */
+    waitFor: async (id, onProgress = null, intervalMs = 1000) => {
+        while (true) {
+            const job = await apiRequest(`/jobs/${id}`, 'GET');
+            if (onProgress) onProgress(job);
+            if (['SUCCEEDED', 'FAILED', 'CANCELLED'].includes(job.status)) {
+                return job;
+            }
+            await new Promise(resolve => setTimeout(resolve, intervalMs));
+        }
+    }
 };
 
 const PhongAPI = {
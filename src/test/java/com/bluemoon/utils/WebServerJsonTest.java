@@ -0,0 +1,50 @@
+package com.bluemoon.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.bluemoon.models.KeysetPage;
+import com.bluemoon.models.PhieuThu;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Định dạng JSON của GET /api/phieu-thu: trang (keyset) và danh sách đầy đủ phải ghi ngayLap giống nhau.
+ */
+class WebServerJsonTest {
+
+    private static PhieuThu phieuThu() {
+        PhieuThu phieuThu = new PhieuThu();
+        phieuThu.setId(7);
+        phieuThu.setNgayLap(LocalDateTime.of(2025, 3, 1, 8, 30, 15));
+        phieuThu.setTongTien(new BigDecimal("150000.00"));
+        phieuThu.setTrangThai("ChuaThu");
+        return phieuThu;
+    }
+
+    @Test
+    void pagedReceiptsSerializeNgayLapAsIsoString() throws Exception {
+        KeysetPage<PhieuThu> page = new KeysetPage<>(List.of(phieuThu()), 1, 7);
+
+        JsonNode ngayLap = WebServer.objectMapper.readTree(WebServer.objectMapper.writeValueAsString(page))
+                .path("items").path(0).path("ngayLap");
+
+        assertTrue(ngayLap.isTextual(), "ngayLap phải là chuỗi, nhận được: " + ngayLap);
+        assertEquals("2025-03-01T08:30:15", ngayLap.asText());
+    }
+
+    @Test
+    void pagedAndFullListUseSameNgayLapFormat() throws Exception {
+        JsonNode fromPage = WebServer.objectMapper.readTree(WebServer.objectMapper.writeValueAsString(
+                new KeysetPage<>(List.of(phieuThu()), 1, null))).path("items").path(0).path("ngayLap");
+        JsonNode fromList = WebServer.objectMapper.readTree(WebServer.objectMapper.writeValueAsString(
+                List.of(phieuThu()))).path(0).path("ngayLap");
+
+        assertEquals(fromList, fromPage);
+    }
+}